@@ -28,22 +28,25 @@ public class PlateViewer < R extends NativeType< R > & RealType< R >, T extends
 	private final File imagesDirectory;
 	private final String filePattern;
 	private final boolean loadImageTable;
-	private final int numIoThreads;
-	private final boolean includeSubFolders;
+	private final PlateViewerSettings settings;
 	private DefaultSelectionModel< DefaultSiteNameTableRow > selectionModel;
 	private LazyCategoryColoringModel< DefaultSiteNameTableRow > coloringModel;
 	private SelectionColoringModel< DefaultSiteNameTableRow > selectionColoringModel;
 	private List< DefaultSiteNameTableRow > tableRows;
 
 	public PlateViewer( File imagesDirectory, String filePattern, boolean loadImageTable, int numIoThreads, boolean includeSubFolders )
+	{
+		this( imagesDirectory, filePattern, loadImageTable, new PlateViewerSettings( numIoThreads, includeSubFolders ) );
+	}
+
+	public PlateViewer( File imagesDirectory, String filePattern, boolean loadImageTable, PlateViewerSettings settings )
 	{
 		this.imagesDirectory = imagesDirectory;
 		this.filePattern = filePattern;
 		this.loadImageTable = loadImageTable;
-		this.numIoThreads = numIoThreads;
-		this.includeSubFolders = includeSubFolders;
+		this.settings = settings;
 
-		final ImagePlateViewer< R, T > imageView = new ImagePlateViewer( imagesDirectory.toString(), filePattern, numIoThreads, includeSubFolders );
+		final ImagePlateViewer< R, T > imageView = new ImagePlateViewer( imagesDirectory.toString(), filePattern, settings );
 
 		if ( loadImageTable )
 		{
@@ -0,0 +1,151 @@
+package de.embl.cba.plateviewer;
+
+import de.embl.cba.plateviewer.bdv.SitePrefetcher;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+
+import java.io.File;
+
+public class PlateViewerSettings
+{
+	public static final String DISK_CACHE_NONE = "Do not cache";
+	public static final String DISK_CACHE_USER_DIRECTORY = "In user cache directory";
+	public static final String DISK_CACHE_NEXT_TO_PLATE = "Next to the plate";
+
+	public static final String PLATE_CACHE_DIRECTORY_NAME = ".plateviewer-cache";
+
+	public int numIoThreads = 4;
+	public boolean includeSubFolders = true;
+
+	/**
+	 * Where to store the computed lower resolution levels of the plate,
+	 * such that they do not have to be computed again when the plate
+	 * is opened the next time.
+	 */
+	public String diskCache = DISK_CACHE_NONE;
+
+	/**
+	 * The lowest resolution level that is stored on disk; the levels
+	 * above are cheap to compute from the full resolution data, but
+	 * would take a lot of disk space.
+	 */
+	public int diskCacheMinResolutionLevel = 2;
+
+	/**
+	 * The fraction of the maximum heap size that may be used for caching
+	 * image data, shared by all channels and filter images of one plate viewer;
+	 * plates that are open at the same time each use up to this fraction.
+	 */
+	public double cellCacheMaxMemoryFraction = CellCacheBudget.DEFAULT_MAX_MEMORY_FRACTION;
+
+	/**
+	 * Whether to keep the cached image data outside of the Java heap,
+	 * which avoids long garbage collection pauses with large heaps.
+	 * Direct memory is limited by -XX:MaxDirectMemorySize, which
+	 * defaults to the maximum heap size.
+	 *
+	 * The direct memory of evicted cells is not freed explicitly: it is
+	 * given back only when the garbage collector collects their buffers.
+	 * Thus, the direct memory in use can exceed the cache size until the
+	 * next collection. Each cell is also loaded on the heap first and then
+	 * copied, so loading still produces heap garbage.
+	 */
+	public boolean offHeapCellStorage = false;
+
+	/**
+	 * The maximal width and height, in pixels, of the cells in which images
+	 * are loaded and cached. Larger sites, e.g. stitched fields, are loaded
+	 * in parts, thus only the parts that are viewed are read.
+	 */
+	public int maxCellSize = CellCacheBudget.DEFAULT_MAX_CELL_SIZE;
+
+	/**
+	 * The number of sites around the viewport whose cells are loaded ahead;
+	 * with 0, only the area that panning or zooming is heading to is loaded.
+	 */
+	public int prefetchDepth = SitePrefetcher.DEFAULT_DEPTH;
+
+	/**
+	 * The maximal amount of image data, in bytes, that is loaded ahead of
+	 * the viewport; the prefetched cells are held by the cell cache, thus
+	 * this should be well below its size.
+	 */
+	public long prefetchMemoryBudgetBytes = SitePrefetcher.DEFAULT_MEMORY_BUDGET_BYTES;
+
+	/**
+	 * Whether to remember the files, layout and image properties of the
+	 * plate, such that opening it again does not need to scan and parse
+	 * all files, as long as no directory of the plate was modified.
+	 */
+	public boolean usePlateManifest = true;
+
+	/**
+	 * Whether to read HDF5 files in pure Java, which reads sites in parallel,
+	 * rather than with the native HDF5 library, which reads one at a time.
+	 * Files that the former cannot read are read with the latter.
+	 * Experimental, thus off by default.
+	 */
+	public boolean pureJavaHdf5 = false;
+
+	public PlateViewerSettings( )
+	{
+	}
+
+	public PlateViewerSettings( int numIoThreads, boolean includeSubFolders )
+	{
+		this.numIoThreads = numIoThreads;
+		this.includeSubFolders = includeSubFolders;
+	}
+
+	public PlateViewerSettings( PlateViewerSettings settings )
+	{
+		this.numIoThreads = settings.numIoThreads;
+		this.includeSubFolders = settings.includeSubFolders;
+		this.diskCache = settings.diskCache;
+		this.diskCacheMinResolutionLevel = settings.diskCacheMinResolutionLevel;
+		this.cellCacheMaxMemoryFraction = settings.cellCacheMaxMemoryFraction;
+		this.offHeapCellStorage = settings.offHeapCellStorage;
+		this.maxCellSize = settings.maxCellSize;
+		this.prefetchDepth = settings.prefetchDepth;
+		this.prefetchMemoryBudgetBytes = settings.prefetchMemoryBudgetBytes;
+		this.usePlateManifest = settings.usePlateManifest;
+		this.pureJavaHdf5 = settings.pureJavaHdf5;
+	}
+
+	/**
+	 * @return the cache directory of the plate, or null if disk caching is off
+	 */
+	public File getDiskCacheDirectory( File plateDirectory )
+	{
+		if ( DISK_CACHE_NEXT_TO_PLATE.equals( diskCache ) )
+		{
+			return new File( plateDirectory, PLATE_CACHE_DIRECTORY_NAME );
+		}
+		else if ( DISK_CACHE_USER_DIRECTORY.equals( diskCache ) )
+		{
+			return getUserCacheDirectory( plateDirectory );
+		}
+		else
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return the directory for cached data of one plate, within the user cache directory
+	 */
+	public static File getUserCacheDirectory( File plateDirectory )
+	{
+		final String path = plateDirectory.getAbsolutePath();
+		final String plateId = plateDirectory.getName() + "-" + Integer.toHexString( path.hashCode() );
+		return new File( getUserCacheDirectory(), plateId );
+	}
+
+	public static File getUserCacheDirectory()
+	{
+		final String xdgCacheHome = System.getenv( "XDG_CACHE_HOME" );
+		if ( xdgCacheHome != null && ! xdgCacheHome.isEmpty() )
+			return new File( xdgCacheHome, "plateviewer" );
+
+		return new File( new File( System.getProperty( "user.home" ), ".cache" ), "plateviewer" );
+	}
+}
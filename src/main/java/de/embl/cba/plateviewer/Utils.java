@@ -31,7 +31,6 @@ import java.io.File;
 import java.util.*;
 import java.util.List;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class Utils
 {
@@ -186,6 +185,42 @@ public class Utils
 		return Intervals.smallestContainingInterval( new FinalRealInterval( screenWellPosMin, screenWellPosMax ) );
 	}
 
+	/**
+	 * @return the min and max of the global coordinates that are visible in a viewer
+	 * of the given size, or an unbounded region if the size is not known yet
+	 */
+	public static double[][] getVisibleGlobalRegion( AffineTransform2D globalToViewerTransform, int width, int height )
+	{
+		final double[] min = new double[]{ Double.MAX_VALUE, Double.MAX_VALUE };
+		final double[] max = new double[]{ -Double.MAX_VALUE, -Double.MAX_VALUE };
+
+		if ( width <= 0 || height <= 0 )
+			return new double[][]{ { -Double.MAX_VALUE, -Double.MAX_VALUE }, { Double.MAX_VALUE, Double.MAX_VALUE } };
+
+		final double[] global = new double[ 2 ];
+		for ( int x = 0; x <= width; x += width )
+			for ( int y = 0; y <= height; y += height )
+			{
+				globalToViewerTransform.applyInverse( global, new double[]{ x, y } );
+				for ( int d = 0; d < 2; d++ )
+				{
+					min[ d ] = Math.min( min[ d ], global[ d ] );
+					max[ d ] = Math.max( max[ d ], global[ d ] );
+				}
+			}
+
+		return new double[][]{ min, max };
+	}
+
+	/**
+	 * @return the factor by which lengths are scaled from global to viewer coordinates
+	 */
+	public static double getScale( AffineTransform2D globalToViewerTransform )
+	{
+		final AffineTransform2D t = globalToViewerTransform;
+		return Math.sqrt( Math.abs( t.get( 0, 0 ) * t.get( 1, 1 ) - t.get( 0, 1 ) * t.get( 1, 0 ) ) );
+	}
+
 	public static class SortIgnoreCase implements Comparator<Object> {
 		public int compare(Object o1, Object o2) {
 			String s1 = (String) o1;
@@ -206,22 +241,7 @@ public class Utils
 
 	public static String getNamingScheme( File file )
 	{
-		String filePath = file.getAbsolutePath();
-
-		if ( Pattern.compile( NamingSchemes.PATTERN_NIKON_TI2_HDF5 ).matcher( filePath ).matches() )
-			return NamingSchemes.PATTERN_NIKON_TI2_HDF5;
-		else if ( Pattern.compile( NamingSchemes.PATTERN_MD_A01_SITE_WAVELENGTH ).matcher( filePath ).matches() )
-			return NamingSchemes.PATTERN_MD_A01_SITE_WAVELENGTH;
-		else if ( Pattern.compile( NamingSchemes.PATTERN_MD_A01_SITE ).matcher( filePath ).matches() )
-			return NamingSchemes.PATTERN_MD_A01_SITE;
-		else if ( Pattern.compile( NamingSchemes.PATTERN_MD_A01_WAVELENGTH ).matcher( filePath ).matches() )
-			return NamingSchemes.PATTERN_MD_A01_WAVELENGTH;
-		else if ( Pattern.compile( NamingSchemes.PATTERN_ALMF_SCREENING_WELL_SITE_CHANNEL ).matcher( filePath ).matches() )
-			return NamingSchemes.PATTERN_ALMF_SCREENING_WELL_SITE_CHANNEL;
-		else if ( Pattern.compile( NamingSchemes.PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL ).matcher( filePath ).matches() )
-			return NamingSchemes.PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL;
-
-		return PATTERN_NO_MATCH;
+		return NamingSchemes.getNamingScheme( file );
 	}
 
 	public static int[] guessWellDimensions( int[] maximalPositionsInData )
@@ -278,6 +298,19 @@ public class Utils
 		return wellDimensions;
 	}
 
+	/**
+	 * @return the column and row of the site on the plate, in units of sites
+	 */
+	public static int[] computeGridPosition( int[] wellPosition, int[] sitePosition, int[] siteDimensions )
+	{
+		final int[] position = new int[ 2 ];
+
+		for ( int d = 0; d < 2; ++d )
+			position[ d ] = ( wellPosition[ d ] * siteDimensions[ d ] ) + sitePosition[ d ];
+
+		return position;
+	}
+
 	public static long[] computeMinCoordinates( int[] imageDimensions, int[] wellPosition, int[] sitePosition, int[] siteDimensions )
 	{
 		final long[] min = new long[ 2 ];
@@ -346,11 +379,11 @@ public class Utils
 	{
 		Set< String > wellNameSet = new HashSet<>(  );
 
+		final Matcher matcher = NamingSchemes.get( namingScheme ).getPattern().matcher( "" );
+
 		for ( File file : files )
 		{
-			final Matcher matcher = Pattern.compile( namingScheme ).matcher( file.getName() );
-
-			matcher.matches();
+			matcher.reset( file.getName() ).matches();
 
 			wellNameSet.add(  matcher.group( wellGroup ) );
 		}
@@ -4,12 +4,19 @@ package de.embl.cba.plateviewer.bdv;
 import bdv.util.Bdv;
 import bdv.util.BdvOverlay;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.image.cellloader.MultiSiteHdf5Loader;
 import de.embl.cba.plateviewer.image.cellloader.MultiSiteLoader;
+import de.embl.cba.plateviewer.io.Hdf5SiteInformationFetcher;
+import net.imglib2.Interval;
 import net.imglib2.RealPoint;
 
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
 import static de.embl.cba.plateviewer.Utils.bdvTextOverlayFontSize;
 
@@ -19,8 +26,10 @@ public class BdvSiteAndWellInformationOverlay extends BdvOverlay implements Mous
 	final int numDimensions;
 	final Bdv bdv;
 	final MultiSiteLoader multiSiteLoader;
-	private String wellName;
-	private String siteName;
+	private final Hdf5SiteInformationFetcher informationFetcher;
+	private volatile SingleSiteChannelFile currentSite;
+	private volatile String wellName;
+	private volatile String siteName;
 
 	public BdvSiteAndWellInformationOverlay(
 			Bdv bdv,
@@ -31,12 +40,29 @@ public class BdvSiteAndWellInformationOverlay extends BdvOverlay implements Mous
 		this.multiSiteLoader = multiSiteLoader;
 		this.numDimensions = 2;
 
+		// the information of HDF5 sites is read on demand, as reading it for all sites is too slow
+		if ( multiSiteLoader instanceof MultiSiteHdf5Loader )
+			informationFetcher = new Hdf5SiteInformationFetcher( ( ( MultiSiteHdf5Loader ) multiSiteLoader ).getReaderPool(), this::informationFetched );
+		else
+			informationFetcher = null;
+
 		bdv.getBdvHandle().getViewerPanel().getDisplay().addMouseMotionListener( this );
 
 		wellName = "";
 		siteName = "";
 	}
 
+	/**
+	 * Stops following the mouse and fetching site information.
+	 */
+	public void dispose()
+	{
+		bdv.getBdvHandle().getViewerPanel().getDisplay().removeMouseMotionListener( this );
+
+		if ( informationFetcher != null )
+			informationFetcher.dispose();
+	}
+
 	@Override
 	protected void draw( final Graphics2D g )
 	{
@@ -89,16 +115,75 @@ public class BdvSiteAndWellInformationOverlay extends BdvOverlay implements Mous
 		final long[] coordinate2D = getCoordinate2D( globalMouseCoordinates );
 
 		final SingleSiteChannelFile singleSiteChannelFile = multiSiteLoader.getChannelSource( coordinate2D );
-		if ( singleSiteChannelFile != null )
+		if ( Objects.equals( singleSiteChannelFile, currentSite ) ) return;
+
+		currentSite = singleSiteChannelFile;
+		updateText( singleSiteChannelFile );
+
+		if ( informationFetcher != null && singleSiteChannelFile != null )
+			informationFetcher.request( getSiteAndNeighbours( singleSiteChannelFile ) );
+	}
+
+	private void informationFetched( SingleSiteChannelFile site )
+	{
+		if ( ! site.equals( currentSite ) ) return;
+
+		updateText( site );
+		bdv.getBdvHandle().getViewerPanel().getDisplay().repaint();
+	}
+
+	private void updateText( SingleSiteChannelFile site )
+	{
+		if ( site == null )
+		{
+			wellName = "";
+			siteName = "";
+		}
+		else if ( informationFetcher != null )
 		{
-			wellName = singleSiteChannelFile.getWellName() + " " + singleSiteChannelFile.getWellInformation();
-			siteName = singleSiteChannelFile.getSiteName() + " " + singleSiteChannelFile.getSiteInformation();
+			wellName = site.getWellName() + " " + toText( informationFetcher.getWellInformation( site.getWellName() ) );
+			siteName = site.getSiteName() + " " + toText( informationFetcher.getSiteInformation( site ) );
 		}
 		else
 		{
-			wellName = "";
-			siteName = "";
+			wellName = site.getWellName() + " " + site.getWellInformation();
+			siteName = site.getSiteName() + " " + site.getSiteInformation();
 		}
 	}
+
+	private static String toText( String information )
+	{
+		return information == null ? "" : information;
+	}
+
+	/**
+	 * @return the site, followed by the sites around it,
+	 * such that moving the mouse on shows their information right away
+	 */
+	private List< SingleSiteChannelFile > getSiteAndNeighbours( SingleSiteChannelFile site )
+	{
+		final List< SingleSiteChannelFile > sites = new ArrayList<>();
+		sites.add( site );
+
+		final SiteIndex siteIndex = multiSiteLoader.getSiteIndex();
+		final Interval interval = site.getInterval();
+
+		for ( int dy = -1; dy <= 1; dy++ )
+		{
+			for ( int dx = -1; dx <= 1; dx++ )
+			{
+				if ( dx == 0 && dy == 0 ) continue;
+
+				final SingleSiteChannelFile neighbour = siteIndex.getSite(
+						interval.min( 0 ) + dx * interval.dimension( 0 ),
+						interval.min( 1 ) + dy * interval.dimension( 1 ) );
+
+				if ( neighbour != null && ! sites.contains( neighbour ) )
+					sites.add( neighbour );
+			}
+		}
+
+		return sites;
+	}
 }
 
@@ -0,0 +1,77 @@
+package de.embl.cba.plateviewer.bdv;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The fonts of overlay labels, and their metrics, by size.
+ *
+ * Sizes are rounded down to buckets, which grow by about 10 %
+ * above {@link #EXACT_SIZES}, such that zooming reuses the fonts
+ * instead of creating and measuring new ones on every repaint.
+ */
+public class FontCache
+{
+	public static final int EXACT_SIZES = 16;
+	public static final double BUCKET_GROWTH = 1.1;
+
+	private final String name;
+	private final int style;
+	private final Map< Integer, Font > sizeToFont = new HashMap<>();
+	private final Map< Integer, FontMetrics > sizeToMetrics = new HashMap<>();
+	private FontRenderContext fontRenderContext;
+
+	public FontCache( String name, int style )
+	{
+		this.name = name;
+		this.style = style;
+	}
+
+	/**
+	 * Sets the font with which the text fits into a box of the given dimensions,
+	 * like {@link de.embl.cba.plateviewer.Utils#setFont}.
+	 *
+	 * @return the size of the font
+	 */
+	public int setFont( Graphics2D g, int[] dimensions, String text )
+	{
+		int fontSize = getBucket( Math.min( dimensions[ 0 ], dimensions[ 1 ] ) / 2 );
+
+		final int stringWidth = getMetrics( g, fontSize ).stringWidth( text );
+		if ( stringWidth > dimensions[ 0 ] )
+			fontSize = getBucket( ( int ) ( fontSize * 0.8 * dimensions[ 0 ] / stringWidth ) );
+
+		g.setFont( getFont( fontSize ) );
+
+		return fontSize;
+	}
+
+	public synchronized Font getFont( int size )
+	{
+		return sizeToFont.computeIfAbsent( size, s -> new Font( name, style, s ) );
+	}
+
+	/**
+	 * The metrics are reused as long as the rendering context of the graphics stays the same.
+	 */
+	public synchronized FontMetrics getMetrics( Graphics2D g, int size )
+	{
+		if ( ! g.getFontRenderContext().equals( fontRenderContext ) )
+		{
+			fontRenderContext = g.getFontRenderContext();
+			sizeToMetrics.clear();
+		}
+
+		return sizeToMetrics.computeIfAbsent( size, s -> g.getFontMetrics( getFont( s ) ) );
+	}
+
+	public static int getBucket( int size )
+	{
+		if ( size <= EXACT_SIZES ) return Math.max( 0, size );
+
+		final int exponent = ( int ) Math.floor( Math.log( ( double ) size / EXACT_SIZES ) / Math.log( BUCKET_GROWTH ) );
+		return Math.min( size, ( int ) Math.ceil( EXACT_SIZES * Math.pow( BUCKET_GROWTH, exponent ) ) );
+	}
+}
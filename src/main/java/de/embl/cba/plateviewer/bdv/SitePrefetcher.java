@@ -0,0 +1,483 @@
+package de.embl.cba.plateviewer.bdv;
+
+import bdv.util.Affine3DHelpers;
+import bdv.util.BdvStackSource;
+import bdv.util.volatiles.SharedQueue;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerPanel;
+import bdv.viewer.state.SourceState;
+import bdv.viewer.state.ViewerState;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.image.cache.LoadingPriorities;
+import de.embl.cba.plateviewer.image.channel.MultiWellImg;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.ui.TransformListener;
+import net.imglib2.util.Util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads the cells of the sites just outside the viewport into the cell
+ * caches of the visible channels, such that panning to a neighbouring site
+ * or well does not stall on a cold load.
+ *
+ * The pan direction and zoom speed are extrapolated from the recent viewer
+ * transforms. After each transform change the set of wanted cells is
+ * recomputed and queued requests that are not wanted anymore are cancelled.
+ *
+ * The depth is the number of sites that are prefetched around the
+ * (extrapolated) viewport; the memory budget limits the amount of
+ * image data that is fetched ahead of the viewport.
+ *
+ * The cells are loaded by the fetcher threads of the loading queue of
+ * the plate, with the lowest priority, such that they never delay the
+ * loading of visible cells. Cancelled requests stay in the queue, but
+ * do not load anything when they come up.
+ */
+public class SitePrefetcher implements TransformListener< AffineTransform3D >
+{
+	public static final int DEFAULT_DEPTH = 1;
+	public static final long DEFAULT_MEMORY_BUDGET_BYTES = 256L * 1024 * 1024;
+
+	private static final double LOOKAHEAD_MILLIS = 500;
+	private static final double MAX_ZOOM_OUT_FACTOR = 4;
+	private static final long MOTION_TIMEOUT_NANOS = 500_000_000L;
+
+	/**
+	 * Below this viewer scale, multi-resolution sources are rendered from
+	 * lower resolution levels, thus prefetching full resolution cells
+	 * would be wasted.
+	 */
+	private static final double MIN_MULTI_RESOLUTION_SCALE = 0.5;
+
+	private final ViewerPanel viewer;
+	private final List< Target > targets;
+	private final ExecutorService planner;
+	private final SharedQueue queue;
+	private final Set< Key > pending;
+	private final AtomicReference< View > latestView;
+
+	private volatile int depth = DEFAULT_DEPTH;
+	private volatile long memoryBudgetBytes = DEFAULT_MEMORY_BUDGET_BYTES;
+	private volatile boolean enabled = true;
+
+	// motion, only accessed by the planner thread
+	private double[] lastCenter;
+	private double lastScale;
+	private long lastTime;
+	private final double[] velocity = new double[ 2 ];
+	private double zoomVelocity;
+
+	/**
+	 * @param queue
+	 * 				the loading queue of the plate, with the priorities of {@link LoadingPriorities}
+	 */
+	public SitePrefetcher( ViewerPanel viewer, SharedQueue queue )
+	{
+		this.viewer = viewer;
+		this.queue = queue;
+		this.targets = new CopyOnWriteArrayList<>();
+		this.pending = ConcurrentHashMap.newKeySet();
+		this.latestView = new AtomicReference<>();
+		this.planner = Executors.newSingleThreadExecutor( r -> createThread( r, "plate viewer prefetch planner" ) );
+	}
+
+	public void addTarget( MultiWellImg< ? > multiWellImg, BdvStackSource< ? > bdvStackSource )
+	{
+		// e.g. filtered images, which are computed rather than loaded
+		if ( multiWellImg.getLoader() == null ) return;
+
+		final Set< Source< ? > > sources = new HashSet<>();
+		for ( SourceAndConverter< ? > sourceAndConverter : bdvStackSource.getSources() )
+			sources.add( sourceAndConverter.getSpimSource() );
+
+		targets.add( new Target( multiWellImg, sources ) );
+	}
+
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	public void setDepth( int depth )
+	{
+		this.depth = Math.max( 0, depth );
+	}
+
+	public long getMemoryBudgetBytes()
+	{
+		return memoryBudgetBytes;
+	}
+
+	public void setMemoryBudgetBytes( long memoryBudgetBytes )
+	{
+		this.memoryBudgetBytes = Math.max( 0, memoryBudgetBytes );
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	public void setEnabled( boolean enabled )
+	{
+		this.enabled = enabled;
+		if ( ! enabled ) cancel( new HashSet<>() );
+	}
+
+	public int getNumPending()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * Stops prefetching and removes the prefetcher from the viewer.
+	 */
+	public void dispose()
+	{
+		enabled = false;
+		viewer.removeTransformListener( this );
+		planner.shutdownNow();
+		pending.clear();
+		targets.clear();
+	}
+
+	/**
+	 * Takes what is planned for from the viewer, on the thread that changed
+	 * the transform, such that the planner does not access the viewer.
+	 */
+	@Override
+	public void transformChanged( AffineTransform3D transform )
+	{
+		if ( ! enabled ) return;
+
+		final View view = new View(
+				transform.copy(),
+				viewer.getDisplay().getWidth(),
+				viewer.getDisplay().getHeight(),
+				getVisibleSources() );
+
+		// only the latest view is planned for, intermediate ones are skipped
+		if ( latestView.getAndSet( view ) == null )
+			planner.submit( this::plan );
+	}
+
+	private void plan()
+	{
+		final View view = latestView.getAndSet( null );
+		if ( view == null || ! enabled ) return;
+
+		final AffineTransform3D transform = view.transform;
+		final int width = view.width;
+		final int height = view.height;
+		if ( width <= 0 || height <= 0 ) return;
+
+		final double[] viewMin = new double[]{ Double.MAX_VALUE, Double.MAX_VALUE };
+		final double[] viewMax = new double[]{ -Double.MAX_VALUE, -Double.MAX_VALUE };
+		final double[] global = new double[ 3 ];
+
+		for ( int x = 0; x <= width; x += width )
+			for ( int y = 0; y <= height; y += height )
+			{
+				transform.applyInverse( global, new double[]{ x, y, 0 } );
+				for ( int d = 0; d < 2; d++ )
+				{
+					viewMin[ d ] = Math.min( viewMin[ d ], global[ d ] );
+					viewMax[ d ] = Math.max( viewMax[ d ], global[ d ] );
+				}
+			}
+
+		final double scale = Affine3DHelpers.extractScale( transform, 0 );
+
+		final double[] predictedCenter = updateMotion( viewMin, viewMax, scale );
+
+		// when zooming out, the viewport is about to grow
+		final double zoomOutFactor = Math.min( MAX_ZOOM_OUT_FACTOR, Math.max( 1.0, Math.exp( - zoomVelocity * LOOKAHEAD_MILLIS ) ) );
+
+		final double[] prefetchMin = new double[ 2 ];
+		final double[] prefetchMax = new double[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+		{
+			final double halfSize = 0.5 * ( viewMax[ d ] - viewMin[ d ] ) * zoomOutFactor;
+			prefetchMin[ d ] = Math.min( viewMin[ d ], predictedCenter[ d ] - halfSize );
+			prefetchMax[ d ] = Math.max( viewMax[ d ], predictedCenter[ d ] + halfSize );
+		}
+
+		final List< Candidate > candidates = new ArrayList<>();
+		final Set< Source< ? > > visibleSources = view.visibleSources;
+
+		for ( Target target : targets )
+		{
+			final CachedCellImg< ?, ? > img = target.multiWellImg.getCachedCellImg();
+
+			if ( img == null )
+			{
+				targets.remove( target ); // disposed
+				continue;
+			}
+
+			if ( ! isVisible( target, visibleSources ) ) continue;
+			if ( target.multiWellImg.getSource() != null && scale < MIN_MULTI_RESOLUTION_SCALE ) continue;
+
+			addCandidates( target, img, viewMin, viewMax, prefetchMin, prefetchMax, predictedCenter, candidates );
+		}
+
+		candidates.sort( Comparator.comparingDouble( c -> c.distance ) );
+
+		final Set< Key > wanted = new HashSet<>();
+		long numBytes = 0;
+
+		for ( Candidate candidate : candidates )
+		{
+			numBytes += candidate.numBytes;
+			if ( numBytes > memoryBudgetBytes ) break;
+			wanted.add( candidate.key );
+		}
+
+		cancel( wanted );
+
+		for ( Candidate candidate : candidates )
+		{
+			if ( ! wanted.contains( candidate.key ) ) break;
+			if ( pending.contains( candidate.key ) ) continue;
+
+			final Cache< Long, ? > cache = candidate.key.img.getCache();
+			if ( cache.getIfPresent( candidate.key.cellIndex ) != null ) continue;
+
+			final Key key = candidate.key;
+			pending.add( key );
+			queue.put( () -> fetch( key ), LoadingPriorities.PREFETCH, false );
+		}
+	}
+
+	private void addCandidates(
+			Target target,
+			CachedCellImg< ?, ? > img,
+			double[] viewMin,
+			double[] viewMax,
+			double[] prefetchMin,
+			double[] prefetchMax,
+			double[] predictedCenter,
+			List< Candidate > candidates )
+	{
+		final CellGrid grid = img.getCellGrid();
+		final long[] gridDimensions = grid.getGridDimensions();
+		final int[] cellDimensions = new int[ grid.numDimensions() ];
+		grid.cellDimensions( cellDimensions );
+
+		final long numBytes = getNumBytes( img, cellDimensions );
+		final SiteIndex siteIndex = target.multiWellImg.getLoader().getSiteIndex();
+		final int[] siteDimensions = target.multiWellImg.getImageDimensions();
+
+		final long[] min = new long[ 2 ];
+		final long[] max = new long[ 2 ];
+		final long[] visibleMin = new long[ 2 ];
+		final long[] visibleMax = new long[ 2 ];
+
+		for ( int d = 0; d < 2; d++ )
+		{
+			final double margin = ( double ) depth * siteDimensions[ d ];
+			min[ d ] = Math.max( 0, ( long ) Math.floor( ( prefetchMin[ d ] - margin ) / cellDimensions[ d ] ) );
+			max[ d ] = Math.min( gridDimensions[ d ] - 1, ( long ) Math.floor( ( prefetchMax[ d ] + margin ) / cellDimensions[ d ] ) );
+			visibleMin[ d ] = ( long ) Math.floor( viewMin[ d ] / cellDimensions[ d ] );
+			visibleMax[ d ] = ( long ) Math.floor( viewMax[ d ] / cellDimensions[ d ] );
+		}
+
+		for ( long y = min[ 1 ]; y <= max[ 1 ]; y++ )
+		{
+			for ( long x = min[ 0 ]; x <= max[ 0 ]; x++ )
+			{
+				// cells in the viewport are requested by the renderer
+				if ( visibleMin[ 0 ] <= x && x <= visibleMax[ 0 ] && visibleMin[ 1 ] <= y && y <= visibleMax[ 1 ] )
+					continue;
+
+				if ( siteIndex.getIndex( x * cellDimensions[ 0 ], y * cellDimensions[ 1 ] ) < 0 )
+					continue;
+
+				final double dx = ( x + 0.5 ) * cellDimensions[ 0 ] - predictedCenter[ 0 ];
+				final double dy = ( y + 0.5 ) * cellDimensions[ 1 ] - predictedCenter[ 1 ];
+
+				final long cellIndex = y * gridDimensions[ 0 ] + x;
+				candidates.add( new Candidate( new Key( img, cellIndex ), Math.sqrt( dx * dx + dy * dy ), numBytes ) );
+			}
+		}
+	}
+
+	private double[] updateMotion( double[] viewMin, double[] viewMax, double scale )
+	{
+		final long now = System.nanoTime();
+		final double[] center = new double[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+			center[ d ] = 0.5 * ( viewMin[ d ] + viewMax[ d ] );
+
+		if ( lastCenter != null && now - lastTime < MOTION_TIMEOUT_NANOS && now > lastTime )
+		{
+			final double millis = ( now - lastTime ) / 1.0e6;
+			for ( int d = 0; d < 2; d++ )
+				velocity[ d ] = 0.5 * velocity[ d ] + 0.5 * ( center[ d ] - lastCenter[ d ] ) / millis;
+			zoomVelocity = 0.5 * zoomVelocity + 0.5 * Math.log( scale / lastScale ) / millis;
+		}
+		else
+		{
+			velocity[ 0 ] = 0;
+			velocity[ 1 ] = 0;
+			zoomVelocity = 0;
+		}
+
+		lastCenter = center;
+		lastScale = scale;
+		lastTime = now;
+
+		final double[] predictedCenter = new double[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+			predictedCenter[ d ] = center[ d ] + velocity[ d ] * LOOKAHEAD_MILLIS;
+
+		return predictedCenter;
+	}
+
+	private Set< Source< ? > > getVisibleSources()
+	{
+		final ViewerState state = viewer.getState();
+		final List< SourceState< ? > > sources = state.getSources();
+
+		final Set< Source< ? > > visibleSources = new HashSet<>();
+		for ( int sourceIndex : state.getVisibleSourceIndices() )
+			visibleSources.add( sources.get( sourceIndex ).getSpimSource() );
+
+		return visibleSources;
+	}
+
+	private static boolean isVisible( Target target, Set< Source< ? > > visibleSources )
+	{
+		for ( Source< ? > source : target.sources )
+			if ( visibleSources.contains( source ) )
+				return true;
+
+		return false;
+	}
+
+	private void cancel( Set< Key > wanted )
+	{
+		pending.retainAll( wanted );
+	}
+
+	private Void fetch( Key key )
+	{
+		// cancelled in the meantime
+		if ( ! pending.remove( key ) ) return null;
+
+		try
+		{
+			if ( enabled )
+				key.img.getCache().get( key.cellIndex );
+		}
+		catch ( Exception e )
+		{
+			// prefetching is best effort, the renderer will request the cell again
+		}
+
+		return null;
+	}
+
+	private static long getNumBytes( CachedCellImg< ?, ? > img, int[] cellDimensions )
+	{
+		long numElements = 1;
+		for ( int cellDimension : cellDimensions )
+			numElements *= cellDimension;
+
+		final Object type = Util.getTypeFromInterval( img );
+		final int bitsPerPixel = type instanceof RealType ? ( ( RealType< ? > ) type ).getBitsPerPixel() : 64;
+
+		return numElements * Math.max( 8, bitsPerPixel ) / 8;
+	}
+
+	private static Thread createThread( Runnable runnable, String name )
+	{
+		final Thread thread = new Thread( runnable, name );
+		thread.setDaemon( true );
+		thread.setPriority( Thread.MIN_PRIORITY );
+		return thread;
+	}
+
+	private static class View
+	{
+		final AffineTransform3D transform;
+		final int width;
+		final int height;
+		final Set< Source< ? > > visibleSources;
+
+		View( AffineTransform3D transform, int width, int height, Set< Source< ? > > visibleSources )
+		{
+			this.transform = transform;
+			this.width = width;
+			this.height = height;
+			this.visibleSources = visibleSources;
+		}
+	}
+
+	private static class Target
+	{
+		final MultiWellImg< ? > multiWellImg;
+		final Set< Source< ? > > sources;
+
+		Target( MultiWellImg< ? > multiWellImg, Set< Source< ? > > sources )
+		{
+			this.multiWellImg = multiWellImg;
+			this.sources = sources;
+		}
+	}
+
+	private static class Key
+	{
+		final CachedCellImg< ?, ? > img;
+		final long cellIndex;
+
+		Key( CachedCellImg< ?, ? > img, long cellIndex )
+		{
+			this.img = img;
+			this.cellIndex = cellIndex;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( ! ( o instanceof Key ) ) return false;
+			final Key key = ( Key ) o;
+			return img == key.img && cellIndex == key.cellIndex;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * System.identityHashCode( img ) + Long.hashCode( cellIndex );
+		}
+	}
+
+	private static class Candidate
+	{
+		final Key key;
+		final double distance;
+		final long numBytes;
+
+		Candidate( Key key, double distance, long numBytes )
+		{
+			this.key = key;
+			this.distance = distance;
+			this.numBytes = numBytes;
+		}
+	}
+}
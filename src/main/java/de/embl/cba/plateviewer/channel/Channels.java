@@ -1,14 +1,13 @@
 package de.embl.cba.plateviewer.channel;
 
-import ch.systemsx.cisd.hdf5.HDF5Factory;
-import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import de.embl.cba.plateviewer.image.NamingSchemes;
+import de.embl.cba.plateviewer.image.ParsedFileName;
 import de.embl.cba.plateviewer.image.channel.MultiWellBatchLibHdf5Img;
+import de.embl.cba.plateviewer.io.Hdf5Reader;
+import de.embl.cba.plateviewer.io.Hdf5Readers;
 
 import java.io.File;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class Channels
 {
@@ -32,29 +31,33 @@ public class Channels
 
 	public static Map< String, ChannelProperties > fetchChannels( List< File > files, String namingScheme, HashMap< String, ChannelProperties > channelNameToProperties )
 	{
-		Set< String > channelPatternSet = new HashSet<>(  );
-		for ( File file : files )
+		Set< String > channels = new HashSet<>(  );
+		for ( ParsedFileName parsedFileName : NamingSchemes.get( namingScheme ).parse( files ) )
 		{
-			final Matcher matcher = Pattern.compile( namingScheme ).matcher( file.getName() );
+			if ( parsedFileName == null || parsedFileName.getChannel() == null ) continue;
+
+			channels.add( parsedFileName.getChannel() );
+		}
+
+		return createChannels( channels, namingScheme, channelNameToProperties );
+	}
 
-			if ( matcher.matches() )
+	/**
+	 * @param channels
+	 * 				the channels, as parsed from the file names
+	 */
+	public static Map< String, ChannelProperties > createChannels( Collection< String > channels, String namingScheme, HashMap< String, ChannelProperties > channelNameToProperties )
+	{
+		Set< String > channelPatternSet = new HashSet<>(  );
+		for ( String channel : channels )
+		{
+			if ( namingScheme.equals( NamingSchemes.PATTERN_MD_A01_SITE_WAVELENGTH ) )
 			{
-				if ( namingScheme.equals( NamingSchemes.PATTERN_ALMF_SCREENING_WELL_SITE_CHANNEL ) )
-				{
-					channelPatternSet.add( ".*" + matcher.group( 3 ) + "\\..*" );
-				}
-				else if ( namingScheme.equals( NamingSchemes.PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL ) )
-				{
-					channelPatternSet.add( ".*" + matcher.group( 3 ) + "\\..*"  );
-				}
-				else if ( namingScheme.equals( NamingSchemes.PATTERN_MD_A01_SITE_WAVELENGTH ) )
-				{
-					channelPatternSet.add( ".*_s.*_w" + matcher.group( 3 ) + ".*" );
-				}
-				else if ( namingScheme.equals( NamingSchemes.PATTERN_MD_A01_WAVELENGTH ) )
-				{
-					channelPatternSet.add( ".*" + matcher.group( 2 ) + "\\..*" );
-				}
+				channelPatternSet.add( ".*_s.*_w" + channel + ".*" );
+			}
+			else
+			{
+				channelPatternSet.add( ".*" + channel + "\\..*" );
 			}
 		}
 
@@ -72,28 +75,36 @@ public class Channels
 	public static Map< String, ChannelProperties > fetchChannelsNikonTi2Hdf5( List< File > files, HashMap< String, ChannelProperties > channelNameToProperties )
 	{
 		final ArrayList< String > channels = new ArrayList<>();
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( files.get( 0 ) );
-		final List< String > groupMembers = hdf5Reader.getGroupMembers( "/" );
-		for ( String groupMember : groupMembers )
+		final Hdf5Reader hdf5Reader = Hdf5Readers.open( files.get( 0 ) );
+
+		try
 		{
-			if ( ! hdf5Reader.hasAttribute( groupMember, MultiWellBatchLibHdf5Img.SKIP ) )
+			final List< String > groupMembers = hdf5Reader.getGroupMembers( "/" );
+			for ( String groupMember : groupMembers )
 			{
-				continue;
-			}
+				if ( ! hdf5Reader.hasAttribute( groupMember, MultiWellBatchLibHdf5Img.SKIP ) )
+				{
+					continue;
+				}
 
-			final boolean skip = hdf5Reader.bool().getAttr( groupMember, MultiWellBatchLibHdf5Img.SKIP );
+				final boolean skip = hdf5Reader.getBooleanAttribute( groupMember, MultiWellBatchLibHdf5Img.SKIP );
 
-			if ( skip )
-			{
-				continue;
-			}
+				if ( skip )
+				{
+					continue;
+				}
 
 
-			final boolean visible = hdf5Reader.bool().getAttr( groupMember, MultiWellBatchLibHdf5Img.VISIBLE );
+				final boolean visible = hdf5Reader.getBooleanAttribute( groupMember, MultiWellBatchLibHdf5Img.VISIBLE );
 
-			final ChannelProperties properties = new ChannelProperties( groupMember, groupMember, visible );
+				final ChannelProperties properties = new ChannelProperties( groupMember, groupMember, visible );
 
-			channelNameToProperties.put( groupMember, properties );
+				channelNameToProperties.put( groupMember, properties );
+			}
+		}
+		finally
+		{
+			hdf5Reader.close();
 		}
 
 		return channelNameToProperties;
@@ -0,0 +1,57 @@
+package de.embl.cba.plateviewer.channel;
+
+import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.image.NamingSchemes;
+import de.embl.cba.plateviewer.image.ParsedFileName;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Detects the naming scheme of each plate file, and parses its channel,
+ * as the directory walk hands it over, such that the channels are
+ * known as soon as the walk has finished.
+ *
+ * Is called from multiple threads.
+ */
+public class StreamedChannels implements Consumer< File >
+{
+	/**
+	 * The channels of the files of each detected naming scheme.
+	 */
+	private final Map< String, Set< String > > schemeToChannels = new ConcurrentHashMap<>();
+
+	@Override
+	public void accept( File file )
+	{
+		final String namingScheme = NamingSchemes.getNamingScheme( file );
+		final Set< String > channels = schemeToChannels.computeIfAbsent( namingScheme, scheme -> ConcurrentHashMap.newKeySet() );
+
+		if ( namingScheme.equals( Utils.PATTERN_NO_MATCH ) ) return;
+
+		final ParsedFileName parsedFileName = NamingSchemes.get( namingScheme ).parse( file.getName() );
+		if ( parsedFileName == null || parsedFileName.getChannel() == null ) return;
+
+		channels.add( parsedFileName.getChannel() );
+	}
+
+	/**
+	 * Same as {@link Channels#getChannels}, which only needs to parse
+	 * the files again if they are not all of the given naming scheme.
+	 */
+	public Map< String, ChannelProperties > getChannels( List< File > files, String namingScheme )
+	{
+		if ( schemeToChannels.size() != 1
+				|| ! schemeToChannels.containsKey( namingScheme )
+				|| namingScheme.equals( NamingSchemes.PATTERN_MD_A01_SITE )
+				|| namingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5 ) )
+			return Channels.getChannels( files, namingScheme );
+
+		return Channels.createChannels( schemeToChannels.get( namingScheme ), namingScheme, new HashMap<>() );
+	}
+}
@@ -1,6 +1,7 @@
 package de.embl.cba.plateviewer.command;
 
 import de.embl.cba.plateviewer.PlateViewer;
+import de.embl.cba.plateviewer.PlateViewerSettings;
 import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -22,9 +23,19 @@ public class PlateViewerCommand implements Command
 	@Parameter (label = "Load image table")
 	public boolean loadImageTable;
 
+	@Parameter (label = "Store plate overview on disk", choices = {
+			PlateViewerSettings.DISK_CACHE_NONE,
+			PlateViewerSettings.DISK_CACHE_USER_DIRECTORY,
+			PlateViewerSettings.DISK_CACHE_NEXT_TO_PLATE } )
+	public String diskCache = PlateViewerSettings.DISK_CACHE_NONE;
+
 	public void run()
 	{
-		new PlateViewer( imagesDirectory, filePattern, loadImageTable, 4, includeSubFolders );
+		final PlateViewerSettings settings = new PlateViewerSettings();
+		settings.includeSubFolders = includeSubFolders;
+		settings.diskCache = diskCache;
+
+		new PlateViewer( imagesDirectory, filePattern, loadImageTable, settings );
 	}
 
 }
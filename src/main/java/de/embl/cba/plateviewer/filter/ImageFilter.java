@@ -1,10 +1,9 @@
 package de.embl.cba.plateviewer.filter;
 
 import bdv.util.BdvOverlay;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
 import de.embl.cba.plateviewer.image.cellloader.ImageFilterLoader;
 import net.imglib2.cache.img.CachedCellImg;
-import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
-import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
@@ -20,14 +19,20 @@ public class ImageFilter < T extends NativeType< T > & RealType< T > >
 	public static String INFORMATION = "Information";
 
 	private final ImageFilterSettings settings;
+	private final CellCacheBudget cellCacheBudget;
 	private final String cachedFilterImgName;
 	private BdvOverlay bdvOverlay;
 	private ImageFilterLoader< T > loader;
 	private T type;
 
-	public ImageFilter( ImageFilterSettings settings )
+	/**
+	 * @param cellCacheBudget
+	 * 				the cell cache of the plate viewer
+	 */
+	public ImageFilter( ImageFilterSettings settings, CellCacheBudget cellCacheBudget )
 	{
 		this.settings = settings;
+		this.cellCacheBudget = cellCacheBudget;
 		this.cachedFilterImgName = settings.inputName + " - " + settings.filterType;
 
 		if ( settings.filterType.equals( ImageFilter.SIMPLE_SEGMENTATION ) )
@@ -74,11 +79,11 @@ public class ImageFilter < T extends NativeType< T > & RealType< T > >
 
 		loader = new ImageFilterLoader( settings );
 
-		final CachedCellImg< T, ? > cachedFilterImg = new ReadOnlyCachedCellImgFactory().create(
+		final CachedCellImg< T, ? > cachedFilterImg = cellCacheBudget.createCachedCellImg(
 				imgDimensions,
 				type,
 				loader,
-				ReadOnlyCachedCellImgOptions.options().cellDimensions( cellDimensions ) );
+				cellDimensions );
 
 		if ( settings.filterType.equals( ImageFilter.SIMPLE_SEGMENTATION ) )
 		{
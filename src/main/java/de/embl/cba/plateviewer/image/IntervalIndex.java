@@ -0,0 +1,137 @@
+package de.embl.cba.plateviewer.image;
+
+import net.imglib2.Interval;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Finds the named 2D intervals, e.g. of wells or sites, that intersect with a
+ * region of the plate, without visiting the others.
+ *
+ * The intervals are bucketed on a grid whose cells have the size of the
+ * largest interval, such that only the cells around the region are visited.
+ */
+public class IntervalIndex
+{
+	private final String[] names;
+	private final Interval[] intervals;
+
+	private final long[] cellSize;
+	private final long[] gridMin;
+	private final int[] gridSize;
+
+	private final int[] cellStarts;
+	private final int[] entries;
+
+	public IntervalIndex( Map< String, ? extends Interval > nameToInterval )
+	{
+		final int numIntervals = nameToInterval.size();
+		names = new String[ numIntervals ];
+		intervals = new Interval[ numIntervals ];
+
+		int i = 0;
+		for ( Map.Entry< String, ? extends Interval > entry : nameToInterval.entrySet() )
+		{
+			names[ i ] = entry.getKey();
+			intervals[ i ] = entry.getValue();
+			i++;
+		}
+
+		cellSize = new long[]{ 1, 1 };
+		gridMin = new long[ 2 ];
+		gridSize = new int[ 2 ];
+
+		final long[] gridMax = new long[]{ Long.MIN_VALUE, Long.MIN_VALUE };
+		gridMin[ 0 ] = gridMin[ 1 ] = Long.MAX_VALUE;
+
+		for ( Interval interval : intervals )
+			for ( int d = 0; d < 2; d++ )
+				cellSize[ d ] = Math.max( cellSize[ d ], interval.dimension( d ) );
+
+		for ( Interval interval : intervals )
+			for ( int d = 0; d < 2; d++ )
+			{
+				gridMin[ d ] = Math.min( gridMin[ d ], Math.floorDiv( interval.min( d ), cellSize[ d ] ) );
+				gridMax[ d ] = Math.max( gridMax[ d ], Math.floorDiv( interval.min( d ), cellSize[ d ] ) );
+			}
+
+		for ( int d = 0; d < 2; d++ )
+			gridSize[ d ] = numIntervals == 0 ? 0 : ( int ) ( gridMax[ d ] - gridMin[ d ] + 1 );
+
+		// the intervals of a cell are entries[ cellStarts[ cell ] ] to entries[ cellStarts[ cell + 1 ] - 1 ]
+		cellStarts = new int[ gridSize[ 0 ] * gridSize[ 1 ] + 1 ];
+		entries = new int[ numIntervals ];
+
+		final int[] cells = new int[ numIntervals ];
+		for ( i = 0; i < numIntervals; i++ )
+		{
+			cells[ i ] = getCell( intervals[ i ].min( 0 ), intervals[ i ].min( 1 ) );
+			cellStarts[ cells[ i ] + 1 ]++;
+		}
+
+		for ( int cell = 0; cell < cellStarts.length - 1; cell++ )
+			cellStarts[ cell + 1 ] += cellStarts[ cell ];
+
+		final int[] fill = cellStarts.clone();
+		for ( i = 0; i < numIntervals; i++ )
+			entries[ fill[ cells[ i ] ]++ ] = i;
+	}
+
+	public int size()
+	{
+		return names.length;
+	}
+
+	/**
+	 * @return the largest width and height of the intervals
+	 */
+	public long[] getMaxDimensions()
+	{
+		return cellSize.clone();
+	}
+
+	/**
+	 * Visits the intervals that intersect with the region from min to max, inclusive.
+	 */
+	public void forEachIntersecting( double[] min, double[] max, BiConsumer< String, Interval > action )
+	{
+		if ( names.length == 0 ) return;
+
+		// an interval starts at most one cell before the region
+		final long[] cellMin = new long[ 2 ];
+		final long[] cellMax = new long[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+		{
+			cellMin[ d ] = Math.max( 0, Math.floorDiv( ( long ) Math.floor( min[ d ] ), cellSize[ d ] ) - 1 - gridMin[ d ] );
+			cellMax[ d ] = Math.min( gridSize[ d ] - 1, Math.floorDiv( ( long ) Math.ceil( max[ d ] ), cellSize[ d ] ) - gridMin[ d ] );
+		}
+
+		for ( long y = cellMin[ 1 ]; y <= cellMax[ 1 ]; y++ )
+			for ( long x = cellMin[ 0 ]; x <= cellMax[ 0 ]; x++ )
+			{
+				final int cell = ( int ) ( y * gridSize[ 0 ] + x );
+				for ( int entry = cellStarts[ cell ]; entry < cellStarts[ cell + 1 ]; entry++ )
+				{
+					final int i = entries[ entry ];
+					if ( intersects( intervals[ i ], min, max ) )
+						action.accept( names[ i ], intervals[ i ] );
+				}
+			}
+	}
+
+	private int getCell( long x, long y )
+	{
+		return ( int ) ( ( Math.floorDiv( y, cellSize[ 1 ] ) - gridMin[ 1 ] ) * gridSize[ 0 ]
+				+ Math.floorDiv( x, cellSize[ 0 ] ) - gridMin[ 0 ] );
+	}
+
+	private static boolean intersects( Interval interval, double[] min, double[] max )
+	{
+		for ( int d = 0; d < 2; d++ )
+			if ( interval.max( d ) + 1 <= min[ d ] || interval.min( d ) > max[ d ] )
+				return false;
+
+		return true;
+	}
+}
@@ -4,7 +4,12 @@ import java.util.ArrayList;
 
 public interface MultiWellChannelFilesProvider
 {
+	/**
+	 * Creates an object per site; the {@link #getSiteTable() site table} holds the same without.
+	 */
 	ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles();
 
+	SiteTable getSiteTable();
+
 	ArrayList< String > getWellNames();
 }
@@ -1,12 +1,10 @@
 package de.embl.cba.plateviewer.image;
 
 import de.embl.cba.plateviewer.Utils;
-import net.imglib2.FinalInterval;
 
 import java.io.File;
 import java.util.*;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChannelFilesProvider
 {
@@ -17,9 +15,12 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 	int[] numWellsPerPlate;
 	int[] imageDimensions;
 
-	final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
+	SiteTable siteTable;
 	final ArrayList< String > wellNames;
 
+	final ParsedFileName[] parsedFileNames;
+	final String[] wellNamesOfFiles;
+
 	final String WELL_SITE_CHANNEL_PATTERN = NamingSchemes.PATTERN_ALMF_SCREENING_WELL_SITE_CHANNEL;
 	public static final int WELL_GROUP = 1;
 	public static final int SITE_GROUP = 2;
@@ -28,18 +29,25 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 	public MultiWellChannelFilesProviderALMFScreening( List< File > files, int[] imageDimensions )
 	{
 		this.files = files;
-		this.singleSiteChannelFiles = new ArrayList<>();
 		this.imageDimensions = imageDimensions;
+		this.parsedFileNames = NamingSchemes.get( WELL_SITE_CHANNEL_PATTERN ).parse( files );
+		this.wellNamesOfFiles = getWellNamesOfFiles( files );
 
 		createImageSources();
 
-		this.wellNames = getWellNames( files );
+		this.wellNames = new ArrayList<>( new HashSet<>( Arrays.asList( wellNamesOfFiles ) ) );
 	}
 
 	@Override
 	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
 	{
-		return singleSiteChannelFiles;
+		return siteTable.getSites( imageDimensions, null );
+	}
+
+	@Override
+	public SiteTable getSiteTable()
+	{
+		return siteTable;
 	}
 
 	@Override
@@ -48,23 +56,21 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 		return wellNames;
 	}
 
-	private static ArrayList< String > getWellNames( List< File > files )
+	private static String[] getWellNamesOfFiles( List< File > files )
 	{
-		Set< String > wellNameSet = new HashSet<>(  );
+		final Matcher matcher = NamingSchemes.get( NamingSchemes.PATTERN_ALMF_SCREENING_TREAT1_TREAT2_WELLNUM ).getPattern().matcher( "" );
 
-		for ( File file : files )
+		final String[] wellNames = new String[ files.size() ];
+		for ( int i = 0; i < wellNames.length; i++ )
 		{
-			wellNameSet.add( getWellName( file.getName() ) );
+			wellNames[ i ] = getWellName( matcher.reset( files.get( i ).getName() ) );
 		}
 
-		return new ArrayList<>( wellNameSet );
-
+		return wellNames;
 	}
 
-	private static String getWellName( String fileName )
+	private static String getWellName( Matcher matcher )
 	{
-		final Matcher matcher = Pattern.compile(  NamingSchemes.PATTERN_ALMF_SCREENING_TREAT1_TREAT2_WELLNUM ).matcher( fileName );
-
 		if ( matcher.matches() )
 		{
 			String wellName = matcher.group( 1 );
@@ -80,25 +86,27 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 
 	private void createImageSources()
 	{
-		configWells( files );
-		configSites( files );
+		configWells();
+		configSites();
 
-		for ( File file : files )
-		{
-			final SingleSiteChannelFile singleSiteChannelFile = new SingleSiteChannelFile(
-					file,
-					getInterval( file, WELL_SITE_CHANNEL_PATTERN, numWellsPerPlate[ 0 ], numSitesPerWell[ 0 ] ),
-					file.getName(),
-					getWellName( file.getName() ) );
+		final int numFiles = files.size();
+		final String[] siteNames = new String[ numFiles ];
+		final int[][] positions = new int[ numFiles ][];
 
-			singleSiteChannelFiles.add( singleSiteChannelFile );
+		for ( int i = 0; i < numFiles; i++ )
+		{
+			final File file = files.get( i );
+			positions[ i ] = getGridPosition( parsedFileNames[ i ], numWellsPerPlate[ 0 ], numSitesPerWell[ 0 ] );
+			siteNames[ i ] = file.getName();
 		}
+
+		siteTable = SiteTable.create( files, siteNames, wellNamesOfFiles, positions );
 	}
 
 
-	private void configWells( List< File > files )
+	private void configWells()
 	{
-		numWells = getNumWells( files );
+		numWells = getNumWells();
 
 		numWellsPerPlate = Utils.guessWellDimensions( numWells );
 
@@ -107,9 +115,9 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 		Utils.log( "Well dimensions [ 1 ] : " +  numWellsPerPlate[ 1 ] );
 	}
 
-	private void configSites( List< File > files )
+	private void configSites()
 	{
-		final Set< Integer > sites = getSitesSet( files );
+		final Set< Integer > sites = getSitesSet();
 
 		if ( sites.size() == 0 )
 			numSites = 1;
@@ -137,36 +145,31 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 
 	}
 
-	private Set< Integer > getSitesSet( List< File > files )
+	private Set< Integer > getSitesSet()
 	{
 		Set< Integer > sites = new HashSet<>( );
 
-		for ( File file : files )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			final Matcher matcher =
-					Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			if ( matcher.matches() )
-				sites.add( Integer.parseInt( matcher.group( SITE_GROUP ) ) );
+			if ( parsedFileName != null )
+				sites.add( Integer.parseInt( parsedFileName.getSite() ) );
 		}
 
 		return sites;
 	}
 
-	private int getNumWells( List< File > files )
+	private int getNumWells()
 	{
 		Set< String > wells = new HashSet<>( );
 		int maxWellNum = 0;
 
-		for ( File file : files )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			matcher.matches();
+			if ( parsedFileName == null ) continue;
 
-			wells.add( matcher.group( WELL_GROUP ) );
+			wells.add( parsedFileName.getWell() );
 
-			int wellNum = Integer.parseInt( matcher.group( WELL_GROUP ) );
+			int wellNum = Integer.parseInt( parsedFileName.getWell() );
 
 			if ( wellNum > maxWellNum )
 			{
@@ -186,24 +189,19 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 
 	}
 
-	private FinalInterval getInterval(
-			File file,
-			String pattern,
+	private int[] getGridPosition(
+			ParsedFileName parsedFileName,
 			int numWellColumns,
 			int numSiteColumns )
 	{
-		String filePath = file.getAbsolutePath();
-
-		final Matcher matcher = Pattern.compile( pattern ).matcher( filePath );
-
-		if ( matcher.matches() )
+		if ( parsedFileName != null )
 		{
 			int[] wellPosition = new int[ 2 ];
 			int[] sitePosition = new int[ 2 ];
 
-			int wellNum = Integer.parseInt( matcher.group( WELL_GROUP ) ) - 1;
+			int wellNum = Integer.parseInt( parsedFileName.getWell() ) - 1;
 
-			int siteNum = Integer.parseInt( matcher.group( SITE_GROUP ) );
+			int siteNum = Integer.parseInt( parsedFileName.getSite() );
 			if ( ! zeroBasedSites ) siteNum -= 1;
 
 			wellPosition[ 1 ] = wellNum / numWellColumns;
@@ -212,14 +210,7 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 			sitePosition[ 1 ] = siteNum / numSiteColumns;
 			sitePosition[ 0 ] = siteNum % numSiteColumns;
 
-			final FinalInterval interval =
-					Utils.createInterval(
-							wellPosition,
-							sitePosition,
-							numSitesPerWell,
-							imageDimensions );
-
-			return interval;
+			return Utils.computeGridPosition( wellPosition, sitePosition, numSitesPerWell );
 		}
 		else
 		{
@@ -1,30 +1,22 @@
 package de.embl.cba.plateviewer.image;
 
-import ch.systemsx.cisd.hdf5.HDF5Factory;
-import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import de.embl.cba.plateviewer.Utils;
-import net.imglib2.FinalInterval;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.WeakHashMap;
 
 public class MultiWellChannelFilesProviderBatchLibHdf5 implements MultiWellChannelFilesProvider
 {
-	final List< File > files;
-	private final String hdf5DataSetName;
-	private final int resolutionLevel;
-
-	int numSites, numWells;
-	int[] siteDimensions; // for example, 2x2 sites
-	int[] wellDimensions; // for example, 10x4 wells
-	int[] imageDimensions; // for example, 1000x1000 pixels
-
-	final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
+	final SiteTable siteTable;
+	final String hdf5DataSetName;
+	final int[] imageDimensions;
 
 	final ArrayList< String > wellNames;
 
@@ -32,222 +24,169 @@ public class MultiWellChannelFilesProviderBatchLibHdf5 implements MultiWellChann
 	public static final int WELL_GROUP = 1;
 	public static final int SITE_GROUP = 2;
 
+	/**
+	 * The layouts of the plates that are currently open, such that the file names are
+	 * parsed once per plate, rather than once per channel and resolution level.
+	 * Entries are dropped once the file list is not referenced anymore.
+	 */
+	private static final Map< List< File >, Layout > filesToLayout = Collections.synchronizedMap( new WeakHashMap<>() );
+
+	/**
+	 * The site tables of the plates that are currently open, which are shared by all
+	 * channels and resolution levels. A table references its files, thus it is only
+	 * weakly referenced, and created again if it was dropped.
+	 */
+	private static final Map< List< File >, WeakReference< SiteTable > > filesToSiteTable = Collections.synchronizedMap( new WeakHashMap<>() );
+
 	public MultiWellChannelFilesProviderBatchLibHdf5( List< File > files, String hdf5DataSetName, int[] imageDimensions, int resolutionLevel )
 	{
-		this.files = files;
+		this.siteTable = getSiteTable( files );
 		this.hdf5DataSetName = hdf5DataSetName;
-		this.resolutionLevel = resolutionLevel;
-		this.singleSiteChannelFiles = new ArrayList<>();
 		this.imageDimensions = imageDimensions;
-
-		createImageSources();
-
-		this.wellNames = getWellNames( files );
+		this.wellNames = new ArrayList<>( getLayout( files ).wellNames );
 	}
 
 	@Override
 	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
 	{
-		return singleSiteChannelFiles;
+		return siteTable.getSites( imageDimensions, hdf5DataSetName );
 	}
 
 	@Override
-	public ArrayList< String > getWellNames()
+	public SiteTable getSiteTable()
 	{
-		return wellNames;
+		return siteTable;
 	}
 
-	private ArrayList< String > getWellNames( List< File > files )
+	@Override
+	public ArrayList< String > getWellNames()
 	{
-		Set< String > wellNameSet = new HashSet<>(  );
-
-		for ( File file : files )
-		{
-			wellNameSet.add( getWellName( file.getName() ) );
-		}
-
-		return new ArrayList<>( wellNameSet );
+		return wellNames;
 	}
 
-	// TODO: make static utility method
-	private static String getWellName( String fileName )
+	public static Layout getLayout( List< File > files )
 	{
-		final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( fileName );
-
-		if ( matcher.matches() )
-		{
-			String wellName = matcher.group( 1 );
-			return wellName;
-		}
-		else
-		{
-			throw new UnsupportedOperationException( "Could not match naming scheme pattern " + WELL_SITE_CHANNEL_PATTERN + " to file " + fileName );
-		}
+		return filesToLayout.computeIfAbsent( files, Layout::new );
 	}
 
-	private void createImageSources()
+	public static SiteTable getSiteTable( List< File > files )
 	{
-		configWells( files );
-		configSites( files );
-
-		for ( File file : files )
+		synchronized ( filesToSiteTable )
 		{
-			final SingleSiteChannelFile singleSiteChannelFile =
-					new SingleSiteChannelFile(
-						file,
-						hdf5DataSetName,
-						createInterval( file.getName() ),
-						createSiteName( file.getName() ),
-						getWellName( file.getName() ) );
-
-			// TODO: This is too slow, because one needs to go into all the files, one could set a String Supplier here that reads it on demand
-//			singleSiteChannelFile.setSiteInformation( readSiteInformation( file ) );
-//			singleSiteChannelFile.setWellInformation( readWellInformation( file ) );
-			singleSiteChannelFiles.add( singleSiteChannelFile );
-		}
-	}
+			final WeakReference< SiteTable > reference = filesToSiteTable.get( files );
+			SiteTable siteTable = reference == null ? null : reference.get();
 
-	private String readSiteInformation( File file )
-	{
-		try
-		{
-			final IHDF5Reader reader = HDF5Factory.openForReading( file );
-			return reader.string().getAttr( "/", "ImageInformation" );
-		}
-		catch ( Exception e )
-		{
-			return "No ImageInformation found";
-		}
-	}
+			if ( siteTable == null )
+			{
+				siteTable = getLayout( files ).createSiteTable( files );
+				filesToSiteTable.put( files, new WeakReference<>( siteTable ) );
+			}
 
-	private String readWellInformation( File file )
-	{
-		try
-		{
-			final IHDF5Reader reader = HDF5Factory.openForReading( file );
-			return reader.string().getAttr( "/", "WellInformation" );
-		}
-		catch ( Exception e )
-		{
-			return "No WellInformation found";
+			return siteTable;
 		}
 	}
 
 	public static String createSiteName( String fileName )
 	{
-		return getWellName( fileName ) + "-" + getSiteName( fileName);
+		final ParsedFileName parsedFileName = check( NamingSchemes.get( WELL_SITE_CHANNEL_PATTERN ).parse( fileName ), fileName );
+		return parsedFileName.getWell() + "-" + parsedFileName.getSite();
 	}
 
-	private static String getSiteName( String fileName )
+	private static ParsedFileName check( ParsedFileName parsedFileName, String fileName )
 	{
-		final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( fileName );
-
-		if ( matcher.matches() )
-		{
-			String siteName = matcher.group( 2 );
-			return siteName;
-		}
-		else
-		{
+		if ( parsedFileName == null )
 			throw new UnsupportedOperationException( "Could not match naming scheme pattern " + WELL_SITE_CHANNEL_PATTERN + " to file " + fileName );
-		}
-	}
-
-	private void configWells( List< File > files )
-	{
-		int[] maximalWellPositionsInData = getMaximalWellPositionsInData( files );
 
-		wellDimensions = Utils.guessWellDimensions( maximalWellPositionsInData );
+		return parsedFileName;
 	}
 
-	private void configSites( List< File > files )
+	/**
+	 * Position of each file on the plate, in units of wells and sites,
+	 * which is the same for all channels and resolution levels.
+	 *
+	 * It does not reference the files, such that it can be cached per file list.
+	 */
+	public static class Layout
 	{
-		numSites = getNumSites( files );
-		siteDimensions = new int[ 2 ];
+		final int[] siteDimensions; // for example, 2x2 sites
+		final int[] wellDimensions; // for example, 10x4 wells
+		final int[][] wellPositions;
+		final int[][] sitePositions;
+		final String[] wellNamesOfFiles;
+		final String[] siteNames;
+		final ArrayList< String > wellNames;
 
-		for ( int d = 0; d < siteDimensions.length; ++d )
+		Layout( List< File > files )
 		{
-			siteDimensions[ d ] = ( int ) Math.ceil( Math.sqrt( numSites ) );
-			siteDimensions[ d ] = Math.max( 1, siteDimensions[ d ] );
-		}
-	}
+			final int numFiles = files.size();
+			wellPositions = new int[ numFiles ][];
+			wellNamesOfFiles = new String[ numFiles ];
+			siteNames = new String[ numFiles ];
 
-	private int getNumSites( List< File > files )
-	{
-		Set< String > sites = new HashSet<>( );
+			final String[] siteIndices = new String[ numFiles ];
+			final Set< String > sites = new HashSet<>();
+			final Set< String > wells = new HashSet<>();
+			final int[] maximalWellPosition = new int[ 2 ];
+			final ParsedFileName[] parsedFileNames = NamingSchemes.get( WELL_SITE_CHANNEL_PATTERN ).parse( files );
 
-		for ( File file : files )
-		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			if ( matcher.matches() )
+			for ( int i = 0; i < numFiles; i++ )
 			{
-				sites.add( matcher.group( SITE_GROUP ) );
-			}
-		}
+				final ParsedFileName parsedFileName = check( parsedFileNames[ i ], files.get( i ).getName() );
 
-		if ( sites.size() == 0 )
-		{
-			return 1;
-		}
-		else
-		{
-			return sites.size();
-		}
-	}
+				wellNamesOfFiles[ i ] = parsedFileName.getWell();
+				siteIndices[ i ] = parsedFileName.getSite();
+				siteNames[ i ] = wellNamesOfFiles[ i ] + "-" + siteIndices[ i ];
+				wellPositions[ i ] = Utils.getWellPositionFromA01( wellNamesOfFiles[ i ] );
 
-	private int[] getMaximalWellPositionsInData( List< File > files )
-	{
-		int[] maximalWellPosition = new int[ 2 ];
+				sites.add( siteIndices[ i ] );
+				wells.add( wellNamesOfFiles[ i ] );
 
-		for ( File file : files )
-		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
+				for ( int d = 0; d < 2; ++d )
+					maximalWellPosition[ d ] = Math.max( maximalWellPosition[ d ], wellPositions[ i ][ d ] );
+			}
 
-			matcher.matches();
+			wellDimensions = Utils.guessWellDimensions( maximalWellPosition );
+			wellNames = new ArrayList<>( wells );
 
-			int[] wellPosition = Utils.getWellPositionFromA01( matcher.group( WELL_GROUP ) );
+			final int numSites = Math.max( 1, sites.size() );
+			siteDimensions = new int[ 2 ];
+			for ( int d = 0; d < siteDimensions.length; ++d )
+				siteDimensions[ d ] = Math.max( 1, ( int ) Math.ceil( Math.sqrt( numSites ) ) );
 
-			for ( int d = 0; d < wellPosition.length; ++d )
-			{
-				if ( wellPosition[ d ] > maximalWellPosition[ d ] )
-				{
-					maximalWellPosition[ d ] = wellPosition[ d ];
-				}
-			}
+			sitePositions = new int[ numFiles ][];
+			for ( int i = 0; i < numFiles; i++ )
+				sitePositions[ i ] = getSitePositionFromSiteIndex( siteIndices[ i ] );
 		}
 
-		return maximalWellPosition;
-	}
-
-	private FinalInterval createInterval( String filePath )
-	{
-		final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( filePath );
-
-		if ( matcher.matches() )
+		/**
+		 * The site and well information are read on demand, see Hdf5SiteInformationFetcher.
+		 *
+		 * @param files
+		 * 				the files that the layout was created from
+		 */
+		public SiteTable createSiteTable( List< File > files )
 		{
-			int[] wellPosition = Utils.getWellPositionFromA01( matcher.group( WELL_GROUP ) );
-			int[] sitePosition = getSitePositionFromSiteIndex( matcher.group( SITE_GROUP ) );
-
-			final FinalInterval interval = Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
+			final int[][] positions = new int[ files.size() ][];
+			for ( int i = 0; i < positions.length; i++ )
+				positions[ i ] = Utils.computeGridPosition( wellPositions[ i ], sitePositions[ i ], siteDimensions );
 
-			return interval;
+			return SiteTable.create( files, siteNames, wellNamesOfFiles, positions );
 		}
-		else
+
+		public ArrayList< String > getWellNames()
 		{
-			throw new UnsupportedOperationException( "Could not match file name: " + filePath );
+			return wellNames;
 		}
-	}
 
-	private int[] getSitePositionFromSiteIndex( String site )
-	{
-		int[] sitePosition = new int[ 2 ];
-		int siteIndex = Integer.parseInt( site );
+		private int[] getSitePositionFromSiteIndex( String site )
+		{
+			int[] sitePosition = new int[ 2 ];
+			int siteIndex = Integer.parseInt( site );
 
-		sitePosition[ 0 ] = siteIndex % siteDimensions[ 1 ];
-		sitePosition[ 1 ] = siteIndex / siteDimensions[ 1 ];
+			sitePosition[ 0 ] = siteIndex % siteDimensions[ 1 ];
+			sitePosition[ 1 ] = siteIndex / siteDimensions[ 1 ];
 
-		return sitePosition;
+			return sitePosition;
+		}
 	}
-
 }
@@ -1,15 +1,12 @@
 package de.embl.cba.plateviewer.image;
 
 import de.embl.cba.plateviewer.Utils;
-import net.imglib2.FinalInterval;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MultiWellChannelFilesProviderMolDevMultiSite implements MultiWellChannelFilesProvider
 {
@@ -20,10 +17,11 @@ public class MultiWellChannelFilesProviderMolDevMultiSite implements MultiWellCh
 	int[] wellDimensions;
 	int[] imageDimensions;
 
-	final private ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
+	private SiteTable siteTable;
 	final private ArrayList< String > wellNames;
 
 	final private String namingScheme;
+	final private ParsedFileName[] parsedFileNames;
 	public static final int WELL_GROUP = 1;
 	public static final int SITE_GROUP = 2;
 
@@ -34,34 +32,44 @@ public class MultiWellChannelFilesProviderMolDevMultiSite implements MultiWellCh
 		this.files = files;
 		this.imageDimensions = imageDimensions;
 		this.namingScheme = namingScheme;
+		this.parsedFileNames = NamingSchemes.get( namingScheme ).parse( files );
 
-		this.singleSiteChannelFiles = new ArrayList<>();
 
 		setImageSources();
 
-		wellNames = Utils.getWellNames( files, this.namingScheme, WELL_GROUP );
+		wellNames = getWellNames( parsedFileNames );
 	}
 
 	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
 	{
-		return singleSiteChannelFiles;
+		return siteTable.getSites( imageDimensions, null );
+	}
+
+	@Override
+	public SiteTable getSiteTable()
+	{
+		return siteTable;
 	}
 
 	private void setImageSources()
 	{
-		configWells( files );
-		configSites( files );
+		configWells();
+		configSites();
 
-		for ( File file : files )
-		{
-			final SingleSiteChannelFile singleSiteChannelFile = new SingleSiteChannelFile(
-					file,
-					getInterval( file ),
-					getPositionName(file.getName() ),
-					getWellName(file.getName() ) );
+		final int numFiles = files.size();
+		final String[] siteNames = new String[ numFiles ];
+		final String[] wellNamesOfFiles = new String[ numFiles ];
+		final int[][] positions = new int[ numFiles ][];
 
-			singleSiteChannelFiles.add( singleSiteChannelFile );
+		for ( int i = 0; i < numFiles; i++ )
+		{
+			final File file = files.get( i );
+			positions[ i ] = getGridPosition( parsedFileNames[ i ] );
+			siteNames[ i ] = getPositionName(file.getName() );
+			wellNamesOfFiles[ i ] = getWellName( parsedFileNames[ i ] );
 		}
+
+		siteTable = SiteTable.create( files, siteNames, wellNamesOfFiles, positions );
 	}
 
 	private String getPositionName( String fileName )
@@ -69,9 +77,9 @@ public class MultiWellChannelFilesProviderMolDevMultiSite implements MultiWellCh
 		return fileName;
 	}
 
-	private void configWells( List< File > files )
+	private void configWells()
 	{
-		int[] maximalWellPositionsInData = getMaximalWellPositionsInData( files );
+		int[] maximalWellPositionsInData = getMaximalWellPositionsInData();
 
 		wellDimensions = Utils.guessWellDimensions( maximalWellPositionsInData );
 
@@ -85,9 +93,9 @@ public class MultiWellChannelFilesProviderMolDevMultiSite implements MultiWellCh
 	}
 
 
-	private void configSites( List< File > files )
+	private void configSites()
 	{
-		numSites = getNumSites( files );
+		numSites = getNumSites();
 		siteDimensions = new int[ 2 ];
 		siteDimensions[ 0 ] = (int) Math.sqrt( numSites );
 		siteDimensions[ 1 ] = (int) Math.sqrt( numSites );
@@ -96,34 +104,32 @@ public class MultiWellChannelFilesProviderMolDevMultiSite implements MultiWellCh
 		Utils.log( "Site dimensions [ 1 ] : " +  siteDimensions[ 1 ] );
 	}
 
-	private String getWellName( String fileName )
+	private static ArrayList< String > getWellNames( ParsedFileName[] parsedFileNames )
 	{
-		final Matcher matcher = Pattern.compile( namingScheme ).matcher( fileName );
+		Set< String > wellNameSet = new HashSet<>(  );
 
-		if ( matcher.matches() )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			final String well = matcher.group( WELL_GROUP );
-			return well;
-		}
-		else
-		{
-			return null;
+			wellNameSet.add( getWellName( parsedFileName ) );
 		}
+
+		return new ArrayList<>( wellNameSet );
 	}
 
-	private int getNumSites( List< File > files )
+	private static String getWellName( ParsedFileName parsedFileName )
+	{
+		return parsedFileName == null ? null : parsedFileName.getWell();
+	}
+
+	private int getNumSites()
 	{
 		Set< String > sites = new HashSet<>( );
 
-		for ( File file : files )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			final String pattern = Utils.getNamingScheme( file );
-
-			final Matcher matcher = Pattern.compile( pattern ).matcher( file.getName() );
-
-			if ( matcher.matches() )
+			if ( parsedFileName != null )
 			{
-				sites.add( matcher.group( SITE_GROUP ) );
+				sites.add( parsedFileName.getSite() );
 			}
 		}
 
@@ -138,17 +144,15 @@ public class MultiWellChannelFilesProviderMolDevMultiSite implements MultiWellCh
 
 	}
 
-	private int[] getMaximalWellPositionsInData( List< File > files )
+	private int[] getMaximalWellPositionsInData()
 	{
 		int[] maximalWellPosition = new int[ 2 ];
 
-		for ( File file : files )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			final Matcher matcher = Pattern.compile( namingScheme ).matcher( file.getName() );
-
-			matcher.matches();
+			if ( parsedFileName == null ) continue;
 
-			int[] wellPosition = Utils.getWellPositionFromA01( matcher.group( WELL_GROUP ) );
+			int[] wellPosition = Utils.getWellPositionFromA01( parsedFileName.getWell() );
 
 			for ( int d = 0; d < wellPosition.length; ++d )
 			{
@@ -162,20 +166,14 @@ public class MultiWellChannelFilesProviderMolDevMultiSite implements MultiWellCh
 		return maximalWellPosition;
 	}
 
-	private FinalInterval getInterval( File file )
+	private int[] getGridPosition( ParsedFileName parsedFileName )
 	{
-		String filePath = file.getAbsolutePath();
-
-		final Matcher matcher = Pattern.compile( namingScheme ).matcher( filePath );
-
-		if ( matcher.matches() )
+		if ( parsedFileName != null )
 		{
-			int[] wellPosition = Utils.getWellPositionFromA01( matcher.group( WELL_GROUP ) );
-			int[] sitePosition = getSitePositionFromSiteIndex( matcher.group( SITE_GROUP ) );
-
-			final FinalInterval interval = Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
+			int[] wellPosition = Utils.getWellPositionFromA01( parsedFileName.getWell() );
+			int[] sitePosition = getSitePositionFromSiteIndex( parsedFileName.getSite() );
 
-			return interval;
+			return Utils.computeGridPosition( wellPosition, sitePosition, siteDimensions );
 		}
 		else
 		{
@@ -1,12 +1,9 @@
 package de.embl.cba.plateviewer.image;
 
 import de.embl.cba.plateviewer.Utils;
-import net.imglib2.FinalInterval;
 
 import java.io.File;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellChannelFilesProvider
 {
@@ -19,30 +16,38 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 	int[] maxSiteDimensionsInData;
 	int[] imageDimensions;
 
-	final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
+	SiteTable siteTable;
 
 	final static String NAMING_SCHEME = NamingSchemes.PATTERN_MD_A01_WAVELENGTH;
 	public static final int NAMING_SCHEME_WELL_GROUP = 1;
 
 	final ArrayList< String > wellNames;
 
+	final ParsedFileName[] parsedFileNames;
+
 	public MultiWellChannelFilesProviderMolDevSingleSite( List< File > files, int[] imageDimensions )
 	{
 		this.files = files;
-		this.singleSiteChannelFiles = new ArrayList<>();
 		this.imageDimensions = imageDimensions;
 
 		this.maxWellDimensionsInData = new int[ 2 ];
 		this.maxSiteDimensionsInData = new int[ 2 ];
+		this.parsedFileNames = NamingSchemes.get( NAMING_SCHEME ).parse( files );
 
 		createImageFileList();
 
-		wellNames = Utils.getWellNames( files, NAMING_SCHEME, NAMING_SCHEME_WELL_GROUP );
+		wellNames = getWellNames( parsedFileNames );
 	}
 
 	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
 	{
-		return singleSiteChannelFiles;
+		return siteTable.getSites( imageDimensions, null );
+	}
+
+	@Override
+	public SiteTable getSiteTable()
+	{
+		return siteTable;
 	}
 
 	public ArrayList< String > getWellNames()
@@ -53,20 +58,23 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 	private void createImageFileList()
 	{
 
-		configWells( files );
-		configSites( files );
-
-		for ( File file : files )
-		{
+		configWells();
+		configSites();
 
-			final SingleSiteChannelFile singleSiteChannelFile = new SingleSiteChannelFile(
-					file,
-					getInterval( file ),
-					getPositionName(file.getName() ),
-					getWellName( file.getName() ));
+		final int numFiles = files.size();
+		final String[] siteNames = new String[ numFiles ];
+		final String[] wellNamesOfFiles = new String[ numFiles ];
+		final int[][] positions = new int[ numFiles ][];
 
-			singleSiteChannelFiles.add( singleSiteChannelFile );
+		for ( int i = 0; i < numFiles; i++ )
+		{
+			final File file = files.get( i );
+			positions[ i ] = getGridPosition( parsedFileNames[ i ] );
+			siteNames[ i ] = getPositionName(file.getName() );
+			wellNamesOfFiles[ i ] = getWellName( parsedFileNames[ i ] );
 		}
+
+		siteTable = SiteTable.create( files, siteNames, wellNamesOfFiles, positions );
 	}
 
 	private String getPositionName( String fileName )
@@ -74,24 +82,26 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 		return fileName;
 	}
 
-	private String getWellName( String fileName )
+	private static ArrayList< String > getWellNames( ParsedFileName[] parsedFileNames )
 	{
-		final Matcher matcher = Pattern.compile( NAMING_SCHEME ).matcher( fileName );
+		Set< String > wellNameSet = new HashSet<>(  );
 
-		if ( matcher.matches() )
-		{
-			final String well = matcher.group( NAMING_SCHEME_WELL_GROUP );
-			return well;
-		}
-		else
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			return null;
+			wellNameSet.add( getWellName( parsedFileName ) );
 		}
+
+		return new ArrayList<>( wellNameSet );
+	}
+
+	private static String getWellName( ParsedFileName parsedFileName )
+	{
+		return parsedFileName == null ? null : parsedFileName.getWell();
 	}
 
-	private void configWells( List< File > files )
+	private void configWells()
 	{
-		int[] maximalWellPositionsInData = getMaximalWellPositionsInData( files );
+		int[] maximalWellPositionsInData = getMaximalWellPositionsInData();
 
 		wellDimensions = Utils.guessWellDimensions( maximalWellPositionsInData );
 
@@ -100,7 +110,7 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 		Utils.log( "Well dimensions [ 1 ] : " +  wellDimensions[ 1 ] );
 	}
 
-	private void configSites( List< File > files )
+	private void configSites()
 	{
 		numSites = 1; //getNumSites( files );
 		siteDimensions = new int[ 2 ];
@@ -111,17 +121,15 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 		Utils.log( "Site dimensions [ 1 ] : " +  siteDimensions[ 1 ] );
 	}
 
-	private int[] getMaximalWellPositionsInData( List< File > files )
+	private int[] getMaximalWellPositionsInData()
 	{
 		int[] maximalWellPosition = new int[ 2 ];
 
-		for ( File file : files )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			final Matcher matcher = Pattern.compile( NAMING_SCHEME ).matcher( file.getName() );
-
-			matcher.matches();
+			if ( parsedFileName == null ) continue;
 
-			int[] wellPosition = getWellPositionFromA01( matcher.group( 1 ) );
+			int[] wellPosition = getWellPositionFromA01( parsedFileName.getWell() );
 
 			for ( int d = 0; d < wellPosition.length; ++d )
 			{
@@ -136,21 +144,15 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 
 	}
 
-	private FinalInterval getInterval( File file )
+	private int[] getGridPosition( ParsedFileName parsedFileName )
 	{
-		String filePath = file.getAbsolutePath();
-
-		final Matcher matcher = Pattern.compile( NAMING_SCHEME ).matcher( filePath );
-
-		if ( matcher.matches() )
+		if ( parsedFileName != null )
 		{
 
 			int[] sitePosition = new int[ ]{ 1, 1};
-			int[] wellPosition = getWellPositionFromA01( matcher.group( 1 ) );
-
-			final FinalInterval interval = Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
+			int[] wellPosition = getWellPositionFromA01( parsedFileName.getWell() );
 
-			return interval;
+			return Utils.computeGridPosition( wellPosition, sitePosition, siteDimensions );
 
 		}
 		else
@@ -1,15 +1,12 @@
 package de.embl.cba.plateviewer.image;
 
 import de.embl.cba.plateviewer.Utils;
-import net.imglib2.FinalInterval;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFilesProvider
 {
@@ -20,10 +17,12 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 	int[] wellDimensions;
 	int[] imageDimensions;
 
-	final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
+	SiteTable siteTable;
 
 	final ArrayList< String > wellNames;
 
+	final ParsedFileName[] parsedFileNames;
+
 	final String WELL_SITE_CHANNEL_PATTERN = NamingSchemes.PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL;
 	public static final int WELL_GROUP = 1;
 	public static final int SITE_GROUP = 2;
@@ -31,18 +30,24 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 	public MultiWellChannelFilesProviderScanR( List< File > files, int[] imageDimensions )
 	{
 		this.files = files;
-		this.singleSiteChannelFiles = new ArrayList<>();
 		this.imageDimensions = imageDimensions;
+		this.parsedFileNames = NamingSchemes.get( WELL_SITE_CHANNEL_PATTERN ).parse( files );
 
 		createChannelSources();
 
-		this.wellNames = getWellNames( files, WELL_SITE_CHANNEL_PATTERN );
+		this.wellNames = getWellNames( parsedFileNames );
 	}
 
 	@Override
 	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
 	{
-		return singleSiteChannelFiles;
+		return siteTable.getSites( imageDimensions, null );
+	}
+
+	@Override
+	public SiteTable getSiteTable()
+	{
+		return siteTable;
 	}
 
 	@Override
@@ -52,52 +57,56 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 	}
 
 	public static ArrayList< String > getWellNames( List< File > files, String well_site_channel_pattern )
+	{
+		return getWellNames( NamingSchemes.get( well_site_channel_pattern ).parse( files ) );
+	}
+
+	public static String getWellName( String fileName, String well_site_channel_pattern )
+	{
+		return getWellName( NamingSchemes.get( well_site_channel_pattern ).parse( fileName ) );
+	}
+
+	private static ArrayList< String > getWellNames( ParsedFileName[] parsedFileNames )
 	{
 		Set< String > wellNameSet = new HashSet<>(  );
 
-		for ( File file : files )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			wellNameSet.add( getWellName( file.getName(), well_site_channel_pattern ) );
+			wellNameSet.add( getWellName( parsedFileName ) );
 		}
 
 		return new ArrayList<>( wellNameSet );
 	}
 
-	public static String getWellName( String fileName, String well_site_channel_pattern )
+	private static String getWellName( ParsedFileName parsedFileName )
 	{
-		final Matcher matcher = Pattern.compile( well_site_channel_pattern ).matcher( fileName );
-
-		if ( matcher.matches() )
-		{
-			String wellName = matcher.group( 1 );
-			return wellName;
-		}
-		else
-		{
-			return null;
-		}
+		return parsedFileName == null ? null : parsedFileName.getWell();
 	}
 
 	private void createChannelSources()
 	{
-		configWells( files );
-		configSites( files );
+		configWells();
+		configSites();
 
-		for ( File file : files )
-		{
-			final SingleSiteChannelFile singleSiteChannelFile = new SingleSiteChannelFile(
-					file,
-					getInterval( file, WELL_SITE_CHANNEL_PATTERN, wellDimensions[ 0 ], siteDimensions[ 0 ] ),
-					file.getName(),
-					getWellName( file.getName(), WELL_SITE_CHANNEL_PATTERN ) );
+		final int numFiles = files.size();
+		final String[] siteNames = new String[ numFiles ];
+		final String[] wellNamesOfFiles = new String[ numFiles ];
+		final int[][] positions = new int[ numFiles ][];
 
-			singleSiteChannelFiles.add( singleSiteChannelFile );
+		for ( int i = 0; i < numFiles; i++ )
+		{
+			final File file = files.get( i );
+			positions[ i ] = getGridPosition( parsedFileNames[ i ], wellDimensions[ 0 ], siteDimensions[ 0 ] );
+			siteNames[ i ] = file.getName();
+			wellNamesOfFiles[ i ] = getWellName( parsedFileNames[ i ] );
 		}
+
+		siteTable = SiteTable.create( files, siteNames, wellNamesOfFiles, positions );
 	}
 
-	private void configWells( List< File > files )
+	private void configWells()
 	{
-		numWells = getNumWells( files );
+		numWells = getNumWells();
 
 		wellDimensions = Utils.guessWellDimensions( numWells );
 
@@ -106,9 +115,9 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 		Utils.log( "Well dimensions [ 1 ] : " +  wellDimensions[ 1 ] );
 	}
 
-	private void configSites( List< File > files )
+	private void configSites()
 	{
-		numSites = getNumSites( files );
+		numSites = getNumSites();
 		siteDimensions = new int[ 2 ];
 
 		for ( int d = 0; d < siteDimensions.length; ++d )
@@ -122,17 +131,15 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 		Utils.log( "Site dimensions [ 1 ] : " +  siteDimensions[ 1 ] );
 	}
 
-	private int getNumSites( List< File > files )
+	private int getNumSites()
 	{
 		Set< String > sites = new HashSet<>( );
 
-		for ( File file : files )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			if ( matcher.matches() )
+			if ( parsedFileName != null )
 			{
-				sites.add( matcher.group( SITE_GROUP ) );
+				sites.add( parsedFileName.getSite() );
 			}
 		}
 
@@ -146,20 +153,18 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 		}
 	}
 
-	private int getNumWells( List< File > files )
+	private int getNumWells()
 	{
 		Set< String > wells = new HashSet<>( );
 		int maxWellNum = 0;
 
-		for ( File file : files )
+		for ( ParsedFileName parsedFileName : parsedFileNames )
 		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			matcher.matches();
+			if ( parsedFileName == null ) continue;
 
-			wells.add( matcher.group( WELL_GROUP ) );
+			wells.add( parsedFileName.getWell() );
 
-			int wellNum = Integer.parseInt( matcher.group( WELL_GROUP ) );
+			int wellNum = Integer.parseInt( parsedFileName.getWell() );
 
 			if ( wellNum > maxWellNum )
 			{
@@ -180,25 +185,20 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 	/**
 	 * Determines where the image will be displayed
 	 *
-	 * @param file
-	 * @param pattern
+	 * @param parsedFileName
 	 * @param numWellColumns
 	 * @param numSiteColumns
 	 * @return
 	 */
-	private FinalInterval getInterval( File file, String pattern, int numWellColumns, int numSiteColumns )
+	private int[] getGridPosition( ParsedFileName parsedFileName, int numWellColumns, int numSiteColumns )
 	{
-		String filePath = file.getAbsolutePath();
-
-		final Matcher matcher = Pattern.compile( pattern ).matcher( filePath );
-
-		if ( matcher.matches() )
+		if ( parsedFileName != null )
 		{
 			int[] wellPosition = new int[ 2 ];
 			int[] sitePosition = new int[ 2 ];
 
-			int wellNum = Integer.parseInt( matcher.group( WELL_GROUP ) ) - 1;
-			int siteNum = Integer.parseInt( matcher.group( SITE_GROUP ) ) - 1;
+			int wellNum = Integer.parseInt( parsedFileName.getWell() ) - 1;
+			int siteNum = Integer.parseInt( parsedFileName.getSite() ) - 1;
 
 			wellPosition[ 1 ] = wellNum / numWellColumns;
 			wellPosition[ 0 ] = wellNum % numWellColumns;
@@ -212,10 +212,7 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 			else
 				sitePosition[ 1 ] = ( numSiteColumns - 1 ) - modulo;
 
-			final FinalInterval interval =
-					Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
-
-			return interval;
+			return Utils.computeGridPosition( wellPosition, sitePosition, siteDimensions );
 		}
 		else
 		{
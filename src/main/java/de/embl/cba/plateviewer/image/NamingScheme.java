@@ -0,0 +1,105 @@
+package de.embl.cba.plateviewer.image;
+
+import java.io.File;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * A file naming pattern, compiled once, together with the groups that hold
+ * the well, site and channel of a file name.
+ *
+ * Instances are obtained from {@link NamingSchemes#get(String)}.
+ */
+public class NamingScheme
+{
+	public static final int NO_GROUP = -1;
+
+	/**
+	 * Below this number of files, parsing is faster in the calling thread.
+	 */
+	public static final int MIN_FILES_FOR_PARALLEL_PARSING = 1000;
+
+	private final String regExp;
+	private final Pattern pattern;
+	private final int wellGroup;
+	private final int siteGroup;
+	private final int channelGroup;
+
+	NamingScheme( String regExp, int wellGroup, int siteGroup, int channelGroup )
+	{
+		this.regExp = regExp;
+		this.pattern = Pattern.compile( regExp );
+		this.wellGroup = wellGroup;
+		this.siteGroup = siteGroup;
+		this.channelGroup = channelGroup;
+	}
+
+	public String getRegExp()
+	{
+		return regExp;
+	}
+
+	/**
+	 * Patterns are thread safe, matchers are not, thus callers create their own.
+	 */
+	public Pattern getPattern()
+	{
+		return pattern;
+	}
+
+	public boolean matches( String name )
+	{
+		return pattern.matcher( name ).matches();
+	}
+
+	/**
+	 * @return the well, site and channel of the file name, or null if it does not match
+	 */
+	public ParsedFileName parse( String fileName )
+	{
+		return parse( pattern.matcher( fileName ) );
+	}
+
+	/**
+	 * Parses the names of all files, in parallel for long file lists.
+	 *
+	 * @return the well, site and channel of each file, in the order of the files,
+	 * with null for the files whose name does not match
+	 */
+	public ParsedFileName[] parse( List< File > files )
+	{
+		final int numFiles = files.size();
+		final ParsedFileName[] parsedFileNames = new ParsedFileName[ numFiles ];
+
+		if ( numFiles < MIN_FILES_FOR_PARALLEL_PARSING )
+		{
+			final Matcher matcher = pattern.matcher( "" );
+			for ( int i = 0; i < numFiles; i++ )
+				parsedFileNames[ i ] = parse( matcher.reset( files.get( i ).getName() ) );
+		}
+		else
+		{
+			IntStream.range( 0, numFiles ).parallel().forEach( i ->
+					parsedFileNames[ i ] = parse( files.get( i ).getName() ) );
+		}
+
+		return parsedFileNames;
+	}
+
+	private ParsedFileName parse( Matcher matcher )
+	{
+		if ( ! matcher.matches() ) return null;
+
+		return new ParsedFileName(
+				group( matcher, wellGroup ),
+				group( matcher, siteGroup ),
+				group( matcher, channelGroup ) );
+	}
+
+	private static String group( Matcher matcher, int group )
+	{
+		return group == NO_GROUP ? null : matcher.group( group );
+	}
+}
@@ -1,5 +1,14 @@
 package de.embl.cba.plateviewer.image;
 
+import de.embl.cba.plateviewer.Utils;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static de.embl.cba.plateviewer.image.NamingScheme.NO_GROUP;
+
 public abstract class NamingSchemes
 {
 	public static final String PATTERN_MD_A01_SITE_WAVELENGTH = ".*_([A-Z]{1}[0-9]{2})_s(.*)_w([0-9]{1}).*.tif";
@@ -10,4 +19,57 @@ public abstract class NamingSchemes
 	public static final String PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL = ".*--W([0-9]{5})--P([0-9]{5}).*--.*--(.*)\\..*";
 	public static final String PATTERN_SCANR_WELLNAME_WELLNUM = "(.*--W[0-9]{5})--.*\\..*";
 	public static final String PATTERN_NIKON_TI2_HDF5 = ".*Well([A-Z]{1}[0-9]{2})_Point[A-Z]{1}[0-9]{2}_([0-9]{4})_.*h5$";
+
+	/**
+	 * The schemes that are detected, in the order in which they are tried.
+	 */
+	private static final Map< String, NamingScheme > detectedSchemes = new LinkedHashMap<>();
+
+	/**
+	 * Also holds the patterns of other schemes, e.g. given by the user, once they are used.
+	 */
+	private static final Map< String, NamingScheme > schemes = new ConcurrentHashMap<>();
+
+	static
+	{
+		register( detectedSchemes, PATTERN_NIKON_TI2_HDF5, 1, 2, NO_GROUP );
+		register( detectedSchemes, PATTERN_MD_A01_SITE_WAVELENGTH, 1, 2, 3 );
+		register( detectedSchemes, PATTERN_MD_A01_SITE, 1, 2, NO_GROUP );
+		register( detectedSchemes, PATTERN_MD_A01_WAVELENGTH, 1, NO_GROUP, 2 );
+		register( detectedSchemes, PATTERN_ALMF_SCREENING_WELL_SITE_CHANNEL, 1, 2, 3 );
+		register( detectedSchemes, PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL, 1, 2, 3 );
+
+		schemes.putAll( detectedSchemes );
+		register( schemes, PATTERN_ALMF_SCREENING_TREAT1_TREAT2_WELLNUM, 3, NO_GROUP, NO_GROUP );
+		register( schemes, PATTERN_SCANR_WELLNAME_WELLNUM, 1, NO_GROUP, NO_GROUP );
+	}
+
+	/**
+	 * @return the compiled scheme of the pattern; for a pattern that is not one
+	 * of the above, the first group is taken as the well and the second as the site
+	 */
+	public static NamingScheme get( String pattern )
+	{
+		return schemes.computeIfAbsent( pattern, p -> new NamingScheme( p, 1, 2, NO_GROUP ) );
+	}
+
+	/**
+	 * @return the pattern of the first scheme that matches the path of the file,
+	 * or {@link Utils#PATTERN_NO_MATCH}
+	 */
+	public static String getNamingScheme( File file )
+	{
+		final String filePath = file.getAbsolutePath();
+
+		for ( NamingScheme scheme : detectedSchemes.values() )
+			if ( scheme.matches( filePath ) )
+				return scheme.getRegExp();
+
+		return Utils.PATTERN_NO_MATCH;
+	}
+
+	private static void register( Map< String, NamingScheme > schemes, String pattern, int wellGroup, int siteGroup, int channelGroup )
+	{
+		schemes.put( pattern, new NamingScheme( pattern, wellGroup, siteGroup, channelGroup ) );
+	}
 }
@@ -0,0 +1,34 @@
+package de.embl.cba.plateviewer.image;
+
+/**
+ * The well, site and channel of a file, as given by its name.
+ * Parts that the naming scheme does not encode are null.
+ */
+public class ParsedFileName
+{
+	private final String well;
+	private final String site;
+	private final String channel;
+
+	public ParsedFileName( String well, String site, String channel )
+	{
+		this.well = well;
+		this.site = site;
+		this.channel = channel;
+	}
+
+	public String getWell()
+	{
+		return well;
+	}
+
+	public String getSite()
+	{
+		return site;
+	}
+
+	public String getChannel()
+	{
+		return channel;
+	}
+}
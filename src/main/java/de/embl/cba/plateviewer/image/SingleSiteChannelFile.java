@@ -3,7 +3,15 @@ package de.embl.cba.plateviewer.image;
 import net.imglib2.FinalInterval;
 
 import java.io.File;
+import java.util.Objects;
 
+/**
+ * A site of a channel at a resolution level.
+ *
+ * Sites of a {@link SiteTable} are created on lookup and refer to the
+ * file and names of the table; two of them are equal if they are the
+ * same site of the same table and data set.
+ */
 public class SingleSiteChannelFile
 {
 	private final File file;
@@ -14,6 +22,9 @@ public class SingleSiteChannelFile
 	private String siteInformation = "";
 	private String wellInformation = "";
 
+	private final SiteTable siteTable;
+	private final int index;
+
 	public SingleSiteChannelFile( File file, String hdf5DataSetName, FinalInterval interval, String siteName, String wellName )
 	{
 		this.file = file;
@@ -21,14 +32,24 @@ public class SingleSiteChannelFile
 		this.interval = interval;
 		this.siteName = siteName;
 		this.wellName = wellName;
+		this.siteTable = null;
+		this.index = -1;
 	}
 
 	public SingleSiteChannelFile( File file, FinalInterval interval, String siteName, String wellName )
 	{
-		this.file = file;
+		this( file, null, interval, siteName, wellName );
+	}
+
+	SingleSiteChannelFile( SiteTable siteTable, int index, FinalInterval interval, String hdf5DataSetName )
+	{
+		this.file = siteTable.getFile( index );
+		this.hdf5DataSetName = hdf5DataSetName;
 		this.interval = interval;
-		this.siteName = siteName;
-		this.wellName = wellName;
+		this.siteName = siteTable.getSiteName( index );
+		this.wellName = siteTable.getWellName( index );
+		this.siteTable = siteTable;
+		this.index = index;
 	}
 
 	public String getSiteName()
@@ -38,22 +59,28 @@ public class SingleSiteChannelFile
 
 	public String getSiteInformation()
 	{
-		return siteInformation;
+		return siteTable == null ? siteInformation : siteTable.getSiteInformation( index );
 	}
 
 	public void setSiteInformation( String siteInformation )
 	{
-		this.siteInformation = siteInformation;
+		if ( siteTable == null )
+			this.siteInformation = siteInformation;
+		else
+			siteTable.setSiteInformation( index, siteInformation );
 	}
 
 	public String getWellInformation()
 	{
-		return wellInformation;
+		return siteTable == null ? wellInformation : siteTable.getWellInformation( index );
 	}
 
 	public void setWellInformation( String wellInformation )
 	{
-		this.wellInformation = wellInformation;
+		if ( siteTable == null )
+			this.wellInformation = wellInformation;
+		else
+			siteTable.setWellInformation( index, wellInformation );
 	}
 
 	public String getWellName()
@@ -75,4 +102,36 @@ public class SingleSiteChannelFile
 	{
 		return hdf5DataSetName;
 	}
+
+	/**
+	 * @return the table of the site, or null if it was created on its own
+	 */
+	public SiteTable getSiteTable()
+	{
+		return siteTable;
+	}
+
+	/**
+	 * @return the index of the site in its table, or -1
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+
+	@Override
+	public boolean equals( Object o )
+	{
+		if ( this == o ) return true;
+		if ( siteTable == null || ! ( o instanceof SingleSiteChannelFile ) ) return false;
+		final SingleSiteChannelFile site = ( SingleSiteChannelFile ) o;
+		return siteTable == site.siteTable && index == site.index && Objects.equals( hdf5DataSetName, site.hdf5DataSetName );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		if ( siteTable == null ) return System.identityHashCode( this );
+		return Objects.hash( System.identityHashCode( siteTable ), index, hdf5DataSetName );
+	}
 }
@@ -0,0 +1,141 @@
+package de.embl.cba.plateviewer.image;
+
+import net.imglib2.Interval;
+import net.imglib2.RealLocalizable;
+
+import java.util.List;
+
+/**
+ * Constant time lookup of the sites of a channel at a resolution level,
+ * by plate coordinate or site name.
+ *
+ * The site of a coordinate is found by grid arithmetic in the {@link SiteTable},
+ * which is shared by all channels and resolution levels of the plate.
+ *
+ * Like the linear search it replaces, lookups return the first matching
+ * site in the order of the table.
+ */
+public class SiteIndex
+{
+	private final SiteTable siteTable;
+	private final int[] siteDimensions;
+	private final String hdf5DataSetName;
+
+	/**
+	 * @param siteDimensions
+	 * 				the dimensions of the sites at the resolution level
+	 * @param hdf5DataSetName
+	 * 				null, unless the sites are HDF5 files
+	 */
+	public SiteIndex( SiteTable siteTable, int[] siteDimensions, String hdf5DataSetName )
+	{
+		this.siteTable = siteTable;
+		this.siteDimensions = siteDimensions.clone();
+		this.hdf5DataSetName = hdf5DataSetName;
+	}
+
+	/**
+	 * @param sites
+	 * 				of the same size, and aligned to a grid of that size
+	 * @throws IllegalArgumentException
+	 * 				if the sites are not aligned to a grid, see {@link SiteTable#create(List)}
+	 */
+	public SiteIndex( List< SingleSiteChannelFile > sites )
+	{
+		this( SiteTable.create( sites ),
+				sites.isEmpty() ? new int[]{ 1, 1 } : getDimensions( sites.get( 0 ).getInterval() ),
+				sites.isEmpty() ? null : sites.get( 0 ).getHdf5DataSetName() );
+	}
+
+	public SiteTable getSiteTable()
+	{
+		return siteTable;
+	}
+
+	public int[] getSiteDimensions()
+	{
+		return siteDimensions.clone();
+	}
+
+	public int size()
+	{
+		return siteTable.size();
+	}
+
+	public SingleSiteChannelFile getSite( int index )
+	{
+		return siteTable.getSite( index, siteDimensions, hdf5DataSetName );
+	}
+
+	public SingleSiteChannelFile getSite( String siteName )
+	{
+		return getSiteOrNull( siteTable.getIndex( siteName ) );
+	}
+
+	public SingleSiteChannelFile getSite( long[] position )
+	{
+		return getSite( position[ 0 ], position[ 1 ] );
+	}
+
+	public SingleSiteChannelFile getSite( RealLocalizable position )
+	{
+		return getSite(
+				( long ) Math.floor( position.getDoublePosition( 0 ) ),
+				( long ) Math.floor( position.getDoublePosition( 1 ) ) );
+	}
+
+	public SingleSiteChannelFile getSite( long x, long y )
+	{
+		return getSiteOrNull( getIndex( x, y ) );
+	}
+
+	/**
+	 * @return the index of the site at the plate coordinate, or -1
+	 */
+	public int getIndex( long x, long y )
+	{
+		return siteTable.getIndex( Math.floorDiv( x, siteDimensions[ 0 ] ), Math.floorDiv( y, siteDimensions[ 1 ] ) );
+	}
+
+	/**
+	 * @return the first site that intersects with the interval, or null
+	 */
+	public SingleSiteChannelFile getIntersectingSite( Interval interval )
+	{
+		return getSiteOrNull( getIntersectingIndex( interval ) );
+	}
+
+	/**
+	 * @return the index of the first site that intersects with the interval, or -1
+	 */
+	public int getIntersectingIndex( Interval interval )
+	{
+		int firstIndex = Integer.MAX_VALUE;
+
+		final long minX = Math.floorDiv( interval.min( 0 ), siteDimensions[ 0 ] );
+		final long maxX = Math.floorDiv( interval.max( 0 ), siteDimensions[ 0 ] );
+		final long minY = Math.floorDiv( interval.min( 1 ), siteDimensions[ 1 ] );
+		final long maxY = Math.floorDiv( interval.max( 1 ), siteDimensions[ 1 ] );
+
+		for ( long y = minY; y <= maxY; y++ )
+		{
+			for ( long x = minX; x <= maxX; x++ )
+			{
+				final int index = siteTable.getIndex( x, y );
+				if ( index >= 0 ) firstIndex = Math.min( firstIndex, index );
+			}
+		}
+
+		return firstIndex == Integer.MAX_VALUE ? -1 : firstIndex;
+	}
+
+	private SingleSiteChannelFile getSiteOrNull( int index )
+	{
+		return index < 0 ? null : getSite( index );
+	}
+
+	private static int[] getDimensions( Interval interval )
+	{
+		return new int[]{ ( int ) Math.max( 1, interval.dimension( 0 ) ), ( int ) Math.max( 1, interval.dimension( 1 ) ) };
+	}
+}
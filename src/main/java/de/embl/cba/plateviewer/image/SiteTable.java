@@ -0,0 +1,365 @@
+package de.embl.cba.plateviewer.image;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.util.Intervals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sites of a plate, as primitive arrays rather than one object per site.
+ *
+ * Positions are in units of sites, such that one table serves all resolution
+ * levels, whose sites only differ in size, and all channels that are stored
+ * in the same files. Files are indices into a path table, e.g. the files of
+ * the plate, and wells are indices into the distinct well names.
+ *
+ * A {@link SingleSiteChannelFile} is only created when a site is looked up,
+ * see {@link #getSite}.
+ */
+public class SiteTable
+{
+	private static final long MAX_GRID_SIZE = 64 * 1024 * 1024;
+
+	private final List< File > files;
+	private final int[] fileIndices;
+	private final String[] siteNames;
+	private final int[] wellIds;
+	private final String[] wellNames;
+	private final int[] siteX;
+	private final int[] siteY;
+
+	private final int[] gridSize;
+	private final int[] grid;
+	private final int[] siteNameOrder;
+
+	private String[] siteInformation;
+	private String[] wellInformation;
+
+	/**
+	 * @param files
+	 * 				the path table, which is not copied
+	 * @param fileIndices
+	 * 				the index of the file of each site in the path table
+	 * @param siteX
+	 * 				the column of each site, in units of sites
+	 * @param siteY
+	 * 				the row of each site, in units of sites
+	 */
+	public SiteTable( List< File > files, int[] fileIndices, String[] siteNames, String[] wellNamesOfSites, int[] siteX, int[] siteY )
+	{
+		this.files = files;
+		this.fileIndices = fileIndices;
+		this.siteNames = siteNames;
+		this.siteX = siteX;
+		this.siteY = siteY;
+
+		final int numSites = fileIndices.length;
+		final Map< String, Integer > wellNameToId = new HashMap<>();
+		final ArrayList< String > distinctWellNames = new ArrayList<>();
+		wellIds = new int[ numSites ];
+
+		for ( int i = 0; i < numSites; i++ )
+		{
+			final String wellName = wellNamesOfSites[ i ];
+			Integer id = wellNameToId.get( wellName );
+			if ( id == null )
+			{
+				id = distinctWellNames.size();
+				wellNameToId.put( wellName, id );
+				distinctWellNames.add( wellName );
+			}
+			wellIds[ i ] = id;
+		}
+
+		wellNames = distinctWellNames.toArray( new String[ 0 ] );
+
+		gridSize = new int[ 2 ];
+		for ( int i = 0; i < numSites; i++ )
+		{
+			if ( siteX[ i ] < 0 || siteY[ i ] < 0 )
+				throw new IllegalArgumentException( "Negative position of site " + siteNames[ i ] );
+
+			gridSize[ 0 ] = Math.max( gridSize[ 0 ], siteX[ i ] + 1 );
+			gridSize[ 1 ] = Math.max( gridSize[ 1 ], siteY[ i ] + 1 );
+		}
+
+		if ( ( long ) gridSize[ 0 ] * gridSize[ 1 ] > MAX_GRID_SIZE )
+			throw new IllegalArgumentException( "Too many sites: " + gridSize[ 0 ] + " x " + gridSize[ 1 ] );
+
+		// like a linear search, lookups return the first site at a position
+		grid = new int[ gridSize[ 0 ] * gridSize[ 1 ] ];
+		Arrays.fill( grid, -1 );
+		for ( int i = 0; i < numSites; i++ )
+		{
+			final int gridIndex = siteY[ i ] * gridSize[ 0 ] + siteX[ i ];
+			if ( grid[ gridIndex ] == -1 ) grid[ gridIndex ] = i;
+		}
+
+		siteNameOrder = createSiteNameOrder( siteNames );
+	}
+
+	/**
+	 * Creates the table of sites that all have the size of the first site and are
+	 * aligned to a grid of that size, which is the case for all supported naming schemes.
+	 * The files of the sites are the path table.
+	 */
+	public static SiteTable create( List< SingleSiteChannelFile > sites )
+	{
+		final int numSites = sites.size();
+		final List< File > files = new ArrayList<>();
+		final Map< File, Integer > fileToIndex = new HashMap<>();
+		final int[] fileIndices = new int[ numSites ];
+		final String[] siteNames = new String[ numSites ];
+		final String[] wellNames = new String[ numSites ];
+		final int[] siteX = new int[ numSites ];
+		final int[] siteY = new int[ numSites ];
+		final long[] size = numSites == 0 ? new long[ 2 ] : Intervals.dimensionsAsLongArray( sites.get( 0 ).getInterval() );
+
+		for ( int i = 0; i < numSites; i++ )
+		{
+			final SingleSiteChannelFile site = sites.get( i );
+			final Interval interval = site.getInterval();
+
+			for ( int d = 0; d < 2; d++ )
+				if ( interval.dimension( d ) != size[ d ] || interval.min( d ) % size[ d ] != 0 )
+					throw new IllegalArgumentException( "Site " + site.getSiteName() + " is not aligned to the grid of the first site" );
+
+			fileIndices[ i ] = fileToIndex.computeIfAbsent( site.getFile(), file -> {
+				files.add( file );
+				return files.size() - 1;
+			} );
+			siteNames[ i ] = site.getSiteName();
+			wellNames[ i ] = site.getWellName();
+			siteX[ i ] = ( int ) ( interval.min( 0 ) / size[ 0 ] );
+			siteY[ i ] = ( int ) ( interval.min( 1 ) / size[ 1 ] );
+		}
+
+		return new SiteTable( files, fileIndices, siteNames, wellNames, siteX, siteY );
+	}
+
+	/**
+	 * Creates the table of a file list, which is the path table,
+	 * with one site per file.
+	 *
+	 * @param positions
+	 * 				the column and row of the site of each file, in units of sites,
+	 * 				or null for files that are not part of the plate
+	 */
+	public static SiteTable create( List< File > files, String[] siteNames, String[] wellNames, int[][] positions )
+	{
+		int numSites = 0;
+		for ( int[] position : positions )
+			if ( position != null ) numSites++;
+
+		final int[] fileIndices = new int[ numSites ];
+		final String[] siteNamesOfSites = new String[ numSites ];
+		final String[] wellNamesOfSites = new String[ numSites ];
+		final int[] siteX = new int[ numSites ];
+		final int[] siteY = new int[ numSites ];
+
+		for ( int i = 0, site = 0; i < positions.length; i++ )
+		{
+			if ( positions[ i ] == null ) continue;
+
+			fileIndices[ site ] = i;
+			siteNamesOfSites[ site ] = siteNames[ i ];
+			wellNamesOfSites[ site ] = wellNames[ i ];
+			siteX[ site ] = positions[ i ][ 0 ];
+			siteY[ site ] = positions[ i ][ 1 ];
+			site++;
+		}
+
+		return new SiteTable( files, fileIndices, siteNamesOfSites, wellNamesOfSites, siteX, siteY );
+	}
+
+	public int size()
+	{
+		return fileIndices.length;
+	}
+
+	public List< File > getFiles()
+	{
+		return files;
+	}
+
+	public File getFile( int site )
+	{
+		return files.get( fileIndices[ site ] );
+	}
+
+	public int getFileIndex( int site )
+	{
+		return fileIndices[ site ];
+	}
+
+	public String getSiteName( int site )
+	{
+		return siteNames[ site ];
+	}
+
+	public int getWellId( int site )
+	{
+		return wellIds[ site ];
+	}
+
+	public String getWellName( int site )
+	{
+		return wellNames[ wellIds[ site ] ];
+	}
+
+	/**
+	 * @return the distinct well names, in the order of their first site
+	 */
+	public ArrayList< String > getWellNames()
+	{
+		return new ArrayList<>( Arrays.asList( wellNames ) );
+	}
+
+	public int getNumWells()
+	{
+		return wellNames.length;
+	}
+
+	public int getSiteX( int site )
+	{
+		return siteX[ site ];
+	}
+
+	public int getSiteY( int site )
+	{
+		return siteY[ site ];
+	}
+
+	/**
+	 * @return the number of site columns and rows of the plate
+	 */
+	public int[] getGridSize()
+	{
+		return gridSize.clone();
+	}
+
+	/**
+	 * @return the index of the first site at the position, in units of sites, or -1
+	 */
+	public int getIndex( long x, long y )
+	{
+		if ( x < 0 || y < 0 || x >= gridSize[ 0 ] || y >= gridSize[ 1 ] ) return -1;
+
+		return grid[ ( int ) y * gridSize[ 0 ] + ( int ) x ];
+	}
+
+	/**
+	 * @return the index of the first site with the name, or -1
+	 */
+	public int getIndex( String siteName )
+	{
+		int low = 0;
+		int high = siteNameOrder.length - 1;
+
+		while ( low <= high )
+		{
+			final int middle = ( low + high ) >>> 1;
+			final int comparison = siteNames[ siteNameOrder[ middle ] ].compareTo( siteName );
+
+			if ( comparison < 0 ) low = middle + 1;
+			else if ( comparison > 0 ) high = middle - 1;
+			else
+			{
+				// the order is stable, thus the first of equal names is the first site
+				int first = middle;
+				while ( first > 0 && siteNames[ siteNameOrder[ first - 1 ] ].equals( siteName ) ) first--;
+				return siteNameOrder[ first ];
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param siteDimensions
+	 * 				the dimensions of the sites at the resolution level
+	 */
+	public FinalInterval getInterval( int site, int[] siteDimensions )
+	{
+		final long[] min = new long[]{ ( long ) siteX[ site ] * siteDimensions[ 0 ], ( long ) siteY[ site ] * siteDimensions[ 1 ] };
+		final long[] max = new long[]{ min[ 0 ] + siteDimensions[ 0 ] - 1, min[ 1 ] + siteDimensions[ 1 ] - 1 };
+		return new FinalInterval( min, max );
+	}
+
+	/**
+	 * @return the dimensions of the plate, at the resolution level with the given site dimensions
+	 */
+	public long[] getPlateDimensions( int[] siteDimensions )
+	{
+		return new long[]{ ( long ) gridSize[ 0 ] * siteDimensions[ 0 ], ( long ) gridSize[ 1 ] * siteDimensions[ 1 ] };
+	}
+
+	/**
+	 * @param hdf5DataSetName
+	 * 				null, unless the sites are HDF5 files
+	 */
+	public SingleSiteChannelFile getSite( int site, int[] siteDimensions, String hdf5DataSetName )
+	{
+		return new SingleSiteChannelFile( this, site, getInterval( site, siteDimensions ), hdf5DataSetName );
+	}
+
+	/**
+	 * Creates an object per site; for iterating the sites, use the index based getters.
+	 */
+	public ArrayList< SingleSiteChannelFile > getSites( int[] siteDimensions, String hdf5DataSetName )
+	{
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>( size() );
+		for ( int i = 0; i < size(); i++ )
+			sites.add( getSite( i, siteDimensions, hdf5DataSetName ) );
+
+		return sites;
+	}
+
+	public synchronized String getSiteInformation( int site )
+	{
+		return siteInformation == null || siteInformation[ site ] == null ? "" : siteInformation[ site ];
+	}
+
+	public synchronized void setSiteInformation( int site, String information )
+	{
+		if ( siteInformation == null ) siteInformation = new String[ size() ];
+		siteInformation[ site ] = information;
+	}
+
+	public synchronized String getWellInformation( int site )
+	{
+		final int wellId = wellIds[ site ];
+		return wellInformation == null || wellInformation[ wellId ] == null ? "" : wellInformation[ wellId ];
+	}
+
+	public synchronized void setWellInformation( int site, String information )
+	{
+		if ( wellInformation == null ) wellInformation = new String[ wellNames.length ];
+		wellInformation[ wellIds[ site ] ] = information;
+	}
+
+	/**
+	 * @return the site indices, sorted by site name, and by index for equal names
+	 */
+	private static int[] createSiteNameOrder( String[] siteNames )
+	{
+		final Integer[] order = new Integer[ siteNames.length ];
+		for ( int i = 0; i < order.length; i++ )
+			order[ i ] = i;
+
+		// a stable sort
+		Arrays.sort( order, ( a, b ) -> siteNames[ a ].compareTo( siteNames[ b ] ) );
+
+		final int[] siteNameOrder = new int[ order.length ];
+		for ( int i = 0; i < order.length; i++ )
+			siteNameOrder[ i ] = order[ i ];
+
+		return siteNameOrder;
+	}
+}
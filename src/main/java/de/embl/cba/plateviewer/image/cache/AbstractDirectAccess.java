@@ -0,0 +1,58 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+abstract class AbstractDirectAccess implements DirectAccess, UsedAccess
+{
+	protected final ByteBuffer bytes;
+	private final DirectBufferPool pool;
+	private volatile boolean released;
+	private volatile boolean used;
+
+	/**
+	 * @param pool
+	 * 				the pool the buffer is given back to on release, may be null
+	 */
+	AbstractDirectAccess( ByteBuffer bytes, DirectBufferPool pool )
+	{
+		this.bytes = bytes.order( ByteOrder.nativeOrder() );
+		this.pool = pool;
+	}
+
+	@Override
+	public ByteBuffer getBuffer()
+	{
+		return bytes;
+	}
+
+	@Override
+	public synchronized void release()
+	{
+		if ( released ) return;
+		released = true;
+
+		if ( pool != null )
+			pool.release( bytes );
+	}
+
+	@Override
+	public boolean isReleased()
+	{
+		return released;
+	}
+
+	public boolean isValid()
+	{
+		used = true;
+		return ! released;
+	}
+
+	@Override
+	public boolean getAndClearUsed()
+	{
+		final boolean wasUsed = used;
+		used = false;
+		return wasUsed;
+	}
+}
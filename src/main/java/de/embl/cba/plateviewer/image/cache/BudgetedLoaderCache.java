@@ -0,0 +1,64 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.ref.WeakRefLoaderCache;
+import net.imglib2.img.cell.Cell;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cell cache of one image, whose cells are kept alive by the
+ * {@link CellCacheBudget}. Cells that are evicted from the budget
+ * are only weakly referenced and thus collected with the next
+ * garbage collection. Evicted off heap cells are released right away
+ * (see {@link CellCacheBudget}) and loaded anew if they are requested
+ * before they are collected.
+ */
+public class BudgetedLoaderCache< V extends Cell< ? > > extends WeakRefLoaderCache< Long, V >
+{
+	private final CellCacheBudget budget;
+	private final double bytesPerPixel;
+
+	public BudgetedLoaderCache( CellCacheBudget budget, double bytesPerPixel )
+	{
+		this.budget = budget;
+		this.bytesPerPixel = bytesPerPixel;
+	}
+
+	@Override
+	public V getIfPresent( final Long key )
+	{
+		final V cell = super.getIfPresent( key );
+		if ( cell == null || touch( key, cell ) ) return cell;
+
+		super.invalidate( key );
+		return null;
+	}
+
+	@Override
+	public V get( final Long key, final CacheLoader< ? super Long, ? extends V > loader ) throws ExecutionException
+	{
+		while ( true )
+		{
+			final V cell = super.get( key, loader );
+			if ( touch( key, cell ) ) return cell;
+
+			super.invalidate( key );
+		}
+	}
+
+	@Override
+	public void invalidateAll()
+	{
+		budget.removeAll( this );
+		super.invalidateAll();
+	}
+
+	/**
+	 * @return false if the cell was released
+	 */
+	private boolean touch( Long key, V cell )
+	{
+		return budget.touch( this, key, cell, ( long ) Math.ceil( cell.size() * bytesPerPixel ) );
+	}
+}
@@ -0,0 +1,347 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Byte accounted least recently used cache of the cells of all
+ * cached cell images that are created through it.
+ *
+ * Unlike the default soft reference caches, which are only cleared
+ * once the JVM is about to run out of memory, the amount of cell data
+ * is limited to a configurable maximum, by default a fraction of
+ * the maximum heap size.
+ *
+ * Cells are touched when they are requested from the cache of their image,
+ * and when the renderer uses them (see {@link UsedAccess}): the volatile
+ * views of BDV only request a cell once, thus the least recently used
+ * cells are found with a second chance: a cell that is about to be
+ * evicted, but was used since it was last seen, is kept and moved to
+ * the end instead.
+ *
+ * Optionally, the cells are stored off heap, in direct buffers (see
+ * {@link OffHeapCellCacheLoader}). Evicting, removing or clearing a
+ * cell releases its buffer into a {@link DirectBufferPool}, which keeps
+ * up to an eighth of the budget for the next cells. A released cell is
+ * not valid anymore, thus it is not shown, and it is loaded anew if
+ * it is requested again.
+ *
+ * Each plate viewer has its own instance, which is shared across its
+ * channels, resolution levels and filter images, such that the settings
+ * of one viewer do not change the caching of the others.
+ *
+ * Sites that are larger than the maximal cell size are split into
+ * several cells (see {@link #getCellDimensions}), such that viewing
+ * a part of a large site only loads and caches that part.
+ */
+public class CellCacheBudget
+{
+	public static final double DEFAULT_MAX_MEMORY_FRACTION = 0.5;
+	public static final int DEFAULT_MAX_CELL_SIZE = 2048;
+
+	private final LinkedHashMap< Key, Entry > entries;
+	private final boolean offHeap;
+	private final int maxCellSize;
+	private final long maxBytes;
+	private final DirectBufferPool bufferPool;
+	private long usedBytes;
+
+	/**
+	 * @param offHeap
+	 * 				whether the cells are stored off heap
+	 * @param maxCellSize
+	 * 				the maximal width and height of the cells
+	 */
+	public CellCacheBudget( long maxBytes, boolean offHeap, int maxCellSize )
+	{
+		this.maxBytes = maxBytes;
+		this.offHeap = offHeap;
+		this.maxCellSize = maxCellSize;
+		this.entries = new LinkedHashMap<>( 1024, 0.75f, true );
+		this.bufferPool = offHeap ? new DirectBufferPool( maxBytes / 8 ) : null;
+	}
+
+	/**
+	 * @return a budget of the given fraction of the maximum heap size
+	 */
+	public static CellCacheBudget create( double maxMemoryFraction, boolean offHeap, int maxCellSize )
+	{
+		return new CellCacheBudget( ( long ) ( maxMemoryFraction * Runtime.getRuntime().maxMemory() ), offHeap, maxCellSize );
+	}
+
+	public < T extends NativeType< T > > CachedCellImg< T, ? > createCachedCellImg(
+			long[] dimensions,
+			T type,
+			CellLoader< T > loader,
+			int[] cellDimensions )
+	{
+		return create( dimensions, type, loader, cellDimensions );
+	}
+
+	private < T extends NativeType< T >, A extends ArrayDataAccess< A > > CachedCellImg< T, A > create(
+			long[] dimensions,
+			T type,
+			CellLoader< T > loader,
+			int[] cellDimensions )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Set< AccessFlags > flags = AccessFlags.setOf( AccessFlags.VOLATILE );
+
+		final CacheLoader< Long, Cell< A > > cacheLoader = LoadedCellCacheLoader.get( grid, loader, type, flags );
+
+		if ( isOffHeap() && DirectAccesses.isSupported( type ) )
+			return createOffHeap( grid, type, cacheLoader );
+
+		final Cache< Long, Cell< A > > cache = new BudgetedLoaderCache< Cell< A > >( this, getBytesPerPixel( type ) ).withLoader( UsedArrays.wrap( grid, cacheLoader ) );
+		final A accessType = ArrayDataAccessFactory.get( type, flags );
+
+		return new CachedCellImg<>( grid, type, cache, accessType );
+	}
+
+	private < T extends NativeType< T >, A extends ArrayDataAccess< A > > CachedCellImg< T, DirectAccess > createOffHeap(
+			CellGrid grid,
+			T type,
+			CacheLoader< Long, Cell< A > > heapLoader )
+	{
+		final CacheLoader< Long, Cell< DirectAccess > > cacheLoader = new OffHeapCellCacheLoader<>( grid, heapLoader, bufferPool );
+		final Cache< Long, Cell< DirectAccess > > cache = new BudgetedLoaderCache< Cell< DirectAccess > >( this, getBytesPerPixel( type ) ).withLoader( cacheLoader );
+
+		return new CachedCellImg<>( grid, type, cache, DirectAccesses.createEmpty( type ) );
+	}
+
+	public boolean isOffHeap()
+	{
+		return offHeap;
+	}
+
+	public int getMaxCellSize()
+	{
+		return maxCellSize;
+	}
+
+	/**
+	 * Cells must not span two sites, thus a site dimension that is larger
+	 * than the maximal cell size is split into equal cells, of the largest
+	 * size that divides it and is at least half the maximal cell size.
+	 * Dimensions without such a divisor, e.g. primes, are not split.
+	 *
+	 * @return the cell dimensions for sites of the given dimensions
+	 */
+	public int[] getCellDimensions( int[] siteDimensions )
+	{
+		final int maxCellSize = getMaxCellSize();
+		final int[] cellDimensions = siteDimensions.clone();
+
+		for ( int d = 0; d < cellDimensions.length; d++ )
+		{
+			if ( siteDimensions[ d ] <= maxCellSize ) continue;
+
+			for ( int size = maxCellSize; size >= ( maxCellSize + 1 ) / 2; size-- )
+			{
+				if ( siteDimensions[ d ] % size == 0 )
+				{
+					cellDimensions[ d ] = size;
+					break;
+				}
+			}
+		}
+
+		return cellDimensions;
+	}
+
+	public synchronized long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes()
+	{
+		return usedBytes;
+	}
+
+	public synchronized int getNumCells()
+	{
+		return entries.size();
+	}
+
+	public String getUsage()
+	{
+		synchronized ( this )
+		{
+			return String.format( "Cell cache: %d MB of %d MB used by %d cells (%s)",
+					usedBytes / ( 1024 * 1024 ),
+					maxBytes / ( 1024 * 1024 ),
+					entries.size(),
+					offHeap ? String.format( "off heap, %d MB pooled", bufferPool.getPooledBytes() / ( 1024 * 1024 ) ) : "on heap" );
+		}
+	}
+
+	/**
+	 * @return false if the cell was released, in which case it is not added
+	 */
+	synchronized boolean touch( Object cache, long key, Cell< ? > cell, long bytes )
+	{
+		final Key entryKey = new Key( cache, key );
+		final Entry entry = entries.get( entryKey );
+
+		if ( entry != null && entry.cell == cell ) return true;
+
+		if ( isReleased( cell ) ) return false;
+
+		if ( entry != null )
+			usedBytes -= entry.bytes;
+
+		entries.put( entryKey, new Entry( cell, bytes ) );
+		usedBytes += bytes;
+
+		evict( entryKey );
+
+		return true;
+	}
+
+	/**
+	 * Drops all cells, e.g. when the plate viewer is closed.
+	 */
+	public synchronized void clear()
+	{
+		for ( Entry entry : entries.values() )
+			release( entry.cell );
+
+		entries.clear();
+		usedBytes = 0;
+
+		if ( bufferPool != null )
+			bufferPool.clear();
+	}
+
+	synchronized void removeAll( Object cache )
+	{
+		final Iterator< Map.Entry< Key, Entry > > iterator = entries.entrySet().iterator();
+		while ( iterator.hasNext() )
+		{
+			final Map.Entry< Key, Entry > entry = iterator.next();
+			if ( entry.getKey().cache == cache )
+			{
+				usedBytes -= entry.getValue().bytes;
+				release( entry.getValue().cell );
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops the least recently used cells, but never the most recent one.
+	 * Cells that were used by the renderer get a second chance, once per call.
+	 */
+	private void evict( Key mostRecent )
+	{
+		int numSecondChances = entries.size();
+
+		while ( usedBytes > maxBytes && entries.size() > 1 )
+		{
+			final Iterator< Map.Entry< Key, Entry > > iterator = entries.entrySet().iterator();
+			final Map.Entry< Key, Entry > eldest = iterator.next();
+
+			if ( eldest.getKey().equals( mostRecent ) || numSecondChances-- > 0 && isUsed( eldest.getValue().cell ) )
+			{
+				// moves it to the end
+				entries.get( eldest.getKey() );
+				continue;
+			}
+
+			usedBytes -= eldest.getValue().bytes;
+			release( eldest.getValue().cell );
+			iterator.remove();
+		}
+	}
+
+	private static void release( Cell< ? > cell )
+	{
+		if ( cell.getData() instanceof DirectAccess )
+			( ( DirectAccess ) cell.getData() ).release();
+	}
+
+	private static boolean isUsed( Cell< ? > cell )
+	{
+		return cell.getData() instanceof UsedAccess && ( ( UsedAccess ) cell.getData() ).getAndClearUsed();
+	}
+
+	private static boolean isReleased( Cell< ? > cell )
+	{
+		return cell.getData() instanceof DirectAccess && ( ( DirectAccess ) cell.getData() ).isReleased();
+	}
+
+	private static double getBytesPerPixel( NativeType< ? > type )
+	{
+		final double entitiesPerPixel = type.getEntitiesPerPixel().getRatio();
+
+		switch ( type.getNativeTypeFactory().getPrimitiveType() )
+		{
+			case BOOLEAN:
+			case BYTE:
+				return entitiesPerPixel;
+			case CHAR:
+			case SHORT:
+				return 2 * entitiesPerPixel;
+			case INT:
+			case FLOAT:
+				return 4 * entitiesPerPixel;
+			default:
+				return 8 * entitiesPerPixel;
+		}
+	}
+
+	private static class Key
+	{
+		final Object cache;
+		final long key;
+
+		Key( Object cache, long key )
+		{
+			this.cache = cache;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( this == o ) return true;
+			if ( ! ( o instanceof Key ) ) return false;
+			final Key other = ( Key ) o;
+			return cache == other.cache && key == other.key;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash( System.identityHashCode( cache ), key );
+		}
+	}
+
+	private static class Entry
+	{
+		final Cell< ? > cell;
+		final long bytes;
+
+		Entry( Cell< ? > cell, long bytes )
+		{
+			this.cell = cell;
+			this.bytes = bytes;
+		}
+	}
+}
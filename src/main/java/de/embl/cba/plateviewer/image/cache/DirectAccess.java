@@ -0,0 +1,28 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Cell data that lives outside of the Java heap, in a direct buffer.
+ */
+public interface DirectAccess
+{
+	ByteBuffer getBuffer();
+
+	int getArrayLength();
+
+	/**
+	 * @return a view on the data, typed like the pixels, e.g. a {@link java.nio.ShortBuffer}
+	 */
+	Buffer getDataBuffer();
+
+	/**
+	 * Gives the buffer back to the pool it was taken from, if any.
+	 * The data is invalid afterwards, such that it is not shown anymore,
+	 * and the cell has to be loaded anew.
+	 */
+	void release();
+
+	boolean isReleased();
+}
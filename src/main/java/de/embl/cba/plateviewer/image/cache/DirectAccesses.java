@@ -0,0 +1,102 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.PrimitiveType;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+public class DirectAccesses
+{
+	public static boolean isSupported( NativeType< ? > type )
+	{
+		switch ( type.getNativeTypeFactory().getPrimitiveType() )
+		{
+			case BYTE:
+			case SHORT:
+			case INT:
+			case FLOAT:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return an empty access of the matching type, used as access type of images
+	 */
+	public static DirectAccess createEmpty( NativeType< ? > type )
+	{
+		final PrimitiveType primitiveType = type.getNativeTypeFactory().getPrimitiveType();
+
+		switch ( primitiveType )
+		{
+			case BYTE: return new DirectByteAccess( 0 );
+			case SHORT: return new DirectShortAccess( 0 );
+			case INT: return new DirectIntAccess( 0 );
+			case FLOAT: return new DirectFloatAccess( 0 );
+			default:
+				throw new UnsupportedOperationException( "Data type not supported: " + primitiveType );
+		}
+	}
+
+	/**
+	 * @return an access with a copy of the array, in a buffer of the pool
+	 */
+	public static DirectAccess copyOf( Object array, DirectBufferPool pool )
+	{
+		if ( array instanceof byte[] )
+		{
+			final DirectByteAccess access = new DirectByteAccess( pool.allocate( ( ( byte[] ) array ).length ), pool );
+			access.getDataBuffer().put( ( byte[] ) array );
+			return access;
+		}
+		else if ( array instanceof short[] )
+		{
+			final DirectShortAccess access = new DirectShortAccess( pool.allocate( 2 * ( ( short[] ) array ).length ), pool );
+			access.getDataBuffer().put( ( short[] ) array );
+			return access;
+		}
+		else if ( array instanceof int[] )
+		{
+			final DirectIntAccess access = new DirectIntAccess( pool.allocate( 4 * ( ( int[] ) array ).length ), pool );
+			access.getDataBuffer().put( ( int[] ) array );
+			return access;
+		}
+		else if ( array instanceof float[] )
+		{
+			final DirectFloatAccess access = new DirectFloatAccess( pool.allocate( 4 * ( ( float[] ) array ).length ), pool );
+			access.getDataBuffer().put( ( float[] ) array );
+			return access;
+		}
+		else
+			throw new UnsupportedOperationException( "Data type not supported: " + array.getClass().getSimpleName() );
+	}
+
+	/**
+	 * @return a view on a primitive array, on the array of on heap cell data,
+	 * or on the buffer of off heap cell data
+	 */
+	public static Buffer asBuffer( Object access )
+	{
+		if ( access instanceof DirectAccess )
+			return ( ( DirectAccess ) access ).getDataBuffer();
+
+		final Object array = access instanceof ArrayDataAccess ? ( ( ArrayDataAccess< ? > ) access ).getCurrentStorageArray() : access;
+
+		if ( array instanceof byte[] )
+			return ByteBuffer.wrap( ( byte[] ) array );
+		else if ( array instanceof short[] )
+			return ShortBuffer.wrap( ( short[] ) array );
+		else if ( array instanceof int[] )
+			return IntBuffer.wrap( ( int[] ) array );
+		else if ( array instanceof float[] )
+			return FloatBuffer.wrap( ( float[] ) array );
+		else
+			throw new UnsupportedOperationException( "Cell data not supported: " + array.getClass().getSimpleName() );
+	}
+}
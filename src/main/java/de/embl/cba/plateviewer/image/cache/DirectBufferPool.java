@@ -0,0 +1,74 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Direct buffers of off heap cells. Buffers of evicted cells are given
+ * back to the pool and reused for the next cells of the same size, which
+ * are usually loaded right after, as loading a cell is what evicts others.
+ *
+ * Buffers that do not fit into the pool anymore, e.g. those of another
+ * resolution level after zooming, are dropped and their memory is
+ * released once the garbage collector collects them.
+ */
+public class DirectBufferPool
+{
+	private final long maxPooledBytes;
+	private final HashMap< Integer, ArrayDeque< ByteBuffer > > capacityToBuffers;
+	private long pooledBytes;
+
+	/**
+	 * @param maxPooledBytes
+	 * 				the maximal size of the buffers that are kept for reuse
+	 */
+	public DirectBufferPool( long maxPooledBytes )
+	{
+		this.maxPooledBytes = maxPooledBytes;
+		this.capacityToBuffers = new HashMap<>();
+	}
+
+	/**
+	 * @return a buffer of the given capacity, in native byte order, with undefined content
+	 */
+	public ByteBuffer allocate( int capacity )
+	{
+		final ByteBuffer pooled = take( capacity );
+		if ( pooled != null ) return pooled;
+
+		return ByteBuffer.allocateDirect( capacity ).order( ByteOrder.nativeOrder() );
+	}
+
+	public synchronized void release( ByteBuffer buffer )
+	{
+		final int capacity = buffer.capacity();
+		if ( pooledBytes + capacity > maxPooledBytes ) return;
+
+		capacityToBuffers.computeIfAbsent( capacity, c -> new ArrayDeque<>() ).push( buffer );
+		pooledBytes += capacity;
+	}
+
+	public synchronized long getPooledBytes()
+	{
+		return pooledBytes;
+	}
+
+	public synchronized void clear()
+	{
+		capacityToBuffers.clear();
+		pooledBytes = 0;
+	}
+
+	private synchronized ByteBuffer take( int capacity )
+	{
+		final ArrayDeque< ByteBuffer > buffers = capacityToBuffers.get( capacity );
+		if ( buffers == null || buffers.isEmpty() ) return null;
+
+		pooledBytes -= capacity;
+		final ByteBuffer buffer = buffers.pop();
+		buffer.clear();
+		return buffer;
+	}
+}
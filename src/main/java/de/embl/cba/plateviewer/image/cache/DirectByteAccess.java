@@ -0,0 +1,42 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileByteAccess;
+
+import java.nio.ByteBuffer;
+
+public class DirectByteAccess extends AbstractDirectAccess implements VolatileByteAccess
+{
+	public DirectByteAccess( int numEntities )
+	{
+		this( ByteBuffer.allocateDirect( numEntities ), null );
+	}
+
+	public DirectByteAccess( ByteBuffer bytes, DirectBufferPool pool )
+	{
+		super( bytes, pool );
+	}
+
+	@Override
+	public byte getValue( int index )
+	{
+		return bytes.get( index );
+	}
+
+	@Override
+	public void setValue( int index, byte value )
+	{
+		bytes.put( index, value );
+	}
+
+	@Override
+	public int getArrayLength()
+	{
+		return bytes.capacity();
+	}
+
+	@Override
+	public ByteBuffer getDataBuffer()
+	{
+		return bytes.duplicate().order( bytes.order() );
+	}
+}
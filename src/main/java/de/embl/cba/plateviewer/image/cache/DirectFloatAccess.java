@@ -0,0 +1,46 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileFloatAccess;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+public class DirectFloatAccess extends AbstractDirectAccess implements VolatileFloatAccess
+{
+	private final FloatBuffer buffer;
+
+	public DirectFloatAccess( int numEntities )
+	{
+		this( ByteBuffer.allocateDirect( 4 * numEntities ), null );
+	}
+
+	public DirectFloatAccess( ByteBuffer bytes, DirectBufferPool pool )
+	{
+		super( bytes, pool );
+		this.buffer = this.bytes.asFloatBuffer();
+	}
+
+	@Override
+	public float getValue( int index )
+	{
+		return buffer.get( index );
+	}
+
+	@Override
+	public void setValue( int index, float value )
+	{
+		buffer.put( index, value );
+	}
+
+	@Override
+	public int getArrayLength()
+	{
+		return buffer.capacity();
+	}
+
+	@Override
+	public FloatBuffer getDataBuffer()
+	{
+		return buffer.duplicate();
+	}
+}
@@ -0,0 +1,46 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileIntAccess;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+public class DirectIntAccess extends AbstractDirectAccess implements VolatileIntAccess
+{
+	private final IntBuffer buffer;
+
+	public DirectIntAccess( int numEntities )
+	{
+		this( ByteBuffer.allocateDirect( 4 * numEntities ), null );
+	}
+
+	public DirectIntAccess( ByteBuffer bytes, DirectBufferPool pool )
+	{
+		super( bytes, pool );
+		this.buffer = this.bytes.asIntBuffer();
+	}
+
+	@Override
+	public int getValue( int index )
+	{
+		return buffer.get( index );
+	}
+
+	@Override
+	public void setValue( int index, int value )
+	{
+		buffer.put( index, value );
+	}
+
+	@Override
+	public int getArrayLength()
+	{
+		return buffer.capacity();
+	}
+
+	@Override
+	public IntBuffer getDataBuffer()
+	{
+		return buffer.duplicate();
+	}
+}
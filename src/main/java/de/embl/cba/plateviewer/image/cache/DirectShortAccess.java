@@ -0,0 +1,46 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileShortAccess;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+public class DirectShortAccess extends AbstractDirectAccess implements VolatileShortAccess
+{
+	private final ShortBuffer buffer;
+
+	public DirectShortAccess( int numEntities )
+	{
+		this( ByteBuffer.allocateDirect( 2 * numEntities ), null );
+	}
+
+	public DirectShortAccess( ByteBuffer bytes, DirectBufferPool pool )
+	{
+		super( bytes, pool );
+		this.buffer = this.bytes.asShortBuffer();
+	}
+
+	@Override
+	public short getValue( int index )
+	{
+		return buffer.get( index );
+	}
+
+	@Override
+	public void setValue( int index, short value )
+	{
+		buffer.put( index, value );
+	}
+
+	@Override
+	public int getArrayLength()
+	{
+		return buffer.capacity();
+	}
+
+	@Override
+	public ShortBuffer getDataBuffer()
+	{
+		return buffer.duplicate();
+	}
+}
@@ -0,0 +1,39 @@
+package de.embl.cba.plateviewer.image.cache;
+
+/**
+ * Priority classes of the cell loading queue, which is shared by all
+ * channels, resolution levels and filter images of a plate.
+ *
+ * The cells of the resolution level that is shown are loaded first, then
+ * those of the coarser levels, which are shown while the former are not
+ * yet loaded, and prefetched cells last. Thus, the number of concurrent
+ * loads is the number of fetcher threads of the one queue, and the
+ * viewport always comes first.
+ */
+public class LoadingPriorities
+{
+	public static final int VISIBLE = 0;
+
+	/**
+	 * Coarser levels beyond this share the lowest level priority.
+	 */
+	public static final int MAX_COARSER_LEVELS = 4;
+
+	public static final int PREFETCH = VISIBLE + MAX_COARSER_LEVELS + 1;
+
+	public static final int NUM_PRIORITIES = PREFETCH + 1;
+
+	public static LoadingQueue createQueue( int numFetcherThreads )
+	{
+		return new LoadingQueue( Math.max( 1, numFetcherThreads ), NUM_PRIORITIES );
+	}
+
+	/**
+	 * @param numLevelsCoarser
+	 * 				how many levels coarser than the shown level the level is
+	 */
+	public static int getLevelPriority( int numLevelsCoarser )
+	{
+		return VISIBLE + Math.min( Math.max( 0, numLevelsCoarser ), MAX_COARSER_LEVELS );
+	}
+}
@@ -0,0 +1,109 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import bdv.util.volatiles.SharedQueue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The loading queue of a plate, which drops the cell loads that the
+ * renderer asked for while the view was somewhere else.
+ *
+ * A new frame starts when the view moves, at most every
+ * {@link #MIN_FRAME_INTERVAL_MILLIS}. The loads that are queued then are
+ * moved behind all others (see {@link #clearToPrefetch()}), and the renderer
+ * queues the cells that it still needs again, at their priority.
+ * Thus, loads of the previous frame are only done if the fetcher threads
+ * have nothing else to do, and older loads are dropped when they come up:
+ * they are either not in or near the viewport anymore, or queued again.
+ *
+ * Prefetch loads are cancelled by the {@link de.embl.cba.plateviewer.bdv.SitePrefetcher}.
+ */
+public class LoadingQueue extends SharedQueue
+{
+	public static final long MIN_FRAME_INTERVAL_MILLIS = 100;
+
+	/**
+	 * Loads of up to this many frames ago are near the viewport.
+	 */
+	public static final int MAX_FRAME_AGE = 1;
+
+	private final AtomicLong lastFrameNanos = new AtomicLong();
+	private final AtomicLong numQueuedLoads = new AtomicLong();
+	private final AtomicLong numCancelledLoads = new AtomicLong();
+
+	public LoadingQueue( int numFetcherThreads, int numPriorities )
+	{
+		super( numFetcherThreads, numPriorities );
+	}
+
+	@Override
+	public void put( Callable< ? > load, int priority, boolean enqueueToFront )
+	{
+		if ( priority >= LoadingPriorities.PREFETCH )
+		{
+			super.put( load, priority, enqueueToFront );
+		}
+		else
+		{
+			numQueuedLoads.incrementAndGet();
+			super.put( new FrameLoad( load, getCurrentFrame() ), priority, enqueueToFront );
+		}
+	}
+
+	/**
+	 * To be called when the view changes.
+	 */
+	public void nextFrame()
+	{
+		final long now = System.nanoTime();
+		final long last = lastFrameNanos.get();
+
+		if ( now - last < MIN_FRAME_INTERVAL_MILLIS * 1_000_000L ) return;
+		if ( ! lastFrameNanos.compareAndSet( last, now ) ) return;
+
+		clearToPrefetch();
+	}
+
+	/**
+	 * @return the number of loads that the renderer asked for
+	 */
+	public long getNumQueuedLoads()
+	{
+		return numQueuedLoads.get();
+	}
+
+	/**
+	 * @return the number of loads that the renderer asked for,
+	 * but that were dropped because the view had moved on
+	 */
+	public long getNumCancelledLoads()
+	{
+		return numCancelledLoads.get();
+	}
+
+	private class FrameLoad implements Callable< Object >
+	{
+		private final Callable< ? > load;
+		private final long frame;
+
+		FrameLoad( Callable< ? > load, long frame )
+		{
+			this.load = load;
+			this.frame = frame;
+		}
+
+		@Override
+		public Object call() throws Exception
+		{
+			if ( getCurrentFrame() - frame > MAX_FRAME_AGE )
+			{
+				// if still needed, the renderer queues it again
+				numCancelledLoads.incrementAndGet();
+				return null;
+			}
+
+			return load.call();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Loads a cell on the heap, using the unchanged cell loaders, which all
+ * read into primitive arrays, and copies its data into a direct buffer of
+ * the pool. Thus, only the loading itself produces (short lived) garbage
+ * and the resident cells do not burden the garbage collector.
+ *
+ * The buffers are given back to the pool when the {@link CellCacheBudget}
+ * evicts the cell or the image is disposed.
+ */
+public class OffHeapCellCacheLoader< A extends ArrayDataAccess< A > > implements CacheLoader< Long, Cell< DirectAccess > >
+{
+	private final CellGrid grid;
+	private final CacheLoader< Long, Cell< A > > heapLoader;
+	private final DirectBufferPool pool;
+
+	public OffHeapCellCacheLoader( CellGrid grid, CacheLoader< Long, Cell< A > > heapLoader, DirectBufferPool pool )
+	{
+		this.grid = grid;
+		this.heapLoader = heapLoader;
+		this.pool = pool;
+	}
+
+	@Override
+	public Cell< DirectAccess > get( Long key ) throws Exception
+	{
+		final Cell< A > heapCell = heapLoader.get( key );
+
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDimensions = new int[ n ];
+		grid.getCellDimensions( key, cellMin, cellDimensions );
+
+		final DirectAccess data = DirectAccesses.copyOf( heapCell.getData().getCurrentStorageArray(), pool );
+
+		return new Cell<>( cellDimensions, cellMin, data );
+	}
+}
@@ -0,0 +1,18 @@
+package de.embl.cba.plateviewer.image.cache;
+
+/**
+ * Cell data that records whether it is used by the renderer.
+ *
+ * The volatile views that BDV renders through keep their own references to
+ * the cells and only ask the cache of an image for a cell once. Instead,
+ * the volatile pixel types check the validity of the data whenever they
+ * move into a cell, which is what is recorded here, without a lock, such
+ * that the {@link CellCacheBudget} keeps the cells that are shown.
+ */
+public interface UsedAccess
+{
+	/**
+	 * @return whether the data was used since the last call
+	 */
+	boolean getAndClearUsed();
+}
@@ -0,0 +1,151 @@
+package de.embl.cba.plateviewer.image.cache;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * On heap cell data that records whether it is used by the renderer
+ * (see {@link UsedAccess}), sharing the arrays of the loaded cells.
+ */
+public class UsedArrays
+{
+	/**
+	 * @return a loader of cells with the data of the given loader,
+	 * as {@link UsedAccess} if the data type is supported
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static < A > CacheLoader< Long, Cell< A > > wrap( CellGrid grid, CacheLoader< Long, Cell< A > > loader )
+	{
+		return key ->
+		{
+			final Cell< A > cell = loader.get( key );
+			final Object data = wrap( cell.getData() );
+			if ( data == cell.getData() ) return cell;
+
+			final long[] cellMin = new long[ grid.numDimensions() ];
+			final int[] cellDimensions = new int[ grid.numDimensions() ];
+			grid.getCellDimensions( key, cellMin, cellDimensions );
+
+			return new Cell<>( cellDimensions, cellMin, ( A ) data );
+		};
+	}
+
+	private static Object wrap( Object data )
+	{
+		if ( data instanceof VolatileByteArray )
+			return new UsedByteArray( ( VolatileByteArray ) data );
+		else if ( data instanceof VolatileShortArray )
+			return new UsedShortArray( ( VolatileShortArray ) data );
+		else if ( data instanceof VolatileIntArray )
+			return new UsedIntArray( ( VolatileIntArray ) data );
+		else if ( data instanceof VolatileFloatArray )
+			return new UsedFloatArray( ( VolatileFloatArray ) data );
+		else
+			return data;
+	}
+
+	public static class UsedByteArray extends VolatileByteArray implements UsedAccess
+	{
+		private volatile boolean used;
+
+		UsedByteArray( VolatileByteArray data )
+		{
+			super( data.getCurrentStorageArray(), data.isValid() );
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			used = true;
+			return super.isValid();
+		}
+
+		@Override
+		public boolean getAndClearUsed()
+		{
+			final boolean wasUsed = used;
+			used = false;
+			return wasUsed;
+		}
+	}
+
+	public static class UsedShortArray extends VolatileShortArray implements UsedAccess
+	{
+		private volatile boolean used;
+
+		UsedShortArray( VolatileShortArray data )
+		{
+			super( data.getCurrentStorageArray(), data.isValid() );
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			used = true;
+			return super.isValid();
+		}
+
+		@Override
+		public boolean getAndClearUsed()
+		{
+			final boolean wasUsed = used;
+			used = false;
+			return wasUsed;
+		}
+	}
+
+	public static class UsedIntArray extends VolatileIntArray implements UsedAccess
+	{
+		private volatile boolean used;
+
+		UsedIntArray( VolatileIntArray data )
+		{
+			super( data.getCurrentStorageArray(), data.isValid() );
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			used = true;
+			return super.isValid();
+		}
+
+		@Override
+		public boolean getAndClearUsed()
+		{
+			final boolean wasUsed = used;
+			used = false;
+			return wasUsed;
+		}
+	}
+
+	public static class UsedFloatArray extends VolatileFloatArray implements UsedAccess
+	{
+		private volatile boolean used;
+
+		UsedFloatArray( VolatileFloatArray data )
+		{
+			super( data.getCurrentStorageArray(), data.isValid() );
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			used = true;
+			return super.isValid();
+		}
+
+		@Override
+		public boolean getAndClearUsed()
+		{
+			final boolean wasUsed = used;
+			used = false;
+			return wasUsed;
+		}
+	}
+}
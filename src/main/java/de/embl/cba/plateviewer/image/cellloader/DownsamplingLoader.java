@@ -0,0 +1,316 @@
+package de.embl.cba.plateviewer.image.cellloader;
+
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.image.cache.DirectAccess;
+import de.embl.cba.plateviewer.image.cache.DirectAccesses;
+import de.embl.cba.plateviewer.io.DownsampledCellDiskCache;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+import java.lang.reflect.Array;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the cells of a resolution level by 2x2 averaging of the
+ * corresponding region of the level above.
+ *
+ * The sites of a level are half the size (rounded up) of the sites of
+ * the level above, and a cell never spans two sites. Thus every cell only
+ * depends on one site of the level above, and sites never bleed into each
+ * other. If sites are split into several cells (see
+ * {@link CellCacheBudget#getCellDimensions}), the region of the level
+ * above may span several of its cells.
+ *
+ * Optionally, computed cells are stored in a {@link DownsampledCellDiskCache},
+ * keyed by the site file, and are read from there as long as the site file
+ * does not change.
+ */
+public class DownsamplingLoader< T extends NativeType< T > & RealType< T > > implements CellLoader< T >
+{
+	private final CachedCellImg< T, ? > sourceImg;
+	private final SiteIndex siteIndex;
+	private final int[] fullResolutionSiteDimensions;
+	private final int[] sourceSiteDimensions;
+	private final int[] siteDimensions;
+	private final long[] dimensions;
+	private final DownsampledCellDiskCache.Level diskCache;
+
+	/**
+	 * @param sourceImg
+	 * 				the level above
+	 * @param siteIndex
+	 * 				the full resolution sites, to skip empty sites
+	 * @param fullResolutionSiteDimensions
+	 * 				the site dimensions of the full resolution level
+	 * @param sourceSiteDimensions
+	 * 				the site dimensions of the level above
+	 * @param diskCache
+	 * 				the disk cache of this level, may be null
+	 */
+	public DownsamplingLoader( CachedCellImg< T, ? > sourceImg, SiteIndex siteIndex, int[] fullResolutionSiteDimensions, int[] sourceSiteDimensions, DownsampledCellDiskCache.Level diskCache )
+	{
+		this.sourceImg = sourceImg;
+		this.siteIndex = siteIndex;
+		this.fullResolutionSiteDimensions = fullResolutionSiteDimensions;
+		this.sourceSiteDimensions = sourceSiteDimensions;
+		this.diskCache = diskCache;
+
+		this.siteDimensions = new int[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+			siteDimensions[ d ] = ( sourceSiteDimensions[ d ] + 1 ) / 2;
+
+		this.dimensions = getDimensions( sourceImg, sourceSiteDimensions );
+	}
+
+	/**
+	 * @return the dimensions of the level below the given one, with sites of half the size
+	 */
+	public static long[] getDimensions( CachedCellImg< ?, ? > sourceImg, int[] sourceSiteDimensions )
+	{
+		final long[] dimensions = new long[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+		{
+			final long numSites = ( sourceImg.dimension( d ) + sourceSiteDimensions[ d ] - 1 ) / sourceSiteDimensions[ d ];
+			dimensions[ d ] = numSites * ( ( sourceSiteDimensions[ d ] + 1 ) / 2 );
+		}
+
+		return dimensions;
+	}
+
+	@Override
+	public void load( SingleCellArrayImg< T, ? > cell ) throws Exception
+	{
+		final long[] sitePosition = new long[ 2 ];
+		final long[] sourceMin = new long[ 2 ];
+		final int[] sourceDimensions = new int[ 2 ];
+		final int[] cellDimensions = new int[ 2 ];
+
+		for ( int d = 0; d < 2; d++ )
+		{
+			cellDimensions[ d ] = ( int ) cell.dimension( d );
+			sitePosition[ d ] = cell.min( d ) / siteDimensions[ d ];
+
+			// the last row or column of a site with odd dimensions has no partner
+			final long offset = cell.min( d ) - sitePosition[ d ] * siteDimensions[ d ];
+			sourceMin[ d ] = sitePosition[ d ] * sourceSiteDimensions[ d ] + 2 * offset;
+			sourceDimensions[ d ] = ( int ) Math.min( 2L * cellDimensions[ d ], sourceSiteDimensions[ d ] - 2 * offset );
+		}
+
+		final int site = siteIndex.getIndex(
+				sitePosition[ 0 ] * fullResolutionSiteDimensions[ 0 ],
+				sitePosition[ 1 ] * fullResolutionSiteDimensions[ 1 ] );
+
+		if ( site < 0 ) return;
+
+		final long gridWidth = dimensions[ 0 ] / cellDimensions[ 0 ];
+		final long cellIndex = cell.min( 1 ) / cellDimensions[ 1 ] * gridWidth + cell.min( 0 ) / cellDimensions[ 0 ];
+
+		final long key = diskCache == null ? 0 : DownsampledCellDiskCache.getKey( siteIndex.getSiteTable().getFile( site ) );
+
+		if ( diskCache != null && diskCache.read( cellIndex, key, cell.getStorageArray() ) )
+			return;
+
+		// a source cell that is evicted while it is read may be refilled with another
+		// cell (see CellCacheBudget), in which case the cell is computed again
+		final List< Object > sourceCells = new ArrayList<>();
+		do
+		{
+			sourceCells.clear();
+			final Buffer source = getSource( sourceMin, sourceDimensions, cell.getStorageArray(), sourceCells );
+			downsample( source, sourceDimensions, cell.getStorageArray(), cellDimensions );
+		}
+		while ( isAnyReleased( sourceCells ) );
+
+		if ( diskCache != null )
+			diskCache.write( cellIndex, key, cell.getStorageArray() );
+	}
+
+	/**
+	 * @return the data of the region of the level above, without copying
+	 * if it is exactly one cell
+	 */
+	private Buffer getSource( long[] min, int[] dimensions, Object cellArray, List< Object > sourceCells ) throws Exception
+	{
+		final CellGrid grid = sourceImg.getCellGrid();
+		final long[] gridDimensions = grid.getGridDimensions();
+		final int[] sourceCellDimensions = new int[ 2 ];
+		grid.cellDimensions( sourceCellDimensions );
+
+		final long[] minCell = new long[ 2 ];
+		final long[] maxCell = new long[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+		{
+			minCell[ d ] = min[ d ] / sourceCellDimensions[ d ];
+			maxCell[ d ] = ( min[ d ] + dimensions[ d ] - 1 ) / sourceCellDimensions[ d ];
+		}
+
+		final long[] cellMin = new long[ 2 ];
+		final int[] cellDimensions = new int[ 2 ];
+
+		if ( minCell[ 0 ] == maxCell[ 0 ] && minCell[ 1 ] == maxCell[ 1 ] )
+		{
+			final long cellIndex = minCell[ 1 ] * gridDimensions[ 0 ] + minCell[ 0 ];
+			grid.getCellDimensions( cellIndex, cellMin, cellDimensions );
+
+			if ( cellMin[ 0 ] == min[ 0 ] && cellMin[ 1 ] == min[ 1 ] && cellDimensions[ 0 ] == dimensions[ 0 ] && cellDimensions[ 1 ] == dimensions[ 1 ] )
+				return DirectAccesses.asBuffer( getSourceCell( cellIndex, sourceCells ) );
+		}
+
+		final Object region = Array.newInstance( cellArray.getClass().getComponentType(), dimensions[ 0 ] * dimensions[ 1 ] );
+		final Buffer target = DirectAccesses.asBuffer( region );
+
+		for ( long y = minCell[ 1 ]; y <= maxCell[ 1 ]; y++ )
+		{
+			for ( long x = minCell[ 0 ]; x <= maxCell[ 0 ]; x++ )
+			{
+				final long cellIndex = y * gridDimensions[ 0 ] + x;
+				grid.getCellDimensions( cellIndex, cellMin, cellDimensions );
+				final Buffer source = DirectAccesses.asBuffer( getSourceCell( cellIndex, sourceCells ) );
+
+				final long fromX = Math.max( min[ 0 ], cellMin[ 0 ] );
+				final long toX = Math.min( min[ 0 ] + dimensions[ 0 ], cellMin[ 0 ] + cellDimensions[ 0 ] );
+				final long fromY = Math.max( min[ 1 ], cellMin[ 1 ] );
+				final long toY = Math.min( min[ 1 ] + dimensions[ 1 ], cellMin[ 1 ] + cellDimensions[ 1 ] );
+
+				for ( long row = fromY; row < toY; row++ )
+				{
+					final int sourcePosition = ( int ) ( ( row - cellMin[ 1 ] ) * cellDimensions[ 0 ] + fromX - cellMin[ 0 ] );
+					source.limit( sourcePosition + ( int ) ( toX - fromX ) ).position( sourcePosition );
+					target.position( ( int ) ( ( row - min[ 1 ] ) * dimensions[ 0 ] + fromX - min[ 0 ] ) );
+					put( source, target );
+				}
+			}
+		}
+
+		return target.clear();
+	}
+
+	private Object getSourceCell( long cellIndex, List< Object > sourceCells ) throws Exception
+	{
+		final Object data = sourceImg.getCache().get( cellIndex ).getData();
+		sourceCells.add( data );
+		return data;
+	}
+
+	private static boolean isAnyReleased( List< Object > sourceCells )
+	{
+		for ( Object data : sourceCells )
+			if ( data instanceof DirectAccess && ( ( DirectAccess ) data ).isReleased() )
+				return true;
+
+		return false;
+	}
+
+	private static void put( Buffer source, Buffer target )
+	{
+		if ( target instanceof ByteBuffer )
+			( ( ByteBuffer ) target ).put( ( ByteBuffer ) source );
+		else if ( target instanceof ShortBuffer )
+			( ( ShortBuffer ) target ).put( ( ShortBuffer ) source );
+		else if ( target instanceof IntBuffer )
+			( ( IntBuffer ) target ).put( ( IntBuffer ) source );
+		else
+			( ( FloatBuffer ) target ).put( ( FloatBuffer ) source );
+	}
+
+	/**
+	 * Downsamples the source, the data of a cell or region of the level
+	 * above, read with absolute gets, into the target array.
+	 */
+	public static void downsample( Buffer source, int[] sourceDimensions, Object target, int[] targetDimensions )
+	{
+		if ( source instanceof ByteBuffer )
+			downsample( ( ByteBuffer ) source, sourceDimensions, ( byte[] ) target, targetDimensions );
+		else if ( source instanceof ShortBuffer )
+			downsample( ( ShortBuffer ) source, sourceDimensions, ( short[] ) target, targetDimensions );
+		else if ( source instanceof FloatBuffer )
+			downsample( ( FloatBuffer ) source, sourceDimensions, ( float[] ) target, targetDimensions );
+		else if ( source instanceof IntBuffer )
+			downsample( ( IntBuffer ) source, sourceDimensions, ( int[] ) target, targetDimensions );
+		else
+			throw new UnsupportedOperationException( "Data type not supported: " + source.getClass().getSimpleName() );
+	}
+
+	private static void downsample( ByteBuffer source, int[] sourceDimensions, byte[] target, int[] targetDimensions )
+	{
+		final int[] offsets = new int[ 4 ];
+
+		for ( int y = 0, t = 0; y < targetDimensions[ 1 ]; y++ )
+			for ( int x = 0; x < targetDimensions[ 0 ]; x++, t++ )
+			{
+				setOffsets( x, y, sourceDimensions, offsets );
+				final int sum = ( source.get( offsets[ 0 ] ) & 0xFF ) + ( source.get( offsets[ 1 ] ) & 0xFF )
+						+ ( source.get( offsets[ 2 ] ) & 0xFF ) + ( source.get( offsets[ 3 ] ) & 0xFF );
+				target[ t ] = ( byte ) ( ( sum + 2 ) >> 2 );
+			}
+	}
+
+	private static void downsample( ShortBuffer source, int[] sourceDimensions, short[] target, int[] targetDimensions )
+	{
+		final int[] offsets = new int[ 4 ];
+
+		for ( int y = 0, t = 0; y < targetDimensions[ 1 ]; y++ )
+			for ( int x = 0; x < targetDimensions[ 0 ]; x++, t++ )
+			{
+				setOffsets( x, y, sourceDimensions, offsets );
+				final int sum = ( source.get( offsets[ 0 ] ) & 0xFFFF ) + ( source.get( offsets[ 1 ] ) & 0xFFFF )
+						+ ( source.get( offsets[ 2 ] ) & 0xFFFF ) + ( source.get( offsets[ 3 ] ) & 0xFFFF );
+				target[ t ] = ( short ) ( ( sum + 2 ) >> 2 );
+			}
+	}
+
+	private static void downsample( IntBuffer source, int[] sourceDimensions, int[] target, int[] targetDimensions )
+	{
+		final int[] offsets = new int[ 4 ];
+
+		for ( int y = 0, t = 0; y < targetDimensions[ 1 ]; y++ )
+			for ( int x = 0; x < targetDimensions[ 0 ]; x++, t++ )
+			{
+				setOffsets( x, y, sourceDimensions, offsets );
+				final long sum = ( source.get( offsets[ 0 ] ) & 0xFFFFFFFFL ) + ( source.get( offsets[ 1 ] ) & 0xFFFFFFFFL )
+						+ ( source.get( offsets[ 2 ] ) & 0xFFFFFFFFL ) + ( source.get( offsets[ 3 ] ) & 0xFFFFFFFFL );
+				target[ t ] = ( int ) ( ( sum + 2 ) >> 2 );
+			}
+	}
+
+	private static void downsample( FloatBuffer source, int[] sourceDimensions, float[] target, int[] targetDimensions )
+	{
+		final int[] offsets = new int[ 4 ];
+
+		for ( int y = 0, t = 0; y < targetDimensions[ 1 ]; y++ )
+			for ( int x = 0; x < targetDimensions[ 0 ]; x++, t++ )
+			{
+				setOffsets( x, y, sourceDimensions, offsets );
+				target[ t ] = 0.25f * ( source.get( offsets[ 0 ] ) + source.get( offsets[ 1 ] ) + source.get( offsets[ 2 ] ) + source.get( offsets[ 3 ] ) );
+			}
+	}
+
+	/**
+	 * Sets the source offsets of the 2x2 block of the target pixel (x, y);
+	 * at odd source dimensions the last row or column is repeated.
+	 */
+	private static void setOffsets( int x, int y, int[] sourceDimensions, int[] offsets )
+	{
+		final int sw = sourceDimensions[ 0 ];
+		final int x0 = Math.min( 2 * x, sw - 1 );
+		final int x1 = Math.min( 2 * x + 1, sw - 1 );
+		final int y0 = Math.min( 2 * y, sourceDimensions[ 1 ] - 1 );
+		final int y1 = Math.min( 2 * y + 1, sourceDimensions[ 1 ] - 1 );
+
+		offsets[ 0 ] = y0 * sw + x0;
+		offsets[ 1 ] = y0 * sw + x1;
+		offsets[ 2 ] = y1 * sw + x0;
+		offsets[ 3 ] = y1 * sw + x1;
+	}
+}
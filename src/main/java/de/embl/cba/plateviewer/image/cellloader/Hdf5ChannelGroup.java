@@ -0,0 +1,470 @@
+package de.embl.cba.plateviewer.image.cellloader;
+
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.channel.BatchLibHdf5ChannelAttributes;
+import de.embl.cba.plateviewer.image.channel.MultiWellImg;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The channels of a plate whose files contain all channels, such as
+ * BatchLib HDF5 files.
+ *
+ * All channels read through one reader pool. When the cell of a site is
+ * loaded for one channel, the same cell of all other displayed channels is
+ * read from the same open file, too, in the background, once the cell of
+ * the requesting channel is read. As the loaders of the other channels
+ * are driven by their own caches, the data is handed over to them: their
+ * loaders take it instead of reading the file again, once the renderer asks
+ * for the cell. Hand overs that are never taken, e.g. after panning away,
+ * are dropped once they exceed a memory limit.
+ *
+ * The group records which cells are being read, by a channel itself or
+ * together with another one, such that each cell of each channel is read
+ * once: a loader that asks for a cell that is being read waits for it.
+ *
+ * There is one group per plate viewer, which closes it, together with
+ * its reader pool, when it is closed.
+ */
+public class Hdf5ChannelGroup
+{
+	public static final long MAX_PENDING_BYTES = 128L * 1024 * 1024;
+
+	private final Hdf5ReaderPool readerPool;
+	private final Map< String, Channel > channels;
+	private final LinkedHashMap< Key, Object > pending;
+	private final Set< Key > reading;
+	private final ExecutorService executorService;
+	private long pendingBytes;
+	private final Map< String, BatchLibHdf5ChannelAttributes > channelToAttributes;
+	private List< File > checkedFiles;
+
+	public Hdf5ChannelGroup( Hdf5ReaderPool readerPool )
+	{
+		this.readerPool = readerPool;
+		this.channels = new HashMap<>();
+		this.pending = new LinkedHashMap<>();
+		this.reading = new HashSet<>();
+		this.channelToAttributes = new HashMap<>();
+		this.executorService = Executors.newSingleThreadExecutor( r -> {
+			final Thread thread = new Thread( r, "plate viewer channel group" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	public Hdf5ReaderPool getReaderPool()
+	{
+		return readerPool;
+	}
+
+	/**
+	 * The attributes of the channel, as read from the first file, with the
+	 * files whose data sets do not match.
+	 *
+	 * The files are checked only once, for all channels of the plate together,
+	 * when the first channel is opened, such that each file is opened once
+	 * rather than once per channel.
+	 */
+	public BatchLibHdf5ChannelAttributes getCheckedAttributes( List< File > files, String channelName )
+	{
+		// not the lock of the hand overs, as checking takes a while
+		synchronized ( channelToAttributes )
+		{
+			if ( ! files.equals( checkedFiles ) )
+			{
+				channelToAttributes.clear();
+				channelToAttributes.putAll( readerPool.read( files.get( 0 ), BatchLibHdf5ChannelAttributes::readAll ) );
+				BatchLibHdf5ChannelAttributes.findInconsistentFiles( files, channelToAttributes );
+				checkedFiles = files;
+			}
+
+			BatchLibHdf5ChannelAttributes attributes = channelToAttributes.get( channelName );
+
+			if ( attributes == null )
+			{
+				// e.g. a skipped channel
+				attributes = readerPool.read( files.get( 0 ), hdf5Reader -> BatchLibHdf5ChannelAttributes.read( hdf5Reader, channelName ) );
+				attributes.findInconsistentFiles( files, channelName );
+				channelToAttributes.put( channelName, attributes );
+			}
+
+			return attributes;
+		}
+	}
+
+	public synchronized void addChannelLevel( String channelName, int resolutionLevel, MultiWellImg< ? > multiWellImg )
+	{
+		channels.computeIfAbsent( channelName, Channel::new ).levels.put( resolutionLevel, multiWellImg );
+	}
+
+	public synchronized void removeChannel( String channelName )
+	{
+		channels.remove( channelName );
+
+		final Iterator< Map.Entry< Key, Object > > iterator = pending.entrySet().iterator();
+		while ( iterator.hasNext() )
+		{
+			final Map.Entry< Key, Object > entry = iterator.next();
+			if ( entry.getKey().channelName.equals( channelName ) )
+			{
+				pendingBytes -= getNumBytes( entry.getValue() );
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops all channels, hand overs and checked attributes and closes the open files.
+	 */
+	public void close()
+	{
+		executorService.shutdownNow();
+
+		synchronized ( this )
+		{
+			channels.clear();
+			pending.clear();
+			pendingBytes = 0;
+
+			// loaders that wait for a read together with another channel read by themselves
+			reading.clear();
+			notifyAll();
+		}
+
+		synchronized ( channelToAttributes )
+		{
+			channelToAttributes.clear();
+			checkedFiles = null;
+		}
+
+		readerPool.closeAll();
+	}
+
+	/**
+	 * @param isDisplayed
+	 * 				whether the channel is currently shown, only those are read together
+	 */
+	public synchronized void setDisplayed( String channelName, BooleanSupplier isDisplayed )
+	{
+		channels.computeIfAbsent( channelName, Channel::new ).isDisplayed = isDisplayed;
+	}
+
+	/**
+	 * Called by the loader of a channel before it reads a cell of a site.
+	 * Waits while the cell is being read, e.g. together with another channel,
+	 * and then takes the data, if it was read together with another channel.
+	 * Otherwise, the caller reads the cell and calls {@link #endRead}.
+	 *
+	 * @return whether the data was read together with another channel and copied into the array
+	 */
+	synchronized boolean beginRead( File file, String dataSetName, Interval cell, Object array ) throws InterruptedException
+	{
+		final Key key = new Key( file, null, dataSetName, cell.min( 0 ), cell.min( 1 ) );
+
+		while ( reading.contains( key ) )
+			wait();
+
+		final Object read = pending.remove( key );
+		if ( read != null )
+		{
+			pendingBytes -= getNumBytes( read );
+
+			if ( read.getClass() == array.getClass() && getLength( read ) == getLength( array ) )
+			{
+				System.arraycopy( read, 0, array, 0, getLength( array ) );
+				return true;
+			}
+		}
+
+		reading.add( key );
+		return false;
+	}
+
+	synchronized void endRead( File file, String dataSetName, Interval cell )
+	{
+		reading.remove( new Key( file, null, dataSetName, cell.min( 0 ), cell.min( 1 ) ) );
+		notifyAll();
+	}
+
+	/**
+	 * Reads the cell of the site, in the background, for all displayed channels,
+	 * but the one of the site, that do not have it in their cache yet and
+	 * are not reading it already.
+	 */
+	void readDisplayedChannels( SingleSiteChannelFile site, int resolutionLevel, Interval cell )
+	{
+		final List< Channel > channels = getChannels();
+		final CellGrid grid = getCellGrid( channels, site.getHdf5DataSetName(), resolutionLevel );
+		if ( grid == null ) return;
+
+		final FinalInterval interval = new FinalInterval( cell );
+		final List< Read > reads = new ArrayList<>();
+
+		for ( Channel channel : channels )
+		{
+			final String dataSetName = BatchLibHdf5ChannelAttributes.getDataSetName( channel.name, resolutionLevel );
+			if ( dataSetName.equals( site.getHdf5DataSetName() ) ) continue;
+			if ( ! channel.isDisplayed.getAsBoolean() ) continue;
+
+			final MultiWellImg< ? > multiWellImg = channel.levels.get( resolutionLevel );
+			if ( multiWellImg == null ) continue;
+
+			final CachedCellImg< ?, ? > img = multiWellImg.getCachedCellImg();
+			if ( img == null || ! isSameGrid( img.getCellGrid(), grid ) ) continue;
+
+			final long cellIndex = getCellIndex( img.getCellGrid(), interval );
+			if ( img.getCache().getIfPresent( cellIndex ) != null ) continue;
+
+			final Object array = createArray( multiWellImg.getNativeType(), ( int ) Intervals.numElements( interval ) );
+			if ( array == null ) continue;
+
+			final Key key = new Key( site.getFile(), channel.name, dataSetName, interval.min( 0 ), interval.min( 1 ) );
+			if ( claim( key ) )
+				reads.add( new Read( key, img, cellIndex, array ) );
+		}
+
+		if ( reads.isEmpty() ) return;
+
+		try
+		{
+			executorService.submit( () -> read( site, interval, reads ) );
+		}
+		catch ( RejectedExecutionException e )
+		{
+			// closed
+			for ( Read read : reads )
+				finishRead( read, false );
+		}
+	}
+
+	/**
+	 * @return the number of bytes that were read together with another channel
+	 * and are not taken yet
+	 */
+	public synchronized long getPendingBytes()
+	{
+		return pendingBytes;
+	}
+
+	private void read( SingleSiteChannelFile site, Interval cell, List< Read > reads )
+	{
+		final boolean[] isRead = new boolean[ reads.size() ];
+
+		try
+		{
+			readerPool.read( site.getFile(), hdf5Reader ->
+			{
+				for ( int i = 0; i < reads.size(); i++ )
+				{
+					try
+					{
+						MultiSiteHdf5Loader.readIntoArray( hdf5Reader, reads.get( i ).key.dataSetName, reads.get( i ).array, cell, site.getInterval() );
+						isRead[ i ] = true;
+					}
+					catch ( Exception e )
+					{
+						// the channel reads it by itself
+					}
+				}
+
+				return null;
+			} );
+		}
+		finally
+		{
+			for ( int i = 0; i < reads.size(); i++ )
+				finishRead( reads.get( i ), isRead[ i ] );
+		}
+	}
+
+	/**
+	 * @return whether the cell of the channel is neither being read nor read already
+	 */
+	private synchronized boolean claim( Key key )
+	{
+		if ( reading.contains( key ) || pending.containsKey( key ) ) return false;
+
+		reading.add( key );
+		return true;
+	}
+
+	private synchronized void finishRead( Read read, boolean isRead )
+	{
+		// not claimed anymore if the group was closed
+		if ( ! reading.remove( read.key ) ) return;
+
+		// the channel might have been removed, or loaded the cell by itself in the meantime
+		if ( isRead && channels.containsKey( read.key.channelName ) && read.img.getCache().getIfPresent( read.cellIndex ) == null )
+			put( read.key, read.array );
+
+		notifyAll();
+	}
+
+	private synchronized List< Channel > getChannels()
+	{
+		return new ArrayList<>( channels.values() );
+	}
+
+	private synchronized void put( Key key, Object array )
+	{
+		if ( pending.put( key, array ) == null )
+			pendingBytes += getNumBytes( array );
+
+		final Iterator< Object > iterator = pending.values().iterator();
+		while ( pendingBytes > MAX_PENDING_BYTES && iterator.hasNext() )
+		{
+			pendingBytes -= getNumBytes( iterator.next() );
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @return the cell grid of the channel that is stored in the data set, or null
+	 */
+	private static CellGrid getCellGrid( List< Channel > channels, String dataSetName, int resolutionLevel )
+	{
+		for ( Channel channel : channels )
+		{
+			if ( ! BatchLibHdf5ChannelAttributes.getDataSetName( channel.name, resolutionLevel ).equals( dataSetName ) ) continue;
+
+			final MultiWellImg< ? > multiWellImg = channel.levels.get( resolutionLevel );
+			if ( multiWellImg == null || multiWellImg.getCachedCellImg() == null ) return null;
+			return multiWellImg.getCachedCellImg().getCellGrid();
+		}
+
+		return null;
+	}
+
+	private static boolean isSameGrid( CellGrid grid, CellGrid other )
+	{
+		final int[] cellDimensions = new int[ grid.numDimensions() ];
+		final int[] otherCellDimensions = new int[ other.numDimensions() ];
+		grid.cellDimensions( cellDimensions );
+		other.cellDimensions( otherCellDimensions );
+
+		return Arrays.equals( cellDimensions, otherCellDimensions ) && Arrays.equals( grid.getGridDimensions(), other.getGridDimensions() );
+	}
+
+	private static long getCellIndex( CellGrid grid, Interval cell )
+	{
+		final int[] cellDimensions = new int[ grid.numDimensions() ];
+		grid.cellDimensions( cellDimensions );
+		final long[] gridDimensions = grid.getGridDimensions();
+
+		return ( cell.min( 1 ) / cellDimensions[ 1 ] ) * gridDimensions[ 0 ] + cell.min( 0 ) / cellDimensions[ 0 ];
+	}
+
+	private static Object createArray( NativeType< ? > type, int length )
+	{
+		if ( type instanceof UnsignedByteType ) return new byte[ length ];
+		if ( type instanceof UnsignedShortType ) return new short[ length ];
+		if ( type instanceof UnsignedIntType ) return new int[ length ];
+		if ( type instanceof FloatType ) return new float[ length ];
+		return null;
+	}
+
+	private static int getLength( Object array )
+	{
+		return Array.getLength( array );
+	}
+
+	private static long getNumBytes( Object array )
+	{
+		if ( array instanceof byte[] ) return getLength( array );
+		if ( array instanceof short[] ) return 2L * getLength( array );
+		return 4L * getLength( array );
+	}
+
+	private static class Read
+	{
+		final Key key;
+		final CachedCellImg< ?, ? > img;
+		final long cellIndex;
+		final Object array;
+
+		Read( Key key, CachedCellImg< ?, ? > img, long cellIndex, Object array )
+		{
+			this.key = key;
+			this.img = img;
+			this.cellIndex = cellIndex;
+			this.array = array;
+		}
+	}
+
+	private static class Channel
+	{
+		final String name;
+		final Map< Integer, MultiWellImg< ? > > levels = new ConcurrentHashMap<>();
+		volatile BooleanSupplier isDisplayed = () -> false;
+
+		Channel( String name )
+		{
+			this.name = name;
+		}
+	}
+
+	/**
+	 * The channel name is only kept for removing a channel;
+	 * the data set name contains it, thus it is not part of the identity.
+	 */
+	private static class Key
+	{
+		final File file;
+		final String channelName;
+		final String dataSetName;
+		final long x;
+		final long y;
+
+		Key( File file, String channelName, String dataSetName, long x, long y )
+		{
+			this.file = file;
+			this.channelName = channelName;
+			this.dataSetName = dataSetName;
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( this == o ) return true;
+			if ( ! ( o instanceof Key ) ) return false;
+			final Key key = ( Key ) o;
+			return x == key.x && y == key.y && file.equals( key.file ) && dataSetName.equals( key.dataSetName );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash( file, dataSetName, x, y );
+		}
+	}
+}
@@ -1,67 +1,114 @@
 package de.embl.cba.plateviewer.image.cellloader;
 
-import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
-import ch.systemsx.cisd.hdf5.HDF5Factory;
-import ch.systemsx.cisd.hdf5.IHDF5Reader;
-import de.embl.cba.plateviewer.Utils;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.io.Hdf5Reader;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
+import net.imglib2.Interval;
 import net.imglib2.cache.img.SingleCellArrayImg;
 
-import java.io.File;
 import java.util.ArrayList;
 
 public class MultiSiteHdf5Loader extends MultiSiteLoader
 {
+	private final Hdf5ReaderPool readerPool;
+	private final Hdf5ChannelGroup channelGroup;
+	private final int resolutionLevel;
+
 	public MultiSiteHdf5Loader( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles )
 	{
-		super( singleSiteChannelFiles );
+		this( singleSiteChannelFiles, new Hdf5ReaderPool() );
 	}
 
-	@Override
-	public synchronized void load( final SingleCellArrayImg cell )
+	public MultiSiteHdf5Loader( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles, Hdf5ReaderPool readerPool )
 	{
-		SingleSiteChannelFile singleSiteChannelFile = getChannelSource( cell );
+		this( singleSiteChannelFiles, readerPool, null, 0 );
+	}
 
-		if ( singleSiteChannelFile != null )
-		{
-			loadHdf5IntoCell( cell, singleSiteChannelFile.getFile(), singleSiteChannelFile.getHdf5DataSetName() );
-		}
+	public MultiSiteHdf5Loader( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles, Hdf5ReaderPool readerPool, Hdf5ChannelGroup channelGroup, int resolutionLevel )
+	{
+		this( new SiteIndex( singleSiteChannelFiles ), readerPool, channelGroup, resolutionLevel );
 	}
 
-	private void loadHdf5IntoCell( SingleCellArrayImg cell, File file, String hdf5DataSetName )
+	/**
+	 * @param channelGroup
+	 * 				the channels that are stored in the same files, whose displayed
+	 * 				channels are read together with this one; may be null
+	 */
+	public MultiSiteHdf5Loader( SiteIndex siteIndex, Hdf5ReaderPool readerPool, Hdf5ChannelGroup channelGroup, int resolutionLevel )
 	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( file );
-		final HDF5DataSetInformation information = hdf5Reader.getDataSetInformation( hdf5DataSetName );
-		final String dataType = information.getTypeInformation().toString();
-		final boolean signed = information.isSigned();
+		super( siteIndex );
+		this.readerPool = readerPool;
+		this.channelGroup = channelGroup;
+		this.resolutionLevel = resolutionLevel;
+	}
 
-		if ( dataType.equals( Utils.H5_BYTE ) && ! signed )
-		{
-			final byte[] data = hdf5Reader.uint8().readArray( hdf5DataSetName );
-			final byte[] celldata = ( byte[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
-		}
-		else if ( dataType.equals( Utils.H5_SHORT ) && ! signed  )
+	@Override
+	public void load( final SingleCellArrayImg cell ) throws InterruptedException
+	{
+		SingleSiteChannelFile singleSiteChannelFile = getChannelSource( cell );
+
+		if ( singleSiteChannelFile == null ) return;
+
+		final String dataSetName = singleSiteChannelFile.getHdf5DataSetName();
+
+		if ( channelGroup == null )
 		{
-			final short[] data = hdf5Reader.uint16().readArray( hdf5DataSetName );
-			final short[] celldata = ( short[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
+			read( singleSiteChannelFile, cell );
+			return;
 		}
-		else if ( dataType.equals( Utils.H5_INT ) && ! signed )
+
+		// already read together with another channel
+		if ( channelGroup.beginRead( singleSiteChannelFile.getFile(), dataSetName, cell, cell.getStorageArray() ) )
+			return;
+
+		try
 		{
-			final int[] data = hdf5Reader.uint32().readArray( hdf5DataSetName );
-			final int[] celldata = ( int[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
+			read( singleSiteChannelFile, cell );
 		}
-		else if ( dataType.equals( Utils.H5_FLOAT ) )
+		finally
 		{
-			final float[] data = hdf5Reader.float32().readArray( hdf5DataSetName );
-			final float[] celldata = ( float[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
+			channelGroup.endRead( singleSiteChannelFile.getFile(), dataSetName, cell );
 		}
-		else
+
+		// the other channels are read in the background, such that this cell is shown right away
+		channelGroup.readDisplayedChannels( singleSiteChannelFile, resolutionLevel, cell );
+	}
+
+	private void read( SingleSiteChannelFile singleSiteChannelFile, SingleCellArrayImg cell )
+	{
+		readerPool.read( singleSiteChannelFile.getFile(), hdf5Reader ->
 		{
-			throw new UnsupportedOperationException( "Hdf5 datatype not supported: " + dataType );
-		}
+			readIntoArray( hdf5Reader, singleSiteChannelFile.getHdf5DataSetName(), cell.getStorageArray(), cell, singleSiteChannelFile.getInterval() );
+			return null;
+		} );
+	}
+
+	@Override
+	public void dispose()
+	{
+		// the pool of a group is shared by its channels, the group closes it
+		if ( channelGroup == null )
+			readerPool.closeAll();
+	}
+
+	public Hdf5ReaderPool getReaderPool()
+	{
+		return readerPool;
+	}
+
+	/**
+	 * Reads the part of the dataset that corresponds to the cell directly
+	 * into the given array, e.g. the cell's storage array, without an
+	 * intermediate array. The element type is taken from the array, which
+	 * was created for the data type of the channel.
+	 */
+	public static void readIntoArray( Hdf5Reader hdf5Reader, String hdf5DataSetName, Object array, Interval cell, Interval siteInterval )
+	{
+		// in hdf5 it is y,x
+		final int[] blockDimensions = new int[]{ ( int ) cell.dimension( 1 ), ( int ) cell.dimension( 0 ) };
+		final long[] blockOffset = new long[]{ cell.min( 1 ) - siteInterval.min( 1 ), cell.min( 0 ) - siteInterval.min( 0 ) };
+
+		hdf5Reader.readBlock( hdf5DataSetName, array, blockDimensions, blockOffset );
 	}
 }
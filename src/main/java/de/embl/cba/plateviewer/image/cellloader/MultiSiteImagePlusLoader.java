@@ -2,53 +2,143 @@ package de.embl.cba.plateviewer.image.cellloader;
 
 import de.embl.cba.plateviewer.Utils;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.io.TiffInfo;
+import de.embl.cba.plateviewer.io.TiffReader;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.process.ColorProcessor;
+import net.imglib2.FinalInterval;
 import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.util.Intervals;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * Loads TIFF files with the lock free {@link TiffReader}, directly into
+ * the cell storage, such that several fetcher threads can load in parallel.
+ * Other files (e.g. JPEG) and TIFF flavours that the {@link TiffReader}
+ * does not support are opened with ImageJ, one at a time.
+ */
 public class MultiSiteImagePlusLoader extends MultiSiteLoader
 {
+	/**
+	 * The number of sites that are larger than a cell, whose decoded
+	 * images are kept while their cells are loaded.
+	 */
+	public static final int MAX_DECODED_SITES = 2;
+
+	private final Object imageJLock = new Object();
+
+	/**
+	 * Guarded by the {@link #imageJLock}, least recently used first.
+	 */
+	private final LinkedHashMap< File, DecodedSite > decodedSites = new LinkedHashMap< File, DecodedSite >( 16, 0.75f, true )
+	{
+		@Override
+		protected boolean removeEldestEntry( Map.Entry< File, DecodedSite > eldest )
+		{
+			return size() > MAX_DECODED_SITES;
+		}
+	};
+
 	public MultiSiteImagePlusLoader( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles )
 	{
 		super( singleSiteChannelFiles );
 	}
 
+	public MultiSiteImagePlusLoader( SiteIndex siteIndex )
+	{
+		super( siteIndex );
+	}
+
 	@Override
-	public synchronized void load( final SingleCellArrayImg cell )
+	public void dispose()
+	{
+		synchronized ( imageJLock )
+		{
+			decodedSites.clear();
+		}
+	}
+
+	@Override
+	public void load( final SingleCellArrayImg cell )
 	{
 		SingleSiteChannelFile singleSiteChannelFile = getChannelSource( cell );
 
 		if ( singleSiteChannelFile != null )
 		{
-			loadImagePlusIntoCell( cell, singleSiteChannelFile.getFile() );
+			if ( ! loadTiffIntoCell( cell, singleSiteChannelFile ) )
+			{
+				synchronized ( imageJLock )
+				{
+					loadImagePlusIntoCell( cell, singleSiteChannelFile );
+				}
+			}
 		}
 	}
 
-	private void loadImagePlusIntoCell( SingleCellArrayImg< ? , ? > cell, File file )
+	private boolean loadTiffIntoCell( SingleCellArrayImg< ?, ? > cell, SingleSiteChannelFile singleSiteChannelFile )
 	{
-		Utils.debug( "Loading: " + file.getName() );
+		final File file = singleSiteChannelFile.getFile();
+		final String fileName = file.getName().toLowerCase();
 
-		// TODO: check for the data type of the cell (cell.getFirstElement())
+		if ( ! ( fileName.endsWith( ".tif" ) || fileName.endsWith( ".tiff" ) ) )
+			return false;
 
-		final ImagePlus imp = IJ.openImage( file.getAbsolutePath() );
+		Utils.debug( "Loading: " + file.getName() );
 
-		if ( imp.getBitDepth() == 8 )
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
 		{
-			final byte[] impdata = ( byte[] ) imp.getProcessor().getPixels();
-			final byte[] celldata = ( byte[] ) cell.getStorageArray();
-			System.arraycopy( impdata, 0, celldata, 0, celldata.length );
+			final TiffInfo tiffInfo = TiffReader.readInfo( channel );
+
+			final Object celldata = cell.getStorageArray();
+
+			if ( ! tiffInfo.isSupported( celldata ) )
+				return false;
+
+			final FinalInterval siteInterval = singleSiteChannelFile.getInterval();
+
+			TiffReader.readRegion(
+					channel,
+					tiffInfo,
+					celldata,
+					( int ) ( cell.min( 0 ) - siteInterval.min( 0 ) ),
+					( int ) ( cell.min( 1 ) - siteInterval.min( 1 ) ),
+					( int ) cell.dimension( 0 ),
+					( int ) cell.dimension( 1 ) );
+
+			return true;
 		}
-		else if ( imp.getBitDepth() == 16 )
+		catch ( IOException e )
 		{
-			final short[] impdata = ( short[] ) imp.getProcessor().getPixels();
-			final short[] celldata = ( short[] ) cell.getStorageArray();
-			System.arraycopy( impdata, 0, celldata, 0, celldata.length );
+			throw new UncheckedIOException( "Could not read " + file, e );
 		}
-		else if ( imp.getBitDepth() == 24 ) // RGB
+	}
+
+	/**
+	 * Copies the part of the site that the cell covers, which is all of it,
+	 * unless the site is larger than the maximal cell size.
+	 */
+	private void loadImagePlusIntoCell( SingleCellArrayImg< ? , ? > cell, SingleSiteChannelFile singleSiteChannelFile )
+	{
+		final ImagePlus imp = openImage( cell, singleSiteChannelFile );
+
+		final FinalInterval siteInterval = singleSiteChannelFile.getInterval();
+		final int offsetX = ( int ) ( cell.min( 0 ) - siteInterval.min( 0 ) );
+		final int offsetY = ( int ) ( cell.min( 1 ) - siteInterval.min( 1 ) );
+		final int cellWidth = ( int ) cell.dimension( 0 );
+		final int cellHeight = ( int ) cell.dimension( 1 );
+		final int width = imp.getWidth();
+
+		if ( imp.getBitDepth() == 24 ) // RGB
 		{
 			// Compute sum of RGB values and return as short array
 
@@ -60,19 +150,68 @@ public class MultiSiteImagePlusLoader extends MultiSiteLoader
 
 			final short[] celldata = ( short[] ) cell.getStorageArray();
 
-			for ( int i = 0; i < imgDataRGB[ 0 ].length; i++ )
+			for ( int y = 0, i = 0; y < cellHeight; y++ )
 			{
-				for ( int c = 0; c < 3; c++ )
+				for ( int x = 0, j = ( offsetY + y ) * width + offsetX; x < cellWidth; x++, i++, j++ )
 				{
-					celldata[ i ] += imgDataRGB[ c ][ i ] & 0xFF;
+					for ( int c = 0; c < 3; c++ )
+					{
+						celldata[ i ] += imgDataRGB[ c ][ j ] & 0xFF;
+					}
 				}
 			}
 		}
-		else if ( imp.getBitDepth() == 32 )
+		else if ( imp.getBitDepth() == 8 || imp.getBitDepth() == 16 || imp.getBitDepth() == 32 )
+		{
+			final Object impdata = imp.getProcessor().getPixels();
+			final Object celldata = cell.getStorageArray();
+
+			for ( int y = 0; y < cellHeight; y++ )
+				System.arraycopy( impdata, ( offsetY + y ) * width + offsetX, celldata, y * cellWidth, cellWidth );
+		}
+	}
+
+	/**
+	 * Decodes a site that is larger than a cell only once while its cells
+	 * are loaded: its image is kept until as many pixels as the site has
+	 * were loaded from it, or until other sites displace it.
+	 */
+	private ImagePlus openImage( SingleCellArrayImg< ? , ? > cell, SingleSiteChannelFile singleSiteChannelFile )
+	{
+		final File file = singleSiteChannelFile.getFile();
+		final long numCellPixels = Intervals.numElements( cell );
+		final long numSitePixels = Intervals.numElements( singleSiteChannelFile.getInterval() );
+
+		if ( numCellPixels >= numSitePixels )
+		{
+			Utils.debug( "Loading: " + file.getName() );
+			return IJ.openImage( file.getAbsolutePath() );
+		}
+
+		DecodedSite decodedSite = decodedSites.get( file );
+		if ( decodedSite == null )
+		{
+			Utils.debug( "Loading: " + file.getName() );
+			decodedSite = new DecodedSite( IJ.openImage( file.getAbsolutePath() ), numSitePixels );
+			decodedSites.put( file, decodedSite );
+		}
+
+		decodedSite.numPixelsToLoad -= numCellPixels;
+		if ( decodedSite.numPixelsToLoad <= 0 )
+			decodedSites.remove( file );
+
+		return decodedSite.imp;
+	}
+
+	private static class DecodedSite
+	{
+		final ImagePlus imp;
+		long numPixelsToLoad;
+
+		DecodedSite( ImagePlus imp, long numPixelsToLoad )
 		{
-			final float[] impdata = ( float[] ) imp.getProcessor().getPixels();
-			final float[] celldata = ( float[] ) cell.getStorageArray();
-			System.arraycopy( impdata, 0, celldata, 0, celldata.length );
+			this.imp = imp;
+			this.numPixelsToLoad = numPixelsToLoad;
 		}
 	}
 }
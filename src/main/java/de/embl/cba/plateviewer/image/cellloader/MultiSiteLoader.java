@@ -1,18 +1,15 @@
 package de.embl.cba.plateviewer.image.cellloader;
 
-import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
-import ch.systemsx.cisd.hdf5.HDF5Factory;
-import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import de.embl.cba.plateviewer.Utils;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.image.SiteTable;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.process.ColorProcessor;
-import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.cache.img.CellLoader;
 import net.imglib2.cache.img.SingleCellArrayImg;
-import net.imglib2.util.Intervals;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -21,108 +18,75 @@ import java.util.concurrent.Executors;
 
 public abstract class MultiSiteLoader implements CellLoader
 {
-	protected final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
+	protected final SiteIndex siteIndex;
 
+	/**
+	 * @throws IllegalArgumentException
+	 * 				if the sites are not aligned to a grid, see {@link SiteIndex#SiteIndex(java.util.List)}
+	 */
 	public MultiSiteLoader( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles )
 	{
-		this.singleSiteChannelFiles = singleSiteChannelFiles;
+		this( new SiteIndex( singleSiteChannelFiles ) );
+	}
+
+	public MultiSiteLoader( SiteIndex siteIndex )
+	{
+		this.siteIndex = siteIndex;
 	}
 
 	public SingleSiteChannelFile getChannelSource( String siteName )
 	{
-		for ( SingleSiteChannelFile singleSiteChannelFile : singleSiteChannelFiles )
-			if ( singleSiteChannelFile.getSiteName().equals( siteName ) )
-				return singleSiteChannelFile;
+		final SingleSiteChannelFile singleSiteChannelFile = siteIndex.getSite( siteName );
 
-		throw new UnsupportedOperationException( "Could not find image " + siteName );
+		if ( singleSiteChannelFile == null )
+			throw new UnsupportedOperationException( "Could not find image " + siteName );
+
+		return singleSiteChannelFile;
 	}
 
 	public SingleSiteChannelFile getChannelSource( int index )
 	{
-		return singleSiteChannelFiles.get( index );
+		return siteIndex.getSite( index );
 	}
 
+	/**
+	 * Creates an object per site; the {@link SiteTable} of the
+	 * {@link #getSiteIndex() site index} holds the same without.
+	 */
 	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
 	{
-		return singleSiteChannelFiles;
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>( siteIndex.size() );
+		for ( int i = 0; i < siteIndex.size(); i++ )
+			sites.add( siteIndex.getSite( i ) );
+
+		return sites;
 	}
 
-	private void loadImageIntoCellUsingJHdf5( SingleCellArrayImg cell, File file, String hdf5DataSetName )
+	public SiteTable getSiteTable()
 	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( file );
-		final HDF5DataSetInformation information = hdf5Reader.getDataSetInformation( hdf5DataSetName );
-		final String dataType = information.getTypeInformation().toString();
-		final boolean signed = information.isSigned();
+		return siteIndex.getSiteTable();
+	}
 
-		if ( dataType.equals( Utils.H5_BYTE ) && ! signed )
-		{
-			final byte[] data = hdf5Reader.uint8().readArray( hdf5DataSetName );
-			final byte[] celldata = ( byte[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
-		}
-		else if ( dataType.equals( Utils.H5_SHORT ) && ! signed  )
-		{
-			final short[] data = hdf5Reader.uint16().readArray( hdf5DataSetName );
-			final short[] celldata = ( short[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
-		}
-		else if ( dataType.equals( Utils.H5_INT ) && ! signed )
-		{
-			final int[] data = hdf5Reader.uint32().readArray( hdf5DataSetName );
-			final int[] celldata = ( int[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
-		}
-		else if ( dataType.equals( Utils.H5_FLOAT ) )
-		{
-			final float[] data = hdf5Reader.float32().readArray( hdf5DataSetName );
-			final float[] celldata = ( float[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
-		}
-		else
-		{
-			throw new UnsupportedOperationException( "Hdf5 datatype not supported: " + dataType );
-		}
+	/**
+	 * Releases resources, such as open file handles, held by the loader.
+	 */
+	public void dispose()
+	{
 	}
 
 	public SingleSiteChannelFile getChannelSource( Interval cell )
 	{
-		Interval requestedInterval = Intervals.largestContainedInterval( cell );
-
-		for ( SingleSiteChannelFile singleSiteChannelFile : singleSiteChannelFiles )
-		{
-			FinalInterval imageInterval = singleSiteChannelFile.getInterval();
-
-			if ( Utils.areIntersecting( requestedInterval, imageInterval ) )
-				return singleSiteChannelFile;
-		}
-
-		return null;
+		return siteIndex.getIntersectingSite( cell );
 	}
 
 	public SingleSiteChannelFile getChannelSource( long[] coordinates )
 	{
-		boolean matches = false;
-
-		for ( SingleSiteChannelFile singleSiteChannelFile : singleSiteChannelFiles )
-		{
-			FinalInterval interval = singleSiteChannelFile.getInterval();
-
-			for ( int d = 0; d < interval.numDimensions(); ++d )
-			{
-				if ( interval.min( d ) <= coordinates[ d ] && coordinates[ d ] <= interval.max( d ) )
-				{
-					matches = true;
-				}
-				else
-				{
-					matches = false;
-					break;
-				}
-			}
+		return siteIndex.getSite( coordinates );
+	}
 
-			if ( matches ) return singleSiteChannelFile;
-		}
-		return null;
+	public SiteIndex getSiteIndex()
+	{
+		return siteIndex;
 	}
 
 	private void loadImageIntoCellUsingIJOpenImage( SingleCellArrayImg< ? , ? > cell, File file )
@@ -0,0 +1,269 @@
+package de.embl.cba.plateviewer.image.channel;
+
+import de.embl.cba.bdv.utils.sources.Metadata;
+import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.io.Hdf5DataSetInfo;
+import de.embl.cba.plateviewer.io.Hdf5Reader;
+import de.embl.cba.plateviewer.io.Hdf5Readers;
+import de.embl.cba.plateviewer.io.ImageFileHeader;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static de.embl.cba.plateviewer.image.channel.MultiWellBatchLibHdf5Img.*;
+
+/**
+ * The display settings of a channel and the data type and image dimensions
+ * of all its resolution levels, as stored in a BatchLib HDF5 file.
+ *
+ * As these are the same for all files of a plate, they are read once,
+ * from one file, for all resolution levels. Files whose data sets do not
+ * match can be found with {@link #findInconsistentFiles}, which only
+ * reads their headers, for all channels of a plate at once.
+ */
+public class BatchLibHdf5ChannelAttributes
+{
+	public Metadata.Type type;
+	public ARGBType argbType;
+	public boolean isInitiallyVisible;
+	public double[] lutMinMax = new double[]{ 0, 255 };
+	public int[] scaleFactors;
+
+	/**
+	 * Per resolution level.
+	 */
+	public NativeType< ? >[] nativeTypes;
+	public int[][] imageDimensions;
+	public ImageFileHeader[] headers;
+
+	/**
+	 * The files whose data sets do not match the ones of the file that
+	 * the attributes were read from.
+	 */
+	public Set< File > inconsistentFiles = Collections.emptySet();
+
+	public static BatchLibHdf5ChannelAttributes read( Hdf5Reader hdf5Reader, String channelName )
+	{
+		final BatchLibHdf5ChannelAttributes attributes = new BatchLibHdf5ChannelAttributes();
+
+		attributes.setLut( hdf5Reader, channelName );
+
+		attributes.scaleFactors = hdf5Reader.getIntArrayAttribute( channelName, SCALE_FACTORS );
+		attributes.nativeTypes = new NativeType[ attributes.scaleFactors.length ];
+		attributes.imageDimensions = new int[ attributes.scaleFactors.length ][];
+		attributes.headers = new ImageFileHeader[ attributes.scaleFactors.length ];
+
+		for ( int resolutionLevel = 0; resolutionLevel < attributes.scaleFactors.length; resolutionLevel++ )
+		{
+			final Hdf5DataSetInfo information = hdf5Reader.getDataSetInfo( getDataSetName( channelName, resolutionLevel ) );
+			attributes.nativeTypes[ resolutionLevel ] = getNativeType( information );
+			attributes.imageDimensions[ resolutionLevel ] = getImageDimensions( information );
+			attributes.headers[ resolutionLevel ] = ImageFileHeader.create( information );
+		}
+
+		return attributes;
+	}
+
+	/**
+	 * @return the attributes of all channels that are not skipped, by channel name
+	 */
+	public static Map< String, BatchLibHdf5ChannelAttributes > readAll( Hdf5Reader hdf5Reader )
+	{
+		final Map< String, BatchLibHdf5ChannelAttributes > channelToAttributes = new LinkedHashMap<>();
+
+		for ( String groupMember : hdf5Reader.getGroupMembers( "/" ) )
+		{
+			if ( ! hdf5Reader.hasAttribute( groupMember, SKIP ) ) continue;
+			if ( hdf5Reader.getBooleanAttribute( groupMember, SKIP ) ) continue;
+
+			channelToAttributes.put( groupMember, read( hdf5Reader, groupMember ) );
+		}
+
+		return channelToAttributes;
+	}
+
+	/**
+	 * Checks the data sets of all resolution levels of all files, in
+	 * parallel, and logs and remembers the files that do not match.
+	 */
+	public void findInconsistentFiles( List< File > files, String channelName )
+	{
+		findInconsistentFiles( files, Collections.singletonMap( channelName, this ) );
+	}
+
+	/**
+	 * Checks the data sets of all resolution levels of all given channels,
+	 * opening each file only once, and logs and remembers, per channel, the
+	 * files that do not match.
+	 */
+	public static void findInconsistentFiles( List< File > files, Map< String, BatchLibHdf5ChannelAttributes > channelToAttributes )
+	{
+		final Map< String, Map< File, String > > channelToDifferences = new HashMap<>();
+		for ( String channelName : channelToAttributes.keySet() )
+			channelToDifferences.put( channelName, new ConcurrentHashMap<>() );
+
+		// files that cannot be opened at all do not match for any channel
+		final Map< File, String > unreadableFiles = ImageFileHeader.findInconsistentFiles( files, file ->
+		{
+			final Hdf5Reader hdf5Reader = Hdf5Readers.open( file );
+
+			try
+			{
+				for ( Map.Entry< String, BatchLibHdf5ChannelAttributes > entry : channelToAttributes.entrySet() )
+				{
+					final String difference = entry.getValue().getDifference( hdf5Reader, entry.getKey() );
+					if ( difference != null )
+						channelToDifferences.get( entry.getKey() ).put( file, difference );
+				}
+
+				return null;
+			}
+			finally
+			{
+				hdf5Reader.close();
+			}
+		} );
+
+		for ( Map.Entry< String, BatchLibHdf5ChannelAttributes > entry : channelToAttributes.entrySet() )
+		{
+			final Map< File, String > differences = channelToDifferences.get( entry.getKey() );
+
+			// in the order of the files
+			final Map< File, String > inconsistentFiles = new LinkedHashMap<>();
+			for ( File file : files )
+			{
+				final String difference = unreadableFiles.containsKey( file ) ? unreadableFiles.get( file ) : differences.get( file );
+				if ( difference != null )
+					inconsistentFiles.put( file, difference );
+			}
+
+			ImageFileHeader.log( entry.getKey(), files.size(), inconsistentFiles );
+
+			entry.getValue().inconsistentFiles = inconsistentFiles.keySet();
+		}
+	}
+
+	/**
+	 * @return the files without the inconsistent ones
+	 */
+	public List< File > getConsistentFiles( List< File > files )
+	{
+		if ( inconsistentFiles.isEmpty() ) return files;
+
+		final List< File > consistentFiles = new ArrayList<>( files );
+		consistentFiles.removeAll( inconsistentFiles );
+		return consistentFiles;
+	}
+
+	/**
+	 * @return why the data sets of the channel in the file do not match, or null if they do
+	 */
+	private String getDifference( Hdf5Reader hdf5Reader, String channelName )
+	{
+		for ( int resolutionLevel = 0; resolutionLevel < headers.length; resolutionLevel++ )
+		{
+			final ImageFileHeader header;
+			try
+			{
+				header = ImageFileHeader.create( hdf5Reader.getDataSetInfo( getDataSetName( channelName, resolutionLevel ) ) );
+			}
+			catch ( Exception e )
+			{
+				return "resolution level " + resolutionLevel + ": could not read the header: " + e.getMessage();
+			}
+
+			final String difference = headers[ resolutionLevel ].getDifference( header );
+			if ( difference != null )
+				return "resolution level " + resolutionLevel + ": " + difference;
+		}
+
+		return null;
+	}
+
+	public static String getDataSetName( String channelName, int resolutionLevel )
+	{
+		return channelName + "/s" + resolutionLevel;
+	}
+
+	private void setLut( Hdf5Reader hdf5Reader, String channelName )
+	{
+		String colorName = hdf5Reader.getStringAttribute( channelName, COLOR );
+
+		if ( colorName.equals( "Gray" ) )
+			colorName = "White";
+
+		if ( colorName.equals( "Glasbey" ) )
+		{
+			colorName = "Gray";
+			type = Metadata.Type.Segmentation;
+		}
+		else
+		{
+			type = Metadata.Type.Image;
+		}
+
+		final Color color = Utils.getColor( colorName );
+		argbType = Utils.getARGBType( color );
+
+		isInitiallyVisible = hdf5Reader.getBooleanAttribute( channelName, VISIBLE );
+
+		setLutMinMax( hdf5Reader, channelName );
+	}
+
+	private void setLutMinMax( Hdf5Reader hdf5Reader, String channelName )
+	{
+		if ( ! hdf5Reader.hasAttribute( channelName, LUT_MIN_MAX ) ) return;
+
+		try
+		{
+			final double[] lutMinMax = hdf5Reader.getDoubleArrayAttribute( channelName, LUT_MIN_MAX );
+			this.lutMinMax[ 0 ] = lutMinMax[ 0 ];
+			this.lutMinMax[ 1 ] = lutMinMax[ 1 ];
+		}
+		catch ( Exception e )
+		{
+			this.lutMinMax[ 0 ] = 0;
+			this.lutMinMax[ 1 ] = 1;
+		}
+	}
+
+	private static int[] getImageDimensions( Hdf5DataSetInfo information )
+	{
+		final long[] dimensions = information.getDimensions();
+		final int[] imageDimensions = new int[ 2 ];
+		imageDimensions[ 0 ] = (int) dimensions[ 1 ]; // in hdf5 it is y,x
+		imageDimensions[ 1 ] = (int) dimensions[ 0 ];
+		return imageDimensions;
+	}
+
+	private static NativeType< ? > getNativeType( Hdf5DataSetInfo information )
+	{
+		final String dataType = information.getTypeName();
+		final boolean signed = information.isSigned();
+
+		if( dataType.equals( Utils.H5_BYTE ) && ! signed )
+			return new UnsignedByteType();
+		else if( dataType.equals( Utils.H5_SHORT ) && ! signed )
+			return new UnsignedShortType();
+		else if( dataType.equals( Utils.H5_INT ) && ! signed )
+			return new UnsignedIntType();
+		else if( dataType.equals( Utils.H5_FLOAT ) )
+			return new FloatType();
+		else
+			throw new UnsupportedOperationException( "Hdf5 datatype not supported: " + dataType );
+	}
+}
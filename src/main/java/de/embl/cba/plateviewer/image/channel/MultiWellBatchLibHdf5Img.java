@@ -1,22 +1,18 @@
 package de.embl.cba.plateviewer.image.channel;
 
-import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
-import ch.systemsx.cisd.hdf5.HDF5Factory;
-import ch.systemsx.cisd.hdf5.IHDF5Reader;
-import de.embl.cba.bdv.utils.sources.Metadata;
-import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.image.cellloader.Hdf5ChannelGroup;
 import de.embl.cba.plateviewer.image.cellloader.MultiSiteHdf5Loader;
 import de.embl.cba.plateviewer.image.MultiWellChannelFilesProviderBatchLibHdf5;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
+import de.embl.cba.plateviewer.io.PlateManifest;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.integer.UnsignedByteType;
-import net.imglib2.type.numeric.integer.UnsignedIntType;
-import net.imglib2.type.numeric.integer.UnsignedShortType;
-import net.imglib2.type.numeric.real.FloatType;
 
-import java.awt.*;
 import java.io.File;
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
 public class MultiWellBatchLibHdf5Img< T extends RealType< T > & NativeType< T > > extends MultiWellImg< T >
 {
@@ -27,115 +23,87 @@ public class MultiWellBatchLibHdf5Img< T extends RealType< T > & NativeType< T >
 	public static final String SCALE_FACTORS = "ScaleFactors";
 
 	private final String hdf5DataSetName;
-
-	public MultiWellBatchLibHdf5Img( List< File > files, String namingScheme, String channelName, int resolutionLevel )
+	private final Hdf5ChannelGroup channelGroup;
+
+	/**
+	 * @param channelGroup
+	 * 				the channels of the plate viewer, which are stored in the same files
+	 * @param cellCacheBudget
+	 * 				the cell cache of the plate viewer
+	 * @param manifestImage
+	 * 				the properties and sites of this channel from the plate manifest,
+	 * 				or null to read and parse them from the files
+	 * @param attributes
+	 * 				the attributes of the channel, which are shared by all resolution levels,
+	 * 				or null to read them from the first file
+	 */
+	public MultiWellBatchLibHdf5Img( List< File > files, String namingScheme, String channelName, int resolutionLevel, Hdf5ChannelGroup channelGroup, CellCacheBudget cellCacheBudget, PlateManifest.ChannelImage manifestImage, BatchLibHdf5ChannelAttributes attributes )
 	{
 		super( files, namingScheme, resolutionLevel );
 
+		this.channelGroup = channelGroup;
+		final Hdf5ReaderPool readerPool = channelGroup.getReaderPool();
+
 		this.channelName = channelName;
 
-		this.hdf5DataSetName = channelName + "/s" + resolutionLevel;
+		this.hdf5DataSetName = BatchLibHdf5ChannelAttributes.getDataSetName( channelName, resolutionLevel );
 
-		setHdf5ImageProperties( files.get( 0 ) );
+		if ( manifestImage != null )
+		{
+			// all channels are in the same files, thus the channel files are the plate files
+			setProperties( manifestImage, files, hdf5DataSetName );
+		}
+		else
+		{
+			if ( attributes == null )
+				attributes = readerPool.read( files.get( 0 ), hdf5Reader -> BatchLibHdf5ChannelAttributes.read( hdf5Reader, channelName ) );
 
-		multiWellChannelFilesProvider = new MultiWellChannelFilesProviderBatchLibHdf5( files, hdf5DataSetName, imageDimensions, resolutionLevel );
+			setProperties( attributes );
 
-		singleSiteChannelFiles = multiWellChannelFilesProvider.getSingleSiteChannelFiles();
+			multiWellChannelFilesProvider = new MultiWellChannelFilesProviderBatchLibHdf5( attributes.getConsistentFiles( files ), hdf5DataSetName, imageDimensions, resolutionLevel );
 
-		if ( resolutionLevel == 0 )
-			wellNames = multiWellChannelFilesProvider.getWellNames();
+			siteTable = multiWellChannelFilesProvider.getSiteTable();
 
-		loader = new MultiSiteHdf5Loader( singleSiteChannelFiles );
+			if ( resolutionLevel == 0 )
+				wellNames = multiWellChannelFilesProvider.getWellNames();
+		}
 
-		setCachedCellImg();
-	}
+		loader = new MultiSiteHdf5Loader( new SiteIndex( siteTable, imageDimensions, hdf5DataSetName ), readerPool, channelGroup, resolutionLevel );
 
-	public static int[] getScaleFactors( File file, String channel )
-	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( file );
+		setCachedCellImg( cellCacheBudget );
 
-		final int[] scaleFactors = hdf5Reader.int32().getArrayAttr( channel, SCALE_FACTORS );
-
-		return scaleFactors;
+		channelGroup.addChannelLevel( channelName, resolutionLevel, this );
 	}
 
-	private void setHdf5ImageProperties( File file )
+	/**
+	 * @param isDisplayed
+	 * 				whether the channel is currently shown; the cells of shown channels
+	 * 				are read together, from the same open file
+	 */
+	public void setDisplayed( BooleanSupplier isDisplayed )
 	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( file );
-
-		setLut( hdf5Reader, channelName );
-
-		setImageDataType( hdf5Reader, hdf5DataSetName );
-
-		setImageDimensions( hdf5Reader, hdf5DataSetName );
+		channelGroup.setDisplayed( channelName, isDisplayed );
 	}
 
-	private void setLut( IHDF5Reader hdf5Reader, String channelName )
+	@Override
+	public void dispose()
 	{
-		String colorName = hdf5Reader.string().getAttr( channelName, COLOR );
-
-		if ( colorName.equals( "Gray" ) )
-			colorName = "White";
-
-		if ( colorName.equals( "Glasbey" ) )
-		{
-			colorName = "Gray";
-			this.type = Metadata.Type.Segmentation;
-		}
-		else
-		{
-			this.type = Metadata.Type.Image;
-		}
-
-		final Color color = Utils.getColor( colorName );
-		argbType = Utils.getARGBType( color );
-
-		isInitiallyVisible = hdf5Reader.bool().getAttr( this.channelName, VISIBLE );
-
-		setLutMinMax( hdf5Reader );
-	}
-
-	private void setLutMinMax( IHDF5Reader hdf5Reader )
-	{
-		if ( ! hdf5Reader.hasAttribute( channelName, LUT_MIN_MAX ) ) return;
-
-		try
-		{
-			final double[] lutMinMax = hdf5Reader.float64().getArrayAttr( channelName, LUT_MIN_MAX );
-			this.lutMinMax[ 0 ] = lutMinMax[ 0 ];
-			this.lutMinMax[ 1 ] = lutMinMax[ 1 ];
-		}
-		catch ( Exception e )
-		{
-			this.lutMinMax[ 0 ] = 0;
-			this.lutMinMax[ 1 ] = 1;
-		}
+		channelGroup.removeChannel( channelName );
+		super.dispose();
 	}
 
-	private void setImageDimensions( IHDF5Reader hdf5Reader, String hdf5DataSetName )
+	public static int[] getScaleFactors( File file, String channel, Hdf5ReaderPool readerPool )
 	{
-		final long[] dimensions = hdf5Reader.getDataSetInformation( hdf5DataSetName ).getDimensions();
-		imageDimensions = new int[ 2 ];
-		imageDimensions[ 0 ] = (int) dimensions[ 1 ]; // in hdf5 it is y,x
-		imageDimensions[ 1 ] = (int) dimensions[ 0 ];
+		return readerPool.read( file, hdf5Reader -> hdf5Reader.getIntArrayAttribute( channel, SCALE_FACTORS ) );
 	}
 
-	private void setImageDataType( IHDF5Reader hdf5Reader, String hdf5DataSetName )
+	private void setProperties( BatchLibHdf5ChannelAttributes attributes )
 	{
-		final HDF5DataSetInformation information = hdf5Reader.getDataSetInformation( hdf5DataSetName );
-		final String dataType = information.getTypeInformation().toString();
-		final boolean signed = information.isSigned();
-
-		if( dataType.equals( Utils.H5_BYTE ) && ! signed )
-			nativeType = new UnsignedByteType();
-		else if( dataType.equals( Utils.H5_SHORT ) && ! signed )
-			nativeType = new UnsignedShortType();
-		else if( dataType.equals( Utils.H5_INT ) && ! signed )
-			nativeType = new UnsignedIntType();
-		else if( dataType.equals( Utils.H5_FLOAT ) )
-			nativeType = new FloatType();
-		else
-			throw new UnsupportedOperationException( "Hdf5 datatype not supported: " + dataType );
+		type = attributes.type;
+		argbType = attributes.argbType.copy();
+		isInitiallyVisible = attributes.isInitiallyVisible;
+		lutMinMax = attributes.lutMinMax.clone();
+		nativeType = ( NativeType ) attributes.nativeTypes[ resolutionLevel ].createVariable();
+		imageDimensions = attributes.imageDimensions[ resolutionLevel ].clone();
 	}
-
 }
@@ -2,6 +2,12 @@ package de.embl.cba.plateviewer.image.channel;
 
 import de.embl.cba.plateviewer.image.cellloader.MultiSiteImagePlusLoader;
 import de.embl.cba.plateviewer.image.MultiWellChannelFilesProviderFactory;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.io.ImageFileHeader;
+import de.embl.cba.plateviewer.io.PlateManifest;
+import de.embl.cba.plateviewer.io.TiffInfo;
+import de.embl.cba.plateviewer.io.TiffReader;
 import de.embl.cba.tables.color.ColorUtils;
 import ij.IJ;
 import ij.ImagePlus;
@@ -16,30 +22,213 @@ import net.imglib2.type.numeric.real.FloatType;
 import java.awt.*;
 import java.awt.image.IndexColorModel;
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * The properties of the channel are read from the TIFF header of the first
+ * file, if possible, rather than by opening it with ImageJ. The headers of
+ * all other files are checked against it, and files whose image does not
+ * match are left out, rather than being read into cells of the wrong size.
+ */
 public class MultiWellImagePlusImg< T extends RealType< T > & NativeType< T > > extends MultiWellImg< T >
 {
-	public MultiWellImagePlusImg( List< File > files, String channelName, String namingScheme, int resolutionLevel )
+	public MultiWellImagePlusImg( List< File > files, String channelName, String namingScheme, int resolutionLevel, CellCacheBudget cellCacheBudget )
+	{
+		this( files, channelName, namingScheme, resolutionLevel, cellCacheBudget, null, null );
+	}
+
+	/**
+	 * @param cellCacheBudget
+	 * 				the cell cache of the plate viewer
+	 * @param manifestImage
+	 * 				the properties and sites of this channel from the plate manifest,
+	 * 				or null to read and parse them from the files
+	 * @param plateFiles
+	 * 				the files of the plate manifest
+	 */
+	public MultiWellImagePlusImg( List< File > files, String channelName, String namingScheme, int resolutionLevel, CellCacheBudget cellCacheBudget, PlateManifest.ChannelImage manifestImage, List< File > plateFiles )
 	{
 		super( files, namingScheme, resolutionLevel );
 
 		// TODO: move into super()
 		this.channelName = channelName;
 
-		setImagePlusProperties( files.get( 0 ) );
+		if ( manifestImage != null )
+		{
+			setProperties( manifestImage, plateFiles, null );
+		}
+		else
+		{
+			final TiffInfo tiffInfo = readTiffInfo( files.get( 0 ) );
+
+			if ( isSupported( tiffInfo ) )
+				setTiffProperties( files.get( 0 ), tiffInfo );
+			else
+				setImagePlusProperties( files.get( 0 ) );
+
+			final List< File > consistentFiles = tiffInfo == null ? files : getConsistentFiles( files, ImageFileHeader.create( tiffInfo ) );
+
+			multiWellChannelFilesProvider = MultiWellChannelFilesProviderFactory.getMultiWellChannelFilesProvider( consistentFiles, namingScheme, imageDimensions );
+
+			siteTable = multiWellChannelFilesProvider.getSiteTable();
+
+			wellNames = multiWellChannelFilesProvider.getWellNames();
+		}
+
+		setCachedCellImgDimensions( siteTable );
+
+		loader = new MultiSiteImagePlusLoader( new SiteIndex( siteTable, imageDimensions, null ) );
+
+		setCachedCellImg( cellCacheBudget );
+	}
+
+	/**
+	 * @return the header of the TIFF file, or null if it is not one
+	 */
+	private static TiffInfo readTiffInfo( File file )
+	{
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			return TiffReader.readInfo( channel );
+		}
+		catch ( IOException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return whether the properties can be taken from the header, which
+	 * is not the case for LUTs, which only ImageJ reads
+	 */
+	private static boolean isSupported( TiffInfo tiffInfo )
+	{
+		return tiffInfo != null && ! tiffInfo.hasLut() && tiffInfo.isSupported( createArray( tiffInfo.getBitDepth(), 0 ) );
+	}
 
-		multiWellChannelFilesProvider = MultiWellChannelFilesProviderFactory.getMultiWellChannelFilesProvider( files, namingScheme, imageDimensions );
+	/**
+	 * @return the files whose header matches the one of the first file
+	 */
+	private List< File > getConsistentFiles( List< File > files, ImageFileHeader header )
+	{
+		final Map< File, String > inconsistentFiles = ImageFileHeader.findInconsistentFiles( files, file -> header.getDifference( ImageFileHeader.readTiff( file ) ) );
 
-		singleSiteChannelFiles = multiWellChannelFilesProvider.getSingleSiteChannelFiles();
+		if ( inconsistentFiles.isEmpty() ) return files;
 
-		setCachedCellImgDimensions( singleSiteChannelFiles );
+		ImageFileHeader.log( channelName, files.size(), inconsistentFiles );
 
-		wellNames = multiWellChannelFilesProvider.getWellNames();
+		final List< File > consistentFiles = new ArrayList<>( files );
+		consistentFiles.removeAll( inconsistentFiles.keySet() );
+		return consistentFiles;
+	}
 
-		loader = new MultiSiteImagePlusLoader( singleSiteChannelFiles );
+	/**
+	 * Sets the same properties as {@link #setImagePlusProperties}. The display
+	 * range is the one that ImageJ stored in the header, or, like ImageJ does,
+	 * the full range for 8 bit and RGB images and the range of the pixel
+	 * values for other images.
+	 */
+	private void setTiffProperties( File file, TiffInfo tiffInfo )
+	{
+		setLutColor( file.getName(), new LUT[ 0 ] );
 
-		setCachedCellImg();
+		lutMinMax = getImageJDisplayRange( tiffInfo.getDescription() );
+		if ( lutMinMax == null )
+		{
+			if ( tiffInfo.getBitDepth() == 8 || tiffInfo.getBitDepth() == 24 )
+				lutMinMax = new double[]{ 0, 255 };
+			else
+				lutMinMax = getPixelValueRange( file, tiffInfo );
+		}
+
+		isInitiallyVisible = true;
+
+		setImageDataType( tiffInfo.getBitDepth() );
+
+		imageDimensions = new int[]{ tiffInfo.getWidth(), tiffInfo.getHeight() };
+	}
+
+	/**
+	 * @return the display range in the image description written by ImageJ, or null
+	 */
+	private static double[] getImageJDisplayRange( String description )
+	{
+		if ( description == null || ! description.startsWith( "ImageJ" ) ) return null;
+
+		Double min = null;
+		Double max = null;
+
+		for ( String line : description.split( "\n" ) )
+		{
+			try
+			{
+				if ( line.startsWith( "min=" ) ) min = Double.parseDouble( line.substring( 4 ).trim() );
+				else if ( line.startsWith( "max=" ) ) max = Double.parseDouble( line.substring( 4 ).trim() );
+			}
+			catch ( NumberFormatException e )
+			{
+				return null;
+			}
+		}
+
+		return min != null && max != null ? new double[]{ min, max } : null;
+	}
+
+	private static double[] getPixelValueRange( File file, TiffInfo tiffInfo )
+	{
+		final Object pixels = createArray( tiffInfo.getBitDepth(), tiffInfo.getWidth() * tiffInfo.getHeight() );
+
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			TiffReader.readRegion( channel, tiffInfo, pixels, 0, 0, tiffInfo.getWidth(), tiffInfo.getHeight() );
+		}
+		catch ( IOException e )
+		{
+			return new double[]{ 0, 255 };
+		}
+
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+
+		if ( pixels instanceof short[] )
+		{
+			for ( short value : ( short[] ) pixels )
+			{
+				min = Math.min( min, value & 0xFFFF );
+				max = Math.max( max, value & 0xFFFF );
+			}
+		}
+		else
+		{
+			for ( float value : ( float[] ) pixels )
+			{
+				if ( Float.isInfinite( value ) || Float.isNaN( value ) ) continue;
+				min = Math.min( min, value );
+				max = Math.max( max, value );
+			}
+		}
+
+		return min <= max ? new double[]{ min, max } : new double[]{ 0, 0 };
+	}
+
+	/**
+	 * @return an array of the type that {@link TiffReader} reads images of the bit depth into
+	 */
+	private static Object createArray( int bitDepth, int length )
+	{
+		switch ( bitDepth )
+		{
+			case 8: return new byte[ length ];
+			case 16:
+			case 24: return new short[ length ];
+			case 32: return new float[ length ];
+			default: return null;
+		}
 	}
 
 	private void setImagePlusProperties( File file )
@@ -64,7 +253,12 @@ public class MultiWellImagePlusImg< T extends RealType< T > & NativeType< T > >
 
 	private void setLutColor( ImagePlus imagePlus )
 	{
-		final String title = imagePlus.getTitle().toLowerCase();
+		setLutColor( imagePlus.getTitle(), imagePlus.getLuts() );
+	}
+
+	private void setLutColor( String imageTitle, LUT[] luts )
+	{
+		final String title = imageTitle.toLowerCase();
 
 		if ( title.contains( "gfp" ) )
 			argbType = new ARGBType( ARGBType.rgba( 0, 255, 0, 255 ) );
@@ -92,8 +286,6 @@ public class MultiWellImagePlusImg< T extends RealType< T > & NativeType< T > >
 			argbType = new ARGBType( ARGBType.rgba( 255, 0, 255, 255 ) );
 		else
 		{
-			final LUT[] luts = imagePlus.getLuts();
-
 			if ( luts.length > 0 )
 			{
 				final LUT lut = luts[ 0 ];
@@ -122,8 +314,11 @@ public class MultiWellImagePlusImg< T extends RealType< T > & NativeType< T > >
 
 	private void setImageDataType( ImagePlus imagePlus )
 	{
-		int bitDepth = imagePlus.getBitDepth();
+		setImageDataType( imagePlus.getBitDepth() );
+	}
 
+	private void setImageDataType( int bitDepth )
+	{
 		switch ( bitDepth )
 		{
 			case 8:
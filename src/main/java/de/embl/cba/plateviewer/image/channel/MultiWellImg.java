@@ -8,11 +8,12 @@ import de.embl.cba.bdv.utils.sources.Metadata;
 import de.embl.cba.plateviewer.image.cellloader.MultiSiteLoader;
 import de.embl.cba.plateviewer.image.MultiWellChannelFilesProvider;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteTable;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.io.PlateManifest;
 import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.cache.img.CachedCellImg;
-import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
-import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
@@ -29,10 +30,11 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 	protected double[] lutMinMax = new double[]{0, 255};
 	protected ARGBType argbType;
 
-	protected ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
+	protected SiteTable siteTable;
 
 	protected ArrayList< String > wellNames;
 	protected CachedCellImg< T, ? > cachedCellImg;
+	protected final List< CachedCellImg< ?, ? > > lowerResolutionLevels = new ArrayList<>();
 	protected MultiSiteLoader loader;
 	protected final List< File > channelFiles;
 	protected final String namingScheme;
@@ -58,7 +60,13 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 	{
 		if( bdvSource != null ) bdvSource.removeFromBdv();
 		if ( bdvOverlaySource != null ) bdvOverlaySource.removeFromBdv();
+		if ( loader != null ) loader.dispose();
+		if ( cachedCellImg != null ) cachedCellImg.getCache().invalidateAll();
 		cachedCellImg = null;
+
+		for ( CachedCellImg< ?, ? > level : lowerResolutionLevels )
+			level.getCache().invalidateAll();
+		lowerResolutionLevels.clear();
 	}
 
 	public ArrayList< String > getWellNames()
@@ -86,6 +94,11 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 		return channelName;
 	}
 
+	public void setCachedCellImgDimensions( SiteTable siteTable )
+	{
+		plateDimensions = siteTable.getPlateDimensions( imageDimensions );
+	}
+
 	public void setCachedCellImgDimensions( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles )
 	{
 		FinalInterval union = new FinalInterval( singleSiteChannelFiles.get( 0 ).getInterval() );
@@ -99,6 +112,56 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 			plateDimensions[ d ] = union.max( d ) + 1;
 	}
 
+	public int[] getImageDimensions()
+	{
+		return imageDimensions;
+	}
+
+	public NativeType getNativeType()
+	{
+		return nativeType;
+	}
+
+	/**
+	 * Sets the image properties and the sites, as recorded in a manifest,
+	 * instead of reading and parsing the files.
+	 *
+	 * @param hdf5DataSetName
+	 * 				null, unless the sites are HDF5 files
+	 */
+	protected void setProperties( PlateManifest.ChannelImage image, List< File > plateFiles, String hdf5DataSetName )
+	{
+		imageDimensions = image.imageDimensions.get( resolutionLevel ).clone();
+		nativeType = PlateManifest.createNativeType( image.dataType );
+		argbType = new ARGBType( image.color );
+		lutMinMax = image.contrastLimits.clone();
+		type = Metadata.Type.valueOf( image.type );
+		isInitiallyVisible = image.isInitiallyVisible;
+		wellNames = new ArrayList<>( image.wellNames );
+		siteTable = image.createSiteTable( plateFiles );
+	}
+
+	/**
+	 * @return the image properties and the sites, to be recorded in a manifest,
+	 * or null if the data type is not supported
+	 */
+	public PlateManifest.ChannelImage createManifestImage( Map< File, Integer > fileIndices )
+	{
+		final String dataType = PlateManifest.getDataType( nativeType );
+		if ( dataType == null || wellNames == null ) return null;
+
+		final PlateManifest.ChannelImage image = new PlateManifest.ChannelImage();
+		image.dataType = dataType;
+		image.color = argbType.get();
+		image.contrastLimits = lutMinMax.clone();
+		image.type = type.name();
+		image.isInitiallyVisible = isInitiallyVisible;
+		image.imageDimensions.add( imageDimensions.clone() );
+		image.wellNames.addAll( wellNames );
+		image.setSites( siteTable, fileIndices );
+		return image;
+	}
+
 	public double[] getContrastLimits()
 	{
 		return lutMinMax;
@@ -109,20 +172,44 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 		return loader;
 	}
 
+	/**
+	 * @return the sites, which are shared with the other resolution levels
+	 * and, if stored in the same files, with the other channels
+	 */
+	public SiteTable getSiteTable()
+	{
+		return siteTable;
+	}
+
 	public RandomAccessibleInterval< T > getRAI( )
 	{
 		return cachedCellImg;
 	}
 
-	protected void setCachedCellImg()
+	public CachedCellImg< T, ? > getCachedCellImg()
+	{
+		return cachedCellImg;
+	}
+
+	/**
+	 * The lower resolution levels of the source, whose cells
+	 * are released together with the ones of this image.
+	 */
+	public void setLowerResolutionLevels( List< ? extends CachedCellImg< ?, ? > > levels )
+	{
+		lowerResolutionLevels.clear();
+		lowerResolutionLevels.addAll( levels );
+	}
+
+	protected void setCachedCellImg( CellCacheBudget cellCacheBudget )
 	{
-		setCachedCellImgDimensions( singleSiteChannelFiles );
+		setCachedCellImgDimensions( siteTable );
 
-		cachedCellImg = new ReadOnlyCachedCellImgFactory().create(
+		cachedCellImg = cellCacheBudget.createCachedCellImg(
 				plateDimensions,
 				nativeType,
 				loader,
-				ReadOnlyCachedCellImgOptions.options().cellDimensions( imageDimensions ) );
+				cellCacheBudget.getCellDimensions( imageDimensions ) );
 	}
 
 	public boolean isInitiallyVisible()
@@ -1,24 +1,41 @@
 package de.embl.cba.plateviewer.image.channel;
 
+import bdv.util.volatiles.SharedQueue;
 import de.embl.cba.plateviewer.Utils;
 import de.embl.cba.plateviewer.image.NamingSchemes;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.image.cellloader.Hdf5ChannelGroup;
 import de.embl.cba.plateviewer.image.source.MultiResolutionBatchLibHdf5ChannelSourceCreator;
+import de.embl.cba.plateviewer.image.source.MultiResolutionImagePlusChannelSourceCreator;
+import de.embl.cba.plateviewer.io.DownsampledCellDiskCache;
 import de.embl.cba.plateviewer.io.FileUtils;
+import de.embl.cba.plateviewer.io.PlateManifest;
 
 import java.io.File;
 import java.util.List;
 
 public class MultiWellImgCreator
 {
-	public static MultiWellImg create( List< File > fileList, String namingScheme, String channelPattern )
+	public static MultiWellImg create( List< File > fileList, String namingScheme, String channelPattern, SharedQueue loadingQueue, CellCacheBudget cellCacheBudget, Hdf5ChannelGroup channelGroup, DownsampledCellDiskCache diskCache, PlateManifest manifest )
 	{
 		Utils.log( "Fetching channel files..." );
 		List< File > channelFiles = getChannelFiles( fileList, namingScheme, channelPattern );
 
-		return createFromChannelFiles( channelFiles, namingScheme, channelPattern );
+		return createFromChannelFiles( channelFiles, namingScheme, channelPattern, loadingQueue, cellCacheBudget, channelGroup, diskCache, manifest );
 	}
 
-	public static MultiWellImg createFromChannelFiles( List< File > channelFiles, String namingScheme, String channelPattern )
+	/**
+	 * @param cellCacheBudget
+	 * 				the cell cache of the plate viewer, shared by all its channels
+	 * @param channelGroup
+	 * 				the channels of the plate viewer, if they are stored in the same files, else null
+	 * @param diskCache
+	 * 				stores the computed lower resolution levels, may be null
+	 * @param manifest
+	 * 				provides the image properties and sites of channels that were opened before,
+	 * 				and records them for channels that are opened for the first time; may be null
+	 */
+	public static MultiWellImg createFromChannelFiles( List< File > channelFiles, String namingScheme, String channelPattern, SharedQueue loadingQueue, CellCacheBudget cellCacheBudget, Hdf5ChannelGroup channelGroup, DownsampledCellDiskCache diskCache, PlateManifest manifest )
 	{
 		MultiWellImg wellImg;
 
@@ -26,33 +43,71 @@ public class MultiWellImgCreator
 
 		Utils.log( "Creating channel: " + channelName );
 
+		final PlateManifest.ChannelImage manifestImage = manifest == null ? null : manifest.getChannelImage( channelName );
+
 		if ( namingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5 ) )
 		{
 			final MultiResolutionBatchLibHdf5ChannelSourceCreator sourceCreator =
 					new MultiResolutionBatchLibHdf5ChannelSourceCreator(
 							namingScheme,
 							channelName,
-							channelFiles );
+							channelFiles,
+							channelGroup,
+							cellCacheBudget,
+							manifestImage );
 
 			sourceCreator.create();
 
 			wellImg = sourceCreator.getMultiWellHdf5CachedCellImage();
 
-			wellImg.setSource( sourceCreator.getVolatileSource() );
+			wellImg.setSource( sourceCreator.getVolatileSource( loadingQueue ) );
 
+			if ( manifest != null && manifestImage == null )
+				addToManifest( manifest, channelName, wellImg, sourceCreator.getScaleFactors(), sourceCreator.getImageDimensions() );
 		}
 		else
 		{
-			wellImg = new MultiWellImagePlusImg(
-					channelFiles,
-					channelName,
-					namingScheme,
-					0 );
+			final MultiResolutionImagePlusChannelSourceCreator sourceCreator =
+					new MultiResolutionImagePlusChannelSourceCreator(
+							namingScheme,
+							channelName,
+							channelFiles,
+							cellCacheBudget,
+							diskCache,
+							manifest );
+
+			sourceCreator.create();
+
+			wellImg = sourceCreator.getMultiWellImagePlusImg();
+
+			wellImg.setSource( sourceCreator.getVolatileSource( loadingQueue ) );
 
+			if ( manifest != null && manifestImage == null )
+				addToManifest( manifest, channelName, wellImg, null, null );
 		}
 		return wellImg;
 	}
 
+	/**
+	 * @param scaleFactors
+	 * 				null, unless the resolution levels are stored in the files
+	 * @param imageDimensions
+	 * 				the image dimensions of all stored resolution levels, or null
+	 */
+	private static void addToManifest( PlateManifest manifest, String channelName, MultiWellImg wellImg, int[] scaleFactors, List< int[] > imageDimensions )
+	{
+		final PlateManifest.ChannelImage image = wellImg.createManifestImage( manifest.getFileIndices() );
+		if ( image == null ) return;
+
+		if ( scaleFactors != null )
+		{
+			image.scaleFactors = scaleFactors;
+			image.imageDimensions = imageDimensions;
+		}
+
+		manifest.setChannelImage( channelName, image );
+	}
+
 
 	private static List< File > getChannelFiles( List < File > fileList, String namingScheme, String channelPattern )
 	{
@@ -3,49 +3,64 @@ package de.embl.cba.plateviewer.image.plate;
 
 import bdv.util.BdvOverlay;
 import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.bdv.FontCache;
+import de.embl.cba.plateviewer.image.IntervalIndex;
 import de.embl.cba.plateviewer.view.ImagePlateViewer;
 import net.imglib2.Interval;
 import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.util.Intervals;
 
 import java.awt.*;
-import java.util.HashMap;
 
 public class SiteQCOverlay extends BdvOverlay
 {
+	/**
+	 * Sites that are smaller on screen get no marker, such that
+	 * zoomed out only the well labels are drawn.
+	 */
+	public static final int MIN_SITE_SIZE_FOR_MARKERS = 16;
+
 	private final ImagePlateViewer< ?, ? > plateViewer;
+	private final FontCache fontCache;
 
 	public SiteQCOverlay( ImagePlateViewer< ?, ? > plateViewer )
 	{
 		super();
 		this.plateViewer = plateViewer;
+		this.fontCache = new FontCache( "TimesRoman", Font.PLAIN );
 	}
 
 	@Override
 	protected void draw( final Graphics2D g )
 	{
+		final IntervalIndex siteIntervalIndex = plateViewer.getSiteIntervalIndex();
+		if ( siteIntervalIndex == null ) return;
 
 		final AffineTransform2D globalToViewerTransform = new AffineTransform2D();
 		getCurrentTransform2D( globalToViewerTransform );
 
-		final HashMap< String, Interval > siteNameToInterval = plateViewer.getSiteNameToInterval();
+		final long[] siteDimensions = siteIntervalIndex.getMaxDimensions();
+		final double scale = Utils.getScale( globalToViewerTransform );
+		if ( Math.min( siteDimensions[ 0 ], siteDimensions[ 1 ] ) * scale < MIN_SITE_SIZE_FOR_MARKERS ) return;
+
+		g.setColor( Color.RED );
 
-		for ( String siteName : siteNameToInterval.keySet() )
+		final Component display = plateViewer.getBdvHandle().getViewerPanel().getDisplay();
+		final double[][] visibleRegion = Utils.getVisibleGlobalRegion( globalToViewerTransform, display.getWidth(), display.getHeight() );
+
+		siteIntervalIndex.forEachIntersecting( visibleRegion[ 0 ], visibleRegion[ 1 ], ( siteName, globalInterval ) ->
 		{
-			final Interval globalInterval = siteNameToInterval.get( siteName );
 			final Interval viewerInterval = Utils.createViewerInterval( globalToViewerTransform, globalInterval );
 
 			final int[] dimensions = Intervals.dimensionsAsIntArray( viewerInterval );
-			Utils.setFont( g, dimensions, "X" );
+			fontCache.setFont( g, dimensions, "X" );
 
 			final int offset = dimensions[ 0 ] / 10;
 
-			g.setColor( Color.RED );
 			g.drawString( "X",
 					viewerInterval.min( 0 ) + offset,
 					viewerInterval.max( 1 ) - offset);
-		}
+		} );
 	}
 
 }
-
@@ -2,50 +2,64 @@ package de.embl.cba.plateviewer.image.plate;
 
 import bdv.util.BdvOverlay;
 import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.bdv.FontCache;
+import de.embl.cba.plateviewer.image.IntervalIndex;
 import de.embl.cba.plateviewer.view.ImagePlateViewer;
 import net.imglib2.Interval;
 import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.util.Intervals;
 
 import java.awt.*;
-import java.util.HashMap;
 
 public class WellNamesOverlay extends BdvOverlay
 {
+	/**
+	 * Wells whose labels would be smaller are not labeled.
+	 */
+	public static final int MIN_FONT_SIZE = 6;
+
 	private final ImagePlateViewer< ?, ? > plateViewer;
+	private final FontCache fontCache;
 
 	public WellNamesOverlay( ImagePlateViewer< ?, ? > plateViewer )
 	{
 		super();
 		this.plateViewer = plateViewer;
+		this.fontCache = new FontCache( "TimesRoman", Font.PLAIN );
 	}
 
 	@Override
 	protected void draw( final Graphics2D g )
 	{
-		g.setColor( Color.WHITE );
+		final IntervalIndex wellIntervalIndex = plateViewer.getWellIntervalIndex();
+		if ( wellIntervalIndex == null ) return;
 
 		final AffineTransform2D globalToViewerTransform = new AffineTransform2D();
 		getCurrentTransform2D( globalToViewerTransform );
 
-		final HashMap< String, Interval > wellNameToInterval = plateViewer.getWellNameToInterval();
+		// the font size is at most half the well size, see FontCache.setFont
+		final long[] wellDimensions = wellIntervalIndex.getMaxDimensions();
+		final double scale = Utils.getScale( globalToViewerTransform );
+		if ( Math.min( wellDimensions[ 0 ], wellDimensions[ 1 ] ) * scale / 2 < MIN_FONT_SIZE ) return;
 
-		for ( String wellName : wellNameToInterval.keySet() )
-		{
-			final Interval globalInterval = wellNameToInterval.get( wellName );
+		g.setColor( Color.WHITE );
 
+		final Component display = plateViewer.getBdvHandle().getViewerPanel().getDisplay();
+		final double[][] visibleRegion = Utils.getVisibleGlobalRegion( globalToViewerTransform, display.getWidth(), display.getHeight() );
+
+		wellIntervalIndex.forEachIntersecting( visibleRegion[ 0 ], visibleRegion[ 1 ], ( wellName, globalInterval ) ->
+		{
 			final Interval viewerInterval = Utils.createViewerInterval( globalToViewerTransform, globalInterval );
 
 			final int[] dimensions = Intervals.dimensionsAsIntArray( viewerInterval );
-			Utils.setFont( g, dimensions, wellName );
+			if ( fontCache.setFont( g, dimensions, wellName ) < MIN_FONT_SIZE ) return;
 
 			final int offset = dimensions[ 0 ] / 10;
 
 			g.drawString( wellName,
 					viewerInterval.min( 0 ) + offset,
 					viewerInterval.max( 1 ) - offset);
-		}
+		} );
 	}
 
 }
-
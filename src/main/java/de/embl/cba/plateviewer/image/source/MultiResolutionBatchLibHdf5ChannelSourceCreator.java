@@ -3,17 +3,23 @@ package de.embl.cba.plateviewer.image.source;
 import bdv.util.volatiles.SharedQueue;
 import bdv.viewer.Source;
 import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.image.cellloader.Hdf5ChannelGroup;
+import de.embl.cba.plateviewer.image.channel.BatchLibHdf5ChannelAttributes;
 import de.embl.cba.plateviewer.image.channel.MultiWellBatchLibHdf5Img;
+import de.embl.cba.plateviewer.io.PlateManifest;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.Volatile;
+import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeType< R > & RealType< R > >
@@ -24,19 +30,46 @@ public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeTy
 	private final List< File > channelFiles;
 	private RandomAccessibleIntervalMipmapWithOffsetSource< R > source;
 	private MultiWellBatchLibHdf5Img< R > multiWellHdf5CachedCellImage;
-
+	private final Hdf5ChannelGroup channelGroup;
+	private final CellCacheBudget cellCacheBudget;
+	private final PlateManifest.ChannelImage manifestImage;
+	private int[] scaleFactors;
+	private List< int[] > imageDimensions;
+
+	/**
+	 * @param channelGroup
+	 * 				the channels of the plate viewer, which are stored in the same files
+	 * @param cellCacheBudget
+	 * 				the cell cache of the plate viewer
+	 * @param manifestImage
+	 * 				the properties and sites of this channel from the plate manifest, may be null
+	 */
 	public MultiResolutionBatchLibHdf5ChannelSourceCreator( String namingScheme,
 															String channelName,
-															List< File > channelFiles)
+															List< File > channelFiles,
+															Hdf5ChannelGroup channelGroup,
+															CellCacheBudget cellCacheBudget,
+															PlateManifest.ChannelImage manifestImage )
 	{
 		this.namingScheme = namingScheme;
 		this.channelName = channelName;
 		this.channelFiles = channelFiles;
+		this.channelGroup = channelGroup;
+		this.cellCacheBudget = cellCacheBudget;
+		this.manifestImage = manifestImage;
 	}
 
 	public void create()
 	{
-		final int[] scaleFactors = MultiWellBatchLibHdf5Img.getScaleFactors( channelFiles.get( 0 ), channelName );
+		// the attributes of all resolution levels are read at once, from the first file,
+		// and the files are checked once per plate, unless the manifest provides the sites
+		final BatchLibHdf5ChannelAttributes attributes = manifestImage != null ? null :
+				channelGroup.getCheckedAttributes( channelFiles, channelName );
+
+		scaleFactors = manifestImage != null ? manifestImage.scaleFactors : attributes.scaleFactors;
+
+		imageDimensions = new ArrayList<>();
+		final List< CachedCellImg< R, ? > > lowerResolutionLevels = new ArrayList<>();
 
 		RandomAccessibleInterval< R >[] rais = new RandomAccessibleInterval[ scaleFactors.length ];
 		double[][] mipmapScales = new double[ scaleFactors.length ][ NUM_DIMENSIONS ];
@@ -50,9 +83,14 @@ public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeTy
 						channelFiles,
 						namingScheme,
 						channelName,
-						resolutionLevel );
+						resolutionLevel,
+						channelGroup,
+						cellCacheBudget,
+						manifestImage,
+						attributes );
 
 			rais[ resolutionLevel ] = Views.addDimension( cachedCellImage.getRAI(), 0, 0);
+			imageDimensions.add( cachedCellImage.getImageDimensions().clone() );
 
 			for ( int d = 0; d < NUM_DIMENSIONS; d++ )
 			{
@@ -63,8 +101,14 @@ public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeTy
 			{
 				this.multiWellHdf5CachedCellImage = cachedCellImage;
 			}
+			else
+			{
+				lowerResolutionLevels.add( cachedCellImage.getCachedCellImg() );
+			}
 		}
 
+		multiWellHdf5CachedCellImage.setLowerResolutionLevels( lowerResolutionLevels );
+
 		final VoxelDimensions voxelDimensions =
 				new FinalVoxelDimensions("pixel", 1, 1, 1 );
 
@@ -90,13 +134,26 @@ public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeTy
 		return source;
 	}
 
-	public Source< ? extends Volatile< R > > getVolatileSource()
+	public Source< ? extends Volatile< R > > getVolatileSource( SharedQueue queue )
 	{
-		return source.asVolatile( new SharedQueue( 1 ) );
+		return source.asVolatile( queue );
 	}
 
 	public MultiWellBatchLibHdf5Img< R > getMultiWellHdf5CachedCellImage()
 	{
 		return multiWellHdf5CachedCellImage;
 	}
+
+	public int[] getScaleFactors()
+	{
+		return scaleFactors;
+	}
+
+	/**
+	 * @return the image dimensions of all resolution levels
+	 */
+	public List< int[] > getImageDimensions()
+	{
+		return imageDimensions;
+	}
 }
@@ -0,0 +1,171 @@
+package de.embl.cba.plateviewer.image.source;
+
+import bdv.util.volatiles.SharedQueue;
+import bdv.viewer.Source;
+import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.image.cellloader.DownsamplingLoader;
+import de.embl.cba.plateviewer.image.channel.MultiWellImagePlusImg;
+import de.embl.cba.plateviewer.io.DownsampledCellDiskCache;
+import de.embl.cba.plateviewer.io.PlateManifest;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi-resolution source for plates of single resolution image files.
+ *
+ * The full resolution level is loaded from the files; each lower level is
+ * a lazily computed cached cell image, whose cells are produced by
+ * downsampling the corresponding cells of the level above.
+ * Thus, once computed, an overview of the plate only touches reduced data.
+ * Given a disk cache, the computed cells also survive closing the plate.
+ */
+public class MultiResolutionImagePlusChannelSourceCreator< R extends NativeType< R > & RealType< R > >
+{
+	public static final int NUM_DIMENSIONS = 3;
+
+	/**
+	 * No further levels are computed once the site size of a level is
+	 * below this number of pixels (in all dimensions).
+	 */
+	public static final int MIN_SITE_SIZE = 16;
+
+	private final String namingScheme;
+	private final String channelName;
+	private final List< File > channelFiles;
+	private final CellCacheBudget cellCacheBudget;
+	private final DownsampledCellDiskCache diskCache;
+	private final PlateManifest manifest;
+	private RandomAccessibleIntervalMipmapWithOffsetSource< R > source;
+	private MultiWellImagePlusImg< R > multiWellImagePlusImg;
+
+	/**
+	 * @param cellCacheBudget
+	 * 				the cell cache of the plate viewer
+	 * @param diskCache
+	 * 				stores the computed lower resolution levels, may be null
+	 * @param manifest
+	 * 				provides the properties and sites of the channel, if it was opened before, may be null
+	 */
+	public MultiResolutionImagePlusChannelSourceCreator( String namingScheme,
+														 String channelName,
+														 List< File > channelFiles,
+														 CellCacheBudget cellCacheBudget,
+														 DownsampledCellDiskCache diskCache,
+														 PlateManifest manifest )
+	{
+		this.namingScheme = namingScheme;
+		this.channelName = channelName;
+		this.channelFiles = channelFiles;
+		this.cellCacheBudget = cellCacheBudget;
+		this.diskCache = diskCache;
+		this.manifest = manifest;
+	}
+
+	public void create()
+	{
+		if ( manifest != null )
+			multiWellImagePlusImg = new MultiWellImagePlusImg<>( channelFiles, channelName, namingScheme, 0, cellCacheBudget, manifest.getChannelImage( channelName ), manifest.getFiles() );
+		else
+			multiWellImagePlusImg = new MultiWellImagePlusImg<>( channelFiles, channelName, namingScheme, 0, cellCacheBudget );
+
+		final List< CachedCellImg< R, ? > > levels = createLevels( multiWellImagePlusImg );
+
+		multiWellImagePlusImg.setLowerResolutionLevels( levels.subList( 1, levels.size() ) );
+
+		Utils.log( "Number of resolution levels: " + levels.size() );
+
+		final RandomAccessibleInterval< R >[] rais = new RandomAccessibleInterval[ levels.size() ];
+		final double[][] mipmapScales = new double[ levels.size() ][ NUM_DIMENSIONS ];
+
+		for ( int resolutionLevel = 0; resolutionLevel < levels.size(); resolutionLevel++ )
+		{
+			rais[ resolutionLevel ] = Views.addDimension( levels.get( resolutionLevel ), 0, 0 );
+
+			for ( int d = 0; d < NUM_DIMENSIONS; d++ )
+				mipmapScales[ resolutionLevel ][ d ] = 1.0 * rais[ 0 ].dimension( d ) / rais[ resolutionLevel ].dimension( d );
+		}
+
+		final VoxelDimensions voxelDimensions =
+				new FinalVoxelDimensions("pixel", 1, 1, 1 );
+
+		source = new RandomAccessibleIntervalMipmapWithOffsetSource<>(
+				rais,
+				Util.getTypeFromInterval( rais[ 0 ] ),
+				mipmapScales,
+				voxelDimensions,
+				channelName );
+	}
+
+	private List< CachedCellImg< R, ? > > createLevels( MultiWellImagePlusImg< R > fullResolutionImg )
+	{
+		final List< CachedCellImg< R, ? > > levels = new ArrayList<>();
+
+		final CachedCellImg< R, ? > fullResolution = fullResolutionImg.getCachedCellImg();
+		levels.add( fullResolution );
+
+		final int[] fullResolutionSiteDimensions = fullResolutionImg.getImageDimensions();
+
+		final R type = Util.getTypeFromInterval( fullResolution ).createVariable();
+
+		int[] siteDimensions = fullResolutionSiteDimensions.clone();
+
+		while ( siteDimensions[ 0 ] > MIN_SITE_SIZE || siteDimensions[ 1 ] > MIN_SITE_SIZE )
+		{
+			final int[] levelSiteDimensions = new int[ 2 ];
+			for ( int d = 0; d < 2; d++ )
+				levelSiteDimensions[ d ] = ( siteDimensions[ d ] + 1 ) / 2;
+
+			final int[] levelCellDimensions = cellCacheBudget.getCellDimensions( levelSiteDimensions );
+			final long[] levelDimensions = DownsamplingLoader.getDimensions( levels.get( levels.size() - 1 ), siteDimensions );
+			final long numCells = ( levelDimensions[ 0 ] / levelCellDimensions[ 0 ] ) * ( levelDimensions[ 1 ] / levelCellDimensions[ 1 ] );
+
+			final DownsampledCellDiskCache.Level levelDiskCache = diskCache == null ? null :
+					diskCache.getLevel( channelName, levels.size(), type, levelCellDimensions, numCells );
+
+			final DownsamplingLoader< R > loader = new DownsamplingLoader<>(
+					levels.get( levels.size() - 1 ),
+					fullResolutionImg.getLoader().getSiteIndex(),
+					fullResolutionSiteDimensions,
+					siteDimensions,
+					levelDiskCache );
+
+			final CachedCellImg< R, ? > level = cellCacheBudget.createCachedCellImg(
+					levelDimensions,
+					type,
+					loader,
+					levelCellDimensions );
+
+			levels.add( level );
+			siteDimensions = levelSiteDimensions;
+		}
+
+		return levels;
+	}
+
+	public Source< R > getSource()
+	{
+		return source;
+	}
+
+	public Source< ? extends Volatile< R > > getVolatileSource( SharedQueue queue )
+	{
+		return source.asVolatile( queue );
+	}
+
+	public MultiWellImagePlusImg< R > getMultiWellImagePlusImg()
+	{
+		return multiWellImagePlusImg;
+	}
+}
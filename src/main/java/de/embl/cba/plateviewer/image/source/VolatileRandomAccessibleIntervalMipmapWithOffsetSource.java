@@ -1,9 +1,11 @@
 package de.embl.cba.plateviewer.image.source;
 
 import bdv.util.AbstractSource;
-import bdv.util.RandomAccessibleIntervalMipmapSource;
 import bdv.util.volatiles.SharedQueue;
 import bdv.util.volatiles.VolatileViews;
+import bdv.viewer.render.DefaultMipmapOrdering;
+import bdv.viewer.render.MipmapOrdering;
+import de.embl.cba.plateviewer.image.cache.LoadingPriorities;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.Volatile;
@@ -14,12 +16,30 @@ import net.imglib2.type.numeric.NumericType;
 
 import java.util.function.Supplier;
 
-public class VolatileRandomAccessibleIntervalMipmapWithOffsetSource< T extends NumericType< T >, V extends Volatile< T > & NumericType< V > > extends AbstractSource< V >
+/**
+ * The priority with which the cells of a level are queued depends on
+ * the level that is currently shown (see {@link LoadingPriorities}).
+ * The renderer asks for the mipmap hints before it gets the levels of a
+ * frame, thus the hints determine the priorities of the returned levels.
+ */
+public class VolatileRandomAccessibleIntervalMipmapWithOffsetSource< T extends NumericType< T >, V extends Volatile< T > & NumericType< V > > extends AbstractSource< V > implements MipmapOrdering
 {
+	private static final int DONT_LOAD = LoadingPriorities.NUM_PRIORITIES;
+
 	private final RandomAccessibleIntervalMipmapWithOffsetSource< T > source;
 
 	private SharedQueue queue;
 
+	private final MipmapOrdering mipmapOrdering;
+
+	/**
+	 * The volatile views of each level, per priority, or not loading;
+	 * created once, such that the volatile cells are kept across frames.
+	 */
+	private final RandomAccessibleInterval< V >[][] volatileLevels;
+
+	private final int[] levelPriorities;
+
 	public VolatileRandomAccessibleIntervalMipmapWithOffsetSource(
 			final RandomAccessibleIntervalMipmapWithOffsetSource< T > source,
 			final V type,
@@ -28,6 +48,12 @@ public class VolatileRandomAccessibleIntervalMipmapWithOffsetSource< T extends N
 		super( type, source.getName() );
 		this.source = source;
 		this.queue = queue;
+		this.mipmapOrdering = new DefaultMipmapOrdering( this );
+		this.volatileLevels = new RandomAccessibleInterval[ source.getNumMipmapLevels() ][ LoadingPriorities.NUM_PRIORITIES + 1 ];
+		this.levelPriorities = new int[ source.getNumMipmapLevels() ];
+
+		for ( int level = 0; level < levelPriorities.length; level++ )
+			levelPriorities[ level ] = LoadingPriorities.getLevelPriority( level );
 	}
 
 	public VolatileRandomAccessibleIntervalMipmapWithOffsetSource(
@@ -39,9 +65,38 @@ public class VolatileRandomAccessibleIntervalMipmapWithOffsetSource< T extends N
 	}
 
 	@Override
-	public RandomAccessibleInterval< V > getSource( final int t, final int level )
+	public synchronized MipmapHints getMipmapHints( final AffineTransform3D screenTransform, final int timepoint, final int previousTimepoint )
+	{
+		final MipmapHints hints = mipmapOrdering.getMipmapHints( screenTransform, timepoint, previousTimepoint );
+
+		// the first level is the one that is shown, the coarser ones follow
+		int numLevelsCoarser = 0;
+		for ( Level level : hints.getLevels() )
+		{
+			if ( level.getCacheHints().getLoadingStrategy() == LoadingStrategy.DONTLOAD )
+				levelPriorities[ level.getMipmapLevel() ] = DONT_LOAD;
+			else
+				levelPriorities[ level.getMipmapLevel() ] = LoadingPriorities.getLevelPriority( numLevelsCoarser++ );
+		}
+
+		return hints;
+	}
+
+	@Override
+	public synchronized RandomAccessibleInterval< V > getSource( final int t, final int level )
 	{
-		return VolatileViews.wrapAsVolatile( source.getSource( t, level ), queue, new CacheHints( LoadingStrategy.VOLATILE, level, true ) );
+		final int priority = levelPriorities[ level ];
+
+		if ( volatileLevels[ level ][ priority ] == null )
+		{
+			final CacheHints cacheHints = priority == DONT_LOAD ?
+					new CacheHints( LoadingStrategy.DONTLOAD, 0, false ) :
+					new CacheHints( LoadingStrategy.VOLATILE, priority, true );
+
+			volatileLevels[ level ][ priority ] = VolatileViews.wrapAsVolatile( source.getSource( t, level ), queue, cacheHints );
+		}
+
+		return volatileLevels[ level ][ priority ];
 	}
 
 	@Override
@@ -1,5 +1,6 @@
 package de.embl.cba.plateviewer.image.table;
 
+import de.embl.cba.tables.color.ColoringListener;
 import de.embl.cba.tables.color.ColoringModel;
 import de.embl.cba.tables.color.LabelsARGBConverter;
 import net.imglib2.Volatile;
@@ -9,6 +10,7 @@ import net.imglib2.type.volatiles.VolatileARGBType;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 // TODO: move to table-utils
 public class ListItemsARGBConverter< T > implements LabelsARGBConverter
@@ -16,11 +18,19 @@ public class ListItemsARGBConverter< T > implements LabelsARGBConverter
 	public static final int OUT_OF_BOUNDS_ROW_INDEX = -1;
 	private final ColoringModel< T > coloringModel;
 	private final List< T > list;
-	private ARGBType singleColor;
+	private volatile ARGBType singleColor;
 	private int frame;
 	private int noColorArgbIndex; // default, background color
 	private final HashMap< Integer, Integer > indexToColor;
 
+	/**
+	 * The color of each list index, shifted by one such that the
+	 * out of bounds index is at 0, or null if it needs to be rebuilt.
+	 */
+	private volatile int[] colors;
+	private final AtomicLong numInvalidations = new AtomicLong();
+	private final ColoringListener coloringListener = this::invalidate;
+
 	public ListItemsARGBConverter(
 			List< T > list,
 			ColoringModel< T > coloringModel )
@@ -29,6 +39,16 @@ public class ListItemsARGBConverter< T > implements LabelsARGBConverter
 		this.coloringModel = coloringModel;
 		noColorArgbIndex = 0;
 		indexToColor = new HashMap<>();
+
+		coloringModel.listeners().add( coloringListener );
+	}
+
+	/**
+	 * Stops following the coloring model, which usually outlives the converter.
+	 */
+	public void dispose()
+	{
+		coloringModel.listeners().remove( coloringListener );
 	}
 
 	@Override
@@ -44,45 +64,22 @@ public class ListItemsARGBConverter< T > implements LabelsARGBConverter
 			}
 		}
 
-		final int index = ( int ) rowIndex.getRealDouble();
-
-		if ( indexToColor.containsKey( index ))
-		{
-			color.set( indexToColor.get( index ) );
-			return;
-		}
-
-		if ( index == OUT_OF_BOUNDS_ROW_INDEX )
-		{
-			color.set( noColorArgbIndex );
-			color.setValid( true );
-			return;
-		}
-
-		if ( singleColor != null )
-		{
-			color.setValid( true );
-			color.set( singleColor.get() );
-			return;
-		}
-
-		final T item = list.get( index );
-
-		if ( item == null )
-		{
-			color.set( noColorArgbIndex );
-			color.setValid( true );
-		}
-		else
-		{
-			coloringModel.convert( item, color.get() );
+		final int[] colors = getColors();
+		final int index = ( int ) rowIndex.getRealDouble() + 1;
 
-			final int alpha = ARGBType.alpha( color.get().get() );
-			if( alpha < 255 )
-				color.mul( alpha / 255.0 );
+		color.set( index < 0 || index >= colors.length ? noColorArgbIndex : colors[ index ] );
+		color.setValid( true );
+	}
 
-			color.setValid( true );
-		}
+	/**
+	 * Makes the colors be rebuilt at the next conversion, which happens on
+	 * changes of the coloring model; needs to be called if the
+	 * {@link #getIndexToColor() index to color map} is changed afterwards.
+	 */
+	public void invalidate()
+	{
+		numInvalidations.incrementAndGet();
+		colors = null;
 	}
 
 	@Override
@@ -95,10 +92,68 @@ public class ListItemsARGBConverter< T > implements LabelsARGBConverter
 	public void setSingleColor( ARGBType argbType )
 	{
 		singleColor = argbType;
+		invalidate();
 	}
 
 	public HashMap< Integer, Integer > getIndexToColor()
 	{
 		return indexToColor;
 	}
+
+	private int[] getColors()
+	{
+		final int[] colors = this.colors;
+
+		if ( colors != null && colors.length == list.size() + 1 )
+			return colors;
+
+		return rebuildColors();
+	}
+
+	private synchronized int[] rebuildColors()
+	{
+		if ( colors != null && colors.length == list.size() + 1 )
+			return colors;
+
+		final long numInvalidationsAtStart = numInvalidations.get();
+
+		final int[] colors = new int[ list.size() + 1 ];
+		final ARGBType singleColor = this.singleColor;
+		final HashMap< Integer, Integer > indexToColor = this.indexToColor.isEmpty() ? null : this.indexToColor;
+
+		colors[ 0 ] = this.indexToColor.getOrDefault( OUT_OF_BOUNDS_ROW_INDEX, noColorArgbIndex );
+
+		// sequentially, as coloring models, e.g. lazy category colorings, are not thread-safe
+		for ( int index = 0; index < list.size(); index++ )
+			colors[ index + 1 ] = computeColor( index, singleColor, indexToColor );
+
+		// if the coloring changed meanwhile, the next conversion rebuilds again
+		if ( numInvalidations.get() == numInvalidationsAtStart )
+			this.colors = colors;
+
+		return colors;
+	}
+
+	private int computeColor( int index, ARGBType singleColor, HashMap< Integer, Integer > indexToColor )
+	{
+		if ( indexToColor != null )
+		{
+			final Integer color = indexToColor.get( index );
+			if ( color != null ) return color;
+		}
+
+		if ( singleColor != null ) return singleColor.get();
+
+		final T item = list.get( index );
+		if ( item == null ) return noColorArgbIndex;
+
+		final ARGBType argbType = new ARGBType();
+		coloringModel.convert( item, argbType );
+
+		final int alpha = ARGBType.alpha( argbType.get() );
+		if( alpha < 255 )
+			argbType.mul( alpha / 255.0 );
+
+		return argbType.get();
+	}
 }
@@ -37,9 +37,12 @@ public class SitesImage implements BdvViewable
 	private RandomAccessibleInterval< IntType > rai;
 	private double[] contrastLimits;
 	private final String[][] siteNameMatrix;
+	private final int[] siteGridDimensions;
+	private final int[] tableRowIndices;
 	private HashMap< String, DefaultSiteNameTableRow > siteNameToTableRow;
 	private HashMap< String, Integer > siteNameToTableRowIndex;
 	private ARGBConvertedRealSource argbSource;
+	private ListItemsARGBConverter< DefaultSiteNameTableRow > argbConverter;
 
 	public SitesImage(
 			List< DefaultSiteNameTableRow > tableRows,
@@ -55,7 +58,10 @@ public class SitesImage implements BdvViewable
 		siteDimensions = imagePlateViewer.getSiteDimensions();
 		siteNameMatrix = imagePlateViewer.getSiteNameMatrix();
 
-		createSiteNameToTableRowMap( tableRows );
+		siteGridDimensions = new int[]{ siteNameMatrix.length, siteNameMatrix.length == 0 ? 0 : siteNameMatrix[ 0 ].length };
+		tableRowIndices = new int[ siteGridDimensions[ 0 ] * siteGridDimensions[ 1 ] ];
+
+		updateTableRowIndices();
 
 		contrastLimits = new double[ 2 ];
 
@@ -75,27 +81,45 @@ public class SitesImage implements BdvViewable
 		}
 	}
 
+	/**
+	 * Maps each site to the index of its table row, or to
+	 * {@link ListItemsARGBConverter#OUT_OF_BOUNDS_ROW_INDEX}.
+	 *
+	 * Changes of the coloring are picked up by the converter; this needs
+	 * to be called, followed by a repaint, if the table rows change.
+	 */
+	public synchronized void updateTableRowIndices()
+	{
+		createSiteNameToTableRowMap( tableRows );
+
+		for ( int x = 0; x < siteGridDimensions[ 0 ]; x++ )
+		{
+			for ( int y = 0; y < siteGridDimensions[ 1 ]; y++ )
+			{
+				final String siteName = siteNameMatrix[ x ][ y ];
+				final Integer rowIndex = siteName == null ? null : siteNameToTableRowIndex.get( siteName );
+
+				tableRowIndices[ y * siteGridDimensions[ 0 ] + x ] =
+						rowIndex == null ? ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX : rowIndex;
+			}
+		}
+	}
+
 	private void createImage( )
 	{
-		// TODO: below code could be optimised by precomputing a tableRowIndexMatrix
+		// one value per site, such that a pixel is an array read
 		BiConsumer< Localizable, IntType > biConsumer = ( l, t ) ->
 		{
-			t.setInteger( ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX );
-
-			final int siteRowIndex = ( int ) ( l.getIntPosition( 0 ) / siteDimensions[ 0 ] );
-			final int siteColumnIndex = ( int ) ( l.getIntPosition( 1 ) / siteDimensions[ 1 ] );
+			final long x = Math.floorDiv( l.getLongPosition( 0 ), siteDimensions[ 0 ] );
+			final long y = Math.floorDiv( l.getLongPosition( 1 ), siteDimensions[ 1 ] );
 
-			if ( siteRowIndex < 0
-					|| siteRowIndex >= siteNameMatrix.length
-					|| siteColumnIndex < 0
-					|| siteColumnIndex >= siteNameMatrix[ 0 ].length )
+			if ( x < 0 || x >= siteGridDimensions[ 0 ] || y < 0 || y >= siteGridDimensions[ 1 ] )
+			{
+				t.setInteger( ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX );
 				return;
+			}
 
-			final String siteName = siteNameMatrix[ siteRowIndex ][ siteColumnIndex ];
-
-			if ( siteName == null ) return;
-
-			t.setInteger( siteNameToTableRowIndex.get( siteName ) );
+			t.setInteger( tableRowIndices[ ( int ) ( y * siteGridDimensions[ 0 ] + x ) ] );
 		};
 
 		final FunctionRandomAccessible< IntType > randomAccessible =
@@ -108,8 +132,7 @@ public class SitesImage implements BdvViewable
 		final RandomAccessibleIntervalSource< IntType > tableRowIndexSource
 				= new RandomAccessibleIntervalSource<>( rai, Util.getTypeFromInterval( rai ), "table row index" );
 
-		final ListItemsARGBConverter< DefaultSiteNameTableRow > argbConverter =
-				new ListItemsARGBConverter<>( tableRows, coloringModel );
+		argbConverter = new ListItemsARGBConverter<>( tableRows, coloringModel );
 
 		argbSource = new ARGBConvertedRealSource( tableRowIndexSource , argbConverter );
 
@@ -117,6 +140,11 @@ public class SitesImage implements BdvViewable
 		contrastLimits[ 1 ] = 255;
 	}
 
+	public void dispose()
+	{
+		argbConverter.dispose();
+	}
+
 	@Override
 	public String getName()
 	{
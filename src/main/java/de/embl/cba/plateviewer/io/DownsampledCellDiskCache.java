@@ -0,0 +1,348 @@
+package de.embl.cba.plateviewer.io;
+
+import de.embl.cba.plateviewer.Utils;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.GenericByteType;
+import net.imglib2.type.numeric.integer.GenericIntType;
+import net.imglib2.type.numeric.integer.GenericShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of computed (downsampled) cells.
+ *
+ * There is one file per channel and resolution level, which is memory
+ * mapped. It starts with a header, followed by one key per cell and
+ * fixed size slots for the cell data, such that the data of a cell is
+ * found by arithmetic. The key of a cell is a hash of path, modification
+ * time and size of the site file that the cell was computed from; a cell
+ * whose key does not match the current site file is recomputed and
+ * overwritten.
+ *
+ * The slots are not allocated up front: the file grows by one segment,
+ * of up to {@link #MAX_SEGMENT_SIZE} bytes, when the first cell of the
+ * segment is written. On file systems that support sparse files, only
+ * the pages that were written take up disk space.
+ */
+public class DownsampledCellDiskCache
+{
+	public static final String FILE_EXTENSION = ".cells";
+
+	private static final long MAGIC = 0x504C56434C4C5331L; // "PLVCLLS1"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int ALIGNMENT = 4096;
+	private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+	public static final int BYTE = 1;
+	public static final int SHORT = 2;
+	public static final int INT = 3;
+	public static final int FLOAT = 4;
+
+	private final File directory;
+	private final int minResolutionLevel;
+	private final Map< String, Level > levels;
+
+	/**
+	 * @param directory
+	 * 				the cache directory of one plate
+	 * @param minResolutionLevel
+	 * 				levels above this one are not cached
+	 */
+	public DownsampledCellDiskCache( File directory, int minResolutionLevel )
+	{
+		this.directory = directory;
+		this.minResolutionLevel = minResolutionLevel;
+		this.levels = new HashMap<>();
+	}
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * @return the cache of one resolution level of one channel, or null if the
+	 * level is not cached, the type is not supported or the file could not be opened
+	 */
+	public synchronized Level getLevel( String channelName, int resolutionLevel, NativeType< ? > type, int[] cellDimensions, long numCells )
+	{
+		if ( resolutionLevel < minResolutionLevel ) return null;
+
+		final int dataType = getDataType( type );
+		if ( dataType < 0 ) return null;
+
+		final File file = new File( directory, toFileName( channelName ) + "-level" + resolutionLevel + FILE_EXTENSION );
+
+		final Level cached = levels.get( file.getPath() );
+		if ( cached != null ) return cached;
+
+		try
+		{
+			final Level level = new Level( file, dataType, cellDimensions, numCells );
+			levels.put( file.getPath(), level );
+			return level;
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not open disk cache " + file + ": " + e.getMessage() );
+			return null;
+		}
+	}
+
+	public synchronized void close()
+	{
+		for ( Level level : levels.values() )
+			level.close();
+
+		levels.clear();
+	}
+
+	/**
+	 * @return a key that changes whenever the file is modified, never 0
+	 */
+	public static long getKey( File file )
+	{
+		final String identity = file.getAbsolutePath() + "\n" + file.lastModified() + "\n" + file.length();
+		final long hash = hash( identity );
+		return hash == 0 ? 1 : hash;
+	}
+
+	public static int getDataType( NativeType< ? > type )
+	{
+		if ( type instanceof GenericByteType ) return BYTE;
+		if ( type instanceof GenericShortType ) return SHORT;
+		if ( type instanceof GenericIntType ) return INT;
+		if ( type instanceof FloatType ) return FLOAT;
+		return -1;
+	}
+
+	private static int getBytesPerPixel( int dataType )
+	{
+		switch ( dataType )
+		{
+			case BYTE: return 1;
+			case SHORT: return 2;
+			default: return 4;
+		}
+	}
+
+	private static String toFileName( String name )
+	{
+		return name.replaceAll( "[^A-Za-z0-9._-]", "_" ) + "-" + Long.toHexString( hash( name ) );
+	}
+
+	private static long hash( String string )
+	{
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for ( byte b : string.getBytes( StandardCharsets.UTF_8 ) )
+		{
+			hash ^= b & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	public static class Level
+	{
+		private final File file;
+		private final int dataType;
+		private final int cellBytes;
+		private final long numCells;
+		private final long dataOffset;
+		private final int cellsPerSegment;
+
+		private RandomAccessFile randomAccessFile;
+		private MappedByteBuffer keys;
+		private final MappedByteBuffer[] segments;
+
+		Level( File file, int dataType, int[] cellDimensions, long numCells ) throws IOException
+		{
+			this.file = file;
+			this.dataType = dataType;
+			this.numCells = numCells;
+
+			long numPixels = 1;
+			for ( int cellDimension : cellDimensions )
+				numPixels *= cellDimension;
+
+			this.cellBytes = ( int ) ( numPixels * getBytesPerPixel( dataType ) );
+			this.dataOffset = align( HEADER_SIZE + numCells * 8 );
+			this.cellsPerSegment = ( int ) Math.max( 1, MAX_SEGMENT_SIZE / cellBytes );
+			this.segments = new MappedByteBuffer[ ( int ) ( ( numCells + cellsPerSegment - 1 ) / cellsPerSegment ) ];
+
+			file.getParentFile().mkdirs();
+
+			randomAccessFile = new RandomAccessFile( file, "rw" );
+
+			final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+			header.putLong( MAGIC );
+			header.putInt( VERSION );
+			header.putInt( dataType );
+			header.putInt( cellDimensions[ 0 ] );
+			header.putInt( cellDimensions[ 1 ] );
+			header.putLong( numCells );
+			header.rewind();
+
+			if ( ! hasHeader( header ) )
+			{
+				// new, outdated or incompatible file: start over
+				randomAccessFile.setLength( 0 );
+				randomAccessFile.setLength( dataOffset );
+				write( randomAccessFile.getChannel(), header, 0 );
+			}
+
+			keys = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_WRITE, HEADER_SIZE, numCells * 8 );
+			keys.order( ByteOrder.LITTLE_ENDIAN );
+		}
+
+		public File getFile()
+		{
+			return file;
+		}
+
+		/**
+		 * Copies the cached cell data into the target array,
+		 * if the stored key matches the given key.
+		 *
+		 * The copy is done under the lock of the level, such that
+		 * a concurrent write of the same cell cannot tear it.
+		 *
+		 * @return whether the cell was found
+		 */
+		public synchronized boolean read( long cellIndex, long key, Object target )
+		{
+			if ( keys == null || cellIndex >= numCells ) return false;
+			if ( keys.getLong( ( int ) ( 8 * cellIndex ) ) != key ) return false;
+
+			final ByteBuffer data = getData( cellIndex, false );
+			if ( data == null ) return false;
+
+			if ( target instanceof byte[] && dataType == BYTE )
+				data.get( ( byte[] ) target );
+			else if ( target instanceof short[] && dataType == SHORT )
+				data.asShortBuffer().get( ( short[] ) target );
+			else if ( target instanceof int[] && dataType == INT )
+				data.asIntBuffer().get( ( int[] ) target );
+			else if ( target instanceof float[] && dataType == FLOAT )
+				data.asFloatBuffer().get( ( float[] ) target );
+			else
+				return false;
+
+			return true;
+		}
+
+		public synchronized void write( long cellIndex, long key, Object source )
+		{
+			if ( keys == null || cellIndex >= numCells ) return;
+
+			final ByteBuffer data = getData( cellIndex, true );
+			if ( data == null ) return;
+
+			// invalidate the slot while it is being written, in case the process dies meanwhile
+			keys.putLong( ( int ) ( 8 * cellIndex ), 0 );
+
+			if ( source instanceof byte[] && dataType == BYTE )
+				data.put( ( byte[] ) source );
+			else if ( source instanceof short[] && dataType == SHORT )
+				data.asShortBuffer().put( ( short[] ) source );
+			else if ( source instanceof int[] && dataType == INT )
+				data.asIntBuffer().put( ( int[] ) source );
+			else if ( source instanceof float[] && dataType == FLOAT )
+				data.asFloatBuffer().put( ( float[] ) source );
+			else
+				return;
+
+			keys.putLong( ( int ) ( 8 * cellIndex ), key );
+		}
+
+		synchronized void close()
+		{
+			keys = null;
+			for ( int i = 0; i < segments.length; i++ )
+				segments[ i ] = null;
+
+			try
+			{
+				randomAccessFile.close();
+			}
+			catch ( IOException e )
+			{
+				// nothing to lose, all data has been written to the mapped buffers
+			}
+		}
+
+		/**
+		 * @param grow
+		 * 				whether to grow the file if the segment of the cell is not yet in it
+		 * @return a view on the slot of the cell, or null if it could not be mapped
+		 */
+		private ByteBuffer getData( long cellIndex, boolean grow )
+		{
+			final int segmentIndex = ( int ) ( cellIndex / cellsPerSegment );
+
+			if ( segments[ segmentIndex ] == null )
+			{
+				final long firstCell = ( long ) segmentIndex * cellsPerSegment;
+				final long numSegmentCells = Math.min( cellsPerSegment, numCells - firstCell );
+
+				try
+				{
+					// mapping beyond the end grows the file
+					if ( ! grow && dataOffset + ( firstCell + numSegmentCells ) * cellBytes > randomAccessFile.length() )
+						return null;
+
+					segments[ segmentIndex ] = randomAccessFile.getChannel().map(
+							FileChannel.MapMode.READ_WRITE,
+							dataOffset + firstCell * cellBytes,
+							numSegmentCells * cellBytes );
+				}
+				catch ( IOException e )
+				{
+					Utils.log( "Could not map disk cache " + file + ": " + e.getMessage() );
+					return null;
+				}
+			}
+
+			final int offset = ( int ) ( ( cellIndex % cellsPerSegment ) * cellBytes );
+			final ByteBuffer data = segments[ segmentIndex ].duplicate();
+			data.position( offset );
+			data.limit( offset + cellBytes );
+			return data.slice().order( ByteOrder.LITTLE_ENDIAN );
+		}
+
+		private boolean hasHeader( ByteBuffer expected ) throws IOException
+		{
+			final long length = randomAccessFile.length();
+			if ( length < dataOffset || length > dataOffset + numCells * cellBytes ) return false;
+
+			final ByteBuffer actual = ByteBuffer.allocate( HEADER_SIZE );
+			randomAccessFile.getChannel().read( actual, 0 );
+			actual.flip();
+
+			return actual.equals( expected );
+		}
+
+		private static void write( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+		{
+			while ( buffer.hasRemaining() )
+				position += channel.write( buffer, position );
+		}
+
+		private static long align( long offset )
+		{
+			return ( offset + ALIGNMENT - 1 ) / ALIGNMENT * ALIGNMENT;
+		}
+	}
+}
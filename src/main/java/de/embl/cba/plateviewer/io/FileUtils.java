@@ -1,46 +1,98 @@
 package de.embl.cba.plateviewer.io;
 
+import de.embl.cba.plateviewer.PlateViewerSettings;
+import de.embl.cba.plateviewer.Utils;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class FileUtils
 {
+	/**
+	 * Listing directories is latency bound, in particular on network
+	 * file systems, thus this can be well above the number of cores.
+	 */
+	public static final int NUM_WALKER_THREADS = 8;
+
+	/**
+	 * @return the matching files, sorted by path
+	 */
 	public static List< File > getFileList( File directory, String fileNameRegExp, boolean includeSubFolders )
 	{
-		final List< File > files = new ArrayList<>();
-		populateFileList( directory, fileNameRegExp,files, includeSubFolders );
-		return files;
+		return getFileList( directory, fileNameRegExp, includeSubFolders, walkedDirectory -> {} );
 	}
 
-	private static void populateFileList( File directory, String fileNameRegExp, List< File > files, boolean includeSubFolders ) {
+	/**
+	 * @param directoryConsumer
+	 * 				is called from multiple threads, for each listed directory
+	 * @return the matching files, sorted by path
+	 */
+	public static List< File > getFileList( File directory, String fileNameRegExp, boolean includeSubFolders, Consumer< File > directoryConsumer )
+	{
+		return getFileList( directory, fileNameRegExp, includeSubFolders, file -> {}, directoryConsumer );
+	}
 
-		// Get all the files from a directory.
-		File[] fList = directory.listFiles();
+	/**
+	 * @param fileConsumer
+	 * 				is called from multiple threads, for each matching file, as soon
+	 * 				as it is found, such that e.g. parsing can start during the walk
+	 * @param directoryConsumer
+	 * 				is called from multiple threads, for each listed directory
+	 * @return the matching files, sorted by path
+	 */
+	public static List< File > getFileList( File directory, String fileNameRegExp, boolean includeSubFolders, Consumer< File > fileConsumer, Consumer< File > directoryConsumer )
+	{
+		final List< File > files = Collections.synchronizedList( new ArrayList<>() );
+		walkFiles( directory, fileNameRegExp, includeSubFolders, file -> {
+			fileConsumer.accept( file );
+			files.add( file );
+		}, directoryConsumer );
 
-		if( fList != null )
-		{
-			for ( File file : fList )
-			{
-				final Matcher matcher = Pattern.compile( fileNameRegExp ).matcher( file.getName() );
+		final List< File > sortedFiles = new ArrayList<>( files );
+		Collections.sort( sortedFiles );
+		return sortedFiles;
+	}
 
-				if ( matcher.matches() )
-				{
-					files.add( file );
-				}
-				else
-				{
-					if ( includeSubFolders )
-					{
-						if ( file.isDirectory() )
-						{
-							populateFileList( file, fileNameRegExp, files, includeSubFolders );
-						}
-					}
-				}
-			}
+	public static void walkFiles( File directory, String fileNameRegExp, boolean includeSubFolders, Consumer< File > consumer )
+	{
+		walkFiles( directory, fileNameRegExp, includeSubFolders, consumer, walkedDirectory -> {} );
+	}
+
+	/**
+	 * Walks the directory, and its sub-folders in parallel, and hands each
+	 * file whose name matches to the consumer, as soon as it is found.
+	 * Sub-folders whose name matches are not entered, neither are hidden
+	 * sub-folders, such as file system snapshots, nor the cache directory
+	 * that the viewer keeps next to the plate.
+	 *
+	 * @param consumer
+	 * 				is called from multiple threads
+	 * @param directoryConsumer
+	 * 				is called from multiple threads, for each listed directory
+	 */
+	public static void walkFiles( File directory, String fileNameRegExp, boolean includeSubFolders, Consumer< File > consumer, Consumer< File > directoryConsumer )
+	{
+		final Pattern pattern = Pattern.compile( fileNameRegExp );
+		final ForkJoinPool pool = new ForkJoinPool( NUM_WALKER_THREADS );
+
+		try
+		{
+			pool.invoke( new DirectoryWalker( directory.toPath(), pattern, includeSubFolders, consumer, directoryConsumer ) );
+		}
+		finally
+		{
+			pool.shutdown();
 		}
 	}
 
@@ -48,17 +100,69 @@ public class FileUtils
 	{
 		final List< File > filteredFiles = new ArrayList<>( );
 
+		final Matcher matcher = Pattern.compile( filterPattern ).matcher( "" );
+
 		for ( File file : files )
 		{
-			final Matcher matcher = Pattern.compile( filterPattern ).matcher( file.getName() );
-
-			if ( matcher.matches() )
+			if ( matcher.reset( file.getName() ).matches() )
 			{
 				filteredFiles.add( file );
 			}
-
 		}
 
 		return filteredFiles;
 	}
+
+	private static class DirectoryWalker extends RecursiveAction
+	{
+		private final Path directory;
+		private final Pattern pattern;
+		private final boolean includeSubFolders;
+		private final Consumer< File > consumer;
+		private final Consumer< File > directoryConsumer;
+
+		DirectoryWalker( Path directory, Pattern pattern, boolean includeSubFolders, Consumer< File > consumer, Consumer< File > directoryConsumer )
+		{
+			this.directory = directory;
+			this.pattern = pattern;
+			this.includeSubFolders = includeSubFolders;
+			this.consumer = consumer;
+			this.directoryConsumer = directoryConsumer;
+		}
+
+		@Override
+		protected void compute()
+		{
+			final List< DirectoryWalker > subFolders = new ArrayList<>();
+			final Matcher matcher = pattern.matcher( "" );
+
+			try ( DirectoryStream< Path > stream = Files.newDirectoryStream( directory ) )
+			{
+				directoryConsumer.accept( directory.toFile() );
+
+				for ( Path path : stream )
+				{
+					final String name = path.getFileName().toString();
+
+					if ( matcher.reset( name ).matches() )
+					{
+						consumer.accept( path.toFile() );
+					}
+					else if ( includeSubFolders && ! name.startsWith( "." ) && ! name.equals( PlateViewerSettings.PLATE_CACHE_DIRECTORY_NAME ) && Files.isDirectory( path ) )
+					{
+						final DirectoryWalker subFolder = new DirectoryWalker( path, pattern, includeSubFolders, consumer, directoryConsumer );
+						subFolder.fork();
+						subFolders.add( subFolder );
+					}
+				}
+			}
+			catch ( IOException e )
+			{
+				Utils.log( "Could not list " + directory + ": " + e.getMessage() );
+			}
+
+			for ( DirectoryWalker subFolder : subFolders )
+				subFolder.join();
+		}
+	}
 }
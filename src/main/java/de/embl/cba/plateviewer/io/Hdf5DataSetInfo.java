@@ -0,0 +1,34 @@
+package de.embl.cba.plateviewer.io;
+
+public class Hdf5DataSetInfo
+{
+	private final long[] dimensions;
+	private final String typeName;
+	private final boolean signed;
+
+	/**
+	 * @param typeName
+	 * 				the data type class and element size, e.g. INTEGER(2), see {@link de.embl.cba.plateviewer.Utils#H5_SHORT}
+	 */
+	public Hdf5DataSetInfo( long[] dimensions, String typeName, boolean signed )
+	{
+		this.dimensions = dimensions;
+		this.typeName = typeName;
+		this.signed = signed;
+	}
+
+	public long[] getDimensions()
+	{
+		return dimensions;
+	}
+
+	public String getTypeName()
+	{
+		return typeName;
+	}
+
+	public boolean isSigned()
+	{
+		return signed;
+	}
+}
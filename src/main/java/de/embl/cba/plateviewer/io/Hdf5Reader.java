@@ -0,0 +1,39 @@
+package de.embl.cba.plateviewer.io;
+
+import java.util.List;
+
+/**
+ * The part of HDF5 that the plate viewer reads: group members, attributes,
+ * data set information and blocks of data sets.
+ *
+ * Paths are absolute or relative to the root group. All dimensions and
+ * offsets are in HDF5 order, i.e. the slowest varying dimension first.
+ *
+ * Implementations can be used from multiple threads.
+ *
+ * @see Hdf5Readers
+ */
+public interface Hdf5Reader
+{
+	List< String > getGroupMembers( String groupPath );
+
+	boolean hasAttribute( String objectPath, String attributeName );
+
+	String getStringAttribute( String objectPath, String attributeName );
+
+	boolean getBooleanAttribute( String objectPath, String attributeName );
+
+	int[] getIntArrayAttribute( String objectPath, String attributeName );
+
+	double[] getDoubleArrayAttribute( String objectPath, String attributeName );
+
+	Hdf5DataSetInfo getDataSetInfo( String dataSetPath );
+
+	/**
+	 * Reads a block of the data set into the array, which is a byte[],
+	 * short[], int[] or float[] matching the data type of the data set.
+	 */
+	void readBlock( String dataSetPath, Object array, int[] blockDimensions, long[] offset );
+
+	void close();
+}
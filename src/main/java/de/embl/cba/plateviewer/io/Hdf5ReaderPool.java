@@ -0,0 +1,204 @@
+package de.embl.cba.plateviewer.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded pool of open {@link Hdf5Reader} handles, keyed by file.
+ *
+ * Handles are kept open between reads and the least recently used one is
+ * closed once more than {@code maxOpenReaders} files are open.
+ * A handle that is currently in use is only closed after its last user
+ * released it, such that eviction never pulls a reader away from a
+ * concurrent load.
+ *
+ * Different files can be read concurrently; how much of the actual I/O
+ * runs in parallel is up to the HDF5 backend of the pool (see {@link Hdf5Readers}):
+ * the pure Java reader reads in parallel, the native library does not.
+ */
+public class Hdf5ReaderPool
+{
+	public static final int DEFAULT_MAX_OPEN_READERS = 64;
+
+	private final int maxOpenReaders;
+	private final boolean pureJava;
+	private final LinkedHashMap< File, PooledReader > fileToReader;
+
+	public Hdf5ReaderPool()
+	{
+		this( DEFAULT_MAX_OPEN_READERS, false );
+	}
+
+	/**
+	 * @param pureJava
+	 * 				whether the files are read with the pure Java reader, rather than the native library
+	 */
+	public Hdf5ReaderPool( int maxOpenReaders, boolean pureJava )
+	{
+		this.maxOpenReaders = Math.max( 1, maxOpenReaders );
+		this.pureJava = pureJava;
+		this.fileToReader = new LinkedHashMap<>( 16, 0.75f, true );
+	}
+
+	public < R > R read( File file, Function< Hdf5Reader, R > function )
+	{
+		final PooledReader pooledReader = acquire( file );
+
+		try
+		{
+			return function.apply( pooledReader.reader );
+		}
+		finally
+		{
+			release( pooledReader );
+		}
+	}
+
+	public synchronized int getNumOpenReaders()
+	{
+		return fileToReader.size();
+	}
+
+	/**
+	 * Closes all idle readers; readers that are currently in use are closed
+	 * as soon as they are released. The pool stays usable afterwards.
+	 */
+	public void closeAll()
+	{
+		final List< PooledReader > toClose = new ArrayList<>();
+
+		synchronized ( this )
+		{
+			for ( PooledReader pooledReader : fileToReader.values() )
+			{
+				pooledReader.evicted = true;
+				if ( pooledReader.numUsers == 0 )
+					toClose.add( pooledReader );
+			}
+			fileToReader.clear();
+		}
+
+		close( toClose );
+	}
+
+	private PooledReader acquire( File file )
+	{
+		PooledReader pooledReader;
+		final List< PooledReader > toClose = new ArrayList<>();
+
+		synchronized ( this )
+		{
+			pooledReader = fileToReader.get( file );
+
+			if ( pooledReader == null )
+			{
+				pooledReader = new PooledReader( file, pureJava );
+				fileToReader.put( file, pooledReader );
+				collectEvicted( toClose );
+			}
+
+			pooledReader.numUsers++;
+		}
+
+		close( toClose );
+
+		// open outside the pool lock, such that other files are not blocked
+		try
+		{
+			pooledReader.open();
+		}
+		catch ( RuntimeException | Error e )
+		{
+			releaseUnopened( pooledReader );
+			throw e;
+		}
+
+		return pooledReader;
+	}
+
+	/**
+	 * Drops a reader whose file could not be opened, e.g. because it is
+	 * unreadable or still being written, such that the next read opens it anew.
+	 */
+	private void releaseUnopened( PooledReader pooledReader )
+	{
+		synchronized ( this )
+		{
+			if ( fileToReader.get( pooledReader.file ) == pooledReader )
+				fileToReader.remove( pooledReader.file );
+
+			pooledReader.evicted = true;
+		}
+
+		release( pooledReader );
+	}
+
+	private void release( PooledReader pooledReader )
+	{
+		boolean close;
+
+		synchronized ( this )
+		{
+			pooledReader.numUsers--;
+			close = pooledReader.evicted && pooledReader.numUsers == 0;
+		}
+
+		if ( close ) pooledReader.close();
+	}
+
+	private void collectEvicted( List< PooledReader > toClose )
+	{
+		final Iterator< Map.Entry< File, PooledReader > > iterator = fileToReader.entrySet().iterator();
+
+		while ( fileToReader.size() > maxOpenReaders && iterator.hasNext() )
+		{
+			final PooledReader eldest = iterator.next().getValue();
+			iterator.remove();
+			eldest.evicted = true;
+			if ( eldest.numUsers == 0 )
+				toClose.add( eldest );
+		}
+	}
+
+	private static void close( List< PooledReader > pooledReaders )
+	{
+		for ( PooledReader pooledReader : pooledReaders )
+			pooledReader.close();
+	}
+
+	private static class PooledReader
+	{
+		final File file;
+		final boolean pureJava;
+		Hdf5Reader reader;
+		int numUsers;
+		boolean evicted;
+		boolean closed;
+
+		PooledReader( File file, boolean pureJava )
+		{
+			this.file = file;
+			this.pureJava = pureJava;
+		}
+
+		synchronized void open()
+		{
+			if ( reader == null )
+				reader = Hdf5Readers.open( file, pureJava );
+		}
+
+		synchronized void close()
+		{
+			if ( closed ) return;
+			closed = true;
+
+			if ( reader != null )
+				reader.close();
+		}
+	}
+}
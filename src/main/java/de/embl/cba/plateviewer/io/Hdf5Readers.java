@@ -0,0 +1,128 @@
+package de.embl.cba.plateviewer.io;
+
+import de.embl.cba.plateviewer.io.hdf5.PureJavaHdf5Reader;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Opens HDF5 files with the native HDF5 library (JHDF5), or optionally
+ * with the pure Java reader, which reads different files in parallel.
+ *
+ * Files, or parts of them, that the pure Java reader does not support
+ * are read with the native library.
+ */
+public class Hdf5Readers
+{
+	public static Hdf5Reader open( File file )
+	{
+		return open( file, false );
+	}
+
+	public static Hdf5Reader open( File file, boolean pureJava )
+	{
+		if ( ! pureJava ) return new JHdf5Reader( file );
+
+		try
+		{
+			return new FallbackReader( new PureJavaHdf5Reader( file ), file );
+		}
+		catch ( UnsupportedOperationException e )
+		{
+			return new JHdf5Reader( file );
+		}
+	}
+
+	private static class FallbackReader implements Hdf5Reader
+	{
+		private final Hdf5Reader reader;
+		private final File file;
+		private Hdf5Reader fallback;
+
+		FallbackReader( Hdf5Reader reader, File file )
+		{
+			this.reader = reader;
+			this.file = file;
+		}
+
+		@Override
+		public List< String > getGroupMembers( String groupPath )
+		{
+			return read( r -> r.getGroupMembers( groupPath ) );
+		}
+
+		@Override
+		public boolean hasAttribute( String objectPath, String attributeName )
+		{
+			return read( r -> r.hasAttribute( objectPath, attributeName ) );
+		}
+
+		@Override
+		public String getStringAttribute( String objectPath, String attributeName )
+		{
+			return read( r -> r.getStringAttribute( objectPath, attributeName ) );
+		}
+
+		@Override
+		public boolean getBooleanAttribute( String objectPath, String attributeName )
+		{
+			return read( r -> r.getBooleanAttribute( objectPath, attributeName ) );
+		}
+
+		@Override
+		public int[] getIntArrayAttribute( String objectPath, String attributeName )
+		{
+			return read( r -> r.getIntArrayAttribute( objectPath, attributeName ) );
+		}
+
+		@Override
+		public double[] getDoubleArrayAttribute( String objectPath, String attributeName )
+		{
+			return read( r -> r.getDoubleArrayAttribute( objectPath, attributeName ) );
+		}
+
+		@Override
+		public Hdf5DataSetInfo getDataSetInfo( String dataSetPath )
+		{
+			return read( r -> r.getDataSetInfo( dataSetPath ) );
+		}
+
+		@Override
+		public void readBlock( String dataSetPath, Object array, int[] blockDimensions, long[] offset )
+		{
+			read( r ->
+			{
+				r.readBlock( dataSetPath, array, blockDimensions, offset );
+				return null;
+			} );
+		}
+
+		@Override
+		public synchronized void close()
+		{
+			reader.close();
+			if ( fallback != null ) fallback.close();
+		}
+
+		private < R > R read( Function< Hdf5Reader, R > function )
+		{
+			try
+			{
+				return function.apply( reader );
+			}
+			catch ( UnsupportedOperationException e )
+			{
+				return function.apply( getFallback() );
+			}
+		}
+
+		private synchronized Hdf5Reader getFallback()
+		{
+			if ( fallback == null )
+				fallback = new JHdf5Reader( file );
+
+			return fallback;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package de.embl.cba.plateviewer.io;
+
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Reads the site and well information, which are stored as attributes of
+ * the root group of each site file, on demand in a background thread.
+ *
+ * Reading them for all sites while opening a plate means opening all
+ * files, which is too slow for large plates. Instead, the sites are
+ * requested when they are needed, e.g. when the mouse moves over them;
+ * a new request replaces the sites of the previous one that have not
+ * been read yet, such that a fast moving mouse does not queue up reads.
+ *
+ * The information of the most recently requested sites and wells is cached.
+ */
+public class Hdf5SiteInformationFetcher
+{
+	public static final String SITE_INFORMATION = "ImageInformation";
+	public static final String WELL_INFORMATION = "WellInformation";
+	public static final int DEFAULT_MAX_CACHED_SITES = 4096;
+
+	private final Hdf5ReaderPool readerPool;
+	private final int maxCachedSites;
+	private final LinkedHashMap< SingleSiteChannelFile, String > siteToInformation;
+	private final LinkedHashMap< String, String > wellNameToInformation;
+	private final LinkedHashMap< SingleSiteChannelFile, Boolean > requested;
+	private final ExecutorService executorService;
+	private final Consumer< SingleSiteChannelFile > listener;
+	private boolean isFetching;
+
+	/**
+	 * @param listener
+	 * 				is called from the background thread, after the information of a site was read
+	 */
+	public Hdf5SiteInformationFetcher( Hdf5ReaderPool readerPool, Consumer< SingleSiteChannelFile > listener )
+	{
+		this( readerPool, listener, DEFAULT_MAX_CACHED_SITES );
+	}
+
+	public Hdf5SiteInformationFetcher( Hdf5ReaderPool readerPool, Consumer< SingleSiteChannelFile > listener, int maxCachedSites )
+	{
+		this.readerPool = readerPool;
+		this.listener = listener;
+		this.maxCachedSites = Math.max( 1, maxCachedSites );
+		this.siteToInformation = new LinkedHashMap<>( 16, 0.75f, true );
+		this.wellNameToInformation = new LinkedHashMap<>( 16, 0.75f, true );
+		this.requested = new LinkedHashMap<>();
+		this.executorService = Executors.newSingleThreadExecutor( r -> {
+			final Thread thread = new Thread( r, "plate viewer site information" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	/**
+	 * Returns immediately; the sites are read in the given order.
+	 */
+	public synchronized void request( List< SingleSiteChannelFile > sites )
+	{
+		requested.clear();
+
+		for ( SingleSiteChannelFile site : sites )
+			if ( ! siteToInformation.containsKey( site ) )
+				requested.put( site, true );
+
+		if ( ! isFetching && ! requested.isEmpty() )
+		{
+			isFetching = true;
+			executorService.submit( this::fetchRequested );
+		}
+	}
+
+	/**
+	 * @return the site information, or null if it has not been read yet
+	 */
+	public synchronized String getSiteInformation( SingleSiteChannelFile site )
+	{
+		return siteToInformation.get( site );
+	}
+
+	/**
+	 * @return the well information, or null if no site of the well has been read yet
+	 */
+	public synchronized String getWellInformation( String wellName )
+	{
+		return wellNameToInformation.get( wellName );
+	}
+
+	public void dispose()
+	{
+		executorService.shutdownNow();
+	}
+
+	private void fetchRequested()
+	{
+		while ( true )
+		{
+			final SingleSiteChannelFile site;
+
+			synchronized ( this )
+			{
+				if ( requested.isEmpty() )
+				{
+					isFetching = false;
+					return;
+				}
+
+				site = requested.keySet().iterator().next();
+				requested.remove( site );
+			}
+
+			final String[] information = read( site );
+			if ( information == null ) continue;
+
+			synchronized ( this )
+			{
+				siteToInformation.put( site, information[ 0 ] );
+				wellNameToInformation.put( site.getWellName(), information[ 1 ] );
+				evict( siteToInformation );
+				evict( wellNameToInformation );
+			}
+
+			listener.accept( site );
+		}
+	}
+
+	/**
+	 * @return the site and well information, or null if the file could not be read
+	 */
+	private String[] read( SingleSiteChannelFile site )
+	{
+		try
+		{
+			return readerPool.read( site.getFile(), hdf5Reader -> new String[]{
+				hdf5Reader.hasAttribute( "/", SITE_INFORMATION ) ? hdf5Reader.getStringAttribute( "/", SITE_INFORMATION ) : "",
+				hdf5Reader.hasAttribute( "/", WELL_INFORMATION ) ? hdf5Reader.getStringAttribute( "/", WELL_INFORMATION ) : "" } );
+		}
+		catch ( Exception e )
+		{
+			// e.g. a file that is being written; it is read again once it is requested again
+			return null;
+		}
+	}
+
+	private void evict( LinkedHashMap< ?, ? > map )
+	{
+		while ( map.size() > maxCachedSites )
+		{
+			final Map.Entry< ?, ? > eldest = map.entrySet().iterator().next();
+			map.remove( eldest.getKey() );
+		}
+	}
+}
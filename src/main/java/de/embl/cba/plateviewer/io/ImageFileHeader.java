@@ -0,0 +1,178 @@
+package de.embl.cba.plateviewer.io;
+
+import de.embl.cba.plateviewer.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The dimensions and data type of the image of a file, as read from its
+ * header, without reading any pixel data.
+ *
+ * The sites of a channel are assumed to have the dimensions and data type
+ * of the first file; a file that does not would be read into cells of the
+ * wrong size or type. Thus, when a plate is opened, the headers of all files
+ * are checked, in parallel, and files that do not match are reported and
+ * left out.
+ */
+public class ImageFileHeader
+{
+	/**
+	 * Reading headers is latency bound, in particular on network
+	 * file systems, thus this can be well above the number of cores.
+	 */
+	public static final int NUM_PROBE_THREADS = 8;
+	public static final int MAX_REPORTED_FILES = 10;
+
+	private final long[] dimensions;
+	private final String dataType;
+
+	public interface Check
+	{
+		/**
+		 * @return why the image of the file does not match, or null if it does
+		 */
+		String getDifference( File file ) throws Exception;
+	}
+
+	public ImageFileHeader( long[] dimensions, String dataType )
+	{
+		this.dimensions = dimensions;
+		this.dataType = dataType;
+	}
+
+	public long[] getDimensions()
+	{
+		return dimensions;
+	}
+
+	public String getDataType()
+	{
+		return dataType;
+	}
+
+	public static ImageFileHeader readTiff( File file ) throws IOException
+	{
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			return create( TiffReader.readInfo( channel ) );
+		}
+	}
+
+	/**
+	 * The data type is the bit depth as ImageJ reports it, which determines the type of the cells.
+	 */
+	public static ImageFileHeader create( TiffInfo info )
+	{
+		final String dataType = info.getBitDepth() > 0 ? info.getBitDepth() + " bit" : "not supported";
+		return new ImageFileHeader( new long[]{ info.getWidth(), info.getHeight() }, dataType );
+	}
+
+	public static ImageFileHeader create( Hdf5DataSetInfo info )
+	{
+		return new ImageFileHeader( info.getDimensions(), info.getTypeName() + ( info.isSigned() ? "" : " unsigned" ) );
+	}
+
+	/**
+	 * @return why the other header does not match this one, or null if it does
+	 */
+	public String getDifference( ImageFileHeader other )
+	{
+		if ( ! Arrays.equals( dimensions, other.dimensions ) )
+			return "dimensions " + Arrays.toString( other.dimensions ) + " instead of " + Arrays.toString( dimensions );
+
+		if ( ! dataType.equals( other.dataType ) )
+			return "data type " + other.dataType + " instead of " + dataType;
+
+		return null;
+	}
+
+	/**
+	 * Checks all files in parallel.
+	 *
+	 * @return the files that do not match, or whose header could not be read,
+	 * with the reason, in the order of the given files
+	 */
+	public static Map< File, String > findInconsistentFiles( List< File > files, Check check )
+	{
+		final Map< File, String > inconsistentFiles = new LinkedHashMap<>();
+
+		final ExecutorService executorService = Executors.newFixedThreadPool( NUM_PROBE_THREADS, r -> {
+			final Thread thread = new Thread( r, "plate viewer header probe" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+
+		try
+		{
+			final List< Future< String > > differences = new ArrayList<>();
+			for ( File file : files )
+				differences.add( executorService.submit( () -> getDifference( file, check ) ) );
+
+			for ( int i = 0; i < files.size(); i++ )
+			{
+				final String difference = differences.get( i ).get();
+				if ( difference != null )
+					inconsistentFiles.put( files.get( i ), difference );
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			// opening is cancelled
+			Thread.currentThread().interrupt();
+		}
+		catch ( ExecutionException e )
+		{
+			throw new RuntimeException( e.getCause() );
+		}
+		finally
+		{
+			executorService.shutdownNow();
+		}
+
+		return inconsistentFiles;
+	}
+
+	public static void log( String channelName, int numFiles, Map< File, String > inconsistentFiles )
+	{
+		if ( inconsistentFiles.isEmpty() ) return;
+
+		Utils.log( "Channel " + channelName + ": leaving out " + inconsistentFiles.size() + " of " + numFiles
+				+ " files, whose image does not match the one of the first file:" );
+
+		int numReported = 0;
+		for ( Map.Entry< File, String > entry : inconsistentFiles.entrySet() )
+		{
+			if ( numReported++ == MAX_REPORTED_FILES )
+			{
+				Utils.log( "..." );
+				break;
+			}
+
+			Utils.log( entry.getKey() + ": " + entry.getValue() );
+		}
+	}
+
+	private static String getDifference( File file, Check check )
+	{
+		try
+		{
+			return check.getDifference( file );
+		}
+		catch ( Exception e )
+		{
+			return "could not read the header: " + e.getMessage();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package de.embl.cba.plateviewer.io;
+
+import ch.systemsx.cisd.base.mdarray.MDByteArray;
+import ch.systemsx.cisd.base.mdarray.MDFloatArray;
+import ch.systemsx.cisd.base.mdarray.MDIntArray;
+import ch.systemsx.cisd.base.mdarray.MDShortArray;
+import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import de.embl.cba.plateviewer.io.hdf5.PureJavaHdf5Reader;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads through the native HDF5 library, which serialises all calls of the
+ * process, thus reads of different files do not run in parallel.
+ *
+ * Data sets that are stored uncompressed in one block are, however, read
+ * directly from the file (see {@link PureJavaHdf5Reader#isContiguous}),
+ * thus reading their blocks does not involve the native library.
+ */
+public class JHdf5Reader implements Hdf5Reader
+{
+	private final IHDF5Reader reader;
+	private final File file;
+	private final Map< String, Boolean > dataSetToIsContiguous;
+	private PureJavaHdf5Reader directReader;
+	private boolean closed;
+
+	public JHdf5Reader( File file )
+	{
+		this.reader = HDF5Factory.openForReading( file );
+		this.file = file;
+		this.dataSetToIsContiguous = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public List< String > getGroupMembers( String groupPath )
+	{
+		return reader.object().getGroupMembers( groupPath );
+	}
+
+	@Override
+	public boolean hasAttribute( String objectPath, String attributeName )
+	{
+		return reader.object().hasAttribute( objectPath, attributeName );
+	}
+
+	@Override
+	public String getStringAttribute( String objectPath, String attributeName )
+	{
+		return reader.string().getAttr( objectPath, attributeName );
+	}
+
+	@Override
+	public boolean getBooleanAttribute( String objectPath, String attributeName )
+	{
+		return reader.bool().getAttr( objectPath, attributeName );
+	}
+
+	@Override
+	public int[] getIntArrayAttribute( String objectPath, String attributeName )
+	{
+		return reader.int32().getArrayAttr( objectPath, attributeName );
+	}
+
+	@Override
+	public double[] getDoubleArrayAttribute( String objectPath, String attributeName )
+	{
+		return reader.float64().getArrayAttr( objectPath, attributeName );
+	}
+
+	@Override
+	public Hdf5DataSetInfo getDataSetInfo( String dataSetPath )
+	{
+		final HDF5DataSetInformation information = reader.object().getDataSetInformation( dataSetPath );
+		return new Hdf5DataSetInfo( information.getDimensions(), information.getTypeInformation().toString(), information.isSigned() );
+	}
+
+	@Override
+	public void readBlock( String dataSetPath, Object array, int[] blockDimensions, long[] offset )
+	{
+		if ( isContiguous( dataSetPath ) )
+		{
+			getDirectReader().readBlock( dataSetPath, array, blockDimensions, offset );
+			return;
+		}
+
+		final int[] memoryOffset = new int[ blockDimensions.length ];
+
+		if ( array instanceof byte[] )
+		{
+			final MDByteArray mdArray = new MDByteArray( ( byte[] ) array, blockDimensions );
+			reader.uint8().readToMDArrayBlockWithOffset( dataSetPath, mdArray, blockDimensions, offset, memoryOffset );
+		}
+		else if ( array instanceof short[] )
+		{
+			final MDShortArray mdArray = new MDShortArray( ( short[] ) array, blockDimensions );
+			reader.uint16().readToMDArrayBlockWithOffset( dataSetPath, mdArray, blockDimensions, offset, memoryOffset );
+		}
+		else if ( array instanceof int[] )
+		{
+			final MDIntArray mdArray = new MDIntArray( ( int[] ) array, blockDimensions );
+			reader.uint32().readToMDArrayBlockWithOffset( dataSetPath, mdArray, blockDimensions, offset, memoryOffset );
+		}
+		else if ( array instanceof float[] )
+		{
+			final MDFloatArray mdArray = new MDFloatArray( ( float[] ) array, blockDimensions );
+			reader.float32().readToMDArrayBlockWithOffset( dataSetPath, mdArray, blockDimensions, offset, memoryOffset );
+		}
+		else
+		{
+			throw new UnsupportedOperationException( "Hdf5 datatype not supported: " + array.getClass().getSimpleName() );
+		}
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		closed = true;
+		reader.close();
+		if ( directReader != null ) directReader.close();
+	}
+
+	/**
+	 * Resolved once per data set; data sets that the direct reader
+	 * cannot parse are read with the native library.
+	 */
+	private boolean isContiguous( String dataSetPath )
+	{
+		return dataSetToIsContiguous.computeIfAbsent( dataSetPath, path ->
+		{
+			try
+			{
+				final PureJavaHdf5Reader directReader = getDirectReader();
+				return directReader != null && directReader.isContiguous( path );
+			}
+			catch ( RuntimeException e )
+			{
+				return false;
+			}
+		} );
+	}
+
+	private synchronized PureJavaHdf5Reader getDirectReader()
+	{
+		if ( directReader == null && ! closed )
+			directReader = new PureJavaHdf5Reader( file );
+
+		return directReader;
+	}
+}
@@ -0,0 +1,376 @@
+package de.embl.cba.plateviewer.io;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.embl.cba.plateviewer.PlateViewerSettings;
+import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.channel.ChannelProperties;
+import de.embl.cba.plateviewer.image.SiteTable;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Everything that is needed to open a plate without scanning and parsing
+ * its files: the file list, the naming scheme, the channels and, for each
+ * channel that has been opened before, its image properties and site layout.
+ *
+ * The manifest is only used as long as the modification times of all
+ * directories of the plate are unchanged, i.e. no file was added, removed
+ * or renamed.
+ */
+public class PlateManifest
+{
+	public static final String FILE_NAME = "manifest.json.gz";
+	public static final int VERSION = 1;
+
+	public int version = VERSION;
+	public String plateDirectory;
+	public String filePattern;
+	public boolean includeSubFolders;
+	public String namingScheme;
+
+	/**
+	 * Paths relative to the plate directory.
+	 */
+	public List< String > files = new ArrayList<>();
+	public Map< String, Long > directoryModificationTimes = new TreeMap<>();
+	public Map< String, Channel > channels = new LinkedHashMap<>();
+
+	private transient List< File > plateFiles;
+	private transient Map< File, Integer > fileIndices;
+	private transient boolean modified;
+
+	public static class Channel
+	{
+		public String name;
+		public String regExp;
+		public boolean isInitiallyVisible;
+
+		/**
+		 * Null, if the channel has not been opened yet.
+		 */
+		public ChannelImage image;
+	}
+
+	public static class ChannelImage
+	{
+		public String dataType;
+		public int color;
+		public double[] contrastLimits;
+		public String type;
+		public boolean isInitiallyVisible;
+
+		/**
+		 * Null, unless the resolution levels are stored in the files.
+		 */
+		public int[] scaleFactors;
+
+		/**
+		 * One per resolution level.
+		 */
+		public List< int[] > imageDimensions = new ArrayList<>();
+		public List< String > wellNames = new ArrayList<>();
+
+		/**
+		 * The sites, with their position in units of sites.
+		 */
+		public int[] siteFiles;
+		public String[] siteNames;
+		public String[] siteWells;
+		public long[] siteX;
+		public long[] siteY;
+
+		/**
+		 * The sites, shared by all resolution levels; not written to the manifest.
+		 */
+		private transient SiteTable siteTable;
+
+		public void setSites( SiteTable sites, Map< File, Integer > fileIndices )
+		{
+			final int numSites = sites.size();
+			siteFiles = new int[ numSites ];
+			siteNames = new String[ numSites ];
+			siteWells = new String[ numSites ];
+			siteX = new long[ numSites ];
+			siteY = new long[ numSites ];
+
+			for ( int i = 0; i < numSites; i++ )
+			{
+				siteFiles[ i ] = fileIndices.get( sites.getFile( i ) );
+				siteNames[ i ] = sites.getSiteName( i );
+				siteWells[ i ] = sites.getWellName( i );
+				siteX[ i ] = sites.getSiteX( i );
+				siteY[ i ] = sites.getSiteY( i );
+			}
+		}
+
+		/**
+		 * @param plateFiles
+		 * 				the path table of the sites
+		 */
+		public synchronized SiteTable createSiteTable( List< File > plateFiles )
+		{
+			if ( siteTable == null || siteTable.getFiles() != plateFiles )
+			{
+				final int numSites = siteFiles.length;
+				final int[] x = new int[ numSites ];
+				final int[] y = new int[ numSites ];
+				for ( int i = 0; i < numSites; i++ )
+				{
+					x[ i ] = ( int ) siteX[ i ];
+					y[ i ] = ( int ) siteY[ i ];
+				}
+
+				siteTable = new SiteTable( plateFiles, siteFiles, siteNames, siteWells, x, y );
+			}
+
+			return siteTable;
+		}
+	}
+
+	public static PlateManifest create(
+			File plateDirectory,
+			String filePattern,
+			boolean includeSubFolders,
+			List< File > plateFiles,
+			List< File > directories,
+			String namingScheme,
+			Map< String, ChannelProperties > channelNamesToProperties )
+	{
+		final PlateManifest manifest = new PlateManifest();
+		manifest.plateDirectory = plateDirectory.getAbsolutePath();
+		manifest.filePattern = filePattern;
+		manifest.includeSubFolders = includeSubFolders;
+		manifest.namingScheme = namingScheme;
+
+		final String root = plateDirectory.getAbsolutePath();
+
+		for ( File file : plateFiles )
+			manifest.files.add( relativePath( root, file ) );
+
+		for ( File directory : directories )
+		{
+			// the viewer writes into its cache directory, which does not change the plate
+			if ( isInCacheDirectory( root, directory ) ) continue;
+
+			manifest.directoryModificationTimes.put( relativePath( root, directory ), directory.lastModified() );
+		}
+
+		for ( ChannelProperties properties : channelNamesToProperties.values() )
+		{
+			final Channel channel = new Channel();
+			channel.name = properties.name;
+			channel.regExp = properties.regExp;
+			channel.isInitiallyVisible = properties.isInitiallyVisible;
+			manifest.channels.put( channel.name, channel );
+		}
+
+		manifest.plateFiles = new ArrayList<>( plateFiles );
+		manifest.modified = true;
+
+		return manifest;
+	}
+
+	/**
+	 * @return the manifest, or null if there is none or it cannot be read
+	 */
+	public static PlateManifest read( File manifestFile )
+	{
+		if ( ! manifestFile.exists() ) return null;
+
+		try ( InputStream stream = new GZIPInputStream( new FileInputStream( manifestFile ), 1 << 16 ) )
+		{
+			final PlateManifest manifest = createObjectMapper().readValue( stream, PlateManifest.class );
+			return manifest.version == VERSION ? manifest : null;
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not read plate manifest " + manifestFile + ": " + e.getMessage() );
+			return null;
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first, such that concurrent readers never see a partial manifest.
+	 */
+	public synchronized void write( File manifestFile )
+	{
+		final File temporaryFile = new File( manifestFile.getPath() + ".tmp" );
+
+		try
+		{
+			manifestFile.getParentFile().mkdirs();
+
+			try ( OutputStream stream = new GZIPOutputStream( new FileOutputStream( temporaryFile ), 1 << 16 ) )
+			{
+				createObjectMapper().writeValue( stream, this );
+			}
+
+			Files.move( temporaryFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			modified = false;
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not write plate manifest " + manifestFile + ": " + e.getMessage() );
+			temporaryFile.delete();
+		}
+	}
+
+	/**
+	 * @return whether the manifest changed since it was read or written
+	 */
+	public synchronized boolean isModified()
+	{
+		return modified;
+	}
+
+	/**
+	 * @return whether the manifest describes the given plate and no directory of it was modified
+	 */
+	public boolean isFresh( File plateDirectory, String filePattern, boolean includeSubFolders )
+	{
+		if ( ! plateDirectory.getAbsolutePath().equals( this.plateDirectory ) ) return false;
+		if ( ! filePattern.equals( this.filePattern ) ) return false;
+		if ( includeSubFolders != this.includeSubFolders ) return false;
+		if ( directoryModificationTimes.isEmpty() ) return false;
+
+		for ( Map.Entry< String, Long > entry : directoryModificationTimes.entrySet() )
+		{
+			final File directory = resolve( plateDirectory.getAbsolutePath(), entry.getKey() );
+			if ( directory.lastModified() != entry.getValue() ) return false;
+		}
+
+		return true;
+	}
+
+	public synchronized List< File > getFiles()
+	{
+		if ( plateFiles == null )
+		{
+			plateFiles = new ArrayList<>( files.size() );
+			for ( String file : files )
+				plateFiles.add( resolve( plateDirectory, file ) );
+		}
+
+		return plateFiles;
+	}
+
+	public synchronized Map< File, Integer > getFileIndices()
+	{
+		if ( fileIndices == null )
+		{
+			final List< File > plateFiles = getFiles();
+			fileIndices = new HashMap<>( 2 * plateFiles.size() );
+			for ( int i = 0; i < plateFiles.size(); i++ )
+				fileIndices.put( plateFiles.get( i ), i );
+		}
+
+		return fileIndices;
+	}
+
+	public Map< String, ChannelProperties > getChannelProperties()
+	{
+		final Map< String, ChannelProperties > channelNamesToProperties = new LinkedHashMap<>();
+
+		for ( Channel channel : channels.values() )
+			channelNamesToProperties.put( channel.name, new ChannelProperties( channel.name, channel.regExp, channel.isInitiallyVisible ) );
+
+		return channelNamesToProperties;
+	}
+
+	/**
+	 * @return the image properties of the channel, or null if they are not known yet
+	 */
+	public synchronized ChannelImage getChannelImage( String channelName )
+	{
+		final Channel channel = channels.get( channelName );
+		return channel == null ? null : channel.image;
+	}
+
+	public synchronized void setChannelImage( String channelName, ChannelImage image )
+	{
+		final Channel channel = channels.get( channelName );
+		if ( channel == null ) return;
+		channel.image = image;
+		modified = true;
+	}
+
+	public static String getDataType( NativeType< ? > type )
+	{
+		if ( type instanceof UnsignedByteType ) return "uint8";
+		if ( type instanceof UnsignedShortType ) return "uint16";
+		if ( type instanceof UnsignedIntType ) return "uint32";
+		if ( type instanceof FloatType ) return "float32";
+		return null;
+	}
+
+	public static NativeType< ? > createNativeType( String dataType )
+	{
+		switch ( dataType )
+		{
+			case "uint8": return new UnsignedByteType();
+			case "uint16": return new UnsignedShortType();
+			case "uint32": return new UnsignedIntType();
+			case "float32": return new FloatType();
+			default:
+				throw new UnsupportedOperationException( "Data type not supported: " + dataType );
+		}
+	}
+
+	private static String relativePath( String root, File file )
+	{
+		final String path = file.getAbsolutePath();
+
+		if ( path.equals( root ) ) return "";
+
+		if ( path.startsWith( root + File.separator ) )
+			return path.substring( root.length() + 1 );
+
+		return path;
+	}
+
+	private static boolean isInCacheDirectory( String root, File directory )
+	{
+		final String cacheDirectory = new File( root, PlateViewerSettings.PLATE_CACHE_DIRECTORY_NAME ).getAbsolutePath();
+		final String path = directory.getAbsolutePath();
+
+		return path.equals( cacheDirectory ) || path.startsWith( cacheDirectory + File.separator );
+	}
+
+	private static File resolve( String root, String path )
+	{
+		final File file = new File( path );
+		return file.isAbsolute() ? file : new File( root, path );
+	}
+
+	private static ObjectMapper createObjectMapper()
+	{
+		final ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.setVisibility( PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE );
+		objectMapper.setVisibility( PropertyAccessor.FIELD, JsonAutoDetect.Visibility.PUBLIC_ONLY );
+		objectMapper.configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false );
+		return objectMapper;
+	}
+}
@@ -0,0 +1,180 @@
+package de.embl.cba.plateviewer.io;
+
+/**
+ * Header information of the first image of a TIFF file, as far as it is
+ * needed to locate and decode its strips or tiles.
+ */
+public class TiffInfo
+{
+	public static final int COMPRESSION_NONE = 1;
+	public static final int COMPRESSION_LZW = 5;
+	public static final int COMPRESSION_DEFLATE = 8;
+	public static final int COMPRESSION_DEFLATE_OLD = 32946;
+	public static final int COMPRESSION_PACKBITS = 32773;
+
+	public static final int SAMPLE_FORMAT_UINT = 1;
+	public static final int SAMPLE_FORMAT_INT = 2;
+	public static final int SAMPLE_FORMAT_FLOAT = 3;
+
+	boolean littleEndian;
+	int width;
+	int height;
+	int bitsPerSample = 1;
+	int samplesPerPixel = 1;
+	int sampleFormat = SAMPLE_FORMAT_UINT;
+	int compression = COMPRESSION_NONE;
+	int photometric = 1;
+	int planarConfiguration = 1;
+	int predictor = 1;
+	int fillOrder = 1;
+	int rowsPerStrip = Integer.MAX_VALUE;
+	int tileWidth;
+	int tileHeight;
+	long[] dataOffsets;
+	long[] dataByteCounts;
+	String description;
+	boolean hasLut;
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public int getBitsPerSample()
+	{
+		return bitsPerSample;
+	}
+
+	public int getSamplesPerPixel()
+	{
+		return samplesPerPixel;
+	}
+
+	public int getSampleFormat()
+	{
+		return sampleFormat;
+	}
+
+	public int getCompression()
+	{
+		return compression;
+	}
+
+	/**
+	 * @return the image description, e.g. with the display range of ImageJ, or null
+	 */
+	public String getDescription()
+	{
+		return description;
+	}
+
+	/**
+	 * @return whether the file has a color map or ImageJ meta data,
+	 * which may contain a LUT that only ImageJ reads
+	 */
+	public boolean hasLut()
+	{
+		return hasLut;
+	}
+
+	public boolean isTiled()
+	{
+		return tileWidth > 0 && tileHeight > 0;
+	}
+
+	public boolean isRGB()
+	{
+		return samplesPerPixel == 3 && bitsPerSample == 8;
+	}
+
+	/**
+	 * @return the bit depth as ImageJ would report it (8, 16, 24 or 32),
+	 * or -1 if the pixel layout is not supported by {@link TiffReader}
+	 */
+	public int getBitDepth()
+	{
+		if ( isRGB() ) return 24;
+		if ( samplesPerPixel != 1 ) return -1;
+
+		switch ( bitsPerSample )
+		{
+			case 8:
+			case 16:
+			case 32:
+				return bitsPerSample;
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * Whether {@link TiffReader} can decode this image into the given
+	 * primitive array, producing the same values as ImageJ would.
+	 */
+	public boolean isSupported( Object targetArray )
+	{
+		if ( width <= 0 || height <= 0 ) return false;
+		if ( dataOffsets == null || dataOffsets.length == 0 ) return false;
+		if ( fillOrder != 1 ) return false;
+		if ( predictor != 1 && predictor != 2 ) return false;
+
+		switch ( compression )
+		{
+			case COMPRESSION_NONE:
+			case COMPRESSION_LZW:
+			case COMPRESSION_DEFLATE:
+			case COMPRESSION_DEFLATE_OLD:
+			case COMPRESSION_PACKBITS:
+				break;
+			default:
+				return false;
+		}
+
+		if ( compression != COMPRESSION_NONE && dataByteCounts == null ) return false;
+
+		if ( isRGB() )
+			return planarConfiguration == 1 && photometric == 2 && targetArray instanceof short[];
+
+		switch ( getBitDepth() )
+		{
+			case 8:
+				return photometric != 0 && sampleFormat == SAMPLE_FORMAT_UINT && targetArray instanceof byte[];
+			case 16:
+				return photometric == 1 && sampleFormat != SAMPLE_FORMAT_FLOAT && targetArray instanceof short[];
+			case 32:
+				return photometric == 1 && targetArray instanceof float[];
+			default:
+				return false;
+		}
+	}
+
+	int getBytesPerPixel()
+	{
+		return samplesPerPixel * bitsPerSample / 8;
+	}
+
+	int getChunkWidth()
+	{
+		return isTiled() ? tileWidth : width;
+	}
+
+	int getChunkHeight()
+	{
+		return isTiled() ? tileHeight : Math.min( rowsPerStrip, height );
+	}
+
+	int getChunksAcross()
+	{
+		return ( width + getChunkWidth() - 1 ) / getChunkWidth();
+	}
+
+	int getChunksDown()
+	{
+		return ( height + getChunkHeight() - 1 ) / getChunkHeight();
+	}
+}
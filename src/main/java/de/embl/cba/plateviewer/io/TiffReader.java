@@ -0,0 +1,612 @@
+package de.embl.cba.plateviewer.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Minimal TIFF decoder that reads a region of the first image of a file
+ * directly into a primitive array.
+ *
+ * All reads are positional reads on a {@link FileChannel}, the reader
+ * holds no state, and thus any number of threads can decode (different or
+ * the same) files concurrently.
+ *
+ * Supported are classic and Big TIFF, both byte orders, strips and tiles,
+ * uncompressed, LZW, Deflate and PackBits compression with or without
+ * horizontal predictor, 8, 16 and 32 bit gray values, as well as 8 bit
+ * RGB, which is returned as the sum of the three channels (like before
+ * with ImageJ). Use {@link TiffInfo#isSupported(Object)} to check whether
+ * a file can be read; everything else should be opened with ImageJ.
+ */
+public class TiffReader
+{
+	private static final int TAG_IMAGE_WIDTH = 256;
+	private static final int TAG_IMAGE_LENGTH = 257;
+	private static final int TAG_BITS_PER_SAMPLE = 258;
+	private static final int TAG_COMPRESSION = 259;
+	private static final int TAG_PHOTOMETRIC = 262;
+	private static final int TAG_FILL_ORDER = 266;
+	private static final int TAG_IMAGE_DESCRIPTION = 270;
+	private static final int TAG_STRIP_OFFSETS = 273;
+	private static final int TAG_SAMPLES_PER_PIXEL = 277;
+	private static final int TAG_ROWS_PER_STRIP = 278;
+	private static final int TAG_STRIP_BYTE_COUNTS = 279;
+	private static final int TAG_PLANAR_CONFIGURATION = 284;
+	private static final int TAG_PREDICTOR = 317;
+	private static final int TAG_COLOR_MAP = 320;
+	private static final int TAG_TILE_WIDTH = 322;
+	private static final int TAG_TILE_LENGTH = 323;
+	private static final int TAG_TILE_OFFSETS = 324;
+	private static final int TAG_TILE_BYTE_COUNTS = 325;
+	private static final int TAG_SAMPLE_FORMAT = 339;
+	private static final int TAG_IMAGEJ_META_DATA = 50839;
+
+	public static TiffInfo readInfo( FileChannel channel ) throws IOException
+	{
+		final ByteBuffer header = read( channel, 0, ( int ) Math.min( 16, channel.size() ) );
+
+		if ( header.limit() < 8 )
+			throw new IOException( "Not a TIFF file" );
+
+		final TiffInfo info = new TiffInfo();
+
+		if ( header.get( 0 ) == 'I' && header.get( 1 ) == 'I' )
+			info.littleEndian = true;
+		else if ( header.get( 0 ) == 'M' && header.get( 1 ) == 'M' )
+			info.littleEndian = false;
+		else
+			throw new IOException( "Not a TIFF file" );
+
+		header.order( info.littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN );
+
+		final int magic = header.getShort( 2 ) & 0xFFFF;
+
+		if ( magic == 42 )
+			readIfd( channel, info, header.getInt( 4 ) & 0xFFFFFFFFL, false );
+		else if ( magic == 43 && header.limit() == 16 )
+			readIfd( channel, info, header.getLong( 8 ), true );
+		else
+			throw new IOException( "Not a TIFF file" );
+
+		return info;
+	}
+
+	/**
+	 * Decodes the region [ x, x + width ) * [ y, y + height ) of the image
+	 * into the target array, which is of size width * height.
+	 */
+	public static void readRegion( FileChannel channel, TiffInfo info, Object target, int x, int y, int width, int height ) throws IOException
+	{
+		final int chunkWidth = info.getChunkWidth();
+		final int chunkHeight = info.getChunkHeight();
+		final int chunksAcross = info.getChunksAcross();
+		final int bytesPerPixel = info.getBytesPerPixel();
+		final int chunkRowBytes = chunkWidth * bytesPerPixel;
+
+		final int maxX = Math.min( x + width, info.width );
+		final int maxY = Math.min( y + height, info.height );
+
+		byte[] raw = new byte[ 0 ];
+
+		for ( int chunkY = y / chunkHeight; chunkY * chunkHeight < maxY; chunkY++ )
+		{
+			for ( int chunkX = x / chunkWidth; chunkX * chunkWidth < maxX; chunkX++ )
+			{
+				final int chunkIndex = chunkY * chunksAcross + chunkX;
+
+				if ( chunkIndex >= info.dataOffsets.length )
+					throw new IOException( "Missing strip or tile: " + chunkIndex );
+
+				final int chunkMinX = chunkX * chunkWidth;
+				final int chunkMinY = chunkY * chunkHeight;
+				final int chunkRows = info.isTiled() ? chunkHeight : Math.min( chunkHeight, info.height - chunkMinY );
+
+				final int rowStart = Math.max( y, chunkMinY ) - chunkMinY;
+				final int rowEnd = Math.min( maxY, chunkMinY + chunkRows ) - chunkMinY;
+				final int colStart = Math.max( x, chunkMinX );
+				final int colEnd = Math.min( maxX, chunkMinX + chunkWidth );
+
+				if ( rowEnd <= rowStart || colEnd <= colStart ) continue;
+
+				final int firstRow;
+
+				if ( info.compression == TiffInfo.COMPRESSION_NONE )
+				{
+					// only read the rows that are needed
+					final int numBytes = ( rowEnd - rowStart ) * chunkRowBytes;
+					if ( raw.length < numBytes ) raw = new byte[ numBytes ];
+					readFully( channel, info.dataOffsets[ chunkIndex ] + ( long ) rowStart * chunkRowBytes, raw, numBytes );
+					firstRow = rowStart;
+				}
+				else
+				{
+					final int numBytes = chunkRows * chunkRowBytes;
+					if ( raw.length < numBytes ) raw = new byte[ numBytes ];
+					final byte[] compressed = new byte[ ( int ) info.dataByteCounts[ chunkIndex ] ];
+					readFully( channel, info.dataOffsets[ chunkIndex ], compressed, compressed.length );
+					final int numDecoded = decompress( info.compression, compressed, raw, numBytes );
+					if ( numDecoded < numBytes ) Arrays.fill( raw, numDecoded, numBytes, ( byte ) 0 );
+					firstRow = 0;
+				}
+
+				if ( info.predictor == 2 )
+					undoHorizontalPredictor( info, raw, ( rowStart - firstRow ) * chunkRowBytes, rowEnd - rowStart, chunkRowBytes );
+
+				for ( int row = rowStart; row < rowEnd; row++ )
+				{
+					final int rawIndex = ( row - firstRow ) * chunkRowBytes + ( colStart - chunkMinX ) * bytesPerPixel;
+					final int targetIndex = ( chunkMinY + row - y ) * width + ( colStart - x );
+					copy( info, raw, rawIndex, target, targetIndex, colEnd - colStart );
+				}
+			}
+		}
+	}
+
+	private static void readIfd( FileChannel channel, TiffInfo info, long ifdOffset, boolean bigTiff ) throws IOException
+	{
+		final ByteOrder order = info.littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+		final long numEntries;
+		if ( bigTiff )
+			numEntries = read( channel, ifdOffset, 8 ).order( order ).getLong( 0 );
+		else
+			numEntries = read( channel, ifdOffset, 2 ).order( order ).getShort( 0 ) & 0xFFFF;
+
+		final int entrySize = bigTiff ? 20 : 12;
+		final int valueFieldSize = bigTiff ? 8 : 4;
+		final ByteBuffer entries = read( channel, ifdOffset + ( bigTiff ? 8 : 2 ), ( int ) numEntries * entrySize ).order( order );
+
+		long[] stripOffsets = null, stripByteCounts = null, tileOffsets = null, tileByteCounts = null;
+
+		for ( int i = 0; i < numEntries; i++ )
+		{
+			final int entry = i * entrySize;
+			final int tag = entries.getShort( entry ) & 0xFFFF;
+			final int type = entries.getShort( entry + 2 ) & 0xFFFF;
+			final long count = bigTiff ? entries.getLong( entry + 4 ) : entries.getInt( entry + 4 ) & 0xFFFFFFFFL;
+			final int valueField = entry + 4 + valueFieldSize;
+
+			if ( tag == TAG_COLOR_MAP || tag == TAG_IMAGEJ_META_DATA )
+			{
+				info.hasLut = true;
+				continue;
+			}
+
+			switch ( tag )
+			{
+				case TAG_IMAGE_WIDTH:
+				case TAG_IMAGE_LENGTH:
+				case TAG_BITS_PER_SAMPLE:
+				case TAG_COMPRESSION:
+				case TAG_PHOTOMETRIC:
+				case TAG_FILL_ORDER:
+				case TAG_IMAGE_DESCRIPTION:
+				case TAG_STRIP_OFFSETS:
+				case TAG_SAMPLES_PER_PIXEL:
+				case TAG_ROWS_PER_STRIP:
+				case TAG_STRIP_BYTE_COUNTS:
+				case TAG_PLANAR_CONFIGURATION:
+				case TAG_PREDICTOR:
+				case TAG_TILE_WIDTH:
+				case TAG_TILE_LENGTH:
+				case TAG_TILE_OFFSETS:
+				case TAG_TILE_BYTE_COUNTS:
+				case TAG_SAMPLE_FORMAT:
+					break;
+				default:
+					continue;
+			}
+
+			final long[] values = readValues( channel, entries, valueField, valueFieldSize, type, ( int ) count, bigTiff );
+			if ( values.length == 0 ) continue;
+
+			switch ( tag )
+			{
+				case TAG_IMAGE_WIDTH: info.width = ( int ) values[ 0 ]; break;
+				case TAG_IMAGE_LENGTH: info.height = ( int ) values[ 0 ]; break;
+				case TAG_BITS_PER_SAMPLE: info.bitsPerSample = ( int ) values[ 0 ]; break;
+				case TAG_COMPRESSION: info.compression = ( int ) values[ 0 ]; break;
+				case TAG_PHOTOMETRIC: info.photometric = ( int ) values[ 0 ]; break;
+				case TAG_FILL_ORDER: info.fillOrder = ( int ) values[ 0 ]; break;
+				case TAG_IMAGE_DESCRIPTION: info.description = toString( values ); break;
+				case TAG_STRIP_OFFSETS: stripOffsets = values; break;
+				case TAG_SAMPLES_PER_PIXEL: info.samplesPerPixel = ( int ) values[ 0 ]; break;
+				case TAG_ROWS_PER_STRIP: info.rowsPerStrip = ( int ) Math.min( values[ 0 ], Integer.MAX_VALUE ); break;
+				case TAG_STRIP_BYTE_COUNTS: stripByteCounts = values; break;
+				case TAG_PLANAR_CONFIGURATION: info.planarConfiguration = ( int ) values[ 0 ]; break;
+				case TAG_PREDICTOR: info.predictor = ( int ) values[ 0 ]; break;
+				case TAG_TILE_WIDTH: info.tileWidth = ( int ) values[ 0 ]; break;
+				case TAG_TILE_LENGTH: info.tileHeight = ( int ) values[ 0 ]; break;
+				case TAG_TILE_OFFSETS: tileOffsets = values; break;
+				case TAG_TILE_BYTE_COUNTS: tileByteCounts = values; break;
+				case TAG_SAMPLE_FORMAT: info.sampleFormat = ( int ) values[ 0 ]; break;
+			}
+		}
+
+		if ( info.rowsPerStrip <= 0 ) info.rowsPerStrip = Integer.MAX_VALUE;
+
+		if ( info.isTiled() && tileOffsets != null )
+		{
+			info.dataOffsets = tileOffsets;
+			info.dataByteCounts = tileByteCounts;
+		}
+		else
+		{
+			info.tileWidth = 0;
+			info.tileHeight = 0;
+			info.dataOffsets = stripOffsets;
+			info.dataByteCounts = stripByteCounts;
+		}
+	}
+
+	private static long[] readValues( FileChannel channel, ByteBuffer entries, int valueField, int valueFieldSize, int type, int count, boolean bigTiff ) throws IOException
+	{
+		final int typeSize = getTypeSize( type );
+		if ( typeSize == 0 ) return new long[ 0 ];
+
+		final ByteBuffer buffer;
+		final int base;
+
+		if ( ( long ) typeSize * count <= valueFieldSize )
+		{
+			buffer = entries;
+			base = valueField;
+		}
+		else
+		{
+			final long offset = bigTiff ? entries.getLong( valueField ) : entries.getInt( valueField ) & 0xFFFFFFFFL;
+			buffer = read( channel, offset, typeSize * count ).order( entries.order() );
+			base = 0;
+		}
+
+		final long[] values = new long[ count ];
+
+		for ( int i = 0; i < count; i++ )
+		{
+			final int index = base + i * typeSize;
+
+			switch ( type )
+			{
+				case 1: case 2: case 7: values[ i ] = buffer.get( index ) & 0xFF; break; // BYTE, ASCII, UNDEFINED
+				case 6: values[ i ] = buffer.get( index ); break; // SBYTE
+				case 3: values[ i ] = buffer.getShort( index ) & 0xFFFF; break; // SHORT
+				case 8: values[ i ] = buffer.getShort( index ); break; // SSHORT
+				case 4: case 13: values[ i ] = buffer.getInt( index ) & 0xFFFFFFFFL; break; // LONG, IFD
+				case 9: values[ i ] = buffer.getInt( index ); break; // SLONG
+				case 16: case 17: case 18: values[ i ] = buffer.getLong( index ); break; // LONG8, SLONG8, IFD8
+				default: values[ i ] = 0; // RATIONAL, FLOAT, DOUBLE: not needed
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * @return the ASCII values, up to the terminating zero
+	 */
+	private static String toString( long[] values )
+	{
+		final StringBuilder string = new StringBuilder();
+		for ( long value : values )
+		{
+			if ( value == 0 ) break;
+			string.append( ( char ) value );
+		}
+
+		return string.toString();
+	}
+
+	private static int getTypeSize( int type )
+	{
+		switch ( type )
+		{
+			case 1: case 2: case 6: case 7: return 1;
+			case 3: case 8: return 2;
+			case 4: case 9: case 11: case 13: return 4;
+			case 5: case 10: case 12: case 16: case 17: case 18: return 8;
+			default: return 0;
+		}
+	}
+
+	private static void copy( TiffInfo info, byte[] raw, int rawIndex, Object target, int targetIndex, int numPixels )
+	{
+		if ( target instanceof byte[] )
+		{
+			System.arraycopy( raw, rawIndex, target, targetIndex, numPixels );
+		}
+		else if ( target instanceof short[] && info.isRGB() )
+		{
+			// sum of the RGB values
+			final short[] shorts = ( short[] ) target;
+			for ( int i = 0; i < numPixels; i++, rawIndex += 3 )
+				shorts[ targetIndex + i ] = ( short ) ( ( raw[ rawIndex ] & 0xFF ) + ( raw[ rawIndex + 1 ] & 0xFF ) + ( raw[ rawIndex + 2 ] & 0xFF ) );
+		}
+		else if ( target instanceof short[] )
+		{
+			// like ImageJ, signed 16 bit values are shifted into the unsigned range
+			final short[] shorts = ( short[] ) target;
+			final int shift = info.sampleFormat == TiffInfo.SAMPLE_FORMAT_INT ? 32768 : 0;
+			for ( int i = 0; i < numPixels; i++, rawIndex += 2 )
+				shorts[ targetIndex + i ] = ( short ) ( getShort( raw, rawIndex, info.littleEndian ) + shift );
+		}
+		else if ( target instanceof float[] )
+		{
+			final float[] floats = ( float[] ) target;
+			for ( int i = 0; i < numPixels; i++, rawIndex += 4 )
+			{
+				final int bits = getInt( raw, rawIndex, info.littleEndian );
+
+				if ( info.sampleFormat == TiffInfo.SAMPLE_FORMAT_FLOAT )
+					floats[ targetIndex + i ] = Float.intBitsToFloat( bits );
+				else if ( info.sampleFormat == TiffInfo.SAMPLE_FORMAT_INT )
+					floats[ targetIndex + i ] = bits;
+				else
+					floats[ targetIndex + i ] = bits & 0xFFFFFFFFL;
+			}
+		}
+		else
+		{
+			throw new UnsupportedOperationException( "Target array not supported: " + target.getClass().getSimpleName() );
+		}
+	}
+
+	private static void undoHorizontalPredictor( TiffInfo info, byte[] raw, int offset, int numRows, int rowBytes )
+	{
+		final int samplesPerPixel = info.samplesPerPixel;
+		final int bytesPerSample = info.bitsPerSample / 8;
+		final int samplesPerRow = rowBytes / bytesPerSample;
+
+		for ( int row = 0; row < numRows; row++ )
+		{
+			final int rowOffset = offset + row * rowBytes;
+
+			for ( int s = samplesPerPixel; s < samplesPerRow; s++ )
+			{
+				final int index = rowOffset + s * bytesPerSample;
+				final int previous = index - samplesPerPixel * bytesPerSample;
+
+				switch ( bytesPerSample )
+				{
+					case 1:
+						raw[ index ] += raw[ previous ];
+						break;
+					case 2:
+						putShort( raw, index, getShort( raw, index, info.littleEndian ) + getShort( raw, previous, info.littleEndian ), info.littleEndian );
+						break;
+					case 4:
+						putInt( raw, index, getInt( raw, index, info.littleEndian ) + getInt( raw, previous, info.littleEndian ), info.littleEndian );
+						break;
+				}
+			}
+		}
+	}
+
+	private static int decompress( int compression, byte[] compressed, byte[] raw, int numBytes ) throws IOException
+	{
+		switch ( compression )
+		{
+			case TiffInfo.COMPRESSION_LZW:
+				return lzwDecode( compressed, raw, numBytes );
+			case TiffInfo.COMPRESSION_DEFLATE:
+			case TiffInfo.COMPRESSION_DEFLATE_OLD:
+				return inflate( compressed, raw, numBytes );
+			case TiffInfo.COMPRESSION_PACKBITS:
+				return packBitsDecode( compressed, raw, numBytes );
+			default:
+				throw new IOException( "Unsupported TIFF compression: " + compression );
+		}
+	}
+
+	private static int lzwDecode( byte[] input, byte[] output, int numBytes )
+	{
+		final int clearCode = 256;
+		final int endOfInformation = 257;
+
+		final int[] prefix = new int[ 4096 ];
+		final byte[] suffix = new byte[ 4096 ];
+		final byte[] first = new byte[ 4096 ];
+		final int[] length = new int[ 4096 ];
+
+		for ( int i = 0; i < 256; i++ )
+		{
+			prefix[ i ] = -1;
+			suffix[ i ] = ( byte ) i;
+			first[ i ] = ( byte ) i;
+			length[ i ] = 1;
+		}
+
+		int nextCode = 258;
+		int codeWidth = 9;
+		int oldCode = -1;
+
+		int outputIndex = 0;
+		int inputIndex = 0;
+		int bitBuffer = 0;
+		int numBits = 0;
+
+		while ( outputIndex < numBytes )
+		{
+			// codes are packed most significant bit first
+			while ( numBits < codeWidth && inputIndex < input.length )
+			{
+				bitBuffer = ( bitBuffer << 8 ) | ( input[ inputIndex++ ] & 0xFF );
+				numBits += 8;
+			}
+
+			if ( numBits < codeWidth ) break;
+
+			final int code = ( bitBuffer >>> ( numBits - codeWidth ) ) & ( ( 1 << codeWidth ) - 1 );
+			numBits -= codeWidth;
+
+			if ( code == endOfInformation ) break;
+
+			if ( code == clearCode )
+			{
+				nextCode = 258;
+				codeWidth = 9;
+				oldCode = -1;
+				continue;
+			}
+
+			final int outputCode;
+
+			if ( oldCode == -1 )
+			{
+				if ( code > 255 ) break; // corrupt
+				outputCode = code;
+			}
+			else
+			{
+				if ( code > nextCode ) break; // corrupt
+
+				if ( nextCode < 4096 )
+				{
+					prefix[ nextCode ] = oldCode;
+					first[ nextCode ] = first[ oldCode ];
+					suffix[ nextCode ] = code < nextCode ? first[ code ] : first[ oldCode ];
+					length[ nextCode ] = length[ oldCode ] + 1;
+					nextCode++;
+				}
+
+				outputCode = code;
+
+				// TIFF switches the code width one code early
+				if ( nextCode >= ( 1 << codeWidth ) - 1 && codeWidth < 12 )
+					codeWidth++;
+			}
+
+			// write the string of the code backwards
+			final int stringLength = length[ outputCode ];
+			int c = outputCode;
+			for ( int i = stringLength - 1; i >= 0; i-- )
+			{
+				if ( outputIndex + i < numBytes )
+					output[ outputIndex + i ] = suffix[ c ];
+				c = prefix[ c ];
+			}
+			outputIndex = Math.min( numBytes, outputIndex + stringLength );
+
+			oldCode = code;
+		}
+
+		return outputIndex;
+	}
+
+	private static int inflate( byte[] input, byte[] output, int numBytes ) throws IOException
+	{
+		final Inflater inflater = new Inflater();
+
+		try
+		{
+			inflater.setInput( input );
+			int outputIndex = 0;
+
+			while ( outputIndex < numBytes && ! inflater.finished() )
+			{
+				final int n = inflater.inflate( output, outputIndex, numBytes - outputIndex );
+				if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) break;
+				outputIndex += n;
+			}
+
+			return outputIndex;
+		}
+		catch ( DataFormatException e )
+		{
+			throw new IOException( e );
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	private static int packBitsDecode( byte[] input, byte[] output, int numBytes )
+	{
+		int inputIndex = 0;
+		int outputIndex = 0;
+
+		while ( outputIndex < numBytes && inputIndex < input.length )
+		{
+			final int n = input[ inputIndex++ ];
+
+			if ( n >= 0 )
+			{
+				final int count = Math.min( Math.min( n + 1, numBytes - outputIndex ), input.length - inputIndex );
+				System.arraycopy( input, inputIndex, output, outputIndex, count );
+				inputIndex += n + 1;
+				outputIndex += count;
+			}
+			else if ( n != -128 && inputIndex < input.length )
+			{
+				final int count = Math.min( -n + 1, numBytes - outputIndex );
+				Arrays.fill( output, outputIndex, outputIndex + count, input[ inputIndex++ ] );
+				outputIndex += count;
+			}
+		}
+
+		return outputIndex;
+	}
+
+	private static int getShort( byte[] bytes, int index, boolean littleEndian )
+	{
+		if ( littleEndian )
+			return ( short ) ( ( bytes[ index ] & 0xFF ) | ( bytes[ index + 1 ] << 8 ) );
+		else
+			return ( short ) ( ( bytes[ index ] << 8 ) | ( bytes[ index + 1 ] & 0xFF ) );
+	}
+
+	private static void putShort( byte[] bytes, int index, int value, boolean littleEndian )
+	{
+		if ( littleEndian )
+		{
+			bytes[ index ] = ( byte ) value;
+			bytes[ index + 1 ] = ( byte ) ( value >> 8 );
+		}
+		else
+		{
+			bytes[ index ] = ( byte ) ( value >> 8 );
+			bytes[ index + 1 ] = ( byte ) value;
+		}
+	}
+
+	private static int getInt( byte[] bytes, int index, boolean littleEndian )
+	{
+		if ( littleEndian )
+			return ( bytes[ index ] & 0xFF ) | ( bytes[ index + 1 ] & 0xFF ) << 8 | ( bytes[ index + 2 ] & 0xFF ) << 16 | bytes[ index + 3 ] << 24;
+		else
+			return bytes[ index ] << 24 | ( bytes[ index + 1 ] & 0xFF ) << 16 | ( bytes[ index + 2 ] & 0xFF ) << 8 | ( bytes[ index + 3 ] & 0xFF );
+	}
+
+	private static void putInt( byte[] bytes, int index, int value, boolean littleEndian )
+	{
+		for ( int i = 0; i < 4; i++ )
+		{
+			final int shift = littleEndian ? 8 * i : 8 * ( 3 - i );
+			bytes[ index + i ] = ( byte ) ( value >> shift );
+		}
+	}
+
+	private static ByteBuffer read( FileChannel channel, long position, int numBytes ) throws IOException
+	{
+		final byte[] bytes = new byte[ numBytes ];
+		readFully( channel, position, bytes, numBytes );
+		return ByteBuffer.wrap( bytes );
+	}
+
+	private static void readFully( FileChannel channel, long position, byte[] bytes, int numBytes ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap( bytes, 0, numBytes );
+
+		while ( buffer.hasRemaining() )
+		{
+			if ( channel.read( buffer, position + buffer.position() ) < 0 )
+				throw new EOFException( "Unexpected end of TIFF file at " + ( position + buffer.position() ) );
+		}
+	}
+}
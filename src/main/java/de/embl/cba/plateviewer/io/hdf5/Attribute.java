@@ -0,0 +1,107 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Attribute message, versions 1 to 3, with its data.
+ */
+class Attribute
+{
+	final String name;
+	final DataType dataType;
+	final long numElements;
+	final ByteBuffer data;
+
+	Attribute( ByteBuffer message, int sizeOfLengths )
+	{
+		final int version = message.get() & 0xFF;
+		final int flags = message.get() & 0xFF;
+		final int nameSize = message.getShort() & 0xFFFF;
+		final int dataTypeSize = message.getShort() & 0xFFFF;
+		final int dataSpaceSize = message.getShort() & 0xFFFF;
+
+		if ( version > 3 )
+			throw new UnsupportedOperationException( "HDF5 attribute message version " + version + " not supported" );
+
+		if ( version >= 2 && ( flags & 0x03 ) != 0 )
+			throw new UnsupportedOperationException( "Shared HDF5 attribute datatypes are not supported" );
+
+		if ( version == 3 ) message.get(); // name character set
+
+		name = readName( ObjectHeader.slice( message, pad( nameSize, version ) ) );
+		dataType = new DataType( ObjectHeader.slice( message, pad( dataTypeSize, version ) ) );
+		numElements = DataSpace.getNumElements( DataSpace.readDimensions( ObjectHeader.slice( message, pad( dataSpaceSize, version ) ), sizeOfLengths ) );
+		data = ObjectHeader.slice( message, message.remaining() );
+	}
+
+	String getString( Hdf5File file ) throws IOException
+	{
+		if ( dataType.typeClass == DataType.STRING )
+			return trim( get( data, 0, Math.min( dataType.size, data.remaining() ) ) );
+
+		if ( dataType.variableLengthString )
+		{
+			final ByteBuffer element = data.duplicate().order( data.order() );
+			final int length = element.getInt();
+			final long collectionAddress = file.readOffset( element );
+			final int objectIndex = element.getInt();
+			return trim( GlobalHeap.read( file, collectionAddress, objectIndex, length ) );
+		}
+
+		throw new UnsupportedOperationException( "HDF5 attribute " + name + " is not a string: " + dataType.getName() );
+	}
+
+	long[] getLongs()
+	{
+		final long[] values = new long[ ( int ) numElements ];
+		for ( int i = 0; i < values.length; i++ )
+			values[ i ] = dataType.getLong( data, i );
+
+		return values;
+	}
+
+	double[] getDoubles()
+	{
+		final double[] values = new double[ ( int ) numElements ];
+		for ( int i = 0; i < values.length; i++ )
+			values[ i ] = dataType.getDouble( data, i );
+
+		return values;
+	}
+
+	/**
+	 * Version 1 pads the name, datatype and dataspace to multiples of 8 bytes.
+	 */
+	private static int pad( int size, int version )
+	{
+		return version == 1 ? ( size + 7 ) & ~7 : size;
+	}
+
+	private static String readName( ByteBuffer buffer )
+	{
+		return trim( get( buffer, 0, buffer.remaining() ) );
+	}
+
+	private static byte[] get( ByteBuffer buffer, int position, int length )
+	{
+		final byte[] bytes = new byte[ length ];
+		final ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position( position );
+		duplicate.get( bytes );
+		return bytes;
+	}
+
+	/**
+	 * Strings are null terminated, null padded or space padded.
+	 */
+	private static String trim( byte[] bytes )
+	{
+		int length = 0;
+		while ( length < bytes.length && bytes[ length ] != 0 )
+			length++;
+
+		return new String( bytes, 0, length, StandardCharsets.UTF_8 ).replaceAll( " +$", "" );
+	}
+}
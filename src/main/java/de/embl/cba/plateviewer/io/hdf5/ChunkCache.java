@@ -0,0 +1,92 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The most recently decoded chunks of all files, such that reading several
+ * blocks of one compressed chunk, e.g. the cells of a site that is larger
+ * than a cell, decodes the chunk only once.
+ *
+ * Chunks are kept until they exceed the maximal number of bytes, least
+ * recently used first, or until their file is closed.
+ */
+class ChunkCache
+{
+	static final long MAX_BYTES = 64L * 1024 * 1024;
+
+	private static final LinkedHashMap< Key, ByteBuffer > chunks = new LinkedHashMap<>( 16, 0.75f, true );
+	private static long numBytes;
+
+	/**
+	 * @return the decoded chunk at the address of the file, or null
+	 */
+	static synchronized ByteBuffer get( Hdf5File file, long address )
+	{
+		return chunks.get( new Key( file, address ) );
+	}
+
+	static synchronized void put( Hdf5File file, long address, ByteBuffer chunk )
+	{
+		if ( chunk.capacity() > MAX_BYTES ) return;
+
+		final ByteBuffer previous = chunks.put( new Key( file, address ), chunk );
+		if ( previous != null ) numBytes -= previous.capacity();
+		numBytes += chunk.capacity();
+
+		final Iterator< ByteBuffer > iterator = chunks.values().iterator();
+		while ( numBytes > MAX_BYTES && iterator.hasNext() )
+		{
+			numBytes -= iterator.next().capacity();
+			iterator.remove();
+		}
+	}
+
+	static synchronized void removeAll( Hdf5File file )
+	{
+		final Iterator< Map.Entry< Key, ByteBuffer > > iterator = chunks.entrySet().iterator();
+		while ( iterator.hasNext() )
+		{
+			final Map.Entry< Key, ByteBuffer > entry = iterator.next();
+			if ( entry.getKey().file == file )
+			{
+				numBytes -= entry.getValue().capacity();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Files are compared by identity, thus a file that is opened again,
+	 * e.g. after it was rewritten, does not see the chunks of before.
+	 */
+	private static class Key
+	{
+		final Hdf5File file;
+		final long address;
+
+		Key( Hdf5File file, long address )
+		{
+			this.file = file;
+			this.address = address;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( this == o ) return true;
+			if ( ! ( o instanceof Key ) ) return false;
+			final Key key = ( Key ) o;
+			return file == key.file && address == key.address;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash( System.identityHashCode( file ), address );
+		}
+	}
+}
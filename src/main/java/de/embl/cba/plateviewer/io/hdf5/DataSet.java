@@ -0,0 +1,606 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A data set with compact, contiguous or chunked storage. Chunks are
+ * indexed by a version 1 B-tree, or, for data layout version 4, are a
+ * single chunk or implicitly indexed.
+ *
+ * The chunk index is read once, on the first read of a chunk. Compressed
+ * chunks that are read in part are kept decoded in the {@link ChunkCache},
+ * for the reads of their other parts.
+ * Uncompressed contiguous data is mapped into memory once, on the first
+ * read, and blocks are copied from the mapping directly into the array.
+ */
+class DataSet
+{
+	private static final int COMPACT = 0;
+	private static final int CONTIGUOUS = 1;
+	private static final int CHUNKED = 2;
+
+	private static final int SINGLE_CHUNK_INDEX = 1;
+	private static final int IMPLICIT_INDEX = 2;
+	private static final int BTREE_V1_INDEX = -1;
+
+	final long[] dimensions;
+	final DataType dataType;
+
+	private final Hdf5File file;
+	private final FilterPipeline filterPipeline;
+
+	private int layoutClass;
+	private long address;
+	private ByteBuffer compactData;
+	private int[] chunkDimensions;
+	private int chunkIndexType;
+	private long singleChunkSize;
+	private int singleChunkFilterMask;
+
+	private volatile Map< Long, Chunk > chunks;
+	private volatile ByteBuffer mapping;
+	private volatile boolean isMappable = true;
+
+	private static class Chunk
+	{
+		final long address;
+		final long size;
+		final int filterMask;
+
+		Chunk( long address, long size, int filterMask )
+		{
+			this.address = address;
+			this.size = size;
+			this.filterMask = filterMask;
+		}
+	}
+
+	/**
+	 * A run of consecutive elements, in the last dimension.
+	 */
+	private interface RunConsumer
+	{
+		void accept( long sourceIndex, int targetIndex, int length ) throws IOException;
+	}
+
+	DataSet( Hdf5File file, ObjectHeader header )
+	{
+		this.file = file;
+
+		final ObjectHeader.Message dataSpace = header.getMessage( ObjectHeader.DATASPACE );
+		final ObjectHeader.Message dataType = header.getMessage( ObjectHeader.DATATYPE );
+		final ObjectHeader.Message layout = header.getMessage( ObjectHeader.LAYOUT );
+
+		if ( dataSpace == null || dataType == null || layout == null )
+			throw new IllegalArgumentException( "Not an HDF5 data set" );
+
+		this.dimensions = DataSpace.readDimensions( dataSpace.getData(), file.getSizeOfLengths() );
+		this.dataType = new DataType( dataType.getData() );
+
+		final ObjectHeader.Message filters = header.getMessage( ObjectHeader.FILTER_PIPELINE );
+		this.filterPipeline = filters == null ? new FilterPipeline() : new FilterPipeline( filters.getData() );
+
+		readLayout( layout.getData() );
+	}
+
+	boolean isContiguous()
+	{
+		return layoutClass == CONTIGUOUS;
+	}
+
+	/**
+	 * @param array
+	 * 				a byte[], short[], int[] or float[] of the element size of the data set
+	 */
+	void readBlock( Object array, int[] blockDimensions, long[] offset ) throws IOException
+	{
+		checkBlock( array, blockDimensions, offset );
+
+		final long[] min = new long[ offset.length ];
+		final long[] max = new long[ offset.length ];
+		for ( int d = 0; d < offset.length; d++ )
+		{
+			min[ d ] = offset[ d ];
+			max[ d ] = offset[ d ] + blockDimensions[ d ];
+		}
+
+		if ( layoutClass == COMPACT )
+		{
+			final ByteBuffer source = compactData.duplicate().order( dataType.byteOrder );
+			forEachRun( dimensions, new long[ dimensions.length ], blockDimensions, offset, min, max,
+					( sourceIndex, targetIndex, length ) -> copy( source, ( int ) sourceIndex, array, targetIndex, length ) );
+		}
+		else if ( layoutClass == CONTIGUOUS )
+		{
+			readContiguous( array, blockDimensions, offset, min, max );
+		}
+		else
+		{
+			readChunked( array, blockDimensions, offset, min, max );
+		}
+	}
+
+	private void readLayout( ByteBuffer data )
+	{
+		final int version = data.get() & 0xFF;
+
+		if ( version < 3 )
+		{
+			final int dimensionality = data.get() & 0xFF;
+			layoutClass = data.get() & 0xFF;
+			data.position( data.position() + 5 );
+
+			if ( layoutClass == CHUNKED )
+				throw new UnsupportedOperationException( "HDF5 chunked data layout version " + version + " not supported" );
+
+			if ( layoutClass == CONTIGUOUS )
+				address = file.readOffset( data );
+
+			data.position( data.position() + 4 * dimensionality );
+
+			if ( layoutClass == COMPACT )
+				compactData = ObjectHeader.slice( data, data.getInt() );
+		}
+		else if ( version <= 4 )
+		{
+			layoutClass = data.get() & 0xFF;
+
+			if ( layoutClass == COMPACT )
+			{
+				compactData = ObjectHeader.slice( data, data.getShort() & 0xFFFF );
+			}
+			else if ( layoutClass == CONTIGUOUS )
+			{
+				address = file.readOffset( data );
+			}
+			else if ( layoutClass == CHUNKED && version == 3 )
+			{
+				// the last dimension is the element size
+				final int dimensionality = data.get() & 0xFF;
+				address = file.readOffset( data );
+				chunkDimensions = new int[ dimensionality - 1 ];
+				for ( int d = 0; d < chunkDimensions.length; d++ )
+					chunkDimensions[ d ] = data.getInt();
+				chunkIndexType = BTREE_V1_INDEX;
+			}
+			else if ( layoutClass == CHUNKED )
+			{
+				final int flags = data.get() & 0xFF;
+				final int dimensionality = data.get() & 0xFF;
+				final int encodedSize = data.get() & 0xFF;
+				chunkDimensions = new int[ dimensionality - 1 ];
+				for ( int d = 0; d < dimensionality; d++ )
+				{
+					final long dimension = Hdf5File.readUnsigned( data, encodedSize, false );
+					if ( d < chunkDimensions.length ) chunkDimensions[ d ] = ( int ) dimension;
+				}
+
+				chunkIndexType = data.get() & 0xFF;
+
+				if ( chunkIndexType == SINGLE_CHUNK_INDEX )
+				{
+					singleChunkSize = getChunkNumBytes();
+					if ( ( flags & 0x02 ) != 0 )
+					{
+						singleChunkSize = file.readLength( data );
+						singleChunkFilterMask = data.getInt();
+					}
+				}
+				else if ( chunkIndexType != IMPLICIT_INDEX )
+				{
+					throw new UnsupportedOperationException( "HDF5 chunk index type " + chunkIndexType + " not supported" );
+				}
+
+				address = file.readOffset( data );
+			}
+			else
+			{
+				throw new UnsupportedOperationException( "HDF5 data layout class " + layoutClass + " not supported" );
+			}
+		}
+		else
+		{
+			throw new UnsupportedOperationException( "HDF5 data layout version " + version + " not supported" );
+		}
+	}
+
+	/**
+	 * Reads the runs of the block in one go, if they are close to each other.
+	 */
+	private void readContiguous( Object array, int[] blockDimensions, long[] offset, long[] min, long[] max ) throws IOException
+	{
+		if ( address == Hdf5File.UNDEFINED_ADDRESS )
+		{
+			fill( array, 0, ( int ) getNumElements( blockDimensions ) );
+			return;
+		}
+
+		final ByteBuffer mapping = getMapping();
+		if ( mapping != null )
+		{
+			forEachRun( dimensions, new long[ dimensions.length ], blockDimensions, offset, min, max,
+					( sourceIndex, targetIndex, length ) -> copy( mapping, ( int ) sourceIndex, array, targetIndex, length ) );
+			return;
+		}
+
+		final int elementSize = dataType.size;
+		final long[] first = new long[ 1 ];
+		final long[] last = new long[ 1 ];
+		first[ 0 ] = Long.MAX_VALUE;
+
+		forEachRun( dimensions, new long[ dimensions.length ], blockDimensions, offset, min, max, ( sourceIndex, targetIndex, length ) ->
+		{
+			first[ 0 ] = Math.min( first[ 0 ], sourceIndex );
+			last[ 0 ] = Math.max( last[ 0 ], sourceIndex + length );
+		} );
+
+		if ( first[ 0 ] == Long.MAX_VALUE ) return;
+
+		final long spanBytes = ( last[ 0 ] - first[ 0 ] ) * elementSize;
+		final long blockBytes = getNumElements( blockDimensions ) * elementSize;
+
+		if ( spanBytes <= Math.max( 4 * blockBytes, 1 << 20 ) && spanBytes <= Integer.MAX_VALUE )
+		{
+			final ByteBuffer span = file.read( address + first[ 0 ] * elementSize, spanBytes ).order( dataType.byteOrder );
+			forEachRun( dimensions, new long[ dimensions.length ], blockDimensions, offset, min, max,
+					( sourceIndex, targetIndex, length ) -> copy( span, ( int ) ( sourceIndex - first[ 0 ] ), array, targetIndex, length ) );
+		}
+		else
+		{
+			forEachRun( dimensions, new long[ dimensions.length ], blockDimensions, offset, min, max, ( sourceIndex, targetIndex, length ) ->
+			{
+				final ByteBuffer run = file.read( address + sourceIndex * elementSize, ( long ) length * elementSize ).order( dataType.byteOrder );
+				copy( run, 0, array, targetIndex, length );
+			} );
+		}
+	}
+
+	/**
+	 * @return the contiguous data, in the byte order of the data set, or null
+	 * if it cannot be mapped, e.g. because it is larger than 2 GB
+	 */
+	private ByteBuffer getMapping()
+	{
+		if ( mapping != null || ! isMappable ) return mapping;
+
+		synchronized ( this )
+		{
+			if ( mapping != null || ! isMappable ) return mapping;
+
+			final long numBytes = DataSpace.getNumElements( dimensions ) * dataType.size;
+
+			try
+			{
+				if ( numBytes > Integer.MAX_VALUE ) throw new IOException( "Too large to map: " + numBytes + " bytes" );
+				mapping = file.map( address, numBytes ).order( dataType.byteOrder );
+			}
+			catch ( IOException | RuntimeException e )
+			{
+				// read with positional reads instead
+				isMappable = false;
+			}
+
+			return mapping;
+		}
+	}
+
+	private void readChunked( Object array, int[] blockDimensions, long[] offset, long[] min, long[] max ) throws IOException
+	{
+		final int rank = dimensions.length;
+		final long[] gridDimensions = new long[ rank ];
+		final long[] minChunk = new long[ rank ];
+		final long[] maxChunk = new long[ rank ];
+
+		for ( int d = 0; d < rank; d++ )
+		{
+			gridDimensions[ d ] = ( dimensions[ d ] + chunkDimensions[ d ] - 1 ) / chunkDimensions[ d ];
+			minChunk[ d ] = min[ d ] / chunkDimensions[ d ];
+			maxChunk[ d ] = ( max[ d ] - 1 ) / chunkDimensions[ d ];
+		}
+
+		final long[] chunkDimensionsLong = new long[ rank ];
+		for ( int d = 0; d < rank; d++ )
+			chunkDimensionsLong[ d ] = chunkDimensions[ d ];
+
+		final long[] chunkPosition = minChunk.clone();
+		final long[] chunkMin = new long[ rank ];
+		final long[] chunkMax = new long[ rank ];
+		final long[] intersectionMin = new long[ rank ];
+		final long[] intersectionMax = new long[ rank ];
+
+		while ( true )
+		{
+			long chunkIndex = 0;
+			for ( int d = 0; d < rank; d++ )
+			{
+				chunkIndex = chunkIndex * gridDimensions[ d ] + chunkPosition[ d ];
+				chunkMin[ d ] = chunkPosition[ d ] * chunkDimensions[ d ];
+				chunkMax[ d ] = chunkMin[ d ] + chunkDimensions[ d ];
+				intersectionMin[ d ] = Math.max( min[ d ], chunkMin[ d ] );
+				intersectionMax[ d ] = Math.min( max[ d ], chunkMax[ d ] );
+			}
+
+			boolean isPartial = false;
+			for ( int d = 0; d < rank; d++ )
+				isPartial |= intersectionMax[ d ] - intersectionMin[ d ] < Math.min( chunkMax[ d ], dimensions[ d ] ) - chunkMin[ d ];
+
+			final ByteBuffer source = readChunk( chunkIndex, isPartial );
+
+			if ( source == null )
+			{
+				// never written
+				forEachRun( chunkDimensionsLong, chunkMin, blockDimensions, offset, intersectionMin, intersectionMax,
+						( sourceIndex, targetIndex, length ) -> fill( array, targetIndex, length ) );
+			}
+			else
+			{
+				forEachRun( chunkDimensionsLong, chunkMin, blockDimensions, offset, intersectionMin, intersectionMax,
+						( sourceIndex, targetIndex, length ) -> copy( source, ( int ) sourceIndex, array, targetIndex, length ) );
+			}
+
+			int d = rank - 1;
+			for ( ; d >= 0; d-- )
+			{
+				if ( ++chunkPosition[ d ] <= maxChunk[ d ] ) break;
+				chunkPosition[ d ] = minChunk[ d ];
+			}
+
+			if ( d < 0 ) break;
+		}
+	}
+
+	/**
+	 * @param isPartial
+	 * 				whether only a part of the chunk is read, thus the other
+	 * 				parts are likely to be read soon
+	 * @return the decoded chunk, or null if it was never written
+	 */
+	private ByteBuffer readChunk( long chunkIndex, boolean isPartial ) throws IOException
+	{
+		final int numBytes = getChunkNumBytes();
+		final Chunk chunk;
+
+		if ( chunkIndexType == SINGLE_CHUNK_INDEX )
+			chunk = new Chunk( address, singleChunkSize, singleChunkFilterMask );
+		else if ( chunkIndexType == IMPLICIT_INDEX )
+			chunk = new Chunk( address == Hdf5File.UNDEFINED_ADDRESS ? address : address + chunkIndex * numBytes, numBytes, 0 );
+		else
+			chunk = getChunks().get( chunkIndex );
+
+		if ( chunk == null || chunk.address == Hdf5File.UNDEFINED_ADDRESS ) return null;
+
+		final boolean isCached = isPartial && ! filterPipeline.isEmpty();
+		if ( isCached )
+		{
+			final ByteBuffer cached = ChunkCache.get( file, chunk.address );
+			if ( cached != null ) return cached;
+		}
+
+		final ByteBuffer stored = file.read( chunk.address, chunk.size );
+
+		if ( filterPipeline.isEmpty() )
+			return stored.order( dataType.byteOrder );
+
+		final byte[] decoded = filterPipeline.decode( stored.array(), chunk.filterMask, numBytes );
+		final ByteBuffer buffer = ByteBuffer.wrap( decoded ).order( dataType.byteOrder );
+
+		if ( isCached )
+			ChunkCache.put( file, chunk.address, buffer );
+
+		return buffer;
+	}
+
+	private int getChunkNumBytes()
+	{
+		long numBytes = dataType.size;
+		for ( int chunkDimension : chunkDimensions )
+			numBytes *= chunkDimension;
+
+		if ( numBytes > Integer.MAX_VALUE )
+			throw new UnsupportedOperationException( "HDF5 chunk too large: " + numBytes + " bytes" );
+
+		return ( int ) numBytes;
+	}
+
+	private Map< Long, Chunk > getChunks() throws IOException
+	{
+		if ( chunks == null )
+		{
+			synchronized ( this )
+			{
+				if ( chunks == null )
+				{
+					final Map< Long, Chunk > chunks = new HashMap<>();
+					if ( address != Hdf5File.UNDEFINED_ADDRESS )
+						readChunkBTree( address, chunks );
+					this.chunks = chunks;
+				}
+			}
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Version 1 B-tree of type 1, whose keys are the chunk sizes, filter
+	 * masks and offsets, and whose leaves point to the chunks.
+	 */
+	private void readChunkBTree( long nodeAddress, Map< Long, Chunk > chunks ) throws IOException
+	{
+		final int sizeOfOffsets = file.getSizeOfOffsets();
+		final int rank = chunkDimensions.length;
+		final int keySize = 8 + 8 * ( rank + 1 );
+
+		final ByteBuffer header = file.read( nodeAddress, 8 );
+		file.checkSignature( header, "TREE", nodeAddress );
+		final int nodeType = header.get() & 0xFF;
+		final int level = header.get() & 0xFF;
+		final int numEntries = header.getShort() & 0xFFFF;
+
+		if ( nodeType != 1 )
+			throw new IOException( "Not a chunk B-tree node at " + nodeAddress + " of " + file.getFile() );
+
+		final ByteBuffer node = file.read( nodeAddress + 8 + 2 * sizeOfOffsets, ( long ) numEntries * ( keySize + sizeOfOffsets ) + keySize );
+
+		final long[] gridDimensions = new long[ rank ];
+		for ( int d = 0; d < rank; d++ )
+			gridDimensions[ d ] = ( dimensions[ d ] + chunkDimensions[ d ] - 1 ) / chunkDimensions[ d ];
+
+		for ( int i = 0; i < numEntries; i++ )
+		{
+			final long size = node.getInt() & 0xFFFFFFFFL;
+			final int filterMask = node.getInt();
+
+			long chunkIndex = 0;
+			for ( int d = 0; d < rank; d++ )
+				chunkIndex = chunkIndex * gridDimensions[ d ] + node.getLong() / chunkDimensions[ d ];
+			node.getLong(); // element offset
+
+			final long childAddress = file.readOffset( node );
+
+			if ( level == 0 )
+				chunks.put( chunkIndex, new Chunk( childAddress, size, filterMask ) );
+			else
+				readChunkBTree( childAddress, chunks );
+		}
+	}
+
+	private void checkBlock( Object array, int[] blockDimensions, long[] offset )
+	{
+		if ( dimensions == null || blockDimensions.length != dimensions.length || offset.length != dimensions.length )
+			throw new IllegalArgumentException( "Block of rank " + blockDimensions.length + " does not match the data set dimensions " + Arrays.toString( dimensions ) );
+
+		for ( int d = 0; d < dimensions.length; d++ )
+			if ( offset[ d ] < 0 || offset[ d ] + blockDimensions[ d ] > dimensions[ d ] )
+				throw new IllegalArgumentException( "Block " + Arrays.toString( offset ) + " + " + Arrays.toString( blockDimensions ) + " exceeds the data set dimensions " + Arrays.toString( dimensions ) );
+
+		final boolean matches;
+		if ( array instanceof float[] )
+			matches = dataType.typeClass == DataType.FLOATING_POINT && dataType.size == 4;
+		else if ( array instanceof byte[] )
+			matches = dataType.isInteger() && dataType.size == 1;
+		else if ( array instanceof short[] )
+			matches = dataType.isInteger() && dataType.size == 2;
+		else if ( array instanceof int[] )
+			matches = dataType.isInteger() && dataType.size == 4;
+		else
+			throw new UnsupportedOperationException( "Hdf5 datatype not supported: " + array.getClass().getSimpleName() );
+
+		if ( ! matches )
+			throw new UnsupportedOperationException( "Cannot read HDF5 " + dataType.getName() + " data into " + array.getClass().getSimpleName() );
+
+		if ( Array.getLength( array ) < getNumElements( blockDimensions ) )
+			throw new IllegalArgumentException( "Array too small for block " + Arrays.toString( blockDimensions ) );
+	}
+
+	/**
+	 * Iterates over the runs, in the last dimension, of the intersection
+	 * of the source and the block.
+	 *
+	 * @param sourceDimensions
+	 * 				dimensions of the source, e.g. a chunk or the whole data set
+	 * @param sourceOffset
+	 * 				position of the source in the data set
+	 * @param min
+	 * 				inclusive minimum of the region to iterate over, in data set coordinates
+	 * @param max
+	 * 				exclusive maximum of the region to iterate over
+	 */
+	private static void forEachRun(
+			long[] sourceDimensions,
+			long[] sourceOffset,
+			int[] blockDimensions,
+			long[] blockOffset,
+			long[] min,
+			long[] max,
+			RunConsumer consumer ) throws IOException
+	{
+		final int rank = min.length;
+		for ( int d = 0; d < rank; d++ )
+			if ( max[ d ] <= min[ d ] ) return;
+
+		final int last = rank - 1;
+		final int length = ( int ) ( max[ last ] - min[ last ] );
+		final long[] position = min.clone();
+
+		while ( true )
+		{
+			long sourceIndex = 0;
+			long targetIndex = 0;
+			for ( int d = 0; d < rank; d++ )
+			{
+				sourceIndex = sourceIndex * sourceDimensions[ d ] + position[ d ] - sourceOffset[ d ];
+				targetIndex = targetIndex * blockDimensions[ d ] + position[ d ] - blockOffset[ d ];
+			}
+
+			consumer.accept( sourceIndex, ( int ) targetIndex, length );
+
+			int d = last - 1;
+			for ( ; d >= 0; d-- )
+			{
+				if ( ++position[ d ] < max[ d ] ) break;
+				position[ d ] = min[ d ];
+			}
+
+			if ( d < 0 ) return;
+		}
+	}
+
+	/**
+	 * @param source
+	 * 				in the byte order of the data set
+	 * @param sourceIndex
+	 * 				in elements
+	 */
+	private static void copy( ByteBuffer source, int sourceIndex, Object target, int targetIndex, int length )
+	{
+		final ByteBuffer buffer = source.duplicate().order( source.order() );
+
+		if ( target instanceof byte[] )
+		{
+			buffer.position( sourceIndex );
+			buffer.get( ( byte[] ) target, targetIndex, length );
+		}
+		else if ( target instanceof short[] )
+		{
+			buffer.position( 2 * sourceIndex );
+			buffer.asShortBuffer().get( ( short[] ) target, targetIndex, length );
+		}
+		else if ( target instanceof int[] )
+		{
+			buffer.position( 4 * sourceIndex );
+			buffer.asIntBuffer().get( ( int[] ) target, targetIndex, length );
+		}
+		else
+		{
+			buffer.position( 4 * sourceIndex );
+			buffer.asFloatBuffer().get( ( float[] ) target, targetIndex, length );
+		}
+	}
+
+	private static void fill( Object target, int targetIndex, int length )
+	{
+		if ( target instanceof byte[] )
+			Arrays.fill( ( byte[] ) target, targetIndex, targetIndex + length, ( byte ) 0 );
+		else if ( target instanceof short[] )
+			Arrays.fill( ( short[] ) target, targetIndex, targetIndex + length, ( short ) 0 );
+		else if ( target instanceof int[] )
+			Arrays.fill( ( int[] ) target, targetIndex, targetIndex + length, 0 );
+		else
+			Arrays.fill( ( float[] ) target, targetIndex, targetIndex + length, 0 );
+	}
+
+	private static long getNumElements( int[] dimensions )
+	{
+		long numElements = 1;
+		for ( int dimension : dimensions )
+			numElements *= dimension;
+
+		return numElements;
+	}
+}
@@ -0,0 +1,49 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Dataspace message, versions 1 and 2.
+ */
+class DataSpace
+{
+	/**
+	 * @return the dimensions, empty for scalars, or null for a null dataspace
+	 */
+	static long[] readDimensions( ByteBuffer data, int sizeOfLengths )
+	{
+		final int version = data.get() & 0xFF;
+		final int rank = data.get() & 0xFF;
+		data.get(); // flags
+
+		if ( version == 1 )
+		{
+			data.position( data.position() + 5 );
+		}
+		else if ( version == 2 )
+		{
+			if ( data.get() == 2 ) return null;
+		}
+		else
+		{
+			throw new UnsupportedOperationException( "HDF5 dataspace message version " + version + " not supported" );
+		}
+
+		final long[] dimensions = new long[ rank ];
+		for ( int d = 0; d < rank; d++ )
+			dimensions[ d ] = Hdf5File.readUnsigned( data, sizeOfLengths, false );
+
+		return dimensions;
+	}
+
+	static long getNumElements( long[] dimensions )
+	{
+		if ( dimensions == null ) return 0;
+
+		long numElements = 1;
+		for ( long dimension : dimensions )
+			numElements *= dimension;
+
+		return numElements;
+	}
+}
@@ -0,0 +1,121 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Datatype message, for the classes that the plate viewer reads:
+ * integers, floats, strings, enumerations (such as booleans) and
+ * variable length strings.
+ */
+class DataType
+{
+	static final int FIXED_POINT = 0;
+	static final int FLOATING_POINT = 1;
+	static final int STRING = 3;
+	static final int ENUMERATION = 8;
+	static final int VARIABLE_LENGTH = 9;
+
+	final int typeClass;
+	final int size;
+	final ByteOrder byteOrder;
+	final boolean signed;
+	final boolean variableLengthString;
+
+	/**
+	 * Of enumerations and variable length types.
+	 */
+	final DataType baseType;
+
+	DataType( ByteBuffer data )
+	{
+		final int classAndVersion = data.get() & 0xFF;
+		final int bits0 = data.get() & 0xFF;
+		data.get();
+		data.get();
+
+		typeClass = classAndVersion & 0x0F;
+		size = data.getInt();
+		byteOrder = ( bits0 & 0x01 ) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		signed = typeClass == FIXED_POINT && ( bits0 & 0x08 ) != 0;
+		variableLengthString = typeClass == VARIABLE_LENGTH && ( bits0 & 0x0F ) == 1;
+
+		if ( typeClass == FIXED_POINT )
+		{
+			data.position( data.position() + 4 ); // bit offset and precision
+			baseType = null;
+		}
+		else if ( typeClass == FLOATING_POINT )
+		{
+			data.position( data.position() + 12 ); // bit positions, exponent bias
+			baseType = null;
+		}
+		else if ( typeClass == ENUMERATION || typeClass == VARIABLE_LENGTH )
+		{
+			// the names and values of enumerations are not needed
+			baseType = new DataType( data );
+		}
+		else
+		{
+			baseType = null;
+		}
+	}
+
+	boolean isInteger()
+	{
+		return typeClass == FIXED_POINT || ( typeClass == ENUMERATION && baseType.typeClass == FIXED_POINT );
+	}
+
+	/**
+	 * As the native HDF5 library names them, see {@link de.embl.cba.plateviewer.Utils#H5_SHORT}.
+	 */
+	String getName()
+	{
+		switch ( typeClass )
+		{
+			case FIXED_POINT: return "INTEGER(" + size + ")";
+			case FLOATING_POINT: return "FLOAT(" + size + ")";
+			case STRING: return "STRING(" + size + ")";
+			case ENUMERATION: return "ENUM(" + size + ")";
+			case VARIABLE_LENGTH: return variableLengthString ? "STRING(-1)" : "VARIABLE_LENGTH";
+			default: return "OTHER(" + size + ")";
+		}
+	}
+
+	long getLong( ByteBuffer data, int index )
+	{
+		if ( typeClass == ENUMERATION ) return baseType.getLong( data, index );
+
+		if ( typeClass != FIXED_POINT )
+			throw new UnsupportedOperationException( "Not an integer HDF5 type: " + getName() );
+
+		final ByteBuffer element = data.duplicate().order( byteOrder );
+		final int position = index * size;
+
+		switch ( size )
+		{
+			case 1: return signed ? element.get( position ) : element.get( position ) & 0xFFL;
+			case 2: return signed ? element.getShort( position ) : element.getShort( position ) & 0xFFFFL;
+			case 4: return signed ? element.getInt( position ) : element.getInt( position ) & 0xFFFFFFFFL;
+			case 8: return element.getLong( position );
+			default: throw new UnsupportedOperationException( "HDF5 integer size not supported: " + size );
+		}
+	}
+
+	double getDouble( ByteBuffer data, int index )
+	{
+		if ( isInteger() ) return getLong( data, index );
+
+		if ( typeClass != FLOATING_POINT )
+			throw new UnsupportedOperationException( "Not a numeric HDF5 type: " + getName() );
+
+		final ByteBuffer element = data.duplicate().order( byteOrder );
+
+		switch ( size )
+		{
+			case 4: return element.getFloat( index * size );
+			case 8: return element.getDouble( index * size );
+			default: throw new UnsupportedOperationException( "HDF5 float size not supported: " + size );
+		}
+	}
+}
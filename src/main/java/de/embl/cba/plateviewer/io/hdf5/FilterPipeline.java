@@ -0,0 +1,152 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Filter pipeline message, versions 1 and 2, which decodes chunks that
+ * were written with gzip (deflate), shuffle and fletcher32.
+ */
+class FilterPipeline
+{
+	static final int DEFLATE = 1;
+	static final int SHUFFLE = 2;
+	static final int FLETCHER32 = 3;
+
+	private final List< Filter > filters = new ArrayList<>();
+
+	private static class Filter
+	{
+		final int id;
+		final int[] values;
+
+		Filter( int id, int[] values )
+		{
+			this.id = id;
+			this.values = values;
+		}
+	}
+
+	FilterPipeline()
+	{
+	}
+
+	FilterPipeline( ByteBuffer data )
+	{
+		final int version = data.get() & 0xFF;
+		final int numFilters = data.get() & 0xFF;
+
+		if ( version == 1 )
+			data.position( data.position() + 6 );
+		else if ( version != 2 )
+			throw new UnsupportedOperationException( "HDF5 filter pipeline version " + version + " not supported" );
+
+		for ( int i = 0; i < numFilters; i++ )
+		{
+			final int id = data.getShort() & 0xFFFF;
+			final int nameLength = version == 1 || id >= 256 ? data.getShort() & 0xFFFF : 0;
+			data.getShort(); // flags
+			final int numValues = data.getShort() & 0xFFFF;
+
+			data.position( data.position() + ( version == 1 ? ( nameLength + 7 ) & ~7 : nameLength ) );
+
+			final int[] values = new int[ numValues ];
+			for ( int v = 0; v < numValues; v++ )
+				values[ v ] = data.getInt();
+
+			if ( version == 1 && numValues % 2 == 1 ) data.getInt();
+
+			if ( id != DEFLATE && id != SHUFFLE && id != FLETCHER32 )
+				throw new UnsupportedOperationException( "HDF5 filter " + id + " not supported" );
+
+			filters.add( new Filter( id, values ) );
+		}
+	}
+
+	boolean isEmpty()
+	{
+		return filters.isEmpty();
+	}
+
+	/**
+	 * @param filterMask
+	 * 				the filters that were skipped when the chunk was written
+	 * @param size
+	 * 				the size of the decoded chunk
+	 */
+	byte[] decode( byte[] bytes, int filterMask, int size ) throws IOException
+	{
+		for ( int i = filters.size() - 1; i >= 0; i-- )
+		{
+			if ( ( filterMask & ( 1 << i ) ) != 0 ) continue;
+
+			final Filter filter = filters.get( i );
+			switch ( filter.id )
+			{
+				case DEFLATE:
+					bytes = inflate( bytes, size );
+					break;
+				case SHUFFLE:
+					bytes = unshuffle( bytes, filter.values.length > 0 ? filter.values[ 0 ] : 1 );
+					break;
+				case FLETCHER32:
+					bytes = Arrays.copyOf( bytes, bytes.length - 4 );
+					break;
+			}
+		}
+
+		return bytes;
+	}
+
+	private static byte[] inflate( byte[] bytes, int size ) throws IOException
+	{
+		final Inflater inflater = new Inflater();
+
+		try
+		{
+			inflater.setInput( bytes );
+			final byte[] inflated = new byte[ size ];
+
+			int numBytes = 0;
+			while ( numBytes < size && ! inflater.finished() )
+			{
+				final int n = inflater.inflate( inflated, numBytes, size - numBytes );
+				if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) break;
+				numBytes += n;
+			}
+
+			return inflated;
+		}
+		catch ( DataFormatException e )
+		{
+			throw new IOException( "Corrupt deflate compressed HDF5 chunk", e );
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	private static byte[] unshuffle( byte[] bytes, int elementSize )
+	{
+		if ( elementSize <= 1 ) return bytes;
+
+		final byte[] unshuffled = new byte[ bytes.length ];
+		final int numElements = bytes.length / elementSize;
+
+		for ( int b = 0; b < elementSize; b++ )
+			for ( int i = 0; i < numElements; i++ )
+				unshuffled[ i * elementSize + b ] = bytes[ b * numElements + i ];
+
+		// trailing bytes are not shuffled
+		final int shuffled = numElements * elementSize;
+		System.arraycopy( bytes, shuffled, unshuffled, shuffled, bytes.length - shuffled );
+
+		return unshuffled;
+	}
+}
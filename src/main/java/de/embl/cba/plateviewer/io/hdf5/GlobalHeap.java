@@ -0,0 +1,42 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Global heap collections, which hold the variable length strings.
+ */
+class GlobalHeap
+{
+	static byte[] read( Hdf5File file, long collectionAddress, int objectIndex, int length ) throws IOException
+	{
+		final int headerSize = 8 + file.getSizeOfLengths();
+		final ByteBuffer header = file.read( collectionAddress, headerSize );
+		file.checkSignature( header, "GCOL", collectionAddress );
+		header.position( 8 );
+		final long collectionSize = file.readLength( header );
+
+		final ByteBuffer collection = file.read( collectionAddress, collectionSize );
+		collection.position( headerSize );
+
+		while ( collection.remaining() >= 8 + file.getSizeOfLengths() )
+		{
+			final int index = collection.getShort() & 0xFFFF;
+			collection.position( collection.position() + 6 ); // reference count, reserved
+			final long size = file.readLength( collection );
+
+			if ( index == 0 ) break; // free space
+
+			if ( index == objectIndex )
+			{
+				final byte[] bytes = new byte[ ( int ) Math.min( length, size ) ];
+				collection.get( bytes );
+				return bytes;
+			}
+
+			collection.position( collection.position() + ( int ) ( ( size + 7 ) & ~7 ) );
+		}
+
+		throw new IOException( "No object " + objectIndex + " in global heap at " + collectionAddress + " of " + file.getFile() );
+	}
+}
@@ -0,0 +1,278 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Positional reads of an HDF5 file and the sizes of its addresses and lengths,
+ * as given by the superblock.
+ *
+ * Positional reads do not share a file pointer, thus any number of threads
+ * read concurrently.
+ */
+class Hdf5File
+{
+	static final long UNDEFINED_ADDRESS = -1;
+
+	private static final byte[] SIGNATURE = { ( byte ) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n' };
+
+	private final File file;
+	private volatile FileChannel channel;
+	private volatile boolean closed;
+
+	private int sizeOfOffsets;
+	private int sizeOfLengths;
+	private long baseAddress;
+	private long rootObjectHeaderAddress;
+
+	Hdf5File( File file ) throws IOException
+	{
+		this.file = file;
+		this.channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+
+		try
+		{
+			readSuperblock();
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			close();
+			throw e;
+		}
+	}
+
+	File getFile()
+	{
+		return file;
+	}
+
+	int getSizeOfOffsets()
+	{
+		return sizeOfOffsets;
+	}
+
+	int getSizeOfLengths()
+	{
+		return sizeOfLengths;
+	}
+
+	long getRootObjectHeaderAddress()
+	{
+		return rootObjectHeaderAddress;
+	}
+
+	/**
+	 * @param address
+	 * 				relative to the base address of the file
+	 * @return the bytes, in little endian order
+	 */
+	ByteBuffer read( long address, long length ) throws IOException
+	{
+		if ( address == UNDEFINED_ADDRESS )
+			throw new IOException( "Undefined address in " + file );
+
+		if ( length < 0 || length > Integer.MAX_VALUE )
+			throw new IOException( "Invalid block length " + length + " in " + file );
+
+		final ByteBuffer buffer = ByteBuffer.allocate( ( int ) length ).order( ByteOrder.LITTLE_ENDIAN );
+		readFully( buffer, baseAddress + address );
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Maps the block into memory, read only. The mapping stays valid after
+	 * the file is closed and is released once it is not referenced anymore.
+	 *
+	 * @param address
+	 * 				relative to the base address of the file
+	 * @return the bytes, in little endian order
+	 */
+	ByteBuffer map( long address, long length ) throws IOException
+	{
+		if ( address == UNDEFINED_ADDRESS )
+			throw new IOException( "Undefined address in " + file );
+
+		// accessing a mapping beyond the end of the file, e.g. of a file that is still written, crashes
+		if ( baseAddress + address + length > channel.size() )
+			throw new IOException( "Block beyond the end of " + file );
+
+		try
+		{
+			return channel.map( FileChannel.MapMode.READ_ONLY, baseAddress + address, length ).order( ByteOrder.LITTLE_ENDIAN );
+		}
+		catch ( ClosedChannelException e )
+		{
+			if ( closed || Thread.currentThread().isInterrupted() ) throw e;
+
+			return reopen().map( FileChannel.MapMode.READ_ONLY, baseAddress + address, length ).order( ByteOrder.LITTLE_ENDIAN );
+		}
+	}
+
+	long readOffset( ByteBuffer buffer )
+	{
+		return readUnsigned( buffer, sizeOfOffsets, true );
+	}
+
+	long readLength( ByteBuffer buffer )
+	{
+		return readUnsigned( buffer, sizeOfLengths, false );
+	}
+
+	void checkSignature( ByteBuffer buffer, String signature, long address ) throws IOException
+	{
+		final byte[] bytes = new byte[ signature.length() ];
+		buffer.get( bytes );
+
+		if ( ! signature.equals( new String( bytes, StandardCharsets.US_ASCII ) ) )
+			throw new IOException( "Expected " + signature + " at address " + address + " of " + file );
+	}
+
+	void close()
+	{
+		closed = true;
+
+		try
+		{
+			channel.close();
+		}
+		catch ( IOException e )
+		{
+			// nothing to release anymore
+		}
+	}
+
+	/**
+	 * @return the value of the little endian, unsigned integer of the given size in bytes,
+	 * or {@link #UNDEFINED_ADDRESS} if it is an address with all bits set
+	 */
+	static long readUnsigned( ByteBuffer buffer, int size, boolean isAddress )
+	{
+		long value = 0;
+		boolean allBitsSet = true;
+
+		for ( int i = 0; i < size; i++ )
+		{
+			final int b = buffer.get() & 0xFF;
+			if ( b != 0xFF ) allBitsSet = false;
+			if ( i < 8 ) value |= ( long ) b << ( 8 * i );
+		}
+
+		return isAddress && allBitsSet ? UNDEFINED_ADDRESS : value;
+	}
+
+	private void readSuperblock() throws IOException
+	{
+		final long superblockAddress = findSuperblock();
+		final ByteBuffer buffer = readAbsolute( superblockAddress, ( int ) Math.min( 96, channel.size() - superblockAddress ) );
+		buffer.position( SIGNATURE.length );
+
+		final int version = buffer.get() & 0xFF;
+
+		if ( version <= 1 )
+		{
+			buffer.position( 13 );
+			sizeOfOffsets = buffer.get() & 0xFF;
+			sizeOfLengths = buffer.get() & 0xFF;
+
+			// behind the group and, for version 1, indexed storage B-tree K values
+			buffer.position( version == 0 ? 24 : 28 );
+			baseAddress = readOffset( buffer );
+			readOffset( buffer ); // free-space info
+			readOffset( buffer ); // end of file
+			readOffset( buffer ); // driver info
+
+			// root group symbol table entry
+			readOffset( buffer ); // link name offset
+			rootObjectHeaderAddress = readOffset( buffer );
+		}
+		else if ( version <= 3 )
+		{
+			sizeOfOffsets = buffer.get() & 0xFF;
+			sizeOfLengths = buffer.get() & 0xFF;
+			buffer.get(); // file consistency flags
+
+			baseAddress = readOffset( buffer );
+			readOffset( buffer ); // superblock extension
+			readOffset( buffer ); // end of file
+			rootObjectHeaderAddress = readOffset( buffer );
+		}
+		else
+		{
+			throw new UnsupportedOperationException( "HDF5 superblock version " + version + " not supported: " + file );
+		}
+
+		if ( baseAddress == UNDEFINED_ADDRESS ) baseAddress = 0;
+	}
+
+	/**
+	 * The superblock is at the beginning of the file or at 512, 1024, 2048, ... bytes.
+	 */
+	private long findSuperblock() throws IOException
+	{
+		final long size = channel.size();
+
+		for ( long address = 0; address + SIGNATURE.length <= size; address = address == 0 ? 512 : 2 * address )
+		{
+			final ByteBuffer buffer = readAbsolute( address, SIGNATURE.length );
+			boolean matches = true;
+			for ( byte b : SIGNATURE )
+				matches &= buffer.get() == b;
+
+			if ( matches ) return address;
+		}
+
+		throw new IOException( "Not an HDF5 file: " + file );
+	}
+
+	private ByteBuffer readAbsolute( long position, int length ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+		readFully( buffer, position );
+		buffer.flip();
+		return buffer;
+	}
+
+	private void readFully( ByteBuffer buffer, long position ) throws IOException
+	{
+		final int start = buffer.position();
+
+		try
+		{
+			readFully( channel, buffer, position );
+		}
+		catch ( ClosedChannelException e )
+		{
+			// an interrupted reader closes the channel for all others
+			if ( closed || Thread.currentThread().isInterrupted() ) throw e;
+
+			buffer.position( start );
+			readFully( reopen(), buffer, position );
+		}
+	}
+
+	private static void readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+		{
+			final int numBytes = channel.read( buffer, position );
+			if ( numBytes < 0 ) throw new EOFException( "Read beyond the end of the file at " + position );
+			position += numBytes;
+		}
+	}
+
+	private synchronized FileChannel reopen() throws IOException
+	{
+		if ( ! channel.isOpen() )
+			channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+
+		return channel;
+	}
+}
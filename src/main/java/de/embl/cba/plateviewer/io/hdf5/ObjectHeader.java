@@ -0,0 +1,186 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The header messages of a group or data set, from all header chunks,
+ * for object header versions 1 and 2.
+ */
+class ObjectHeader
+{
+	static final int DATASPACE = 0x0001;
+	static final int LINK_INFO = 0x0002;
+	static final int DATATYPE = 0x0003;
+	static final int LINK = 0x0006;
+	static final int LAYOUT = 0x0008;
+	static final int FILTER_PIPELINE = 0x000B;
+	static final int ATTRIBUTE = 0x000C;
+	static final int CONTINUATION = 0x0010;
+	static final int SYMBOL_TABLE = 0x0011;
+	static final int ATTRIBUTE_INFO = 0x0015;
+
+	private static final int SHARED = 0x02;
+
+	private final List< Message > messages = new ArrayList<>();
+
+	static class Message
+	{
+		final int type;
+		final int flags;
+		final ByteBuffer data;
+
+		Message( int type, int flags, ByteBuffer data )
+		{
+			this.type = type;
+			this.flags = flags;
+			this.data = data;
+		}
+
+		/**
+		 * @return the data, positioned at its beginning, independent of other readers
+		 */
+		ByteBuffer getData()
+		{
+			if ( ( flags & SHARED ) != 0 )
+				throw new UnsupportedOperationException( "Shared HDF5 header messages are not supported" );
+
+			return data.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+		}
+	}
+
+	ObjectHeader( Hdf5File file, long address ) throws IOException
+	{
+		final ByteBuffer start = file.read( address, 6 );
+
+		if ( start.get( 0 ) == 'O' && start.get( 1 ) == 'H' && start.get( 2 ) == 'D' && start.get( 3 ) == 'R' )
+			readVersion2( file, address, start );
+		else if ( start.get( 0 ) == 1 )
+			readVersion1( file, address );
+		else
+			throw new UnsupportedOperationException( "HDF5 object header version " + start.get( 0 ) + " not supported: " + file.getFile() );
+	}
+
+	List< Message > getMessages()
+	{
+		return messages;
+	}
+
+	List< Message > getMessages( int type )
+	{
+		final List< Message > messagesOfType = new ArrayList<>();
+		for ( Message message : messages )
+			if ( message.type == type )
+				messagesOfType.add( message );
+
+		return messagesOfType;
+	}
+
+	/**
+	 * @return the first message of the type, or null
+	 */
+	Message getMessage( int type )
+	{
+		for ( Message message : messages )
+			if ( message.type == type )
+				return message;
+
+		return null;
+	}
+
+	private void readVersion1( Hdf5File file, long address ) throws IOException
+	{
+		// version, reserved, number of messages, reference count, header size
+		final ByteBuffer prefix = file.read( address, 12 );
+		prefix.position( 8 );
+		final long headerSize = prefix.getInt() & 0xFFFFFFFFL;
+
+		// the messages are aligned to 8 bytes, behind the 12 byte prefix
+		final List< long[] > blocks = new ArrayList<>();
+		blocks.add( new long[]{ address + 16, headerSize } );
+
+		for ( int i = 0; i < blocks.size(); i++ )
+		{
+			final ByteBuffer block = file.read( blocks.get( i )[ 0 ], blocks.get( i )[ 1 ] );
+
+			while ( block.remaining() >= 8 )
+			{
+				final int type = block.getShort() & 0xFFFF;
+				final int size = block.getShort() & 0xFFFF;
+				final int flags = block.get() & 0xFF;
+				block.position( block.position() + 3 );
+
+				if ( size > block.remaining() ) break;
+
+				add( file, type, flags, slice( block, size ), blocks );
+			}
+		}
+	}
+
+	private void readVersion2( Hdf5File file, long address, ByteBuffer start ) throws IOException
+	{
+		final int flags = start.get( 5 ) & 0xFF;
+
+		int prefixSize = 6;
+		if ( ( flags & 0x20 ) != 0 ) prefixSize += 16; // times
+		if ( ( flags & 0x10 ) != 0 ) prefixSize += 4; // attribute phase change values
+		final int chunkSizeSize = 1 << ( flags & 0x03 );
+
+		final ByteBuffer prefix = file.read( address, prefixSize + chunkSizeSize );
+		prefix.position( prefixSize );
+		final long chunkSize = Hdf5File.readUnsigned( prefix, chunkSizeSize, false );
+
+		final boolean hasCreationOrder = ( flags & 0x04 ) != 0;
+
+		final List< long[] > blocks = new ArrayList<>();
+		blocks.add( new long[]{ address + prefixSize + chunkSizeSize, chunkSize } );
+
+		for ( int i = 0; i < blocks.size(); i++ )
+		{
+			ByteBuffer block;
+			if ( i == 0 )
+			{
+				block = file.read( blocks.get( i )[ 0 ], blocks.get( i )[ 1 ] );
+			}
+			else
+			{
+				// signature and checksum
+				block = file.read( blocks.get( i )[ 0 ], blocks.get( i )[ 1 ] - 4 );
+				file.checkSignature( block, "OCHK", blocks.get( i )[ 0 ] );
+			}
+
+			final int messageHeaderSize = hasCreationOrder ? 6 : 4;
+
+			while ( block.remaining() >= messageHeaderSize )
+			{
+				final int type = block.get() & 0xFF;
+				final int size = block.getShort() & 0xFFFF;
+				final int messageFlags = block.get() & 0xFF;
+				if ( hasCreationOrder ) block.getShort();
+
+				if ( size > block.remaining() ) break;
+
+				add( file, type, messageFlags, slice( block, size ), blocks );
+			}
+		}
+	}
+
+	private void add( Hdf5File file, int type, int flags, ByteBuffer data, List< long[] > blocks )
+	{
+		if ( type == CONTINUATION )
+			blocks.add( new long[]{ file.readOffset( data ), file.readLength( data ) } );
+		else if ( type != 0 )
+			messages.add( new Message( type, flags, data ) );
+	}
+
+	static ByteBuffer slice( ByteBuffer buffer, int size )
+	{
+		final ByteBuffer slice = buffer.slice().order( ByteOrder.LITTLE_ENDIAN );
+		slice.limit( size );
+		buffer.position( buffer.position() + size );
+		return slice;
+	}
+}
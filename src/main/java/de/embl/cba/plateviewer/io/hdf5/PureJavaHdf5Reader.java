@@ -0,0 +1,391 @@
+package de.embl.cba.plateviewer.io.hdf5;
+
+import de.embl.cba.plateviewer.io.Hdf5DataSetInfo;
+import de.embl.cba.plateviewer.io.Hdf5Reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads HDF5 files without the native HDF5 library, which serialises all
+ * calls of the process. The file is read with positional reads, and
+ * chunks are decoded by the calling thread, thus different sites, and even
+ * different blocks of the same site, are read in parallel.
+ *
+ * Supports the subset of HDF5 that the plate viewer reads: groups with
+ * symbol tables or compact links, compact, contiguous and chunked data
+ * sets, gzip and shuffle filters, and scalar and array attributes of
+ * integers, floats, booleans and strings.
+ * Other features, such as densely stored links or attributes, throw an
+ * {@link UnsupportedOperationException}.
+ *
+ * Parsed headers, chunk indices and partly read chunks are kept until the
+ * reader is closed.
+ */
+public class PureJavaHdf5Reader implements Hdf5Reader
+{
+	private final Hdf5File file;
+	private final Map< String, Long > pathToAddress;
+	private final Map< Long, ObjectHeader > addressToHeader;
+	private final Map< Long, DataSet > addressToDataSet;
+
+	public PureJavaHdf5Reader( File file )
+	{
+		try
+		{
+			this.file = new Hdf5File( file );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+
+		this.pathToAddress = new ConcurrentHashMap<>();
+		this.addressToHeader = new ConcurrentHashMap<>();
+		this.addressToDataSet = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public List< String > getGroupMembers( String groupPath )
+	{
+		try
+		{
+			final List< String > members = new ArrayList<>( getLinks( getHeader( groupPath ) ).keySet() );
+			Collections.sort( members );
+			return members;
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public boolean hasAttribute( String objectPath, String attributeName )
+	{
+		try
+		{
+			return findAttribute( getHeader( objectPath ), attributeName ) != null;
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public String getStringAttribute( String objectPath, String attributeName )
+	{
+		try
+		{
+			return getAttribute( objectPath, attributeName ).getString( file );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public boolean getBooleanAttribute( String objectPath, String attributeName )
+	{
+		final long[] values = getAttribute( objectPath, attributeName ).getLongs();
+		return values.length > 0 && values[ 0 ] != 0;
+	}
+
+	@Override
+	public int[] getIntArrayAttribute( String objectPath, String attributeName )
+	{
+		final long[] values = getAttribute( objectPath, attributeName ).getLongs();
+
+		final int[] ints = new int[ values.length ];
+		for ( int i = 0; i < values.length; i++ )
+			ints[ i ] = ( int ) values[ i ];
+
+		return ints;
+	}
+
+	@Override
+	public double[] getDoubleArrayAttribute( String objectPath, String attributeName )
+	{
+		return getAttribute( objectPath, attributeName ).getDoubles();
+	}
+
+	@Override
+	public Hdf5DataSetInfo getDataSetInfo( String dataSetPath )
+	{
+		final DataSet dataSet = getDataSet( dataSetPath );
+		return new Hdf5DataSetInfo( dataSet.dimensions.clone(), dataSet.dataType.getName(), dataSet.dataType.signed );
+	}
+
+	@Override
+	public void readBlock( String dataSetPath, Object array, int[] blockDimensions, long[] offset )
+	{
+		try
+		{
+			getDataSet( dataSetPath ).readBlock( array, blockDimensions, offset );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * @return whether the data of the data set is stored uncompressed, in one block,
+	 * such that it is read without decoding
+	 */
+	public boolean isContiguous( String dataSetPath )
+	{
+		return getDataSet( dataSetPath ).isContiguous();
+	}
+
+	@Override
+	public void close()
+	{
+		ChunkCache.removeAll( file );
+		file.close();
+	}
+
+	private DataSet getDataSet( String dataSetPath )
+	{
+		try
+		{
+			final long address = getAddress( dataSetPath );
+			final ObjectHeader header = getHeader( address );
+			return addressToDataSet.computeIfAbsent( address, a -> new DataSet( file, header ) );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private Attribute getAttribute( String objectPath, String attributeName )
+	{
+		final Attribute attribute;
+
+		try
+		{
+			attribute = findAttribute( getHeader( objectPath ), attributeName );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+
+		if ( attribute == null )
+			throw new IllegalArgumentException( "No attribute " + attributeName + " at " + objectPath + " in " + file.getFile() );
+
+		return attribute;
+	}
+
+	private Attribute findAttribute( ObjectHeader header, String attributeName )
+	{
+		for ( ObjectHeader.Message message : header.getMessages( ObjectHeader.ATTRIBUTE ) )
+		{
+			final Attribute attribute = new Attribute( message.getData(), file.getSizeOfLengths() );
+			if ( attribute.name.equals( attributeName ) )
+				return attribute;
+		}
+
+		final ObjectHeader.Message attributeInfo = header.getMessage( ObjectHeader.ATTRIBUTE_INFO );
+		if ( attributeInfo != null && hasDenseStorage( attributeInfo.getData() ) )
+			throw new UnsupportedOperationException( "Densely stored HDF5 attributes are not supported: " + file.getFile() );
+
+		return null;
+	}
+
+	/**
+	 * Attribute info message: version, flags, [maximum creation index],
+	 * fractal heap address, ...
+	 */
+	private boolean hasDenseStorage( ByteBuffer data )
+	{
+		data.get(); // version
+		final int flags = data.get() & 0xFF;
+		if ( ( flags & 0x01 ) != 0 ) data.getShort();
+		return file.readOffset( data ) != Hdf5File.UNDEFINED_ADDRESS;
+	}
+
+	private ObjectHeader getHeader( String path ) throws IOException
+	{
+		return getHeader( getAddress( path ) );
+	}
+
+	private ObjectHeader getHeader( long address ) throws IOException
+	{
+		ObjectHeader header = addressToHeader.get( address );
+
+		if ( header == null )
+		{
+			header = new ObjectHeader( file, address );
+			addressToHeader.put( address, header );
+		}
+
+		return header;
+	}
+
+	private long getAddress( String path ) throws IOException
+	{
+		final String normalisedPath = normalise( path );
+		final Long cached = pathToAddress.get( normalisedPath );
+		if ( cached != null ) return cached;
+
+		long address = file.getRootObjectHeaderAddress();
+
+		for ( String name : normalisedPath.split( "/" ) )
+		{
+			if ( name.isEmpty() ) continue;
+
+			final Long child = getLinks( getHeader( address ) ).get( name );
+			if ( child == null )
+				throw new IllegalArgumentException( "No object " + path + " in " + file.getFile() );
+
+			address = child;
+		}
+
+		pathToAddress.put( normalisedPath, address );
+		return address;
+	}
+
+	private static String normalise( String path )
+	{
+		String normalised = path.replaceAll( "/+", "/" );
+		if ( normalised.startsWith( "/" ) ) normalised = normalised.substring( 1 );
+		if ( normalised.endsWith( "/" ) ) normalised = normalised.substring( 0, normalised.length() - 1 );
+		return normalised;
+	}
+
+	/**
+	 * @return the names of the hard links of the group and the addresses of their object headers
+	 */
+	private Map< String, Long > getLinks( ObjectHeader group ) throws IOException
+	{
+		final Map< String, Long > links = new LinkedHashMap<>();
+
+		final ObjectHeader.Message symbolTable = group.getMessage( ObjectHeader.SYMBOL_TABLE );
+		if ( symbolTable != null )
+		{
+			final ByteBuffer data = symbolTable.getData();
+			final long bTreeAddress = file.readOffset( data );
+			final long heapAddress = file.readOffset( data );
+			readGroupBTree( bTreeAddress, readLocalHeap( heapAddress ), links );
+			return links;
+		}
+
+		for ( ObjectHeader.Message link : group.getMessages( ObjectHeader.LINK ) )
+			readLink( link.getData(), links );
+
+		final ObjectHeader.Message linkInfo = group.getMessage( ObjectHeader.LINK_INFO );
+		if ( linkInfo != null && hasDenseStorage( linkInfo.getData() ) )
+			throw new UnsupportedOperationException( "Densely stored HDF5 links are not supported: " + file.getFile() );
+
+		return links;
+	}
+
+	/**
+	 * Version 1 B-tree of type 0, whose leaves point to symbol table nodes.
+	 */
+	private void readGroupBTree( long nodeAddress, ByteBuffer heap, Map< String, Long > links ) throws IOException
+	{
+		final int sizeOfOffsets = file.getSizeOfOffsets();
+		final int sizeOfLengths = file.getSizeOfLengths();
+
+		final ByteBuffer header = file.read( nodeAddress, 8 );
+		file.checkSignature( header, "TREE", nodeAddress );
+		header.get(); // node type
+		final int level = header.get() & 0xFF;
+		final int numEntries = header.getShort() & 0xFFFF;
+
+		final ByteBuffer node = file.read( nodeAddress + 8 + 2 * sizeOfOffsets, ( long ) numEntries * ( sizeOfLengths + sizeOfOffsets ) + sizeOfLengths );
+
+		for ( int i = 0; i < numEntries; i++ )
+		{
+			file.readLength( node ); // key
+			final long childAddress = file.readOffset( node );
+
+			if ( level == 0 )
+				readSymbolTableNode( childAddress, heap, links );
+			else
+				readGroupBTree( childAddress, heap, links );
+		}
+	}
+
+	private void readSymbolTableNode( long address, ByteBuffer heap, Map< String, Long > links ) throws IOException
+	{
+		final ByteBuffer header = file.read( address, 8 );
+		file.checkSignature( header, "SNOD", address );
+		header.position( 6 );
+		final int numSymbols = header.getShort() & 0xFFFF;
+
+		final int entrySize = 2 * file.getSizeOfOffsets() + 24;
+		final ByteBuffer entries = file.read( address + 8, ( long ) numSymbols * entrySize );
+
+		for ( int i = 0; i < numSymbols; i++ )
+		{
+			final int start = entries.position();
+			final long nameOffset = file.readOffset( entries );
+			final long objectHeaderAddress = file.readOffset( entries );
+			entries.position( start + entrySize );
+
+			links.put( readString( heap, ( int ) nameOffset ), objectHeaderAddress );
+		}
+	}
+
+	/**
+	 * @return the data segment of the local heap
+	 */
+	private ByteBuffer readLocalHeap( long address ) throws IOException
+	{
+		final ByteBuffer header = file.read( address, 8 + 2 * file.getSizeOfLengths() + file.getSizeOfOffsets() );
+		file.checkSignature( header, "HEAP", address );
+		header.position( 8 );
+		final long dataSize = file.readLength( header );
+		file.readLength( header ); // free list
+		final long dataAddress = file.readOffset( header );
+
+		return file.read( dataAddress, dataSize );
+	}
+
+	/**
+	 * Link message of a compact group; soft and external links are skipped.
+	 */
+	private void readLink( ByteBuffer data, Map< String, Long > links )
+	{
+		data.get(); // version
+		final int flags = data.get() & 0xFF;
+		final int linkType = ( flags & 0x08 ) != 0 ? data.get() & 0xFF : 0;
+		if ( ( flags & 0x04 ) != 0 ) data.getLong(); // creation order
+		if ( ( flags & 0x10 ) != 0 ) data.get(); // character set
+
+		final int nameLength = ( int ) Hdf5File.readUnsigned( data, 1 << ( flags & 0x03 ), false );
+		final byte[] name = new byte[ nameLength ];
+		data.get( name );
+
+		if ( linkType == 0 )
+			links.put( new String( name, StandardCharsets.UTF_8 ), file.readOffset( data ) );
+	}
+
+	private static String readString( ByteBuffer buffer, int position )
+	{
+		int end = position;
+		while ( end < buffer.limit() && buffer.get( end ) != 0 )
+			end++;
+
+		final byte[] bytes = new byte[ end - position ];
+		for ( int i = 0; i < bytes.length; i++ )
+			bytes[ i ] = buffer.get( position + i );
+
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+}
@@ -30,6 +30,8 @@ import org.scijava.ui.behaviour.util.Behaviours;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.BiConsumer;
@@ -46,6 +48,7 @@ public class TableRowsScatterPlotView< T extends TableRow >
 	private ArrayList< Integer > indices;
 	private double viewerPointSize;
 	private Source< VolatileARGBType > argbSource;
+	private ListItemsARGBConverter< T > converter;
 	private NearestNeighborSearchOnKDTree< Integer > search;
 	private final String plateName;
 	private String columnNameX;
@@ -372,6 +375,17 @@ public class TableRowsScatterPlotView< T extends TableRow >
 
 		bdvHandle = scatterPlotBdvSource.getBdvHandle();
 
+		// also when the plot is closed to be shown with other columns
+		final ListItemsARGBConverter< T > shownConverter = converter;
+		BdvUtils.getViewerFrame( bdvHandle ).addWindowListener( new WindowAdapter()
+		{
+			@Override
+			public void windowClosed( WindowEvent e )
+			{
+				shownConverter.dispose();
+			}
+		} );
+
 		scatterPlotBdvSource.setDisplayRange( 0, 255);
 	}
 
@@ -398,8 +412,7 @@ public class TableRowsScatterPlotView< T extends TableRow >
 
 		//scatterSource.getInterpolatedSource(  )
 
-		final ListItemsARGBConverter< T > converter =
-				new ListItemsARGBConverter( tableRows, coloringModel );
+		converter = new ListItemsARGBConverter( tableRows, coloringModel );
 
 		converter.getIndexToColor().put( -1, ColorUtils.getARGBType( Color.GRAY ).get() );
 
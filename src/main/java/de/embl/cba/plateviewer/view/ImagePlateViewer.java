@@ -1,26 +1,39 @@
 package de.embl.cba.plateviewer.view;
 
 import bdv.util.*;
-import bdv.util.volatiles.SharedQueue;
 import bdv.util.volatiles.VolatileViews;
 import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.state.SourceState;
+import bdv.viewer.state.ViewerState;
 import de.embl.cba.bdv.utils.BdvUtils;
 import de.embl.cba.bdv.utils.converters.RandomARGBConverter;
 import de.embl.cba.bdv.utils.measure.PixelValueStatistics;
 import de.embl.cba.bdv.utils.sources.ARGBConvertedRealSource;
 import de.embl.cba.bdv.utils.sources.Metadata;
 import de.embl.cba.plateviewer.bdv.SimpleScreenShotMaker;
+import de.embl.cba.plateviewer.bdv.SitePrefetcher;
 import de.embl.cba.plateviewer.channel.ChannelProperties;
-import de.embl.cba.plateviewer.channel.Channels;
+import de.embl.cba.plateviewer.channel.StreamedChannels;
 import de.embl.cba.plateviewer.github.IssueRaiser;
 import de.embl.cba.plateviewer.github.PlateLocation;
 import de.embl.cba.plateviewer.image.channel.BdvViewable;
+import de.embl.cba.plateviewer.image.channel.MultiWellBatchLibHdf5Img;
 import de.embl.cba.plateviewer.image.channel.MultiWellImgCreator;
+import de.embl.cba.plateviewer.image.cellloader.Hdf5ChannelGroup;
 import de.embl.cba.plateviewer.image.plate.SiteQCOverlay;
 import de.embl.cba.plateviewer.image.plate.WellAndSiteOutlinesSource;
 import de.embl.cba.plateviewer.image.plate.OverlayBdvViewable;
 import de.embl.cba.plateviewer.image.plate.WellNamesOverlay;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.image.cache.LoadingPriorities;
+import de.embl.cba.plateviewer.image.cache.LoadingQueue;
+import de.embl.cba.plateviewer.image.table.SitesImage;
+import de.embl.cba.plateviewer.io.DownsampledCellDiskCache;
 import de.embl.cba.plateviewer.io.FileUtils;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
+import de.embl.cba.plateviewer.io.PlateManifest;
+import de.embl.cba.plateviewer.PlateViewerSettings;
 import de.embl.cba.plateviewer.Utils;
 import de.embl.cba.plateviewer.bdv.BdvSiteAndWellInformationOverlay;
 import de.embl.cba.plateviewer.bdv.BehaviourTransformEventHandlerPlanar;
@@ -51,28 +64,39 @@ import net.imglib2.type.NativeType;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.volatiles.VolatileARGBType;
+import net.imglib2.ui.TransformListener;
 import net.imglib2.util.Intervals;
 import org.scijava.ui.behaviour.ClickBehaviour;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
 import org.scijava.ui.behaviour.util.Behaviours;
 
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.*;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T extends SiteName >
 {
-	private final SharedQueue loadingQueue;
+	private final LoadingQueue loadingQueue;
+	private final CellCacheBudget cellCacheBudget;
+	private final Hdf5ChannelGroup hdf5ChannelGroup;
+	private final DownsampledCellDiskCache diskCache;
+	private final File manifestFile;
+	private PlateManifest manifest;
 
 	private BdvHandle bdvHandle;
 	private PlateViewerMainPanel mainPanel;
 	private List< T > siteNames;
+	private HashMap< String, T > siteNameToSelectable;
 	private SelectionModel< T > selectionModel;
 	private final String fileNamingScheme;
 	private Interval plateInterval;
 	private HashMap< String, Interval > wellNameToInterval;
 	private HashMap< String, Interval > siteNameToInterval;
-	private HashMap< Interval, String > intervalToSiteName;
+	private IntervalIndex wellIntervalIndex;
+	private IntervalIndex siteIntervalIndex;
 	private String[][] siteNameMatrix;
 
 	private long[] siteDimensions;
@@ -85,6 +109,12 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 	private MultiWellImg referenceWellImg;
 	private Map< String, ChannelProperties > channelNamesToProperties;
 	private HashMap< String, Boolean > siteNameToQC;
+	private final PlateViewerSettings settings;
+	private SitePrefetcher prefetcher;
+	private TransformListener< AffineTransform3D > frameStarter;
+	private BdvSiteAndWellInformationOverlay siteAndWellInformationOverlay;
+	private final List< SitesImage > sitesImages = new ArrayList<>();
+	private boolean closed;
 
 	public ImagePlateViewer( String inputDirectory, String filterPattern, int numIoThreads )
 	{
@@ -93,22 +123,66 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 
 	public ImagePlateViewer( String inputDirectory, String filterPattern, int numIoThreads, boolean includeSubFolders )
 	{
+		this( inputDirectory, filterPattern, new PlateViewerSettings( numIoThreads, includeSubFolders ) );
+	}
+
+	public ImagePlateViewer( String inputDirectory, String filterPattern, PlateViewerSettings settings )
+	{
+		this.settings = settings;
 		this.plateName = new File( inputDirectory ).getName();
 		//this.multiWellImgs = new ArrayList<>();
 		channelToMultiWellImg = new HashMap<>();
 
-		this.loadingQueue = new SharedQueue( numIoThreads );
+		// one queue for all loads of the plate, see LoadingPriorities
+		this.loadingQueue = LoadingPriorities.createQueue( settings.numIoThreads );
+
+		// one budget for all channels and filter images of the plate
+		this.cellCacheBudget = CellCacheBudget.create( settings.cellCacheMaxMemoryFraction, settings.offHeapCellStorage, settings.maxCellSize );
+
+
+		final File plateDirectory = new File( inputDirectory );
+
+		this.diskCache = createDiskCache( plateDirectory, settings );
 
-		fileList = getFiles( inputDirectory, filterPattern, includeSubFolders );
+		this.manifestFile = settings.usePlateManifest ? new File( PlateViewerSettings.getUserCacheDirectory( plateDirectory ), PlateManifest.FILE_NAME ) : null;
 
-		fileNamingScheme = getImageNamingScheme( fileList );
+		if ( manifestFile != null )
+			manifest = readManifest( manifestFile, plateDirectory, filterPattern, settings.includeSubFolders );
 
-		channelNamesToProperties = Channels.getChannels( fileList, fileNamingScheme );
+		if ( manifest != null )
+		{
+			fileList = manifest.getFiles();
+
+			fileNamingScheme = manifest.namingScheme;
+
+			channelNamesToProperties = manifest.getChannelProperties();
+		}
+		else
+		{
+			final List< File > directories = Collections.synchronizedList( new ArrayList<>() );
+
+			final StreamedChannels streamedChannels = new StreamedChannels();
+
+			fileList = getFiles( inputDirectory, filterPattern, settings.includeSubFolders, streamedChannels, directories );
+
+			fileNamingScheme = getImageNamingScheme( fileList );
+
+			channelNamesToProperties = streamedChannels.getChannels( fileList, fileNamingScheme );
+
+			if ( manifestFile != null )
+				manifest = PlateManifest.create( plateDirectory, filterPattern, settings.includeSubFolders, fileList, directories, fileNamingScheme, channelNamesToProperties );
+		}
+
+		// all channels are in the same files
+		hdf5ChannelGroup = fileNamingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5 ) ?
+				new Hdf5ChannelGroup( new Hdf5ReaderPool( Hdf5ReaderPool.DEFAULT_MAX_OPEN_READERS, settings.pureJavaHdf5 ) ) : null;
 
 		logChannelNames();
 
 		fetchReferenceWellImg( );
 
+		saveManifest();
+
 		initMainPanel();
 
 		mainPanel.show( null );
@@ -128,6 +202,44 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		installBdvBehaviours();
 	}
 
+	private static DownsampledCellDiskCache createDiskCache( File plateDirectory, PlateViewerSettings settings )
+	{
+		final File directory = settings.getDiskCacheDirectory( plateDirectory );
+		if ( directory == null ) return null;
+
+		// create it before the plate is walked: creating it next to the plate
+		// afterwards would modify the plate directory, and outdate its manifest
+		directory.mkdirs();
+
+		Logger.info( "Caching the lower resolution levels in: " + directory );
+		return new DownsampledCellDiskCache( directory, settings.diskCacheMinResolutionLevel );
+	}
+
+	private static PlateManifest readManifest( File manifestFile, File plateDirectory, String filePattern, boolean includeSubFolders )
+	{
+		final PlateManifest manifest = PlateManifest.read( manifestFile );
+
+		if ( manifest == null || ! manifest.isFresh( plateDirectory, filePattern, includeSubFolders ) )
+			return null;
+
+		Utils.log( "Plate directory: " + plateDirectory );
+		Utils.log( "Opening plate from manifest: " + manifestFile );
+		Utils.log( "Number of files: " + manifest.files.size() );
+
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest in the background, if channels were added to it.
+	 */
+	private void saveManifest()
+	{
+		if ( manifest == null || ! manifest.isModified() ) return;
+
+		final PlateManifest manifest = this.manifest;
+		new Thread( () -> manifest.write( manifestFile ) ).start();
+	}
+
 	private void mapSiteNamesToQC( )
 	{
 		siteNameToQC = new HashMap< String, Boolean >();
@@ -218,6 +330,11 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 			logPixelValues( plateLocation );
 		} );
 
+		popupMenu.addPopupAction( "Log memory usage", e -> {
+			Utils.log( cellCacheBudget.getUsage() );
+			Utils.log( "Cancelled loads, as the view had moved on: " + loadingQueue.getNumCancelledLoads() );
+		} );
+
 		popupMenu.addPopupAction( "Measure pixel values statistics...", e -> {
 			// TODO out everything below in own class (in bdv-utils repo) and improve UI
 			final GenericDialog gd = new GenericDialog( "Radius" );
@@ -294,11 +411,11 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 
 		// Add overlay showing the site and well information in the bottom
 		//
-		BdvOverlay bdvOverlay = new BdvSiteAndWellInformationOverlay(
+		siteAndWellInformationOverlay = new BdvSiteAndWellInformationOverlay(
 				bdvHandle,
 				multiWellImg.getLoader() );
 		BdvFunctions.showOverlay(
-				bdvOverlay,
+				siteAndWellInformationOverlay,
 				"site and plate information",
 				BdvOptions.options().addTo( bdvHandle ) );
 	}
@@ -311,10 +428,21 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 	}
 
 	public static List< File > getFiles( String inputDirectory, String filePattern, boolean includeSubFolders )
+	{
+		return getFiles( inputDirectory, filePattern, includeSubFolders, file -> {}, new ArrayList<>() );
+	}
+
+	/**
+	 * @param fileConsumer
+	 * 				receives each file as soon as it is found, from multiple threads
+	 * @param directories
+	 * 				receives all directories that were listed, must be thread safe
+	 */
+	public static List< File > getFiles( String inputDirectory, String filePattern, boolean includeSubFolders, Consumer< File > fileConsumer, List< File > directories )
 	{
 		Utils.log( "Plate directory: " + inputDirectory );
 		Utils.log( "Fetching files..." );
-		final List< File > fileList = FileUtils.getFileList( new File( inputDirectory ), filePattern, includeSubFolders );
+		final List< File > fileList = FileUtils.getFileList( new File( inputDirectory ), filePattern, includeSubFolders, fileConsumer, directories::add );
 		Utils.log( "Number of files: " + fileList.size() );
 
 		if ( fileList.size() == 0 )
@@ -332,7 +460,7 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		{
 			if ( properties.isInitiallyVisible || properties.name.equals( "nuclei" ) )
 			{
-				referenceWellImg = MultiWellImgCreator.create( fileList, fileNamingScheme, properties.regExp );
+				referenceWellImg = MultiWellImgCreator.create( fileList, fileNamingScheme, properties.regExp, loadingQueue, cellCacheBudget, hdf5ChannelGroup, diskCache, manifest );
 
 				referenceWellImg.setInitiallyVisible( true );
 
@@ -358,7 +486,8 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 	public void setSiteDimensions( MultiWellImg wellImg )
 	{
 		siteDimensions = new long[ 2 ];
-		wellImg.getLoader().getSingleSiteChannelFiles().get( 0 ).getInterval().dimensions( siteDimensions );
+		for ( int d = 0; d < 2; d++ )
+			siteDimensions[ d ] = wellImg.getImageDimensions()[ d ];
 	}
 
 	public long[] getSiteDimensions()
@@ -374,31 +503,28 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 	public void mapSiteNamesToIntervals( MultiWellImg multiWellImg )
 	{
 		siteNameToInterval = new HashMap<>();
-		intervalToSiteName = new HashMap<>();
 
-		final ArrayList< SingleSiteChannelFile > siteChannelFiles =
-				multiWellImg.getLoader().getSingleSiteChannelFiles();
+		final SiteTable siteTable = multiWellImg.getSiteTable();
+		final int[] imageDimensions = multiWellImg.getImageDimensions();
 
-		for ( SingleSiteChannelFile channelFile : siteChannelFiles )
+		for ( int site = 0; site < siteTable.size(); site++ )
 		{
-			siteNameToInterval.put( channelFile.getSiteName(), channelFile.getInterval() );
-			intervalToSiteName.put( channelFile.getInterval(), channelFile.getSiteName() );
+			siteNameToInterval.put( siteTable.getSiteName( site ), siteTable.getInterval( site, imageDimensions ) );
 		}
 
-		final Interval siteInterval = siteNameToInterval.values().iterator().next();
+		siteIntervalIndex = new IntervalIndex( siteNameToInterval );
+
 		final int[] numSites = new int[ 2 ];
 		for ( int d = 0; d < 2; d++ )
 		{
-			numSites[ d ] = (int) (( plateInterval.max( d ) - plateInterval.min( d ) ) / siteInterval.dimension( d )) + 1;
+			numSites[ d ] = (int) (( plateInterval.max( d ) - plateInterval.min( d ) ) / imageDimensions[ d ]) + 1;
 		}
 
 		siteNameMatrix = new String[ numSites[ 0 ] ][ numSites[ 1 ] ];
 
-		for ( SingleSiteChannelFile channelFile : siteChannelFiles )
+		for ( int site = 0; site < siteTable.size(); site++ )
 		{
-			final int rowIndex = (int) (channelFile.getInterval().min( 0 ) / siteInterval.dimension( 0 ));
-			final int colIndex = (int) (channelFile.getInterval().min( 1 ) / siteInterval.dimension( 1 ));
-			siteNameMatrix[ rowIndex ][ colIndex ] = channelFile.getSiteName();
+			siteNameMatrix[ siteTable.getSiteX( site ) ][ siteTable.getSiteY( site ) ] = siteTable.getSiteName( site );
 		}
 	}
 
@@ -406,33 +532,30 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 	{
 		wellNameToInterval = new HashMap<>();
 
-		final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles =
-				multiWellImg.getLoader().getSingleSiteChannelFiles();
+		final SiteTable siteTable = multiWellImg.getSiteTable();
+		final int[] imageDimensions = multiWellImg.getImageDimensions();
 
-		final ArrayList< String > wellNames = multiWellImg.getWellNames();
+		// one pass over the sites, rather than one per well
+		final FinalInterval[] wellIdToUnion = new FinalInterval[ siteTable.getNumWells() ];
 
-		for ( String wellName : wellNames )
+		for ( int site = 0; site < siteTable.size(); site++ )
 		{
-			FinalInterval union = null;
-
-			for ( SingleSiteChannelFile singleSiteChannelFile : singleSiteChannelFiles )
-			{
-				if ( singleSiteChannelFile.getWellName().equals( wellName ) )
-				{
-					if ( union == null )
-					{
-						union = new FinalInterval( singleSiteChannelFile.getInterval() );
-					} else
-					{
-						union = Intervals.union( singleSiteChannelFile.getInterval(), union );
-					}
-				}
-			}
+			final int wellId = siteTable.getWellId( site );
+			final FinalInterval interval = siteTable.getInterval( site, imageDimensions );
+			wellIdToUnion[ wellId ] = wellIdToUnion[ wellId ] == null ? interval : Intervals.union( interval, wellIdToUnion[ wellId ] );
+		}
 
+		final Map< String, FinalInterval > wellNameToUnion = new HashMap<>();
+		for ( int site = 0; site < siteTable.size(); site++ )
+			wellNameToUnion.putIfAbsent( siteTable.getWellName( site ), wellIdToUnion[ siteTable.getWellId( site ) ] );
 
-			wellNameToInterval.put( wellName, union );
+		for ( String wellName : multiWellImg.getWellNames() )
+		{
+			wellNameToInterval.put( wellName, wellNameToUnion.get( wellName ) );
 		}
 
+		wellIntervalIndex = new IntervalIndex( wellNameToInterval );
+
 		wellDimensions = Intervals.dimensionsAsLongArray( wellNameToInterval.values().iterator().next() );
 	}
 
@@ -447,11 +570,21 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		return bdvHandle;
 	}
 
-	public SharedQueue getLoadingQueue ( )
+	public CellCacheBudget getCellCacheBudget()
+	{
+		return cellCacheBudget;
+	}
+
+	public LoadingQueue getLoadingQueue ( )
 	{
 		return loadingQueue;
 	}
 
+	public SitePrefetcher getPrefetcher()
+	{
+		return prefetcher;
+	}
+
 	public void zoomToInterval( Interval interval )
 	{
 		final AffineTransform3D affineTransform3D = getImageZoomTransform( interval );
@@ -461,14 +594,13 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 
 	public ArrayList< String > getSiteNames ( )
 	{
-		final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles =
-				referenceWellImg.getLoader().getSingleSiteChannelFiles();
+		final SiteTable siteTable = referenceWellImg.getSiteTable();
 
 		final ArrayList< String > siteNames = new ArrayList<>();
 
-		for ( SingleSiteChannelFile singleSiteChannelFile : singleSiteChannelFiles )
+		for ( int site = 0; site < siteTable.size(); site++ )
 		{
-			siteNames.add( singleSiteChannelFile.getSiteName() );
+			siteNames.add( siteTable.getSiteName( site ) );
 		}
 
 		return siteNames;
@@ -489,6 +621,11 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		return wellNameToInterval;
 	}
 
+	public IntervalIndex getWellIntervalIndex()
+	{
+		return wellIntervalIndex;
+	}
+
 	public HashMap< String, Boolean > getSiteNameToQC()
 	{
 		return siteNameToQC;
@@ -499,6 +636,11 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		return siteNameToInterval;
 	}
 
+	public IntervalIndex getSiteIntervalIndex()
+	{
+		return siteIntervalIndex;
+	}
+
 	public void zoomToSite( String siteName )
 	{
 		zoomToInterval( siteNameToInterval.get( siteName ) );
@@ -509,12 +651,11 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 
 	public String getSiteName( RealPoint point )
 	{
-		for ( Interval interval : intervalToSiteName.keySet() )
-		{
-			if ( Intervals.contains( interval, point ) ) return intervalToSiteName.get( interval );
-		}
+		final SingleSiteChannelFile singleSiteChannelFile = referenceWellImg.getLoader().getSiteIndex().getSite( point );
+
+		if ( singleSiteChannelFile == null ) return null;
 
-		return null;
+		return singleSiteChannelFile.getSiteName();
 	}
 
 	public void notifyImageSelectionModel ( String selectedSiteName )
@@ -524,12 +665,10 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		 * // TODO: This should be taken care of by an adaptor
 		 *
 		 */
-		for ( T name : siteNames )
-		{
-			final String siteName = name.getSiteName();
-			if ( siteName.equals( selectedSiteName ) )
-				selectionModel.focus( name );
-		}
+		final T selectable = siteNameToSelectable.get( selectedSiteName );
+
+		if ( selectable != null )
+			selectionModel.focus( selectable );
 	}
 
 	public boolean isImageExisting ( final SingleCellArrayImg< R, ? > cell )
@@ -598,6 +737,22 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 
 		bdvHandle = bdvTmpSource.getBdvHandle();
 
+		prefetcher = new SitePrefetcher( bdvHandle.getViewerPanel(), loadingQueue );
+		prefetcher.setDepth( settings.prefetchDepth );
+		prefetcher.setMemoryBudgetBytes( settings.prefetchMemoryBudgetBytes );
+		bdvHandle.getViewerPanel().addTransformListener( prefetcher );
+		frameStarter = transform -> loadingQueue.nextFrame();
+		bdvHandle.getViewerPanel().addTransformListener( frameStarter );
+
+		BdvUtils.getViewerFrame( bdvHandle ).addWindowListener( new WindowAdapter()
+		{
+			@Override
+			public void windowClosed( WindowEvent e )
+			{
+				close();
+			}
+		} );
+
 		// This may interfere with loading of the resolution layers => TODO right click!
 		// new BdvGrayValuesOverlay( bdv, Utils.bdvTextOverlayFontSize );
 
@@ -615,6 +770,40 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		return bdvTmpSource;
 	}
 
+	/**
+	 * Releases the resources of the plate; called when the viewer window is closed.
+	 */
+	public synchronized void close()
+	{
+		if ( closed ) return;
+		closed = true;
+
+		if ( prefetcher != null )
+			prefetcher.dispose();
+
+		if ( frameStarter != null )
+			bdvHandle.getViewerPanel().removeTransformListener( frameStarter );
+
+		if ( siteAndWellInformationOverlay != null )
+			siteAndWellInformationOverlay.dispose();
+
+		for ( SitesImage sitesImage : sitesImages )
+			sitesImage.dispose();
+
+		// cells that are loaded afterwards are not stored anymore
+		if ( diskCache != null )
+			diskCache.close();
+
+		for ( MultiWellImg< ? > multiWellImg : channelToMultiWellImg.values() )
+			multiWellImg.dispose();
+
+		if ( hdf5ChannelGroup != null )
+			hdf5ChannelGroup.close();
+
+		// including the filter images
+		cellCacheBudget.clear();
+	}
+
 	public void addToPanelAndBdv( BdvViewable bdvViewable )
 	{
 		if ( bdvHandle == null )
@@ -624,6 +813,15 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 
 		BdvSource bdvSource = addToBdv( bdvViewable );
 
+		if ( bdvViewable instanceof SitesImage )
+			sitesImages.add( ( SitesImage ) bdvViewable );
+
+		if ( bdvViewable instanceof MultiWellImg && bdvSource instanceof BdvStackSource )
+			prefetcher.addTarget( ( MultiWellImg ) bdvViewable, ( BdvStackSource ) bdvSource );
+
+		if ( bdvViewable instanceof MultiWellBatchLibHdf5Img && bdvSource instanceof BdvStackSource )
+			( ( MultiWellBatchLibHdf5Img ) bdvViewable ).setDisplayed( () -> isVisible( ( BdvStackSource< ? > ) bdvSource ) );
+
 		bdvSource.setActive( bdvViewable.isInitiallyVisible() );
 
 		bdvSource.setDisplayRange( bdvViewable.getContrastLimits()[ 0 ], bdvViewable.getContrastLimits()[ 1 ] );
@@ -635,6 +833,19 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		removeDummySource();
 	}
 
+	private boolean isVisible( BdvStackSource< ? > bdvStackSource )
+	{
+		final ViewerState state = bdvHandle.getViewerPanel().getState();
+		final List< SourceState< ? > > sources = state.getSources();
+
+		for ( int sourceIndex : state.getVisibleSourceIndices() )
+			for ( SourceAndConverter< ? > sourceAndConverter : bdvStackSource.getSources() )
+				if ( sources.get( sourceIndex ).getSpimSource() == sourceAndConverter.getSpimSource() )
+					return true;
+
+		return false;
+	}
+
 	public void removeDummySource()
 	{
 		try{
@@ -738,6 +949,11 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 	{
 		this.siteNames = siteNames;
 		this.selectionModel = selectionModel;
+
+		siteNameToSelectable = new HashMap<>();
+		for ( T name : siteNames )
+			siteNameToSelectable.put( name.getSiteName(), name );
+
 		registerAsImageSelectionListener( selectionModel );
 	}
 
@@ -819,6 +1035,7 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		{
 			MultiWellImg multiWellImg = createMultiWellImg( channel );
 			channelToMultiWellImg.put( channel, multiWellImg );
+			saveManifest();
 			return  multiWellImg;
 		}
 	}
@@ -829,11 +1046,11 @@ public class ImagePlateViewer< R extends NativeType< R > & RealType< R >, T exte
 		if ( fileNamingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5  ) )
 		{
 			// All channels are in the same files, thus we do not have to fetch them again.
-			multiWellImg = MultiWellImgCreator.createFromChannelFiles( referenceWellImg.getChannelFiles(), fileNamingScheme, channel );
+			multiWellImg = MultiWellImgCreator.createFromChannelFiles( referenceWellImg.getChannelFiles(), fileNamingScheme, channel, loadingQueue, cellCacheBudget, hdf5ChannelGroup, diskCache, manifest );
 		}
 		else
 		{
-			multiWellImg = MultiWellImgCreator.create( fileList, fileNamingScheme, channel );
+			multiWellImg = MultiWellImgCreator.create( fileList, fileNamingScheme, channel, loadingQueue, cellCacheBudget, hdf5ChannelGroup, diskCache, manifest );
 		}
 		return multiWellImg;
 	}
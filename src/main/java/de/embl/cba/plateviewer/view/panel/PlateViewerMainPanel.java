@@ -303,7 +303,7 @@ public class PlateViewerMainPanel< R extends RealType< R > & NativeType< R > >
 					settings = getImageFilterSettingsFromUI( settings );
 					if ( settings == null ) return;
 
-					final ImageFilter imageFilter = new ImageFilter( settings );
+					final ImageFilter imageFilter = new ImageFilter( settings, imagePlateViewer.getCellCacheBudget() );
 
 					final String imageFilterSourceName = imageFilter.getCachedFilterImgName();
 					removeSource( imageFilterSourceName );
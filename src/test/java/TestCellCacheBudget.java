@@ -0,0 +1,171 @@
+import bdv.util.volatiles.SharedQueue;
+import bdv.util.volatiles.VolatileViews;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads the cells of an image through a small budget and checks which
+ * of them are kept: evicted cells are only weakly referenced by their
+ * image, thus collected by the next garbage collection.
+ */
+public class TestCellCacheBudget
+{
+	private static final int CELL_SIZE = 10;
+	private static final int NUM_CELLS = 10;
+
+	// unsigned short
+	private static final long CELL_BYTES = 2 * CELL_SIZE * CELL_SIZE;
+
+	@Test
+	public void usageIsBounded() throws ExecutionException
+	{
+		final CellCacheBudget budget = createBudget( 5 * CELL_BYTES );
+		final CachedCellImg< UnsignedShortType, ? > img = createImg( budget );
+
+		for ( long key = 0; key < NUM_CELLS; key++ )
+		{
+			img.getCache().get( key );
+			assertTrue( budget.getUsedBytes() <= 5 * CELL_BYTES );
+		}
+
+		assertEquals( 5, budget.getNumCells() );
+		assertEquals( 5 * CELL_BYTES, budget.getUsedBytes() );
+	}
+
+	@Test
+	public void leastRecentlyUsedCellIsEvicted() throws ExecutionException
+	{
+		final CellCacheBudget budget = createBudget( 3 * CELL_BYTES );
+		final CachedCellImg< UnsignedShortType, ? > img = createImg( budget );
+
+		final WeakReference< Cell< ? > > cell0 = getCell( img, 0 );
+		final WeakReference< Cell< ? > > cell1 = getCell( img, 1 );
+		getCell( img, 2 );
+
+		// 1 is now the least recently used
+		img.getCache().get( 0L );
+		final WeakReference< Cell< ? > > cell3 = getCell( img, 3 );
+
+		assertEquals( 3, budget.getNumCells() );
+		assertCollected( cell1 );
+		assertNotNull( cell0.get() );
+		assertNotNull( cell3.get() );
+	}
+
+	/**
+	 * The renderer gets the cells through a volatile view, which asks the
+	 * cache of the image only once, thus a cell that it keeps using is
+	 * only recorded as used through its data.
+	 */
+	@Test
+	public void renderedCellIsKept() throws ExecutionException
+	{
+		final CellCacheBudget budget = createBudget( 3 * CELL_BYTES );
+		final CachedCellImg< UnsignedShortType, ? > img = createImg( budget );
+		final RandomAccessibleInterval< VolatileUnsignedShortType > volatileImg = VolatileViews.wrapAsVolatile( img, new SharedQueue( 1 ) );
+
+		final WeakReference< Cell< ? > > cell0 = getCell( img, 0 );
+
+		for ( long key = 1; key < NUM_CELLS; key++ )
+		{
+			// renders cell 0
+			final RandomAccess< VolatileUnsignedShortType > access = volatileImg.randomAccess();
+			access.setPosition( new long[]{ 0, 0 } );
+			assertTrue( access.get().isValid() );
+
+			getCell( img, key );
+		}
+
+		assertEquals( 3, budget.getNumCells() );
+		assertNotCollected( cell0 );
+
+		// not rendered anymore
+		for ( long key = 1; key < NUM_CELLS; key++ )
+			getCell( img, key );
+
+		assertCollected( cell0 );
+	}
+
+	@Test
+	public void mostRecentCellIsNeverEvicted() throws ExecutionException
+	{
+		final CellCacheBudget budget = createBudget( CELL_BYTES / 2 );
+		final CachedCellImg< UnsignedShortType, ? > img = createImg( budget );
+
+		final WeakReference< Cell< ? > > cell0 = getCell( img, 0 );
+		assertEquals( 1, budget.getNumCells() );
+
+		final WeakReference< Cell< ? > > cell1 = getCell( img, 1 );
+		assertEquals( 1, budget.getNumCells() );
+		assertEquals( CELL_BYTES, budget.getUsedBytes() );
+
+		assertCollected( cell0 );
+		assertNotNull( cell1.get() );
+	}
+
+	@Test
+	public void invalidateAll() throws ExecutionException
+	{
+		final CellCacheBudget budget = createBudget( 5 * CELL_BYTES );
+		final CachedCellImg< UnsignedShortType, ? > img = createImg( budget );
+		final CachedCellImg< UnsignedShortType, ? > otherImg = createImg( budget );
+
+		img.getCache().get( 0L );
+		img.getCache().get( 1L );
+		otherImg.getCache().get( 0L );
+
+		img.getCache().invalidateAll();
+
+		assertEquals( 1, budget.getNumCells() );
+		assertEquals( CELL_BYTES, budget.getUsedBytes() );
+	}
+
+	private static CellCacheBudget createBudget( long maxBytes )
+	{
+		return new CellCacheBudget( maxBytes, false, CellCacheBudget.DEFAULT_MAX_CELL_SIZE );
+	}
+
+	private static CachedCellImg< UnsignedShortType, ? > createImg( CellCacheBudget budget )
+	{
+		return budget.createCachedCellImg(
+				new long[]{ NUM_CELLS * CELL_SIZE, CELL_SIZE },
+				new UnsignedShortType(),
+				cell -> {},
+				new int[]{ CELL_SIZE, CELL_SIZE } );
+	}
+
+	private static WeakReference< Cell< ? > > getCell( CachedCellImg< UnsignedShortType, ? > img, long key ) throws ExecutionException
+	{
+		return new WeakReference<>( img.getCache().get( key ) );
+	}
+
+	private static void assertNotCollected( WeakReference< ? > reference )
+	{
+		for ( int i = 0; i < 10; i++ )
+			System.gc();
+
+		assertNotNull( reference.get() );
+	}
+
+	private static void assertCollected( WeakReference< ? > reference )
+	{
+		for ( int i = 0; i < 100 && reference.get() != null; i++ )
+			System.gc();
+
+		assertNull( reference.get() );
+	}
+}
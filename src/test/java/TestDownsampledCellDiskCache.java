@@ -0,0 +1,223 @@
+import de.embl.cba.plateviewer.io.DownsampledCellDiskCache;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes cells into the disk cache, reopens it, and checks that cells are
+ * only read back as long as their key and the layout of the level match.
+ */
+public class TestDownsampledCellDiskCache
+{
+	private static final int[] CELL_DIMENSIONS = new int[]{ 20, 15 };
+	private static final long NUM_CELLS = 6;
+	private static final long KEY = 42;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip()
+	{
+		DownsampledCellDiskCache diskCache = new DownsampledCellDiskCache( folder.getRoot(), 1 );
+		try
+		{
+			final DownsampledCellDiskCache.Level level = getLevel( diskCache, CELL_DIMENSIONS, NUM_CELLS );
+			assertSame( level, getLevel( diskCache, CELL_DIMENSIONS, NUM_CELLS ) );
+
+			assertFalse( level.read( 1, KEY, createCell( 0 ) ) );
+
+			for ( int cellIndex = 0; cellIndex < NUM_CELLS; cellIndex++ )
+				level.write( cellIndex, KEY + cellIndex, createCell( cellIndex ) );
+
+			assertCells( level );
+		}
+		finally
+		{
+			diskCache.close();
+		}
+
+		// the cells persist across instances
+		diskCache = new DownsampledCellDiskCache( folder.getRoot(), 1 );
+		try
+		{
+			assertCells( getLevel( diskCache, CELL_DIMENSIONS, NUM_CELLS ) );
+		}
+		finally
+		{
+			diskCache.close();
+		}
+	}
+
+	@Test
+	public void keyMismatch()
+	{
+		final DownsampledCellDiskCache diskCache = new DownsampledCellDiskCache( folder.getRoot(), 1 );
+		try
+		{
+			final DownsampledCellDiskCache.Level level = getLevel( diskCache, CELL_DIMENSIONS, NUM_CELLS );
+			level.write( 3, KEY, createCell( 3 ) );
+
+			final short[] cell = new short[ CELL_DIMENSIONS[ 0 ] * CELL_DIMENSIONS[ 1 ] ];
+			assertFalse( level.read( 3, KEY + 1, cell ) );
+			assertFalse( level.read( 2, KEY, cell ) );
+			assertFalse( level.read( NUM_CELLS, KEY, cell ) );
+
+			// a cell of another type
+			assertFalse( level.read( 3, KEY, new float[ cell.length ] ) );
+
+			assertTrue( level.read( 3, KEY, cell ) );
+			assertArrayEquals( createCell( 3 ), cell );
+		}
+		finally
+		{
+			diskCache.close();
+		}
+	}
+
+	/**
+	 * The slots of the cells are only added to the file once a cell is written.
+	 */
+	@Test
+	public void fileGrowsOnDemand()
+	{
+		final DownsampledCellDiskCache diskCache = new DownsampledCellDiskCache( folder.getRoot(), 1 );
+		try
+		{
+			final DownsampledCellDiskCache.Level level = getLevel( diskCache, CELL_DIMENSIONS, NUM_CELLS );
+			final long cellBytes = 2L * CELL_DIMENSIONS[ 0 ] * CELL_DIMENSIONS[ 1 ];
+			final long emptyLength = level.getFile().length();
+
+			assertFalse( level.read( 0, KEY, createCell( 0 ) ) );
+			assertEquals( emptyLength, level.getFile().length() );
+
+			level.write( 0, KEY, createCell( 0 ) );
+			assertEquals( emptyLength + NUM_CELLS * cellBytes, level.getFile().length() );
+		}
+		finally
+		{
+			diskCache.close();
+		}
+	}
+
+	/**
+	 * A level whose cells have other dimensions, or that has another
+	 * number of cells, starts over.
+	 */
+	@Test
+	public void headerMismatch()
+	{
+		writeCell( CELL_DIMENSIONS, NUM_CELLS );
+		assertFalse( readCell( new int[]{ 15, 20 }, NUM_CELLS ) );
+
+		writeCell( CELL_DIMENSIONS, NUM_CELLS );
+		assertFalse( readCell( CELL_DIMENSIONS, NUM_CELLS + 1 ) );
+
+		writeCell( CELL_DIMENSIONS, NUM_CELLS );
+		assertTrue( readCell( CELL_DIMENSIONS, NUM_CELLS ) );
+	}
+
+	@Test
+	public void levelsThatAreNotCached()
+	{
+		final DownsampledCellDiskCache diskCache = new DownsampledCellDiskCache( folder.getRoot(), 2 );
+		try
+		{
+			assertNull( diskCache.getLevel( "channel", 0, new UnsignedShortType(), CELL_DIMENSIONS, NUM_CELLS ) );
+			assertNull( diskCache.getLevel( "channel", 1, new UnsignedShortType(), CELL_DIMENSIONS, NUM_CELLS ) );
+			assertNotNull( diskCache.getLevel( "channel", 2, new UnsignedShortType(), CELL_DIMENSIONS, NUM_CELLS ) );
+
+			// unsupported type
+			assertNull( diskCache.getLevel( "channel", 3, new DoubleType(), CELL_DIMENSIONS, NUM_CELLS ) );
+		}
+		finally
+		{
+			diskCache.close();
+		}
+	}
+
+	@Test
+	public void keyChangesWithFile() throws IOException
+	{
+		final File file = folder.newFile( "site.tif" );
+		Files.write( file.toPath(), new byte[]{ 1, 2, 3 } );
+		assertTrue( file.setLastModified( 1_000_000_000_000L ) );
+
+		final long key = DownsampledCellDiskCache.getKey( file );
+		assertNotEquals( 0, key );
+		assertEquals( key, DownsampledCellDiskCache.getKey( file ) );
+
+		assertTrue( file.setLastModified( 1_000_000_010_000L ) );
+		final long modifiedKey = DownsampledCellDiskCache.getKey( file );
+		assertNotEquals( key, modifiedKey );
+
+		Files.write( file.toPath(), new byte[]{ 1, 2, 3, 4 } );
+		assertTrue( file.setLastModified( 1_000_000_010_000L ) );
+		assertNotEquals( modifiedKey, DownsampledCellDiskCache.getKey( file ) );
+	}
+
+	private void writeCell( int[] cellDimensions, long numCells )
+	{
+		final DownsampledCellDiskCache diskCache = new DownsampledCellDiskCache( folder.getRoot(), 1 );
+		try
+		{
+			getLevel( diskCache, cellDimensions, numCells ).write( 1, KEY, createCell( 1 ) );
+		}
+		finally
+		{
+			diskCache.close();
+		}
+	}
+
+	private boolean readCell( int[] cellDimensions, long numCells )
+	{
+		final DownsampledCellDiskCache diskCache = new DownsampledCellDiskCache( folder.getRoot(), 1 );
+		try
+		{
+			return getLevel( diskCache, cellDimensions, numCells ).read( 1, KEY, new short[ cellDimensions[ 0 ] * cellDimensions[ 1 ] ] );
+		}
+		finally
+		{
+			diskCache.close();
+		}
+	}
+
+	private static DownsampledCellDiskCache.Level getLevel( DownsampledCellDiskCache diskCache, int[] cellDimensions, long numCells )
+	{
+		return diskCache.getLevel( "channel", 1, new UnsignedShortType(), cellDimensions, numCells );
+	}
+
+	private static void assertCells( DownsampledCellDiskCache.Level level )
+	{
+		for ( int cellIndex = 0; cellIndex < NUM_CELLS; cellIndex++ )
+		{
+			final short[] cell = new short[ CELL_DIMENSIONS[ 0 ] * CELL_DIMENSIONS[ 1 ] ];
+			assertTrue( level.read( cellIndex, KEY + cellIndex, cell ) );
+			assertArrayEquals( createCell( cellIndex ), cell );
+		}
+	}
+
+	private static short[] createCell( int seed )
+	{
+		final short[] cell = new short[ CELL_DIMENSIONS[ 0 ] * CELL_DIMENSIONS[ 1 ] ];
+		for ( int i = 0; i < cell.length; i++ )
+			cell[ i ] = ( short ) ( 1000 * seed + 7 * i );
+
+		return cell;
+	}
+}
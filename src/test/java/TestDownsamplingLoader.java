@@ -0,0 +1,270 @@
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.image.cellloader.DownsamplingLoader;
+import de.embl.cba.plateviewer.io.DownsampledCellDiskCache;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Builds the resolution levels of a plate like
+ * {@code MultiResolutionImagePlusChannelSourceCreator} does and compares
+ * them with 2x2 averages computed from the full resolution pixels.
+ *
+ * The sites are split into several cells, such that cells of a level
+ * are computed from several cells of the level above, their dimensions
+ * become odd, and one site is missing.
+ */
+public class TestDownsamplingLoader
+{
+	private static final int[] SITE_DIMENSIONS = new int[]{ 40, 30 };
+	private static final int[] PLATE_SIZE = new int[]{ 3, 2 };
+	private static final int[] MISSING_SITE = new int[]{ 2, 1 };
+	private static final int MAX_CELL_SIZE = 16;
+	private static final int NUM_LEVELS = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void levelDimensions()
+	{
+		final CellCacheBudget budget = new CellCacheBudget( 64 * 1024 * 1024, false, MAX_CELL_SIZE );
+		final SiteIndex siteIndex = createSiteIndex();
+
+		CachedCellImg< UnsignedShortType, ? > level = createFullResolution( budget, siteIndex, false );
+		int[] siteDimensions = SITE_DIMENSIONS.clone();
+
+		// 40 x 30, 20 x 15, 10 x 8, 5 x 4
+		final int[][] expectedSiteDimensions = new int[][]{ { 20, 15 }, { 10, 8 }, { 5, 4 } };
+
+		for ( int[] expected : expectedSiteDimensions )
+		{
+			final long[] dimensions = DownsamplingLoader.getDimensions( level, siteDimensions );
+			assertArrayEquals( new long[]{ PLATE_SIZE[ 0 ] * expected[ 0 ], PLATE_SIZE[ 1 ] * expected[ 1 ] }, dimensions );
+
+			level = budget.createCachedCellImg(
+					dimensions,
+					new UnsignedShortType(),
+					new DownsamplingLoader<>( level, siteIndex, SITE_DIMENSIONS, siteDimensions, null ),
+					budget.getCellDimensions( expected ) );
+
+			siteDimensions = expected;
+		}
+	}
+
+	@Test
+	public void levelPixels()
+	{
+		final CellCacheBudget budget = new CellCacheBudget( 64 * 1024 * 1024, false, MAX_CELL_SIZE );
+		final SiteIndex siteIndex = createSiteIndex();
+
+		final List< CachedCellImg< UnsignedShortType, ? > > levels = createLevels( budget, siteIndex, createFullResolution( budget, siteIndex, false ), null );
+
+		int[] expected = getFullResolutionPixels();
+		int[] siteDimensions = SITE_DIMENSIONS.clone();
+
+		for ( int level = 1; level < levels.size(); level++ )
+		{
+			final int[] levelSiteDimensions = new int[]{ ( siteDimensions[ 0 ] + 1 ) / 2, ( siteDimensions[ 1 ] + 1 ) / 2 };
+			expected = downsample( expected, siteDimensions, levelSiteDimensions );
+
+			assertArrayEquals( "level " + level, expected, getPixels( levels.get( level ) ) );
+
+			siteDimensions = levelSiteDimensions;
+		}
+	}
+
+	/**
+	 * Cells that are read from the disk cache are the ones that were computed,
+	 * even if the level above changes, as long as the site files do not.
+	 */
+	@Test
+	public void diskCache()
+	{
+		final DownsampledCellDiskCache diskCache = new DownsampledCellDiskCache( folder.getRoot(), 1 );
+
+		try
+		{
+			final SiteIndex siteIndex = createSiteIndex();
+
+			final CellCacheBudget budget = new CellCacheBudget( 64 * 1024 * 1024, false, MAX_CELL_SIZE );
+			final List< CachedCellImg< UnsignedShortType, ? > > levels = createLevels( budget, siteIndex, createFullResolution( budget, siteIndex, false ), diskCache );
+
+			final List< int[] > computed = new ArrayList<>();
+			for ( CachedCellImg< UnsignedShortType, ? > level : levels )
+				computed.add( getPixels( level ) );
+
+			final CellCacheBudget otherBudget = new CellCacheBudget( 64 * 1024 * 1024, false, MAX_CELL_SIZE );
+			final List< CachedCellImg< UnsignedShortType, ? > > cachedLevels = createLevels( otherBudget, siteIndex, createFullResolution( otherBudget, siteIndex, true ), diskCache );
+
+			for ( int level = 1; level < levels.size(); level++ )
+				assertArrayEquals( "level " + level, computed.get( level ), getPixels( cachedLevels.get( level ) ) );
+		}
+		finally
+		{
+			diskCache.close();
+		}
+	}
+
+	private static List< CachedCellImg< UnsignedShortType, ? > > createLevels( CellCacheBudget budget, SiteIndex siteIndex, CachedCellImg< UnsignedShortType, ? > fullResolution, DownsampledCellDiskCache diskCache )
+	{
+		final List< CachedCellImg< UnsignedShortType, ? > > levels = new ArrayList<>();
+		levels.add( fullResolution );
+
+		int[] siteDimensions = SITE_DIMENSIONS.clone();
+
+		while ( levels.size() < NUM_LEVELS )
+		{
+			final int[] levelSiteDimensions = new int[]{ ( siteDimensions[ 0 ] + 1 ) / 2, ( siteDimensions[ 1 ] + 1 ) / 2 };
+			final int[] levelCellDimensions = budget.getCellDimensions( levelSiteDimensions );
+			final long[] levelDimensions = DownsamplingLoader.getDimensions( levels.get( levels.size() - 1 ), siteDimensions );
+			final long numCells = ( levelDimensions[ 0 ] / levelCellDimensions[ 0 ] ) * ( levelDimensions[ 1 ] / levelCellDimensions[ 1 ] );
+
+			final DownsampledCellDiskCache.Level levelDiskCache = diskCache == null ? null :
+					diskCache.getLevel( "channel", levels.size(), new UnsignedShortType(), levelCellDimensions, numCells );
+
+			levels.add( budget.createCachedCellImg(
+					levelDimensions,
+					new UnsignedShortType(),
+					new DownsamplingLoader<>( levels.get( levels.size() - 1 ), siteIndex, SITE_DIMENSIONS, siteDimensions, levelDiskCache ),
+					levelCellDimensions ) );
+
+			siteDimensions = levelSiteDimensions;
+		}
+
+		return levels;
+	}
+
+	/**
+	 * @param empty
+	 * 				whether all pixels are 0
+	 */
+	private static CachedCellImg< UnsignedShortType, ? > createFullResolution( CellCacheBudget budget, SiteIndex siteIndex, boolean empty )
+	{
+		final CellLoader< UnsignedShortType > loader = cell ->
+		{
+			if ( empty ) return;
+
+			final Cursor< UnsignedShortType > cursor = cell.localizingCursor();
+			while ( cursor.hasNext() )
+			{
+				cursor.fwd();
+				final long x = cursor.getLongPosition( 0 );
+				final long y = cursor.getLongPosition( 1 );
+				if ( siteIndex.getSite( x, y ) != null )
+					cursor.get().set( getValue( x, y ) );
+			}
+		};
+
+		return budget.createCachedCellImg(
+				new long[]{ PLATE_SIZE[ 0 ] * SITE_DIMENSIONS[ 0 ], PLATE_SIZE[ 1 ] * SITE_DIMENSIONS[ 1 ] },
+				new UnsignedShortType(),
+				loader,
+				budget.getCellDimensions( SITE_DIMENSIONS ) );
+	}
+
+	private static SiteIndex createSiteIndex()
+	{
+		final List< SingleSiteChannelFile > sites = new ArrayList<>();
+
+		for ( int y = 0; y < PLATE_SIZE[ 1 ]; y++ )
+			for ( int x = 0; x < PLATE_SIZE[ 0 ]; x++ )
+			{
+				if ( x == MISSING_SITE[ 0 ] && y == MISSING_SITE[ 1 ] ) continue;
+
+				final long[] min = new long[]{ x * SITE_DIMENSIONS[ 0 ], y * SITE_DIMENSIONS[ 1 ] };
+				final long[] max = new long[]{ min[ 0 ] + SITE_DIMENSIONS[ 0 ] - 1, min[ 1 ] + SITE_DIMENSIONS[ 1 ] - 1 };
+				final String siteName = "site" + x + "-" + y;
+				sites.add( new SingleSiteChannelFile( new File( siteName + ".tif" ), new FinalInterval( min, max ), siteName, "well" + y ) );
+			}
+
+		return new SiteIndex( sites );
+	}
+
+	private static int getValue( long x, long y )
+	{
+		return ( int ) ( ( 1000 + 131 * x + 71 * y + ( x * y ) % 13 ) & 0xFFFF );
+	}
+
+	private static int[] getFullResolutionPixels()
+	{
+		final int width = PLATE_SIZE[ 0 ] * SITE_DIMENSIONS[ 0 ];
+		final int height = PLATE_SIZE[ 1 ] * SITE_DIMENSIONS[ 1 ];
+		final int[] pixels = new int[ width * height ];
+
+		for ( int y = 0; y < height; y++ )
+			for ( int x = 0; x < width; x++ )
+			{
+				final boolean isMissing = x / SITE_DIMENSIONS[ 0 ] == MISSING_SITE[ 0 ] && y / SITE_DIMENSIONS[ 1 ] == MISSING_SITE[ 1 ];
+				pixels[ y * width + x ] = isMissing ? 0 : getValue( x, y );
+			}
+
+		return pixels;
+	}
+
+	/**
+	 * Rounded 2x2 averages within each site; the last row or column
+	 * of a site with odd dimensions is averaged with itself.
+	 */
+	private static int[] downsample( int[] pixels, int[] siteDimensions, int[] targetSiteDimensions )
+	{
+		final int width = PLATE_SIZE[ 0 ] * siteDimensions[ 0 ];
+		final int targetWidth = PLATE_SIZE[ 0 ] * targetSiteDimensions[ 0 ];
+		final int targetHeight = PLATE_SIZE[ 1 ] * targetSiteDimensions[ 1 ];
+		final int[] target = new int[ targetWidth * targetHeight ];
+
+		for ( int y = 0; y < targetHeight; y++ )
+			for ( int x = 0; x < targetWidth; x++ )
+			{
+				final int[] x01 = getSourceCoordinates( x, targetSiteDimensions[ 0 ], siteDimensions[ 0 ] );
+				final int[] y01 = getSourceCoordinates( y, targetSiteDimensions[ 1 ], siteDimensions[ 1 ] );
+
+				final int sum = pixels[ y01[ 0 ] * width + x01[ 0 ] ] + pixels[ y01[ 0 ] * width + x01[ 1 ] ]
+						+ pixels[ y01[ 1 ] * width + x01[ 0 ] ] + pixels[ y01[ 1 ] * width + x01[ 1 ] ];
+
+				target[ y * targetWidth + x ] = ( sum + 2 ) >> 2;
+			}
+
+		return target;
+	}
+
+	private static int[] getSourceCoordinates( int coordinate, int targetSiteSize, int siteSize )
+	{
+		final int site = coordinate / targetSiteSize;
+		final int local = coordinate % targetSiteSize;
+		return new int[]{
+				site * siteSize + Math.min( 2 * local, siteSize - 1 ),
+				site * siteSize + Math.min( 2 * local + 1, siteSize - 1 ) };
+	}
+
+	private static int[] getPixels( CachedCellImg< UnsignedShortType, ? > img )
+	{
+		final int width = ( int ) img.dimension( 0 );
+		final int height = ( int ) img.dimension( 1 );
+		final int[] pixels = new int[ width * height ];
+
+		final RandomAccess< UnsignedShortType > access = img.randomAccess();
+		for ( int y = 0; y < height; y++ )
+			for ( int x = 0; x < width; x++ )
+			{
+				access.setPosition( new int[]{ x, y } );
+				pixels[ y * width + x ] = access.get().get();
+			}
+
+		return pixels;
+	}
+}
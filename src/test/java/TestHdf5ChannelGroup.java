@@ -0,0 +1,336 @@
+import ch.systemsx.cisd.base.mdarray.MDShortArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import de.embl.cba.plateviewer.image.NamingSchemes;
+import de.embl.cba.plateviewer.image.cache.CellCacheBudget;
+import de.embl.cba.plateviewer.image.cellloader.Hdf5ChannelGroup;
+import de.embl.cba.plateviewer.image.channel.MultiWellBatchLibHdf5Img;
+import de.embl.cba.plateviewer.io.Hdf5DataSetInfo;
+import de.embl.cba.plateviewer.io.Hdf5Reader;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads the cells of the channels of a BatchLib HDF5 plate through one
+ * {@link Hdf5ChannelGroup} and counts how often each block of each data
+ * set is read from the file.
+ */
+public class TestHdf5ChannelGroup
+{
+	private static final String[] CHANNELS = new String[]{ "a", "b", "c" };
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final int MAX_CELL_SIZE = 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The cell of the other displayed channels is read together with the
+	 * first one, and handed over to their loaders.
+	 */
+	@Test
+	public void displayedChannelsAreReadOnce() throws Exception
+	{
+		final CountingReaderPool readerPool = new CountingReaderPool();
+		final Hdf5ChannelGroup channelGroup = new Hdf5ChannelGroup( readerPool );
+		final List< MultiWellBatchLibHdf5Img< ? > > channels = createChannels( channelGroup, createPlate() );
+
+		for ( MultiWellBatchLibHdf5Img< ? > channel : channels )
+			channel.setDisplayed( () -> true );
+
+		for ( int c = 0; c < CHANNELS.length; c++ )
+			assertCell( c, channels.get( c ).getCachedCellImg(), 5 );
+
+		for ( String channel : CHANNELS )
+			assertEquals( channel, 1, readerPool.getNumReads( channel, 5, channels.get( 0 ).getCachedCellImg().getCellGrid() ) );
+
+		assertEquals( 0, channelGroup.getPendingBytes() );
+
+		channelGroup.close();
+	}
+
+	@Test
+	public void hiddenChannelsAreNotRead() throws Exception
+	{
+		final CountingReaderPool readerPool = new CountingReaderPool();
+		final Hdf5ChannelGroup channelGroup = new Hdf5ChannelGroup( readerPool );
+		final List< MultiWellBatchLibHdf5Img< ? > > channels = createChannels( channelGroup, createPlate() );
+
+		channels.get( 0 ).setDisplayed( () -> true );
+		channels.get( 1 ).setDisplayed( () -> true );
+
+		assertCell( 0, channels.get( 0 ).getCachedCellImg(), 2 );
+		assertCell( 1, channels.get( 1 ).getCachedCellImg(), 2 );
+
+		// the hidden channel would have been read before the cell of the second one was taken
+		final CellGrid grid = channels.get( 0 ).getCachedCellImg().getCellGrid();
+		assertEquals( 1, readerPool.getNumReads( "b", 2, grid ) );
+		assertEquals( 0, readerPool.getNumReads( "c", 2, grid ) );
+
+		assertCell( 2, channels.get( 2 ).getCachedCellImg(), 2 );
+		assertEquals( 1, readerPool.getNumReads( "c", 2, grid ) );
+
+		channelGroup.close();
+	}
+
+	/**
+	 * All cells of all channels are loaded at once, in random order,
+	 * such that channels ask for cells that are being read together
+	 * with another channel. Each cell is read at least once and
+	 * handed over to the right channel.
+	 */
+	@Test
+	public void concurrentLoads() throws Exception
+	{
+		final CountingReaderPool readerPool = new CountingReaderPool();
+		final Hdf5ChannelGroup channelGroup = new Hdf5ChannelGroup( readerPool );
+		final List< MultiWellBatchLibHdf5Img< ? > > channels = createChannels( channelGroup, createPlate() );
+
+		for ( MultiWellBatchLibHdf5Img< ? > channel : channels )
+			channel.setDisplayed( () -> true );
+
+		final CellGrid grid = channels.get( 0 ).getCachedCellImg().getCellGrid();
+		final int numCells = ( int ) ( grid.getGridDimensions()[ 0 ] * grid.getGridDimensions()[ 1 ] );
+
+		final List< int[] > loads = new ArrayList<>();
+		for ( int cell = 0; cell < numCells; cell++ )
+			for ( int c = 0; c < CHANNELS.length; c++ )
+				loads.add( new int[]{ c, cell } );
+		Collections.shuffle( loads );
+
+		final ExecutorService executor = Executors.newFixedThreadPool( 8 );
+		try
+		{
+			final List< Future< ? > > results = new ArrayList<>();
+			for ( int[] load : loads )
+				results.add( executor.submit( () ->
+				{
+					assertCell( load[ 0 ], channels.get( load[ 0 ] ).getCachedCellImg(), load[ 1 ] );
+					return null;
+				} ) );
+
+			for ( Future< ? > result : results )
+				result.get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		for ( String channel : CHANNELS )
+			for ( int cell = 0; cell < numCells; cell++ )
+				assertTrue( channel + " " + cell, readerPool.getNumReads( channel, cell, grid ) >= 1 );
+
+		channelGroup.close();
+	}
+
+	@Test
+	public void removedChannelIsNotHandedOver() throws Exception
+	{
+		final CountingReaderPool readerPool = new CountingReaderPool();
+		final Hdf5ChannelGroup channelGroup = new Hdf5ChannelGroup( readerPool );
+		final List< MultiWellBatchLibHdf5Img< ? > > channels = createChannels( channelGroup, createPlate() );
+
+		for ( MultiWellBatchLibHdf5Img< ? > channel : channels )
+			channel.setDisplayed( () -> true );
+
+		assertCell( 0, channels.get( 0 ).getCachedCellImg(), 0 );
+
+		channels.get( 1 ).dispose();
+		channels.get( 2 ).dispose();
+
+		// the background read of the removed channels might still run
+		for ( int i = 0; i < 100 && channelGroup.getPendingBytes() > 0; i++ )
+			Thread.sleep( 10 );
+
+		assertEquals( 0, channelGroup.getPendingBytes() );
+
+		channelGroup.close();
+	}
+
+	private List< MultiWellBatchLibHdf5Img< ? > > createChannels( Hdf5ChannelGroup channelGroup, List< File > files )
+	{
+		final CellCacheBudget budget = new CellCacheBudget( 64 * 1024 * 1024, false, MAX_CELL_SIZE );
+
+		final List< MultiWellBatchLibHdf5Img< ? > > channels = new ArrayList<>();
+		for ( String channel : CHANNELS )
+			channels.add( new MultiWellBatchLibHdf5Img< UnsignedShortType >( files, NamingSchemes.PATTERN_NIKON_TI2_HDF5, channel, 0, channelGroup, budget, null, channelGroup.getCheckedAttributes( files, channel ) ) );
+
+		return channels;
+	}
+
+	/**
+	 * @return the file of a plate with one site
+	 */
+	private List< File > createPlate()
+	{
+		final File file = new File( folder.getRoot(), "WellA01_PointA01_0000_ChannelDAPI,GFP,Cy5_Seq0000.h5" );
+
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		try
+		{
+			for ( int c = 0; c < CHANNELS.length; c++ )
+			{
+				writer.uint16().writeMDArray( CHANNELS[ c ] + "/s0", new MDShortArray( createData( c ), new int[]{ HEIGHT, WIDTH } ) );
+				writer.string().setAttr( CHANNELS[ c ], MultiWellBatchLibHdf5Img.COLOR, "Gray" );
+				writer.bool().setAttr( CHANNELS[ c ], MultiWellBatchLibHdf5Img.VISIBLE, true );
+				writer.bool().setAttr( CHANNELS[ c ], MultiWellBatchLibHdf5Img.SKIP, false );
+				writer.int32().setArrayAttr( CHANNELS[ c ], MultiWellBatchLibHdf5Img.SCALE_FACTORS, new int[]{ 1 } );
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		return Collections.singletonList( file );
+	}
+
+	private static short[] createData( int channel )
+	{
+		final short[] data = new short[ WIDTH * HEIGHT ];
+		for ( int i = 0; i < data.length; i++ )
+			data[ i ] = ( short ) ( 10000 * channel + i );
+
+		return data;
+	}
+
+	private static void assertCell( int channel, CachedCellImg< ?, ? > img, long cellIndex ) throws Exception
+	{
+		final long[] cellMin = new long[ 2 ];
+		final int[] cellDimensions = new int[ 2 ];
+		img.getCellGrid().getCellDimensions( cellIndex, cellMin, cellDimensions );
+
+		final short[] data = createData( channel );
+		final short[] expected = new short[ cellDimensions[ 0 ] * cellDimensions[ 1 ] ];
+		for ( int y = 0, i = 0; y < cellDimensions[ 1 ]; y++ )
+			for ( int x = 0; x < cellDimensions[ 0 ]; x++, i++ )
+				expected[ i ] = data[ ( int ) ( ( cellMin[ 1 ] + y ) * WIDTH + cellMin[ 0 ] + x ) ];
+
+		final Object actual = ( ( ArrayDataAccess< ? > ) img.getCache().get( cellIndex ).getData() ).getCurrentStorageArray();
+		assertArrayEquals( CHANNELS[ channel ] + " " + cellIndex, expected, ( short[] ) actual );
+	}
+
+	/**
+	 * Counts the blocks read per data set and offset.
+	 */
+	private static class CountingReaderPool extends Hdf5ReaderPool
+	{
+		private final Map< String, AtomicInteger > blockToNumReads = new ConcurrentHashMap<>();
+
+		CountingReaderPool()
+		{
+			super( 4, false );
+		}
+
+		@Override
+		public < R > R read( File file, Function< Hdf5Reader, R > function )
+		{
+			return super.read( file, reader -> function.apply( new CountingReader( reader ) ) );
+		}
+
+		int getNumReads( String channel, long cellIndex, CellGrid grid )
+		{
+			final long[] cellMin = new long[ 2 ];
+			final int[] cellDimensions = new int[ 2 ];
+			grid.getCellDimensions( cellIndex, cellMin, cellDimensions );
+
+			final AtomicInteger count = blockToNumReads.get( getBlock( channel + "/s0", new long[]{ cellMin[ 1 ], cellMin[ 0 ] } ) );
+			return count == null ? 0 : count.get();
+		}
+
+		private static String getBlock( String dataSetPath, long[] offset )
+		{
+			return dataSetPath + " " + Arrays.toString( offset );
+		}
+
+		private class CountingReader implements Hdf5Reader
+		{
+			private final Hdf5Reader reader;
+
+			CountingReader( Hdf5Reader reader )
+			{
+				this.reader = reader;
+			}
+
+			@Override
+			public List< String > getGroupMembers( String groupPath )
+			{
+				return reader.getGroupMembers( groupPath );
+			}
+
+			@Override
+			public boolean hasAttribute( String objectPath, String attributeName )
+			{
+				return reader.hasAttribute( objectPath, attributeName );
+			}
+
+			@Override
+			public String getStringAttribute( String objectPath, String attributeName )
+			{
+				return reader.getStringAttribute( objectPath, attributeName );
+			}
+
+			@Override
+			public boolean getBooleanAttribute( String objectPath, String attributeName )
+			{
+				return reader.getBooleanAttribute( objectPath, attributeName );
+			}
+
+			@Override
+			public int[] getIntArrayAttribute( String objectPath, String attributeName )
+			{
+				return reader.getIntArrayAttribute( objectPath, attributeName );
+			}
+
+			@Override
+			public double[] getDoubleArrayAttribute( String objectPath, String attributeName )
+			{
+				return reader.getDoubleArrayAttribute( objectPath, attributeName );
+			}
+
+			@Override
+			public Hdf5DataSetInfo getDataSetInfo( String dataSetPath )
+			{
+				return reader.getDataSetInfo( dataSetPath );
+			}
+
+			@Override
+			public void readBlock( String dataSetPath, Object array, int[] blockDimensions, long[] offset )
+			{
+				blockToNumReads.computeIfAbsent( getBlock( dataSetPath, offset ), b -> new AtomicInteger() ).incrementAndGet();
+				reader.readBlock( dataSetPath, array, blockDimensions, offset );
+			}
+
+			@Override
+			public void close()
+			{
+				reader.close();
+			}
+		}
+	}
+}
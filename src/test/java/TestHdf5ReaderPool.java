@@ -0,0 +1,230 @@
+import ch.systemsx.cisd.base.mdarray.MDShortArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import de.embl.cba.plateviewer.io.Hdf5Reader;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the pool keeps readers open between reads, closes the least
+ * recently used ones, and never closes a reader that is in use.
+ */
+public class TestHdf5ReaderPool
+{
+	private static final int[] DIMENSIONS = new int[]{ 20, 30 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readerIsKeptOpen()
+	{
+		final Hdf5ReaderPool pool = createPool( 2 );
+		final File file = writeFile( "a.h5", 1 );
+
+		final Hdf5Reader reader = pool.read( file, r -> r );
+		assertSame( reader, pool.read( file, r -> r ) );
+		assertEquals( 1, pool.getNumOpenReaders() );
+		assertArrayEquals( createData( 1 ), pool.read( file, TestHdf5ReaderPool::readData ) );
+
+		pool.closeAll();
+	}
+
+	@Test
+	public void leastRecentlyUsedReaderIsClosed()
+	{
+		final Hdf5ReaderPool pool = createPool( 2 );
+		final File a = writeFile( "a.h5", 1 );
+		final File b = writeFile( "b.h5", 2 );
+		final File c = writeFile( "c.h5", 3 );
+
+		final Hdf5Reader readerA = pool.read( a, r -> r );
+		final Hdf5Reader readerB = pool.read( b, r -> r );
+
+		// b is now the least recently used
+		pool.read( a, r -> r );
+		pool.read( c, r -> r );
+
+		assertEquals( 2, pool.getNumOpenReaders() );
+		assertSame( readerA, pool.read( a, r -> r ) );
+		assertNotSame( readerB, pool.read( b, r -> r ) );
+
+		pool.closeAll();
+	}
+
+	@Test
+	public void readerInUseIsNotClosed()
+	{
+		final Hdf5ReaderPool pool = createPool( 1 );
+		final File a = writeFile( "a.h5", 1 );
+		final File b = writeFile( "b.h5", 2 );
+
+		final Hdf5Reader readerA = pool.read( a, reader ->
+		{
+			// evicts a, which is still in use
+			assertArrayEquals( createData( 2 ), pool.read( b, TestHdf5ReaderPool::readData ) );
+			assertArrayEquals( createData( 1 ), readData( reader ) );
+			return reader;
+		} );
+
+		assertEquals( 1, pool.getNumOpenReaders() );
+		assertNotSame( readerA, pool.read( a, r -> r ) );
+
+		pool.closeAll();
+	}
+
+	@Test
+	public void closeAll()
+	{
+		final Hdf5ReaderPool pool = createPool( 4 );
+		final File a = writeFile( "a.h5", 1 );
+
+		final Hdf5Reader reader = pool.read( a, r -> r );
+		pool.closeAll();
+		assertEquals( 0, pool.getNumOpenReaders() );
+
+		// the pool stays usable
+		assertNotSame( reader, pool.read( a, r -> r ) );
+		assertArrayEquals( createData( 1 ), pool.read( a, TestHdf5ReaderPool::readData ) );
+
+		// a reader that is in use is closed once it is released
+		pool.read( a, r ->
+		{
+			pool.closeAll();
+			assertArrayEquals( createData( 1 ), readData( r ) );
+			return null;
+		} );
+
+		assertEquals( 0, pool.getNumOpenReaders() );
+	}
+
+	@Test
+	public void fileThatCannotBeOpenedIsRetried() throws IOException
+	{
+		final Hdf5ReaderPool pool = createPool( 2 );
+		final File file = new File( folder.getRoot(), "a.h5" );
+		Files.write( file.toPath(), new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8 } );
+
+		try
+		{
+			pool.read( file, TestHdf5ReaderPool::readData );
+			fail( "no exception for a file that is not an HDF5 file" );
+		}
+		catch ( RuntimeException e )
+		{
+			// expected
+		}
+
+		assertEquals( 0, pool.getNumOpenReaders() );
+
+		// e.g. the file was still being written
+		assertTrue( file.delete() );
+		writeFile( "a.h5", 1 );
+		assertArrayEquals( createData( 1 ), pool.read( file, TestHdf5ReaderPool::readData ) );
+
+		pool.closeAll();
+	}
+
+	@Test
+	public void concurrentReads() throws Exception
+	{
+		final Hdf5ReaderPool pool = createPool( 2 );
+		final File[] files = new File[ 5 ];
+		for ( int i = 0; i < files.length; i++ )
+			files[ i ] = writeFile( "file" + i + ".h5", i );
+
+		final ExecutorService executor = Executors.newFixedThreadPool( 8 );
+		try
+		{
+			final List< Future< Boolean > > results = new ArrayList<>();
+			for ( int i = 0; i < 200; i++ )
+			{
+				final int index = i % files.length;
+				results.add( executor.submit( () -> Arrays.equals( createData( index ), pool.read( files[ index ], TestHdf5ReaderPool::readData ) ) ) );
+			}
+
+			for ( Future< Boolean > result : results )
+				assertTrue( result.get() );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		assertTrue( pool.getNumOpenReaders() <= 2 );
+
+		pool.closeAll();
+	}
+
+	@Test
+	public void pureJava()
+	{
+		final Hdf5ReaderPool pool = new Hdf5ReaderPool( 2, true );
+		final File a = writeFile( "a.h5", 1 );
+		final File b = writeFile( "b.h5", 2 );
+
+		assertArrayEquals( createData( 1 ), pool.read( a, TestHdf5ReaderPool::readData ) );
+		assertArrayEquals( createData( 2 ), pool.read( b, TestHdf5ReaderPool::readData ) );
+		assertArrayEquals( createData( 1 ), pool.read( a, TestHdf5ReaderPool::readData ) );
+		assertEquals( 2, pool.getNumOpenReaders() );
+
+		pool.closeAll();
+	}
+
+	private Hdf5ReaderPool createPool( int maxOpenReaders )
+	{
+		return new Hdf5ReaderPool( maxOpenReaders, false );
+	}
+
+	private File writeFile( String fileName, int seed )
+	{
+		final File file = new File( folder.getRoot(), fileName );
+
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		try
+		{
+			writer.uint16().writeMDArray( "/data", new MDShortArray( createData( seed ), DIMENSIONS ) );
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		return file;
+	}
+
+	private static short[] readData( Hdf5Reader reader )
+	{
+		final short[] data = new short[ DIMENSIONS[ 0 ] * DIMENSIONS[ 1 ] ];
+		reader.readBlock( "/data", data, DIMENSIONS, new long[]{ 0, 0 } );
+		return data;
+	}
+
+	private static short[] createData( int seed )
+	{
+		final short[] data = new short[ DIMENSIONS[ 0 ] * DIMENSIONS[ 1 ] ];
+		for ( int i = 0; i < data.length; i++ )
+			data[ i ] = ( short ) ( 1000 * seed + i );
+
+		return data;
+	}
+}
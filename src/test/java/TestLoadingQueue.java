@@ -0,0 +1,140 @@
+import de.embl.cba.plateviewer.image.cache.LoadingPriorities;
+import de.embl.cba.plateviewer.image.cache.LoadingQueue;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queues loads while the only fetcher thread is blocked, starts new
+ * frames, and checks which of the loads are done and which are dropped.
+ */
+public class TestLoadingQueue
+{
+	private static final long FRAME_INTERVAL_MILLIS = LoadingQueue.MIN_FRAME_INTERVAL_MILLIS + 50;
+	private static final long TIMEOUT_MILLIS = 10_000;
+
+	@Test
+	public void loadOfPreviousFrameIsDone() throws InterruptedException
+	{
+		final LoadingQueue queue = LoadingPriorities.createQueue( 1 );
+		final CountDownLatch blocker = block( queue );
+
+		final AtomicInteger numLoads = new AtomicInteger();
+		queue.put( numLoads::incrementAndGet, LoadingPriorities.VISIBLE, false );
+
+		queue.nextFrame();
+		blocker.countDown();
+
+		waitUntil( () -> numLoads.get() == 1 );
+		assertEquals( 1, queue.getNumQueuedLoads() );
+		assertEquals( 0, queue.getNumCancelledLoads() );
+	}
+
+	@Test
+	public void loadOfOlderFrameIsDropped() throws InterruptedException
+	{
+		final LoadingQueue queue = LoadingPriorities.createQueue( 1 );
+		final CountDownLatch blocker = block( queue );
+
+		final AtomicInteger numLoads = new AtomicInteger();
+		queue.put( numLoads::incrementAndGet, LoadingPriorities.VISIBLE, false );
+		queue.put( numLoads::incrementAndGet, LoadingPriorities.getLevelPriority( 2 ), false );
+
+		nextFrames( queue, LoadingQueue.MAX_FRAME_AGE + 1 );
+
+		// queued again by the renderer, in the current frame
+		queue.put( numLoads::incrementAndGet, LoadingPriorities.VISIBLE, false );
+
+		blocker.countDown();
+
+		waitUntil( () -> queue.getNumCancelledLoads() == 2 );
+		waitUntil( () -> numLoads.get() == 1 );
+		assertEquals( 3, queue.getNumQueuedLoads() );
+
+		// nothing else is done
+		Thread.sleep( 100 );
+		assertEquals( 1, numLoads.get() );
+	}
+
+	@Test
+	public void prefetchLoadIsNotDropped() throws InterruptedException
+	{
+		final LoadingQueue queue = LoadingPriorities.createQueue( 1 );
+		final CountDownLatch blocker = block( queue );
+
+		final AtomicInteger numLoads = new AtomicInteger();
+		queue.put( numLoads::incrementAndGet, LoadingPriorities.PREFETCH, false );
+
+		nextFrames( queue, LoadingQueue.MAX_FRAME_AGE + 2 );
+		blocker.countDown();
+
+		waitUntil( () -> numLoads.get() == 1 );
+		assertEquals( 0, queue.getNumQueuedLoads() );
+		assertEquals( 0, queue.getNumCancelledLoads() );
+	}
+
+	/**
+	 * While the view moves, a new frame starts at most every
+	 * {@link LoadingQueue#MIN_FRAME_INTERVAL_MILLIS}.
+	 */
+	@Test
+	public void framesAreRateLimited() throws InterruptedException
+	{
+		final LoadingQueue queue = LoadingPriorities.createQueue( 1 );
+		final CountDownLatch blocker = block( queue );
+
+		final AtomicInteger numLoads = new AtomicInteger();
+		queue.put( numLoads::incrementAndGet, LoadingPriorities.VISIBLE, false );
+
+		for ( int i = 0; i < 10; i++ )
+			queue.nextFrame();
+
+		blocker.countDown();
+
+		waitUntil( () -> numLoads.get() == 1 );
+		assertEquals( 0, queue.getNumCancelledLoads() );
+	}
+
+	/**
+	 * Occupies the only fetcher thread until the returned latch is counted down.
+	 */
+	private static CountDownLatch block( LoadingQueue queue ) throws InterruptedException
+	{
+		final CountDownLatch started = new CountDownLatch( 1 );
+		final CountDownLatch blocker = new CountDownLatch( 1 );
+
+		queue.put( () -> {
+			started.countDown();
+			return blocker.await( TIMEOUT_MILLIS, TimeUnit.MILLISECONDS );
+		}, LoadingPriorities.PREFETCH, false );
+
+		assertTrue( started.await( TIMEOUT_MILLIS, TimeUnit.MILLISECONDS ) );
+		return blocker;
+	}
+
+	private static void nextFrames( LoadingQueue queue, int numFrames ) throws InterruptedException
+	{
+		for ( int i = 0; i < numFrames; i++ )
+		{
+			queue.nextFrame();
+			Thread.sleep( FRAME_INTERVAL_MILLIS );
+		}
+	}
+
+	private static void waitUntil( BooleanSupplier condition ) throws InterruptedException
+	{
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+		while ( ! condition.getAsBoolean() )
+		{
+			assertTrue( "timed out", System.currentTimeMillis() < deadline );
+			Thread.sleep( 10 );
+		}
+	}
+}
@@ -0,0 +1,207 @@
+import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.image.NamingScheme;
+import de.embl.cba.plateviewer.image.NamingSchemes;
+import de.embl.cba.plateviewer.image.ParsedFileName;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static de.embl.cba.plateviewer.image.NamingScheme.NO_GROUP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the precompiled naming schemes with matching the file names
+ * against a freshly compiled pattern, as it was done on every call before,
+ * for every registered scheme, with the groups that the channel file
+ * providers took the well, site and channel from.
+ */
+public class TestNamingScheme
+{
+	/**
+	 * Pattern, and the groups of well, site and channel, or {@link NamingScheme#NO_GROUP}.
+	 */
+	private static final Object[][] SCHEMES = new Object[][]{
+			{ NamingSchemes.PATTERN_NIKON_TI2_HDF5, 1, 2, NO_GROUP },
+			{ NamingSchemes.PATTERN_MD_A01_SITE_WAVELENGTH, 1, 2, 3 },
+			{ NamingSchemes.PATTERN_MD_A01_SITE, 1, 2, NO_GROUP },
+			{ NamingSchemes.PATTERN_MD_A01_WAVELENGTH, 1, NO_GROUP, 2 },
+			{ NamingSchemes.PATTERN_ALMF_SCREENING_WELL_SITE_CHANNEL, 1, 2, 3 },
+			{ NamingSchemes.PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL, 1, 2, 3 },
+			{ NamingSchemes.PATTERN_ALMF_SCREENING_TREAT1_TREAT2_WELLNUM, 3, NO_GROUP, NO_GROUP },
+			{ NamingSchemes.PATTERN_SCANR_WELLNAME_WELLNUM, 1, NO_GROUP, NO_GROUP } };
+
+	/**
+	 * The order in which the schemes were tried when detecting the scheme of a plate.
+	 */
+	private static final String[] DETECTED_SCHEMES = new String[]{
+			NamingSchemes.PATTERN_NIKON_TI2_HDF5,
+			NamingSchemes.PATTERN_MD_A01_SITE_WAVELENGTH,
+			NamingSchemes.PATTERN_MD_A01_SITE,
+			NamingSchemes.PATTERN_MD_A01_WAVELENGTH,
+			NamingSchemes.PATTERN_ALMF_SCREENING_WELL_SITE_CHANNEL,
+			NamingSchemes.PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL };
+
+	@Test
+	public void parse() throws IOException
+	{
+		final List< File > files = getFiles();
+
+		for ( Object[] scheme : SCHEMES )
+		{
+			final String regExp = ( String ) scheme[ 0 ];
+			final NamingScheme namingScheme = NamingSchemes.get( regExp );
+
+			assertEquals( regExp, namingScheme.getRegExp() );
+
+			int numMatches = 0;
+			for ( File file : files )
+			{
+				final ParsedFileName expected = parseAsBefore( regExp, ( int ) scheme[ 1 ], ( int ) scheme[ 2 ], ( int ) scheme[ 3 ], file.getName() );
+				assertSameParsedFileName( regExp + " " + file.getName(), expected, namingScheme.parse( file.getName() ) );
+				if ( expected != null ) numMatches++;
+			}
+
+			assertTrue( "no test file matches " + regExp, numMatches > 0 );
+		}
+	}
+
+	/**
+	 * Long file lists are parsed in parallel.
+	 */
+	@Test
+	public void parseFileList() throws IOException
+	{
+		final List< File > files = new ArrayList<>();
+		while ( files.size() < 2 * NamingScheme.MIN_FILES_FOR_PARALLEL_PARSING )
+			files.addAll( getFiles() );
+
+		for ( Object[] scheme : SCHEMES )
+		{
+			final String regExp = ( String ) scheme[ 0 ];
+			final NamingScheme namingScheme = NamingSchemes.get( regExp );
+
+			for ( List< File > fileList : Arrays.asList( files.subList( 0, 10 ), files ) )
+			{
+				final ParsedFileName[] parsedFileNames = namingScheme.parse( fileList );
+				assertEquals( fileList.size(), parsedFileNames.length );
+
+				for ( int i = 0; i < fileList.size(); i++ )
+				{
+					final String fileName = fileList.get( i ).getName();
+					final ParsedFileName expected = parseAsBefore( regExp, ( int ) scheme[ 1 ], ( int ) scheme[ 2 ], ( int ) scheme[ 3 ], fileName );
+					assertSameParsedFileName( regExp + " " + fileName, expected, parsedFileNames[ i ] );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void detectNamingScheme() throws IOException
+	{
+		for ( File file : getFiles() )
+		{
+			String expected = Utils.PATTERN_NO_MATCH;
+			for ( String regExp : DETECTED_SCHEMES )
+			{
+				if ( Pattern.compile( regExp ).matcher( file.getAbsolutePath() ).matches() )
+				{
+					expected = regExp;
+					break;
+				}
+			}
+
+			assertEquals( file.getName(), expected, NamingSchemes.getNamingScheme( file ) );
+		}
+	}
+
+	/**
+	 * Patterns that are not registered, e.g. given by the user,
+	 * have the well in the first group and the site in the second.
+	 */
+	@Test
+	public void userPattern()
+	{
+		final String regExp = ".*_([A-Z][0-9]{2})_site([0-9]+)\\.tif";
+		final NamingScheme namingScheme = NamingSchemes.get( regExp );
+
+		assertTrue( namingScheme == NamingSchemes.get( regExp ) );
+
+		final ParsedFileName parsedFileName = namingScheme.parse( "plate_B07_site12.tif" );
+		assertEquals( "B07", parsedFileName.getWell() );
+		assertEquals( "12", parsedFileName.getSite() );
+		assertNull( parsedFileName.getChannel() );
+
+		assertNull( namingScheme.parse( "plate_B07_site12.png" ) );
+	}
+
+	/**
+	 * @return the files of the test plates, and names of the other schemes
+	 */
+	private static List< File > getFiles() throws IOException
+	{
+		final File resources = new File( TestNamingScheme.class.getResource( "SCANR-C2-S1-T1" ).getFile() ).getParentFile();
+
+		final List< File > files;
+		try ( Stream< Path > walk = Files.walk( resources.toPath() ) )
+		{
+			files = walk.filter( Files::isRegularFile ).map( Path::toFile ).collect( Collectors.toList() );
+		}
+
+		final File directory = new File( resources, "plate" );
+		final String[] fileNames = new String[]{
+				"WellC01_PointC01_0000_ChannelDAPI,WF_GFP,TRITC,WF_Cy5_Seq0216.h5",
+				"WellH12_PointA05_0123_ChannelDAPI_Seq0001.h5",
+				"MyPlate_B03_s1_w1.tif",
+				"MyPlate_B03_s12_w2_thumb.tif",
+				"MyPlate_C04_s2.tif",
+				"MyPlate_C04_s2_thumb.tif",
+				"MyPlate_D10_w1.tif",
+				"MyPlate_D10_DAPI.tif",
+				"screen--treatment1--treatment2--W0012--P003--T00000--Z000--C02.ome.tif",
+				"A3--W00003--P00004--Z00000--T00000--Cy5.tif",
+				"B12--W00024--P00010--Z00001--T00003--DAPI.tiff",
+				"plate.csv",
+				"no-scheme.tif" };
+
+		for ( String fileName : fileNames )
+			files.add( new File( directory, fileName ) );
+
+		return files;
+	}
+
+	private static ParsedFileName parseAsBefore( String regExp, int wellGroup, int siteGroup, int channelGroup, String fileName )
+	{
+		final Matcher matcher = Pattern.compile( regExp ).matcher( fileName );
+		if ( ! matcher.matches() ) return null;
+
+		return new ParsedFileName(
+				wellGroup == NO_GROUP ? null : matcher.group( wellGroup ),
+				siteGroup == NO_GROUP ? null : matcher.group( siteGroup ),
+				channelGroup == NO_GROUP ? null : matcher.group( channelGroup ) );
+	}
+
+	private static void assertSameParsedFileName( String message, ParsedFileName expected, ParsedFileName actual )
+	{
+		if ( expected == null )
+		{
+			assertNull( message, actual );
+			return;
+		}
+
+		assertEquals( message, expected.getWell(), actual.getWell() );
+		assertEquals( message, expected.getSite(), actual.getSite() );
+		assertEquals( message, expected.getChannel(), actual.getChannel() );
+	}
+}
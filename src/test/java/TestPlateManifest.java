@@ -0,0 +1,205 @@
+import de.embl.cba.plateviewer.PlateViewerSettings;
+import de.embl.cba.plateviewer.channel.ChannelProperties;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteTable;
+import de.embl.cba.plateviewer.io.FileUtils;
+import de.embl.cba.plateviewer.io.PlateManifest;
+import net.imglib2.FinalInterval;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes the manifest of a small plate, reads it back, and checks
+ * when it is considered fresh.
+ */
+public class TestPlateManifest
+{
+	private static final String FILE_PATTERN = ".*\\.tif";
+	private static final String NAMING_SCHEME = "scheme";
+	private static final int[] IMAGE_DIMENSIONS = new int[]{ 30, 20 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws IOException
+	{
+		final File plateDirectory = createPlate();
+		final List< File > plateFiles = getPlateFiles( plateDirectory );
+		final PlateManifest manifest = createManifest( plateDirectory, plateFiles );
+
+		final List< SingleSiteChannelFile > sites = new ArrayList<>();
+		for ( int i = 0; i < plateFiles.size(); i++ )
+		{
+			final long[] min = new long[]{ ( i % 2 ) * IMAGE_DIMENSIONS[ 0 ], ( i / 2 ) * IMAGE_DIMENSIONS[ 1 ] };
+			final long[] max = new long[]{ min[ 0 ] + IMAGE_DIMENSIONS[ 0 ] - 1, min[ 1 ] + IMAGE_DIMENSIONS[ 1 ] - 1 };
+			sites.add( new SingleSiteChannelFile( plateFiles.get( i ), new FinalInterval( min, max ), "s" + i, "A0" + ( i / 2 ) ) );
+		}
+
+		final PlateManifest.ChannelImage image = new PlateManifest.ChannelImage();
+		image.dataType = "uint16";
+		image.contrastLimits = new double[]{ 10, 200 };
+		image.imageDimensions.add( IMAGE_DIMENSIONS );
+		image.wellNames.addAll( Arrays.asList( "A00", "A01" ) );
+		image.setSites( SiteTable.create( sites ), manifest.getFileIndices() );
+		manifest.setChannelImage( "dapi", image );
+		assertTrue( manifest.isModified() );
+
+		final File manifestFile = new File( folder.getRoot(), "cache/" + PlateManifest.FILE_NAME );
+		manifest.write( manifestFile );
+		assertFalse( manifest.isModified() );
+
+		final PlateManifest read = PlateManifest.read( manifestFile );
+		assertNotNull( read );
+		assertFalse( read.isModified() );
+
+		assertEquals( NAMING_SCHEME, read.namingScheme );
+		assertEquals( plateFiles, read.getFiles() );
+		assertEquals( 2, ( int ) read.getFileIndices().get( plateFiles.get( 2 ) ) );
+		assertEquals( Arrays.asList( "dapi", "gfp" ), new ArrayList<>( read.getChannelProperties().keySet() ) );
+		assertEquals( ".*_gfp\\.tif", read.getChannelProperties().get( "gfp" ).regExp );
+		assertFalse( read.getChannelProperties().get( "gfp" ).isInitiallyVisible );
+		assertNull( read.getChannelImage( "gfp" ) );
+
+		final PlateManifest.ChannelImage readImage = read.getChannelImage( "dapi" );
+		assertEquals( "uint16", readImage.dataType );
+		assertArrayEquals( new double[]{ 10, 200 }, readImage.contrastLimits, 0 );
+		assertArrayEquals( IMAGE_DIMENSIONS, readImage.imageDimensions.get( 0 ) );
+		assertEquals( Arrays.asList( "A00", "A01" ), readImage.wellNames );
+
+		final List< SingleSiteChannelFile > readSites = readImage.createSiteTable( read.getFiles() ).getSites( IMAGE_DIMENSIONS, null );
+		assertEquals( sites.size(), readSites.size() );
+		for ( int i = 0; i < sites.size(); i++ )
+		{
+			assertEquals( sites.get( i ).getFile(), readSites.get( i ).getFile() );
+			assertEquals( sites.get( i ).getSiteName(), readSites.get( i ).getSiteName() );
+			assertEquals( sites.get( i ).getWellName(), readSites.get( i ).getWellName() );
+			assertEquals( sites.get( i ).getInterval().min( 0 ), readSites.get( i ).getInterval().min( 0 ) );
+			assertEquals( sites.get( i ).getInterval().min( 1 ), readSites.get( i ).getInterval().min( 1 ) );
+			assertEquals( sites.get( i ).getInterval().max( 0 ), readSites.get( i ).getInterval().max( 0 ) );
+			assertEquals( sites.get( i ).getInterval().max( 1 ), readSites.get( i ).getInterval().max( 1 ) );
+		}
+
+		read.setChannelImage( "gfp", new PlateManifest.ChannelImage() );
+		assertTrue( read.isModified() );
+	}
+
+	@Test
+	public void isFresh() throws IOException
+	{
+		final File plateDirectory = createPlate();
+		final PlateManifest manifest = createManifest( plateDirectory, getPlateFiles( plateDirectory ) );
+
+		assertTrue( manifest.isFresh( plateDirectory, FILE_PATTERN, true ) );
+		assertFalse( manifest.isFresh( plateDirectory, ".*", true ) );
+		assertFalse( manifest.isFresh( plateDirectory, FILE_PATTERN, false ) );
+		assertFalse( manifest.isFresh( folder.getRoot(), FILE_PATTERN, true ) );
+
+		// a file is added to a sub-folder
+		assertTrue( new File( plateDirectory, "sub/C_dapi.tif" ).createNewFile() );
+		assertFalse( manifest.isFresh( plateDirectory, FILE_PATTERN, true ) );
+	}
+
+	/**
+	 * The cache directory next to the plate is not part of the plate.
+	 */
+	@Test
+	public void cacheDirectoryIsIgnored() throws IOException
+	{
+		final File plateDirectory = createPlate();
+		final File cacheDirectory = new File( plateDirectory, PlateViewerSettings.PLATE_CACHE_DIRECTORY_NAME );
+		assertTrue( cacheDirectory.mkdir() );
+		final long past = System.currentTimeMillis() - 10_000;
+		assertTrue( plateDirectory.setLastModified( past ) );
+		assertTrue( cacheDirectory.setLastModified( past ) );
+
+		final List< File > directories = Collections.synchronizedList( new ArrayList<>() );
+		FileUtils.walkFiles( plateDirectory, FILE_PATTERN, true, file -> {}, directories::add );
+		assertFalse( directories.contains( cacheDirectory ) );
+
+		final PlateManifest manifest = PlateManifest.create( plateDirectory, FILE_PATTERN, true, getPlateFiles( plateDirectory ), Arrays.asList( plateDirectory, new File( plateDirectory, "sub" ), cacheDirectory ), NAMING_SCHEME, new LinkedHashMap<>() );
+		assertFalse( manifest.directoryModificationTimes.containsKey( PlateViewerSettings.PLATE_CACHE_DIRECTORY_NAME ) );
+
+		// the viewer writes into the cache
+		assertTrue( new File( cacheDirectory, PlateManifest.FILE_NAME ).createNewFile() );
+		assertTrue( manifest.isFresh( plateDirectory, FILE_PATTERN, true ) );
+	}
+
+	@Test
+	public void readMissingOrOutdated() throws IOException
+	{
+		assertNull( PlateManifest.read( new File( folder.getRoot(), "missing.json.gz" ) ) );
+
+		final File manifestFile = new File( folder.getRoot(), PlateManifest.FILE_NAME );
+		try ( OutputStream stream = new GZIPOutputStream( new FileOutputStream( manifestFile ) ) )
+		{
+			stream.write( ( "{\"version\":" + ( PlateManifest.VERSION + 1 ) + "}" ).getBytes( StandardCharsets.UTF_8 ) );
+		}
+
+		assertNull( PlateManifest.read( manifestFile ) );
+	}
+
+	/**
+	 * @return a plate with a sub-folder, whose directories were modified
+	 * 			in the past, such that adding a file changes their modification time
+	 */
+	private File createPlate() throws IOException
+	{
+		final File plateDirectory = folder.newFolder( "plate" );
+		final File subFolder = new File( plateDirectory, "sub" );
+		assertTrue( subFolder.mkdir() );
+
+		for ( String fileName : new String[]{ "A_dapi.tif", "A_gfp.tif" } )
+			assertTrue( new File( plateDirectory, fileName ).createNewFile() );
+
+		for ( String fileName : new String[]{ "B_dapi.tif", "B_gfp.tif" } )
+			assertTrue( new File( subFolder, fileName ).createNewFile() );
+
+		final long past = System.currentTimeMillis() - 10_000;
+		assertTrue( plateDirectory.setLastModified( past ) );
+		assertTrue( subFolder.setLastModified( past ) );
+
+		return plateDirectory;
+	}
+
+	private static List< File > getPlateFiles( File plateDirectory )
+	{
+		return Arrays.asList(
+				new File( plateDirectory, "A_dapi.tif" ),
+				new File( plateDirectory, "A_gfp.tif" ),
+				new File( plateDirectory, "sub/B_dapi.tif" ),
+				new File( plateDirectory, "sub/B_gfp.tif" ) );
+	}
+
+	private static PlateManifest createManifest( File plateDirectory, List< File > plateFiles )
+	{
+		final Map< String, ChannelProperties > channels = new LinkedHashMap<>();
+		channels.put( "dapi", new ChannelProperties( "dapi", ".*_dapi\\.tif", true ) );
+		channels.put( "gfp", new ChannelProperties( "gfp", ".*_gfp\\.tif", false ) );
+
+		final List< File > directories = Arrays.asList( plateDirectory, new File( plateDirectory, "sub" ) );
+
+		return PlateManifest.create( plateDirectory, FILE_PATTERN, true, plateFiles, directories, NAMING_SCHEME, channels );
+	}
+}
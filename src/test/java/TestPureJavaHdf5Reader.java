@@ -0,0 +1,375 @@
+import ch.systemsx.cisd.base.mdarray.MDByteArray;
+import ch.systemsx.cisd.base.mdarray.MDFloatArray;
+import ch.systemsx.cisd.base.mdarray.MDIntArray;
+import ch.systemsx.cisd.base.mdarray.MDShortArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.HDF5FloatStorageFeatures;
+import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+import de.embl.cba.plateviewer.io.hdf5.PureJavaHdf5Reader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads the same blocks with the pure Java reader and with the native
+ * HDF5 library (JHDF5) and compares them.
+ *
+ * The data sets are written by JHDF5, with the different layouts and
+ * filters; their dimensions are not multiples of the chunk dimensions,
+ * thus the edge chunks are partial.
+ */
+public class TestPureJavaHdf5Reader
+{
+	private static final int HEIGHT = 230;
+	private static final int WIDTH = 310;
+	private static final int[] CHUNK_DIMENSIONS = new int[]{ 64, 48 };
+
+	/**
+	 * y, x offsets and dimensions: the full data set, a block within one
+	 * chunk, blocks across chunk edges and a block at the far corner.
+	 */
+	private static final int[][] BLOCKS = new int[][]{
+			{ 0, 0, HEIGHT, WIDTH },
+			{ 64, 48, 20, 30 },
+			{ 50, 40, 70, 90 },
+			{ 1, 47, 128, 2 },
+			{ 100, 0, 1, WIDTH },
+			{ HEIGHT - 37, WIDTH - 51, 37, 51 } };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void compact()
+	{
+		final File file = new File( folder.getRoot(), "compact.h5" );
+		final int[] dimensions = new int[]{ 40, 50 };
+
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		try
+		{
+			writer.uint8().writeMDArray( "/data", new MDByteArray( createBytes( dimensions[ 0 ] * dimensions[ 1 ] ), dimensions ), HDF5IntStorageFeatures.INT_COMPACT );
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		assertSameBytes( file, "/data", new int[]{ 0, 0, 40, 50 } );
+		assertSameBytes( file, "/data", new int[]{ 13, 7, 20, 30 } );
+	}
+
+	@Test
+	public void contiguous()
+	{
+		final File file = writeShorts( "contiguous.h5", HDF5IntStorageFeatures.INT_CONTIGUOUS, false );
+
+		assertTrue( isContiguous( file, "/data" ) );
+
+		for ( int[] block : BLOCKS )
+			assertSameShorts( file, "/data", block );
+	}
+
+	@Test
+	public void chunked()
+	{
+		final File file = writeShorts( "chunked.h5", HDF5IntStorageFeatures.INT_CHUNKED, true );
+
+		assertFalse( isContiguous( file, "/data" ) );
+
+		for ( int[] block : BLOCKS )
+			assertSameShorts( file, "/data", block );
+	}
+
+	@Test
+	public void deflate()
+	{
+		final File file = writeShorts( "deflate.h5", HDF5IntStorageFeatures.INT_DEFLATE, true );
+
+		for ( int[] block : BLOCKS )
+			assertSameShorts( file, "/data", block );
+	}
+
+	@Test
+	public void shuffleDeflate()
+	{
+		final File file = writeShorts( "shuffle-deflate.h5", HDF5IntStorageFeatures.INT_SHUFFLE_DEFLATE, true );
+
+		for ( int[] block : BLOCKS )
+			assertSameShorts( file, "/data", block );
+	}
+
+	@Test
+	public void deflateUnsignedInt()
+	{
+		final File file = new File( folder.getRoot(), "uint32.h5" );
+
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		try
+		{
+			writer.uint32().createMDArray( "/data", new long[]{ HEIGHT, WIDTH }, CHUNK_DIMENSIONS, HDF5IntStorageFeatures.INT_SHUFFLE_DEFLATE );
+			writer.uint32().writeMDArrayBlockWithOffset( "/data", new MDIntArray( createInts( HEIGHT * WIDTH ), new int[]{ HEIGHT, WIDTH } ), new long[]{ 0, 0 } );
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		for ( int[] block : BLOCKS )
+		{
+			final int[] expected;
+			final IHDF5Reader reader = HDF5Factory.openForReading( file );
+			try
+			{
+				expected = reader.uint32().readMDArrayBlockWithOffset( "/data", getDimensions( block ), getOffset( block ) ).getAsFlatArray();
+			}
+			finally
+			{
+				reader.close();
+			}
+
+			final int[] actual = new int[ block[ 2 ] * block[ 3 ] ];
+			readPureJava( file, "/data", actual, block );
+
+			assertArrayEquals( expected, actual );
+		}
+	}
+
+	@Test
+	public void deflateFloat()
+	{
+		final File file = new File( folder.getRoot(), "float32.h5" );
+
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		try
+		{
+			writer.float32().createMDArray( "/data", new long[]{ HEIGHT, WIDTH }, CHUNK_DIMENSIONS, HDF5FloatStorageFeatures.FLOAT_DEFLATE );
+			writer.float32().writeMDArrayBlockWithOffset( "/data", new MDFloatArray( createFloats( HEIGHT * WIDTH ), new int[]{ HEIGHT, WIDTH } ), new long[]{ 0, 0 } );
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		for ( int[] block : BLOCKS )
+		{
+			final float[] expected;
+			final IHDF5Reader reader = HDF5Factory.openForReading( file );
+			try
+			{
+				expected = reader.float32().readMDArrayBlockWithOffset( "/data", getDimensions( block ), getOffset( block ) ).getAsFlatArray();
+			}
+			finally
+			{
+				reader.close();
+			}
+
+			final float[] actual = new float[ block[ 2 ] * block[ 3 ] ];
+			readPureJava( file, "/data", actual, block );
+
+			assertArrayEquals( expected, actual, 0 );
+		}
+	}
+
+	/**
+	 * A plate file that was written by the BatchLib pipeline,
+	 * with one three dimensional, chunked data set.
+	 */
+	@Test
+	public void batchLibFile()
+	{
+		final File file = new File( TestPureJavaHdf5Reader.class.getResource( "tmp/WellC01_PointC01_0000_ChannelDAPI,WF_GFP,TRITC,WF_Cy5_Seq0216.h5" ).getFile() );
+
+		final long[] dimensions;
+		final IHDF5Reader reader = HDF5Factory.openForReading( file );
+		try
+		{
+			dimensions = reader.object().getDataSetInformation( "/raw" ).getDimensions();
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		final PureJavaHdf5Reader pureJavaReader = new PureJavaHdf5Reader( file );
+		try
+		{
+			assertArrayEquals( dimensions, pureJavaReader.getDataSetInfo( "/raw" ).getDimensions() );
+		}
+		finally
+		{
+			pureJavaReader.close();
+		}
+
+		final int height = ( int ) dimensions[ 1 ];
+		final int width = ( int ) dimensions[ 2 ];
+
+		for ( int channel = 0; channel < dimensions[ 0 ]; channel++ )
+		{
+			assertSameShorts( file, "/raw", new int[]{ channel, 0, 0, 1, height, width } );
+			assertSameShorts( file, "/raw", new int[]{ channel, height / 2 - 50, width / 2 - 70, 1, 100, 140 } );
+			assertSameShorts( file, "/raw", new int[]{ channel, height - 33, width - 17, 1, 33, 17 } );
+		}
+
+		assertSameShorts( file, "/raw", new int[]{ 0, 11, 13, ( int ) dimensions[ 0 ], 200, 300 } );
+	}
+
+	private File writeShorts( String fileName, HDF5IntStorageFeatures features, boolean chunked )
+	{
+		final File file = new File( folder.getRoot(), fileName );
+		final MDShortArray data = new MDShortArray( createShorts( HEIGHT * WIDTH ), new int[]{ HEIGHT, WIDTH } );
+
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		try
+		{
+			if ( chunked )
+			{
+				writer.uint16().createMDArray( "/data", new long[]{ HEIGHT, WIDTH }, CHUNK_DIMENSIONS, features );
+				writer.uint16().writeMDArrayBlockWithOffset( "/data", data, new long[]{ 0, 0 } );
+			}
+			else
+			{
+				writer.uint16().writeMDArray( "/data", data, features );
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		return file;
+	}
+
+	/**
+	 * @param block
+	 * 				offsets followed by dimensions, for two or three dimensions
+	 */
+	private static void assertSameShorts( File file, String dataSet, int[] block )
+	{
+		final short[] expected;
+		final IHDF5Reader reader = HDF5Factory.openForReading( file );
+		try
+		{
+			expected = reader.uint16().readMDArrayBlockWithOffset( dataSet, getDimensions( block ), getOffset( block ) ).getAsFlatArray();
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		final short[] actual = new short[ expected.length ];
+		readPureJava( file, dataSet, actual, block );
+
+		assertArrayEquals( "block " + Arrays.toString( block ), expected, actual );
+	}
+
+	private static void assertSameBytes( File file, String dataSet, int[] block )
+	{
+		final byte[] expected;
+		final IHDF5Reader reader = HDF5Factory.openForReading( file );
+		try
+		{
+			expected = reader.uint8().readMDArrayBlockWithOffset( dataSet, getDimensions( block ), getOffset( block ) ).getAsFlatArray();
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		final byte[] actual = new byte[ expected.length ];
+		readPureJava( file, dataSet, actual, block );
+
+		assertArrayEquals( expected, actual );
+	}
+
+	private static void readPureJava( File file, String dataSet, Object array, int[] block )
+	{
+		final PureJavaHdf5Reader reader = new PureJavaHdf5Reader( file );
+		try
+		{
+			reader.readBlock( dataSet, array, getDimensions( block ), getOffset( block ) );
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static boolean isContiguous( File file, String dataSet )
+	{
+		final PureJavaHdf5Reader reader = new PureJavaHdf5Reader( file );
+		try
+		{
+			return reader.isContiguous( dataSet );
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static int[] getDimensions( int[] block )
+	{
+		final int n = block.length / 2;
+		final int[] dimensions = new int[ n ];
+		System.arraycopy( block, n, dimensions, 0, n );
+		return dimensions;
+	}
+
+	private static long[] getOffset( int[] block )
+	{
+		final int n = block.length / 2;
+		final long[] offset = new long[ n ];
+		for ( int d = 0; d < n; d++ )
+			offset[ d ] = block[ d ];
+		return offset;
+	}
+
+	/**
+	 * Smooth with noise, such that the filters have something to compress.
+	 */
+	private static short[] createShorts( int length )
+	{
+		final Random random = new Random( 42 );
+		final short[] values = new short[ length ];
+		for ( int i = 0; i < length; i++ )
+			values[ i ] = ( short ) ( 1000 + 30 * ( i % WIDTH ) + 7 * ( i / WIDTH ) + random.nextInt( 50 ) );
+		return values;
+	}
+
+	private static byte[] createBytes( int length )
+	{
+		final Random random = new Random( 43 );
+		final byte[] values = new byte[ length ];
+		random.nextBytes( values );
+		return values;
+	}
+
+	private static int[] createInts( int length )
+	{
+		final Random random = new Random( 44 );
+		final int[] values = new int[ length ];
+		for ( int i = 0; i < length; i++ )
+			values[ i ] = 100_000 * ( i % 17 ) + random.nextInt( 1000 );
+		return values;
+	}
+
+	private static float[] createFloats( int length )
+	{
+		final Random random = new Random( 45 );
+		final float[] values = new float[ length ];
+		for ( int i = 0; i < length; i++ )
+			values[ i ] = ( float ) ( Math.sin( i * 0.01 ) + 0.1 * random.nextGaussian() );
+		return values;
+	}
+}
@@ -0,0 +1,199 @@
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteIndex;
+import de.embl.cba.plateviewer.image.SiteTable;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.util.Intervals;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the grid lookups of {@link SiteIndex} with a linear search
+ * over the sites, which is how sites were looked up before.
+ */
+public class TestSiteIndex
+{
+	private static final int[] SITE_DIMENSIONS = new int[]{ 30, 20 };
+
+	/**
+	 * A sparse plate: some positions have no site, one has two.
+	 */
+	private static final int[][] POSITIONS = new int[][]{
+			{ 0, 0 }, { 1, 0 }, { 3, 0 },
+			{ 0, 1 }, { 2, 1 }, { 3, 1 },
+			{ 1, 3 }, { 2, 3 },
+			{ 2, 1 } };
+
+	@Test
+	public void siteAtPosition()
+	{
+		final List< SingleSiteChannelFile > sites = createSites( SITE_DIMENSIONS );
+		final SiteIndex siteIndex = new SiteIndex( sites );
+
+		for ( long y = -25; y < 5 * SITE_DIMENSIONS[ 1 ] + 3; y++ )
+			for ( long x = -35; x < 5 * SITE_DIMENSIONS[ 0 ] + 7; x++ )
+			{
+				final int expected = findSite( sites, x, y );
+				assertEquals( "at " + x + ", " + y, expected, siteIndex.getIndex( x, y ) );
+				assertSameSite( expected < 0 ? null : sites.get( expected ), siteIndex.getSite( x, y ) );
+			}
+	}
+
+	/**
+	 * All resolution levels share the table, with their own site dimensions.
+	 */
+	@Test
+	public void siteAtPositionOfLowerResolution()
+	{
+		final SiteTable siteTable = new SiteIndex( createSites( SITE_DIMENSIONS ) ).getSiteTable();
+
+		final int[] siteDimensions = new int[]{ 8, 5 };
+		final List< SingleSiteChannelFile > sites = createSites( siteDimensions );
+		final SiteIndex siteIndex = new SiteIndex( siteTable, siteDimensions, null );
+
+		for ( long y = -1; y < 5 * siteDimensions[ 1 ]; y++ )
+			for ( long x = -1; x < 5 * siteDimensions[ 0 ]; x++ )
+				assertEquals( findSite( sites, x, y ), siteIndex.getIndex( x, y ) );
+
+		assertEquals( sites.get( 4 ).getInterval().min( 0 ), siteIndex.getSite( 4 ).getInterval().min( 0 ) );
+		assertEquals( sites.get( 4 ).getInterval().max( 1 ), siteIndex.getSite( 4 ).getInterval().max( 1 ) );
+	}
+
+	@Test
+	public void siteIntersectingInterval()
+	{
+		final List< SingleSiteChannelFile > sites = createSites( SITE_DIMENSIONS );
+		final SiteIndex siteIndex = new SiteIndex( sites );
+
+		final long[][] intervals = new long[][]{
+				{ 0, 0, 10, 10 },
+				{ 25, 15, 35, 25 },
+				{ 60, 0, 89, 19 },
+				{ 61, 41, 62, 42 },
+				{ -50, -50, -1, -1 },
+				{ -10, -10, 200, 200 },
+				{ 45, 30, 75, 65 },
+				{ 110, 70, 130, 90 } };
+
+		for ( long[] minMax : intervals )
+		{
+			final FinalInterval interval = Intervals.createMinMax( minMax );
+			final int expected = findIntersectingSite( sites, interval );
+			assertEquals( Arrays.toString( minMax ), expected, siteIndex.getIntersectingIndex( interval ) );
+			assertSameSite( expected < 0 ? null : sites.get( expected ), siteIndex.getIntersectingSite( interval ) );
+		}
+	}
+
+	@Test
+	public void siteByName()
+	{
+		final List< SingleSiteChannelFile > sites = createSites( SITE_DIMENSIONS );
+		final SiteIndex siteIndex = new SiteIndex( sites );
+
+		for ( SingleSiteChannelFile site : sites )
+			assertSameSite( sites.get( findSite( sites, site.getSiteName() ) ), siteIndex.getSite( site.getSiteName() ) );
+
+		assertNull( siteIndex.getSite( "no such site" ) );
+	}
+
+	/**
+	 * Sites that are not aligned to a grid of their size are not supported.
+	 */
+	@Test
+	public void irregularLayout()
+	{
+		final List< SingleSiteChannelFile > sites = createSites( SITE_DIMENSIONS );
+		sites.add( new SingleSiteChannelFile( new File( "shifted.tif" ), Intervals.createMinMax( 15, 10, 44, 29 ), "shifted", "well0" ) );
+
+		try
+		{
+			new SiteIndex( sites );
+			fail( "no exception for a site that is not aligned to the grid" );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void emptyPlate()
+	{
+		final SiteIndex siteIndex = new SiteIndex( new ArrayList<>() );
+
+		assertEquals( 0, siteIndex.size() );
+		assertEquals( -1, siteIndex.getIndex( 0, 0 ) );
+		assertNull( siteIndex.getSite( "A01" ) );
+	}
+
+	private static List< SingleSiteChannelFile > createSites( int[] siteDimensions )
+	{
+		final List< SingleSiteChannelFile > sites = new ArrayList<>();
+
+		for ( int i = 0; i < POSITIONS.length; i++ )
+		{
+			final long[] min = new long[]{ POSITIONS[ i ][ 0 ] * siteDimensions[ 0 ], POSITIONS[ i ][ 1 ] * siteDimensions[ 1 ] };
+			final long[] max = new long[]{ min[ 0 ] + siteDimensions[ 0 ] - 1, min[ 1 ] + siteDimensions[ 1 ] - 1 };
+
+			// the last site has the name of the first one
+			final String siteName = i == POSITIONS.length - 1 ? "site0" : "site" + i;
+			final String wellName = "well" + POSITIONS[ i ][ 1 ] / 2;
+
+			sites.add( new SingleSiteChannelFile( new File( "site" + i + ".tif" ), new FinalInterval( min, max ), siteName, wellName ) );
+		}
+
+		return sites;
+	}
+
+	private static int findSite( List< SingleSiteChannelFile > sites, long x, long y )
+	{
+		for ( int i = 0; i < sites.size(); i++ )
+			if ( Intervals.contains( sites.get( i ).getInterval(), new long[]{ x, y } ) )
+				return i;
+
+		return -1;
+	}
+
+	private static int findIntersectingSite( List< SingleSiteChannelFile > sites, Interval interval )
+	{
+		for ( int i = 0; i < sites.size(); i++ )
+			if ( ! Intervals.isEmpty( Intervals.intersect( sites.get( i ).getInterval(), interval ) ) )
+				return i;
+
+		return -1;
+	}
+
+	private static int findSite( List< SingleSiteChannelFile > sites, String siteName )
+	{
+		for ( int i = 0; i < sites.size(); i++ )
+			if ( sites.get( i ).getSiteName().equals( siteName ) )
+				return i;
+
+		return -1;
+	}
+
+	private static void assertSameSite( SingleSiteChannelFile expected, SingleSiteChannelFile actual )
+	{
+		if ( expected == null )
+		{
+			assertNull( actual );
+			return;
+		}
+
+		assertEquals( expected.getFile(), actual.getFile() );
+		assertEquals( expected.getSiteName(), actual.getSiteName() );
+		assertEquals( expected.getWellName(), actual.getWellName() );
+		assertEquals( expected.getInterval().min( 0 ), actual.getInterval().min( 0 ) );
+		assertEquals( expected.getInterval().min( 1 ), actual.getInterval().min( 1 ) );
+		assertEquals( expected.getInterval().max( 0 ), actual.getInterval().max( 0 ) );
+		assertEquals( expected.getInterval().max( 1 ), actual.getInterval().max( 1 ) );
+	}
+}
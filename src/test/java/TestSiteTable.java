@@ -0,0 +1,281 @@
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.SiteTable;
+import net.imglib2.FinalInterval;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the site table that {@link de.embl.cba.plateviewer.image.SiteIndex} and the
+ * channel file providers share, created from sites and from file lists.
+ */
+public class TestSiteTable
+{
+	private static final int[] SITE_DIMENSIONS = new int[]{ 30, 20 };
+
+	/**
+	 * Column, row, file, site name and well name of each site:
+	 * a sparse plate, with two sites at one position, a duplicate
+	 * site name, and two channels of a site in one file.
+	 */
+	private static final Object[][] SITES = new Object[][]{
+			{ 1, 0, "B.tif", "s1", "B01" },
+			{ 0, 0, "A.tif", "s0", "A01" },
+			{ 3, 2, "C.tif", "s2", "B01" },
+			{ 0, 2, "A.tif", "s3", "C01" },
+			{ 3, 2, "D.tif", "s4", "C01" },
+			{ 2, 1, "E.tif", "s0", "A01" } };
+
+	@Test
+	public void createFromSites()
+	{
+		final List< SingleSiteChannelFile > sites = createSites();
+		final SiteTable siteTable = SiteTable.create( sites );
+
+		assertEquals( SITES.length, siteTable.size() );
+		assertEquals( Arrays.asList( new File( "B.tif" ), new File( "A.tif" ), new File( "C.tif" ), new File( "D.tif" ), new File( "E.tif" ) ), siteTable.getFiles() );
+
+		for ( int i = 0; i < SITES.length; i++ )
+		{
+			assertEquals( sites.get( i ).getFile(), siteTable.getFile( i ) );
+			assertEquals( siteTable.getFiles().get( siteTable.getFileIndex( i ) ), siteTable.getFile( i ) );
+			assertEquals( SITES[ i ][ 3 ], siteTable.getSiteName( i ) );
+			assertEquals( SITES[ i ][ 4 ], siteTable.getWellName( i ) );
+			assertEquals( SITES[ i ][ 0 ], siteTable.getSiteX( i ) );
+			assertEquals( SITES[ i ][ 1 ], siteTable.getSiteY( i ) );
+		}
+
+		assertEquals( siteTable.getFileIndex( 1 ), siteTable.getFileIndex( 3 ) );
+	}
+
+	@Test
+	public void createFromFiles()
+	{
+		final List< File > files = Arrays.asList( new File( "A.tif" ), new File( "B.tif" ), new File( "notes.txt" ), new File( "C.tif" ) );
+		final String[] siteNames = new String[]{ "s0", "s1", null, "s2" };
+		final String[] wellNames = new String[]{ "A01", "A01", null, "A02" };
+		final int[][] positions = new int[][]{ { 0, 0 }, { 1, 0 }, null, { 0, 1 } };
+
+		final SiteTable siteTable = SiteTable.create( files, siteNames, wellNames, positions );
+
+		assertTrue( files == siteTable.getFiles() );
+		assertEquals( 3, siteTable.size() );
+
+		final int[] expectedFileIndices = new int[]{ 0, 1, 3 };
+		for ( int i = 0; i < siteTable.size(); i++ )
+		{
+			final int fileIndex = expectedFileIndices[ i ];
+			assertEquals( fileIndex, siteTable.getFileIndex( i ) );
+			assertEquals( files.get( fileIndex ), siteTable.getFile( i ) );
+			assertEquals( siteNames[ fileIndex ], siteTable.getSiteName( i ) );
+			assertEquals( wellNames[ fileIndex ], siteTable.getWellName( i ) );
+			assertEquals( positions[ fileIndex ][ 0 ], siteTable.getSiteX( i ) );
+			assertEquals( positions[ fileIndex ][ 1 ], siteTable.getSiteY( i ) );
+		}
+
+		assertArrayEquals( new int[]{ 2, 2 }, siteTable.getGridSize() );
+	}
+
+	@Test
+	public void misalignedSite()
+	{
+		final List< SingleSiteChannelFile > sites = createSites();
+		sites.add( createSite( new File( "F.tif" ), new long[]{ 35, 0 }, SITE_DIMENSIONS, "s5", "A01" ) );
+
+		assertCreateFails( sites );
+	}
+
+	@Test
+	public void siteOfOtherSize()
+	{
+		final List< SingleSiteChannelFile > sites = createSites();
+		sites.add( createSite( new File( "F.tif" ), new long[]{ 0, 20 }, new int[]{ 30, 10 }, "s5", "A01" ) );
+
+		assertCreateFails( sites );
+	}
+
+	@Test
+	public void negativePosition()
+	{
+		try
+		{
+			new SiteTable( new ArrayList<>(), new int[]{ 0 }, new String[]{ "s0" }, new String[]{ "A01" }, new int[]{ 0 }, new int[]{ -1 } );
+			fail( "no exception for a negative position" );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void wells()
+	{
+		final SiteTable siteTable = SiteTable.create( createSites() );
+
+		assertEquals( Arrays.asList( "B01", "A01", "C01" ), siteTable.getWellNames() );
+		assertEquals( 3, siteTable.getNumWells() );
+
+		final int[] expectedWellIds = new int[]{ 0, 1, 0, 2, 2, 1 };
+		for ( int i = 0; i < SITES.length; i++ )
+			assertEquals( expectedWellIds[ i ], siteTable.getWellId( i ) );
+
+		// a copy
+		siteTable.getWellNames().clear();
+		assertEquals( 3, siteTable.getWellNames().size() );
+	}
+
+	@Test
+	public void indexAtPosition()
+	{
+		final SiteTable siteTable = SiteTable.create( createSites() );
+
+		assertArrayEquals( new int[]{ 4, 3 }, siteTable.getGridSize() );
+
+		for ( int y = -1; y <= 3; y++ )
+			for ( int x = -1; x <= 4; x++ )
+			{
+				int expected = -1;
+				for ( int i = SITES.length - 1; i >= 0; i-- )
+					if ( SITES[ i ][ 0 ].equals( x ) && SITES[ i ][ 1 ].equals( y ) )
+						expected = i;
+
+				assertEquals( "at " + x + ", " + y, expected, siteTable.getIndex( x, y ) );
+			}
+
+		// the first of the two sites at the position
+		assertEquals( 2, siteTable.getIndex( 3, 2 ) );
+	}
+
+	@Test
+	public void indexByName()
+	{
+		final SiteTable siteTable = SiteTable.create( createSites() );
+
+		// the first of the two sites with the name
+		assertEquals( 1, siteTable.getIndex( "s0" ) );
+		assertEquals( 0, siteTable.getIndex( "s1" ) );
+		assertEquals( 4, siteTable.getIndex( "s4" ) );
+
+		assertEquals( -1, siteTable.getIndex( "s5" ) );
+		assertEquals( -1, siteTable.getIndex( "" ) );
+		assertEquals( -1, siteTable.getIndex( "a" ) );
+	}
+
+	@Test
+	public void intervals()
+	{
+		final SiteTable siteTable = SiteTable.create( createSites() );
+
+		final FinalInterval interval = siteTable.getInterval( 2, SITE_DIMENSIONS );
+		assertEquals( 90, interval.min( 0 ) );
+		assertEquals( 40, interval.min( 1 ) );
+		assertEquals( 119, interval.max( 0 ) );
+		assertEquals( 59, interval.max( 1 ) );
+
+		assertArrayEquals( new long[]{ 120, 60 }, siteTable.getPlateDimensions( SITE_DIMENSIONS ) );
+
+		// a lower resolution level
+		final int[] siteDimensions = new int[]{ 15, 10 };
+		final FinalInterval lowResolutionInterval = siteTable.getInterval( 2, siteDimensions );
+		assertEquals( 45, lowResolutionInterval.min( 0 ) );
+		assertEquals( 20, lowResolutionInterval.min( 1 ) );
+		assertEquals( 59, lowResolutionInterval.max( 0 ) );
+		assertEquals( 29, lowResolutionInterval.max( 1 ) );
+
+		assertArrayEquals( new long[]{ 60, 30 }, siteTable.getPlateDimensions( siteDimensions ) );
+	}
+
+	@Test
+	public void sites()
+	{
+		final List< SingleSiteChannelFile > expected = createSites();
+		final SiteTable siteTable = SiteTable.create( expected );
+
+		final ArrayList< SingleSiteChannelFile > sites = siteTable.getSites( SITE_DIMENSIONS, "/raw" );
+		assertEquals( expected.size(), sites.size() );
+
+		for ( int i = 0; i < sites.size(); i++ )
+		{
+			final SingleSiteChannelFile site = sites.get( i );
+			assertTrue( siteTable == site.getSiteTable() );
+			assertEquals( i, site.getIndex() );
+			assertEquals( "/raw", site.getHdf5DataSetName() );
+			assertEquals( expected.get( i ).getFile(), site.getFile() );
+			assertEquals( expected.get( i ).getSiteName(), site.getSiteName() );
+			assertEquals( expected.get( i ).getWellName(), site.getWellName() );
+			assertEquals( expected.get( i ).getInterval().min( 0 ), site.getInterval().min( 0 ) );
+			assertEquals( expected.get( i ).getInterval().min( 1 ), site.getInterval().min( 1 ) );
+			assertEquals( expected.get( i ).getInterval().max( 0 ), site.getInterval().max( 0 ) );
+			assertEquals( expected.get( i ).getInterval().max( 1 ), site.getInterval().max( 1 ) );
+
+			// sites are equal if they are the same site of the same table
+			assertEquals( site, siteTable.getSite( i, SITE_DIMENSIONS, "/raw" ) );
+			assertEquals( site.hashCode(), siteTable.getSite( i, SITE_DIMENSIONS, "/raw" ).hashCode() );
+		}
+	}
+
+	/**
+	 * Site information is stored per site, well information per well,
+	 * and shared by all objects of a site.
+	 */
+	@Test
+	public void information()
+	{
+		final SiteTable siteTable = SiteTable.create( createSites() );
+
+		assertEquals( "", siteTable.getSiteInformation( 0 ) );
+		assertEquals( "", siteTable.getWellInformation( 0 ) );
+
+		siteTable.getSite( 1, SITE_DIMENSIONS, null ).setSiteInformation( "in focus" );
+		siteTable.setWellInformation( 3, "treated" );
+
+		assertEquals( "in focus", siteTable.getSiteInformation( 1 ) );
+		assertEquals( "in focus", siteTable.getSite( 1, SITE_DIMENSIONS, null ).getSiteInformation() );
+		assertEquals( "", siteTable.getSiteInformation( 5 ) );
+
+		assertEquals( "treated", siteTable.getWellInformation( 3 ) );
+		assertEquals( "treated", siteTable.getSite( 4, SITE_DIMENSIONS, null ).getWellInformation() );
+		assertEquals( "", siteTable.getWellInformation( 0 ) );
+	}
+
+	private static void assertCreateFails( List< SingleSiteChannelFile > sites )
+	{
+		try
+		{
+			SiteTable.create( sites );
+			fail( "no exception for site " + sites.get( sites.size() - 1 ).getSiteName() );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+	private static List< SingleSiteChannelFile > createSites()
+	{
+		final List< SingleSiteChannelFile > sites = new ArrayList<>();
+
+		for ( Object[] site : SITES )
+		{
+			final long[] min = new long[]{ ( int ) site[ 0 ] * SITE_DIMENSIONS[ 0 ], ( int ) site[ 1 ] * SITE_DIMENSIONS[ 1 ] };
+			sites.add( createSite( new File( ( String ) site[ 2 ] ), min, SITE_DIMENSIONS, ( String ) site[ 3 ], ( String ) site[ 4 ] ) );
+		}
+
+		return sites;
+	}
+
+	private static SingleSiteChannelFile createSite( File file, long[] min, int[] dimensions, String siteName, String wellName )
+	{
+		final long[] max = new long[]{ min[ 0 ] + dimensions[ 0 ] - 1, min[ 1 ] + dimensions[ 1 ] - 1 };
+		return new SingleSiteChannelFile( file, new FinalInterval( min, max ), siteName, wellName );
+	}
+}
@@ -0,0 +1,58 @@
+import de.embl.cba.plateviewer.Utils;
+import de.embl.cba.plateviewer.channel.Channels;
+import de.embl.cba.plateviewer.channel.StreamedChannels;
+import de.embl.cba.plateviewer.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the channels that are parsed during the directory walk
+ * are the ones that parsing the sorted file list gives.
+ */
+public class TestStreamedChannels
+{
+	@Test
+	public void singleNamingScheme()
+	{
+		assertSameChannels( getResource( "SCANR-C2-S1-T1" ), 2 );
+		assertSameChannels( getResource( "ALMF-EMBL-ZeroBased-P2-S4-C2-T1" ), 2 );
+	}
+
+	/**
+	 * The files of all test plates, with several naming schemes.
+	 */
+	@Test
+	public void mixedNamingSchemes()
+	{
+		assertSameChannels( getResource( "SCANR-C2-S1-T1" ).getParentFile(), -1 );
+	}
+
+	private static void assertSameChannels( File directory, int expectedNumChannels )
+	{
+		final StreamedChannels streamedChannels = new StreamedChannels();
+		final List< File > files = FileUtils.getFileList( directory, ".*\\.(tif|tiff|jpg|h5)", true, streamedChannels, walkedDirectory -> {} );
+		assertTrue( files.size() > 0 );
+
+		final String namingScheme = Utils.getNamingScheme( files.get( 0 ) );
+		final List< String > expected = new ArrayList<>( Channels.getChannels( files, namingScheme ).keySet() );
+		final List< String > actual = new ArrayList<>( streamedChannels.getChannels( files, namingScheme ).keySet() );
+		Collections.sort( expected );
+		Collections.sort( actual );
+
+		assertEquals( expected, actual );
+		if ( expectedNumChannels >= 0 )
+			assertEquals( expectedNumChannels, actual.size() );
+	}
+
+	private static File getResource( String name )
+	{
+		return new File( TestStreamedChannels.class.getResource( name ).getFile() );
+	}
+}
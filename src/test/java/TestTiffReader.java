@@ -0,0 +1,622 @@
+import de.embl.cba.plateviewer.io.TiffInfo;
+import de.embl.cba.plateviewer.io.TiffReader;
+import ij.IJ;
+import ij.ImagePlus;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes TIFF files with {@link TiffReader} and compares the pixels with
+ * the ones that were written and with the ones that ImageJ decodes.
+ *
+ * The files are written by the test, with the compressions, predictor and
+ * layouts that the reader supports. ImageJ does not read tiled files, thus
+ * those are only compared with the written pixels.
+ */
+public class TestTiffReader
+{
+	private static final int WIDTH = 203;
+	private static final int HEIGHT = 157;
+
+	private static final int COMPRESSION_NONE = TiffInfo.COMPRESSION_NONE;
+	private static final int COMPRESSION_LZW = TiffInfo.COMPRESSION_LZW;
+	private static final int COMPRESSION_DEFLATE = TiffInfo.COMPRESSION_DEFLATE;
+	private static final int COMPRESSION_PACKBITS = TiffInfo.COMPRESSION_PACKBITS;
+
+	/**
+	 * x, y, width and height: within one strip or tile, across several,
+	 * at the far corner and partly outside of the image.
+	 */
+	private static final int[][] REGIONS = new int[][]{
+			{ 3, 2, 20, 5 },
+			{ 40, 20, 100, 90 },
+			{ WIDTH - 13, HEIGHT - 11, 13, 11 },
+			{ WIDTH - 5, 150, 10, 10 } };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void uncompressedStrips() throws IOException
+	{
+		final short[] pixels = createShorts();
+		final File file = write( "uncompressed.tif", pixels, ByteOrder.LITTLE_ENDIAN, COMPRESSION_NONE, false, 0, 7 );
+
+		assertDecodes( file, pixels, true );
+	}
+
+	@Test
+	public void uncompressedBigEndian() throws IOException
+	{
+		final short[] pixels = createShorts();
+		final File file = write( "uncompressed-big-endian.tif", pixels, ByteOrder.BIG_ENDIAN, COMPRESSION_NONE, false, 0, HEIGHT );
+
+		assertDecodes( file, pixels, true );
+	}
+
+	@Test
+	public void lzw() throws IOException
+	{
+		final byte[] pixels = createBytes();
+		final File file = write( "lzw.tif", pixels, ByteOrder.BIG_ENDIAN, COMPRESSION_LZW, false, 0, 64 );
+
+		assertDecodes( file, pixels, true );
+	}
+
+	/**
+	 * The strips are long enough for the code table to be cleared.
+	 */
+	@Test
+	public void lzwPredictor() throws IOException
+	{
+		final short[] pixels = createShorts();
+		final File file = write( "lzw-predictor.tif", pixels, ByteOrder.LITTLE_ENDIAN, COMPRESSION_LZW, true, 0, 100 );
+
+		assertDecodes( file, pixels, true );
+	}
+
+	@Test
+	public void deflatePredictor() throws IOException
+	{
+		final short[] pixels = createShorts();
+		final File file = write( "deflate-predictor.tif", pixels, ByteOrder.BIG_ENDIAN, COMPRESSION_DEFLATE, true, 0, 16 );
+
+		assertDecodes( file, pixels, true );
+	}
+
+	@Test
+	public void deflateFloat() throws IOException
+	{
+		final float[] pixels = createFloats();
+		final File file = write( "deflate-float.tif", pixels, ByteOrder.LITTLE_ENDIAN, COMPRESSION_DEFLATE, false, 0, 10 );
+
+		assertDecodes( file, pixels, true );
+	}
+
+	@Test
+	public void packBits() throws IOException
+	{
+		final byte[] pixels = createBytes();
+		final File file = write( "packbits.tif", pixels, ByteOrder.LITTLE_ENDIAN, COMPRESSION_PACKBITS, false, 0, 9 );
+
+		assertDecodes( file, pixels, true );
+	}
+
+	@Test
+	public void uncompressedTiles() throws IOException
+	{
+		final short[] pixels = createShorts();
+		final File file = write( "tiles.tif", pixels, ByteOrder.LITTLE_ENDIAN, COMPRESSION_NONE, false, 48, 32 );
+
+		assertDecodes( file, pixels, false );
+	}
+
+	@Test
+	public void lzwPredictorTiles() throws IOException
+	{
+		final short[] pixels = createShorts();
+		final File file = write( "lzw-predictor-tiles.tif", pixels, ByteOrder.BIG_ENDIAN, COMPRESSION_LZW, true, 64, 16 );
+
+		assertDecodes( file, pixels, false );
+	}
+
+	@Test
+	public void deflateTiles() throws IOException
+	{
+		final byte[] pixels = createBytes();
+		final File file = write( "deflate-tiles.tif", pixels, ByteOrder.LITTLE_ENDIAN, COMPRESSION_DEFLATE, false, 32, 32 );
+
+		assertDecodes( file, pixels, false );
+	}
+
+	/**
+	 * The TIFF files of the test plates, as written by the microscopes.
+	 */
+	@Test
+	public void testPlates() throws IOException
+	{
+		final File resources = new File( TestTiffReader.class.getResource( "SCANR-C2-S1-T1" ).getFile() ).getParentFile();
+
+		final List< Path > paths;
+		try ( Stream< Path > walk = Files.walk( resources.toPath() ) )
+		{
+			paths = walk.filter( path -> path.toString().endsWith( ".tif" ) ).collect( Collectors.toList() );
+		}
+
+		int numCompared = 0;
+
+		for ( Path path : paths )
+		{
+			final TiffInfo info = readInfo( path.toFile() );
+			final Object pixels = createArray( info );
+			if ( pixels == null || ! info.isSupported( pixels ) ) continue;
+
+			read( path.toFile(), info, pixels, 0, 0, info.getWidth(), info.getHeight() );
+			assertSameAsImageJ( path.toFile(), pixels );
+			numCompared++;
+		}
+
+		assertTrue( numCompared > 0 );
+	}
+
+	private static void assertDecodes( File file, Object pixels, boolean compareWithImageJ ) throws IOException
+	{
+		final TiffInfo info = readInfo( file );
+		assertEquals( WIDTH, info.getWidth() );
+		assertEquals( HEIGHT, info.getHeight() );
+		assertTrue( info.isSupported( pixels ) );
+
+		final Object decoded = Array.newInstance( pixels.getClass().getComponentType(), WIDTH * HEIGHT );
+		read( file, info, decoded, 0, 0, WIDTH, HEIGHT );
+		assertSameArray( file.getName(), pixels, decoded );
+
+		for ( int[] region : REGIONS )
+		{
+			final Object decodedRegion = Array.newInstance( pixels.getClass().getComponentType(), region[ 2 ] * region[ 3 ] );
+			read( file, info, decodedRegion, region[ 0 ], region[ 1 ], region[ 2 ], region[ 3 ] );
+			assertSameArray( file.getName(), getRegion( pixels, region ), decodedRegion );
+		}
+
+		if ( compareWithImageJ )
+			assertSameAsImageJ( file, decoded );
+	}
+
+	private static void assertSameAsImageJ( File file, Object pixels )
+	{
+		final ImagePlus imagePlus = IJ.openImage( file.getAbsolutePath() );
+		assertSameArray( file.getName() + " (ImageJ)", imagePlus.getStack().getProcessor( 1 ).getPixels(), pixels );
+	}
+
+	private static void assertSameArray( String message, Object expected, Object actual )
+	{
+		if ( expected instanceof byte[] )
+			assertArrayEquals( message, ( byte[] ) expected, ( byte[] ) actual );
+		else if ( expected instanceof short[] )
+			assertArrayEquals( message, ( short[] ) expected, ( short[] ) actual );
+		else
+			assertArrayEquals( message, ( float[] ) expected, ( float[] ) actual, 0 );
+	}
+
+	private static TiffInfo readInfo( File file ) throws IOException
+	{
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			return TiffReader.readInfo( channel );
+		}
+	}
+
+	private static void read( File file, TiffInfo info, Object target, int x, int y, int width, int height ) throws IOException
+	{
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			TiffReader.readRegion( channel, info, target, x, y, width, height );
+		}
+	}
+
+	private static Object createArray( TiffInfo info )
+	{
+		final int numPixels = info.getWidth() * info.getHeight();
+
+		switch ( info.getBitDepth() )
+		{
+			case 8: return new byte[ numPixels ];
+			case 16: return new short[ numPixels ];
+			case 32: return new float[ numPixels ];
+			default: return null;
+		}
+	}
+
+	/**
+	 * @return the pixels of the region, 0 outside of the image, like {@link TiffReader} leaves them
+	 */
+	private static Object getRegion( Object pixels, int[] region )
+	{
+		final Object values = Array.newInstance( pixels.getClass().getComponentType(), region[ 2 ] * region[ 3 ] );
+
+		for ( int y = 0; y < region[ 3 ]; y++ )
+		{
+			final int width = Math.min( region[ 2 ], WIDTH - region[ 0 ] );
+			if ( region[ 1 ] + y >= HEIGHT ) break;
+			System.arraycopy( pixels, ( region[ 1 ] + y ) * WIDTH + region[ 0 ], values, y * region[ 2 ], width );
+		}
+
+		return values;
+	}
+
+	/**
+	 * Gradients, with constant runs, and noise, such that all
+	 * compressions have repetitions as well as unique values.
+	 */
+	private static short[] createShorts()
+	{
+		final Random random = new Random( 42 );
+		final short[] pixels = new short[ WIDTH * HEIGHT ];
+		for ( int y = 0; y < HEIGHT; y++ )
+			for ( int x = 0; x < WIDTH; x++ )
+				pixels[ y * WIDTH + x ] = ( short ) ( 40000 + 97 * ( x / 8 ) + 13 * y + ( y % 3 == 0 ? random.nextInt( 3000 ) : 0 ) );
+		return pixels;
+	}
+
+	private static byte[] createBytes()
+	{
+		final Random random = new Random( 43 );
+		final byte[] pixels = new byte[ WIDTH * HEIGHT ];
+		for ( int y = 0; y < HEIGHT; y++ )
+			for ( int x = 0; x < WIDTH; x++ )
+				pixels[ y * WIDTH + x ] = ( byte ) ( x / 5 + 2 * y + ( y % 4 == 1 ? random.nextInt( 40 ) : 0 ) );
+		return pixels;
+	}
+
+	private static float[] createFloats()
+	{
+		final Random random = new Random( 44 );
+		final float[] pixels = new float[ WIDTH * HEIGHT ];
+		for ( int i = 0; i < pixels.length; i++ )
+			pixels[ i ] = ( float ) ( Math.sin( i * 0.01 ) * 1000 + random.nextGaussian() );
+		return pixels;
+	}
+
+	/**
+	 * Writes the pixels as a classic TIFF file, with one sample per pixel.
+	 *
+	 * @param tileWidth
+	 * 				0 for strips
+	 * @param tileHeight
+	 * 				the tile height, or the rows per strip
+	 */
+	private File write( String fileName, Object pixels, ByteOrder order, int compression, boolean predictor, int tileWidth, int tileHeight ) throws IOException
+	{
+		final int bytesPerPixel = getBytesPerPixel( pixels );
+		final boolean tiled = tileWidth > 0;
+		final int chunkWidth = tiled ? tileWidth : WIDTH;
+		final int chunksAcross = ( WIDTH + chunkWidth - 1 ) / chunkWidth;
+		final int chunksDown = ( HEIGHT + tileHeight - 1 ) / tileHeight;
+
+		final List< byte[] > chunks = new ArrayList<>();
+
+		for ( int chunkY = 0; chunkY < chunksDown; chunkY++ )
+		{
+			for ( int chunkX = 0; chunkX < chunksAcross; chunkX++ )
+			{
+				// tiles are padded, the last strip is not
+				final int rows = tiled ? tileHeight : Math.min( tileHeight, HEIGHT - chunkY * tileHeight );
+				final ByteBuffer chunk = ByteBuffer.allocate( rows * chunkWidth * bytesPerPixel ).order( order );
+
+				for ( int row = 0; row < rows; row++ )
+				{
+					for ( int col = 0; col < chunkWidth; col++ )
+					{
+						final int x = chunkX * chunkWidth + col;
+						final int y = chunkY * tileHeight + row;
+						if ( x >= WIDTH || y >= HEIGHT ) continue;
+
+						final int index = ( row * chunkWidth + col ) * bytesPerPixel;
+						final int pixelIndex = y * WIDTH + x;
+
+						if ( pixels instanceof byte[] )
+							chunk.put( index, ( ( byte[] ) pixels )[ pixelIndex ] );
+						else if ( pixels instanceof short[] )
+							chunk.putShort( index, ( ( short[] ) pixels )[ pixelIndex ] );
+						else
+							chunk.putFloat( index, ( ( float[] ) pixels )[ pixelIndex ] );
+					}
+				}
+
+				if ( predictor )
+					applyHorizontalPredictor( chunk, rows, chunkWidth, bytesPerPixel );
+
+				chunks.add( compress( compression, chunk.array() ) );
+			}
+		}
+
+		final TreeMap< Integer, long[] > entries = new TreeMap<>();
+		entries.put( 256, new long[]{ WIDTH } );
+		entries.put( 257, new long[]{ HEIGHT } );
+		entries.put( 258, new long[]{ 8 * bytesPerPixel } );
+		entries.put( 259, new long[]{ compression } );
+		entries.put( 262, new long[]{ 1 } );
+		entries.put( 277, new long[]{ 1 } );
+		entries.put( 339, new long[]{ pixels instanceof float[] ? TiffInfo.SAMPLE_FORMAT_FLOAT : TiffInfo.SAMPLE_FORMAT_UINT } );
+		if ( predictor ) entries.put( 317, new long[]{ 2 } );
+
+		final long[] offsets = new long[ chunks.size() ];
+		final long[] byteCounts = new long[ chunks.size() ];
+		long offset = 8;
+		for ( int i = 0; i < chunks.size(); i++ )
+		{
+			offsets[ i ] = offset;
+			byteCounts[ i ] = chunks.get( i ).length;
+			offset += byteCounts[ i ];
+		}
+
+		if ( tiled )
+		{
+			entries.put( 322, new long[]{ tileWidth } );
+			entries.put( 323, new long[]{ tileHeight } );
+			entries.put( 324, offsets );
+			entries.put( 325, byteCounts );
+		}
+		else
+		{
+			entries.put( 273, offsets );
+			entries.put( 278, new long[]{ tileHeight } );
+			entries.put( 279, byteCounts );
+		}
+
+		final long ifdOffset = offset + ( offset % 2 );
+		long valuesOffset = ifdOffset + 2 + 12 * entries.size() + 4;
+
+		final ByteBuffer ifd = ByteBuffer.allocate( ( int ) ( valuesOffset - ifdOffset ) ).order( order );
+		final ByteBuffer values = ByteBuffer.allocate( 8 * 4 * chunks.size() ).order( order );
+
+		ifd.putShort( ( short ) entries.size() );
+		for ( Map.Entry< Integer, long[] > entry : entries.entrySet() )
+		{
+			final long[] entryValues = entry.getValue();
+
+			// a short for the single values, a long for the offsets and byte counts
+			final boolean isShort = entryValues.length == 1 && entryValues[ 0 ] < 65536 && entry.getKey() != 273 && entry.getKey() != 324;
+
+			ifd.putShort( ( short ) ( int ) entry.getKey() );
+			ifd.putShort( ( short ) ( isShort ? 3 : 4 ) );
+			ifd.putInt( entryValues.length );
+
+			if ( isShort )
+			{
+				ifd.putShort( ( short ) entryValues[ 0 ] );
+				ifd.putShort( ( short ) 0 );
+			}
+			else if ( entryValues.length == 1 )
+			{
+				ifd.putInt( ( int ) entryValues[ 0 ] );
+			}
+			else
+			{
+				ifd.putInt( ( int ) ( valuesOffset + values.position() ) );
+				for ( long value : entryValues )
+					values.putInt( ( int ) value );
+			}
+		}
+		ifd.putInt( 0 );
+
+		final ByteBuffer header = ByteBuffer.allocate( 8 ).order( order );
+		header.put( ( byte ) ( order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M' ) );
+		header.put( ( byte ) ( order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M' ) );
+		header.putShort( ( short ) 42 );
+		header.putInt( ( int ) ifdOffset );
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write( header.array() );
+		for ( byte[] chunk : chunks )
+			bytes.write( chunk );
+		if ( offset % 2 == 1 ) bytes.write( 0 );
+		bytes.write( ifd.array() );
+		bytes.write( values.array(), 0, values.position() );
+
+		final File file = new File( folder.getRoot(), fileName );
+		Files.write( file.toPath(), bytes.toByteArray() );
+		return file;
+	}
+
+	private static int getBytesPerPixel( Object pixels )
+	{
+		if ( pixels instanceof byte[] ) return 1;
+		if ( pixels instanceof short[] ) return 2;
+		return 4;
+	}
+
+	/**
+	 * Replaces each sample but the first of a row by its difference to the previous one.
+	 */
+	private static void applyHorizontalPredictor( ByteBuffer chunk, int rows, int width, int bytesPerSample )
+	{
+		for ( int row = 0; row < rows; row++ )
+		{
+			for ( int col = width - 1; col > 0; col-- )
+			{
+				final int index = ( row * width + col ) * bytesPerSample;
+				final int previous = index - bytesPerSample;
+
+				switch ( bytesPerSample )
+				{
+					case 1:
+						chunk.put( index, ( byte ) ( chunk.get( index ) - chunk.get( previous ) ) );
+						break;
+					case 2:
+						chunk.putShort( index, ( short ) ( chunk.getShort( index ) - chunk.getShort( previous ) ) );
+						break;
+					default:
+						chunk.putInt( index, chunk.getInt( index ) - chunk.getInt( previous ) );
+				}
+			}
+		}
+	}
+
+	private static byte[] compress( int compression, byte[] raw )
+	{
+		switch ( compression )
+		{
+			case COMPRESSION_LZW: return lzwEncode( raw );
+			case COMPRESSION_DEFLATE: return deflate( raw );
+			case COMPRESSION_PACKBITS: return packBitsEncode( raw );
+			default: return raw;
+		}
+	}
+
+	private static byte[] deflate( byte[] raw )
+	{
+		final Deflater deflater = new Deflater();
+		deflater.setInput( raw );
+		deflater.finish();
+
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[ 4096 ];
+		while ( ! deflater.finished() )
+			compressed.write( buffer, 0, deflater.deflate( buffer ) );
+
+		deflater.end();
+		return compressed.toByteArray();
+	}
+
+	private static byte[] packBitsEncode( byte[] raw )
+	{
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+		int i = 0;
+		while ( i < raw.length )
+		{
+			int run = 1;
+			while ( i + run < raw.length && run < 128 && raw[ i + run ] == raw[ i ] )
+				run++;
+
+			if ( run >= 3 )
+			{
+				compressed.write( 1 - run );
+				compressed.write( raw[ i ] );
+				i += run;
+				continue;
+			}
+
+			// literals, up to the next run of three
+			final int start = i;
+			while ( i < raw.length && i - start < 128
+					&& ! ( i + 2 < raw.length && raw[ i ] == raw[ i + 1 ] && raw[ i ] == raw[ i + 2 ] ) )
+				i++;
+
+			compressed.write( i - start - 1 );
+			compressed.write( raw, start, i - start );
+		}
+
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * TIFF flavour of LZW: codes are written most significant bit first,
+	 * and the code width grows one code early.
+	 */
+	private static byte[] lzwEncode( byte[] raw )
+	{
+		final int clearCode = 256;
+		final int endOfInformation = 257;
+
+		final BitWriter writer = new BitWriter();
+		final Map< Integer, Integer > table = new HashMap<>();
+
+		int codeWidth = 9;
+		int nextCode = 258;
+		writer.write( clearCode, codeWidth );
+
+		int code = raw[ 0 ] & 0xFF;
+
+		for ( int i = 1; i < raw.length; i++ )
+		{
+			final int value = raw[ i ] & 0xFF;
+			final Integer extended = table.get( ( code << 8 ) | value );
+
+			if ( extended != null )
+			{
+				code = extended;
+				continue;
+			}
+
+			writer.write( code, codeWidth );
+			table.put( ( code << 8 ) | value, nextCode++ );
+
+			if ( nextCode == 4094 )
+			{
+				writer.write( clearCode, codeWidth );
+				table.clear();
+				nextCode = 258;
+				codeWidth = 9;
+			}
+			else if ( nextCode == ( 1 << codeWidth ) )
+			{
+				codeWidth++;
+			}
+
+			code = value;
+		}
+
+		writer.write( code, codeWidth );
+
+		// the decoder adds a code for the last one, too
+		if ( ++nextCode == ( 1 << codeWidth ) )
+			codeWidth++;
+
+		writer.write( endOfInformation, codeWidth );
+
+		return writer.toByteArray();
+	}
+
+	private static class BitWriter
+	{
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private long buffer;
+		private int numBits;
+
+		void write( int code, int width )
+		{
+			buffer = ( buffer << width ) | code;
+			numBits += width;
+
+			while ( numBits >= 8 )
+			{
+				bytes.write( ( int ) ( buffer >>> ( numBits - 8 ) ) );
+				numBits -= 8;
+			}
+		}
+
+		byte[] toByteArray()
+		{
+			if ( numBits > 0 )
+				bytes.write( ( int ) ( buffer << ( 8 - numBits ) ) );
+
+			return bytes.toByteArray();
+		}
+	}
+}